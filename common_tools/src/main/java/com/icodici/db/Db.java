@@ -75,6 +75,13 @@ public class Db implements Cloneable, AutoCloseable {
         return connection == null;
     }
 
+    /**
+     * @return true if the connection is inside {@link #transaction(Callable)} call
+     */
+    public boolean isInTransaction() {
+        return isInTransaction;
+    }
+
     @Override
     protected void finalize() throws Throwable {
         close();
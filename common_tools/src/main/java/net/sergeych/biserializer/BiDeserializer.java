@@ -9,11 +9,11 @@ package net.sergeych.biserializer;
 
 import org.checkerframework.checker.nullness.qual.NonNull;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Stack;
-import java.util.stream.Collectors;
 
 /**
  * Binder deserializer. Provides deserializing objects prepared by {@link BiSerializer}. Provides deserialization
@@ -70,9 +70,10 @@ public class BiDeserializer {
      * @return
      */
     public <T> List<T> deserializeCollection(Collection<?> collection) {
-        return collection.stream()
-                .map(x -> (T) mapper.deserializeObject(x, this))
-                .collect(Collectors.toList());
+        List<T> result = new ArrayList<>(collection.size());
+        for (Object x : collection)
+            result.add(mapper.deserializeObject(x, this));
+        return result;
     }
 
     /**
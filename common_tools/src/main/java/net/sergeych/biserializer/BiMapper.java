@@ -11,12 +11,9 @@ import net.sergeych.tools.Binder;
 import net.sergeych.utils.Bytes;
 import org.checkerframework.checker.nullness.qual.NonNull;
 
+import java.nio.ByteBuffer;
 import java.time.ZonedDateTime;
-import java.util.Arrays;
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.*;
 
 /**
  * Mapper allows sny object types to have registered procedures to de/serialize self to the Map structures, e.g.
@@ -34,8 +31,12 @@ import java.util.stream.Collectors;
  * serializer, so your serialization code must do its best to properly reconstruct links in your object tree.
  */
 public class BiMapper {
-    private HashMap<String, BiAdapter> adapters = new HashMap<String, BiAdapter>();
-    private int revision = 0;
+
+    /**
+     * Current set of adapters. It is never changed: registration builds a new registry and replaces it, so lookups
+     * need no locking and always see a consistent set.
+     */
+    private volatile Registry registry = new Registry(new HashMap<>(), 0);
 
     /**
      * Create empty mapper, knowing nothing about serialization. Populate it with {@link #registerAdapter(Class,
@@ -51,7 +52,7 @@ public class BiMapper {
      * @param parent mapper to copy serialization information from
      */
     public BiMapper(BiMapper parent) {
-        adapters.putAll(parent.adapters);
+        registry = new Registry(new HashMap<>(parent.registry.adapters), 0);
     }
 
     /**
@@ -62,6 +63,7 @@ public class BiMapper {
      * @param deserializer to use to deserialize map values
      */
     public void deserializeInPlace(Map map, BiDeserializer deserializer) {
+        Map<String, BiAdapter> adapters = registry.adapters;
         map.forEach((key, value) -> {
             if (value instanceof Map) {
                 String typeName = (String) ((Map) value).get("__type");
@@ -76,11 +78,11 @@ public class BiMapper {
                     }
                 }
             } else if (value instanceof Collection) {
-                map.put(key,
-                        ((Collection) value).stream()
-                                .map(x -> deserializer.deserialize(x))
-                                .collect(Collectors.toList())
-                );
+                Collection source = (Collection) value;
+                List result = new ArrayList(source.size());
+                for (Object x : source)
+                    result.add(deserializer.deserialize(x));
+                map.put(key, result);
             }
         });
     }
@@ -101,7 +103,7 @@ public class BiMapper {
         if (typeName == null)
             typeName = (String) map.get("__t");
         if (typeName != null) {
-            BiAdapter adapter = adapters.get(typeName);
+            BiAdapter adapter = registry.adapters.get(typeName);
             if (adapter != null) {
                 return (T) adapter.deserialize(Binder.from(map), deserializer);
             }
@@ -142,14 +144,16 @@ public class BiMapper {
      */
     public <T> T deserializeObject(Object obj, BiDeserializer deserializer) {
         if (obj instanceof String || obj instanceof Number || obj instanceof Boolean
-                || obj instanceof ZonedDateTime || obj instanceof Bytes || obj == null)
+                || obj instanceof ZonedDateTime || obj instanceof Bytes || obj instanceof ByteBuffer || obj == null)
             return (T) obj;
         if (obj instanceof Map)
             return deserialize((Map) obj, deserializer);
         if (obj instanceof Collection) {
-            return (T) ((Collection) obj).stream()
-                    .map(x -> deserializeObject(x))
-                    .collect(Collectors.toList());
+            Collection source = (Collection) obj;
+            List result = new ArrayList(source.size());
+            for (Object x : source)
+                result.add(deserializeObject(x));
+            return (T) result;
         }
         throw new IllegalArgumentException("don't know how to deserealize " + obj.getClass().getCanonicalName());
     }
@@ -175,14 +179,14 @@ public class BiMapper {
             x = Arrays.asList((Object[]) x);
         }
         if (x instanceof Collection) {
-            return (T) ((Collection) x).stream()
-                    .map(i -> serialize(i, serializer))
-                    .collect(Collectors.toList());
-
+            Collection source = (Collection) x;
+            List result = new ArrayList(source.size());
+            for (Object i : source)
+                result.add(serialize(i, serializer));
+            return (T) result;
         }
-        String canonicalName = klass.getCanonicalName();
-        BiAdapter adapter = adapters.get(canonicalName);
-        if (adapter == null) {
+        ClassAdapter ca = registry.byClass.get(klass);
+        if (ca == null) {
             if (x instanceof Map) {
                 ((Map) x).replaceAll((k, v) -> serialize(v, serializer));
                 return (T) x;
@@ -191,9 +195,8 @@ public class BiMapper {
             return (T) x;
 //            throw new IllegalArgumentException("can't convert to binder " + canonicalName + ": " + x);
         }
-        Binder result = adapter.serialize(x, serializer);
-        String tn = adapter.typeName();
-        result.put("__type", tn != null ? tn : canonicalName);
+        Binder result = ca.adapter.serialize(x, serializer);
+        result.put("__type", ca.typeName);
         return (T) result;
     }
 
@@ -205,16 +208,19 @@ public class BiMapper {
     }
 
     public <T> void registerAdapter(Class<T> klass, BiAdapter adapter) {
-        adapters.put(klass.getCanonicalName(), adapter);
-        String typeName = adapter.typeName();
-        if (typeName != null)
-            adapters.put(typeName, adapter);
-        revision++;
+        synchronized (this) {
+            Map<String, BiAdapter> adapters = new HashMap<>(registry.adapters);
+            adapters.put(klass.getCanonicalName(), adapter);
+            String typeName = adapter.typeName();
+            if (typeName != null)
+                adapters.put(typeName, adapter);
+            registry = new Registry(adapters, registry.revision + 1);
+        }
         BossBiMapper.recalculateMapper();
     }
 
     int getRevision() {
-        return revision;
+        return registry.revision;
     }
 
     /**
@@ -225,16 +231,17 @@ public class BiMapper {
      * @return true if the class was registered before, wither as {@link BiSerializable} class or with {@link
      *         BiAdapter}.
      */
-    public boolean unregister(Class klass) {
+    public synchronized boolean unregister(Class klass) {
         String key = klass.getCanonicalName();
-        BiAdapter a = adapters.get(key);
+        BiAdapter a = registry.adapters.get(key);
         if (a == null)
             return false;
+        Map<String, BiAdapter> adapters = new HashMap<>(registry.adapters);
         adapters.remove(key);
         key = a.typeName();
         if (key != null)
             adapters.remove(key);
-        revision++;
+        registry = new Registry(adapters, registry.revision + 1);
         return true;
     }
 
@@ -262,4 +269,43 @@ public class BiMapper {
     public BiDeserializer newDeserializer() {
         return new BiDeserializer(this);
     }
-}
\ No newline at end of file
+
+    /**
+     * Adapter found for a class, with the type name to put into its serialized form.
+     */
+    private static final class ClassAdapter {
+        private final BiAdapter adapter;
+        private final String typeName;
+
+        private ClassAdapter(BiAdapter adapter, String typeName) {
+            this.adapter = adapter;
+            this.typeName = typeName;
+        }
+    }
+
+    /**
+     * Immutable set of adapters by name with the per-class cache of lookups. Adapters are registered by canonical class
+     * name, so the cache saves building the name and the map lookup for every serialized object. The cache belongs to
+     * the registry, so it is dropped with it when adapters change.
+     */
+    private static final class Registry {
+        private final Map<String, BiAdapter> adapters;
+        private final int revision;
+        private final ClassValue<ClassAdapter> byClass = new ClassValue<ClassAdapter>() {
+            @Override
+            protected ClassAdapter computeValue(Class<?> type) {
+                String canonicalName = type.getCanonicalName();
+                BiAdapter adapter = adapters.get(canonicalName);
+                if (adapter == null)
+                    return null;
+                String tn = adapter.typeName();
+                return new ClassAdapter(adapter, tn != null ? tn : canonicalName);
+            }
+        };
+
+        private Registry(Map<String, BiAdapter> adapters, int revision) {
+            this.adapters = adapters;
+            this.revision = revision;
+        }
+    }
+}
@@ -34,7 +34,7 @@ public class BossBiMapper {
         new BiDeserializer(getInstance()).deserializeInPlace(map);
     }
 
-    private static BiMapper mapper = null;
+    private static volatile BiMapper mapper = null;
     private static int lastRevision = 0;
 
     static {
@@ -45,7 +45,7 @@ public class BossBiMapper {
         return mapper;
     }
 
-    public static void recalculateMapper() {
+    public static synchronized void recalculateMapper() {
         BiMapper full = DefaultBiMapper.getInstance();
         if (mapper == null || lastRevision < full.getRevision()) {
             BiMapper m = new BiMapper(full);
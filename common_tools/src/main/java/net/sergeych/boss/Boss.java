@@ -20,7 +20,9 @@ import net.sergeych.utils.Bytes;
 
 import java.io.*;
 import java.math.BigInteger;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
@@ -111,6 +113,17 @@ public class Boss {
     static private final int XT_TIME = 15;
     static private final int XT_STREAM_MODE = 16;
 
+    /**
+     * Pooled output buffers larger than that are not kept after use.
+     */
+    static private final int MAX_POOLED_BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * Per-thread output buffer for {@link #dumpToArray(Object, Object...)}, so packing does not start from a small
+     * buffer each time.
+     */
+    static private final ThreadLocal<Output> pooledOutput = ThreadLocal.withInitial(() -> new Output(4096));
+
     // static private final int TOBJECT = 8; // object record
     // TMETHOD = 9; // instance method
     // TFUNCTION = 10; // callable function
@@ -139,16 +152,26 @@ public class Boss {
      * @return binary data as plain array
      */
     public static byte[] dumpToArray(Object first, Object... objects) {
+        Output out = pooledOutput.get();
+        boolean pooled = !out.inUse;
+        // adapters could pack nested objects while the pooled buffer is busy
+        if (!pooled)
+            out = new Output(256);
+        out.inUse = true;
         try {
-            ByteArrayOutputStream bos = new ByteArrayOutputStream();
-            Writer w = new Writer(bos);
+            Writer w = new Writer(out);
             w.writeObject(first);
             for (Object o : objects)
                 w.writeObject(o);
-            w.close();
-            return bos.toByteArray();
+            return out.toByteArray();
         } catch (IOException ex) {
             throw new IllegalArgumentException("Boss can't dump this object", ex);
+        } finally {
+            out.inUse = false;
+            if (pooled && out.capacity() > MAX_POOLED_BUFFER_SIZE)
+                pooledOutput.remove();
+            else
+                out.reset();
         }
     }
 
@@ -177,7 +200,7 @@ public class Boss {
      */
     static public <T> T load(byte[] data) {
         try {
-            return (T) new Reader(new ByteArrayInputStream(data)).read();
+            return (T) new Reader(data).read();
         } catch (IOException e) {
             throw new IllegalArgumentException("Boss: can't parse data", e);
         }
@@ -185,7 +208,7 @@ public class Boss {
 
     static public <T> T load(byte[] data, BiDeserializer mapper) {
         try {
-            return (T) new Reader(new ByteArrayInputStream(data), mapper).read();
+            return (T) new Reader(data, mapper).read();
         } catch (IOException e) {
             throw new IllegalArgumentException("Boss: can't parse data", e);
         }
@@ -286,8 +309,9 @@ public class Boss {
     static public class Writer {
 
         private OutputStream out;
-        private HashMap<Object, Integer> cache;
+        private Map<Object, Integer> cache;
         private boolean treeMode;
+        private boolean identityCache = false;
         private final BiSerializer biSerializer;
 
         /**
@@ -313,7 +337,53 @@ public class Boss {
         }
 
         public Writer() {
-            this(new ByteArrayOutputStream());
+            this(256);
+        }
+
+        /**
+         * Creates writer to the in-memory buffer, use {@link #toByteArray()} to get the result.
+         *
+         * @param initialCapacity expected size of the packed data, the buffer grows as need
+         */
+        public Writer(int initialCapacity) {
+            this(new Output(initialCapacity));
+        }
+
+        /**
+         * Creates writer that puts packed data into the buffer starting from its position. The position is moved as data
+         * are written. If the buffer has not enough space, {@link java.nio.BufferOverflowException} is thrown and the
+         * contents of the buffer after its position is undefined.
+         *
+         * @param target       buffer to write to
+         * @param biSerializer to use, could be null to write only objects known to Boss
+         */
+        public Writer(ByteBuffer target, BiSerializer biSerializer) {
+            this(new BufferOutput(target), biSerializer);
+        }
+
+        public Writer(ByteBuffer target) {
+            this(target, BossBiMapper.newSerializer());
+        }
+
+        /**
+         * Find repeating objects by identity rather than with equals(). It saves deep hashing and comparison of maps,
+         * lists and binaries, but only the same instances are then written as references, so equal copies are packed
+         * again. Use it when the packed tree has no equal copies of the same data or the size does not matter. Should
+         * be set before anything is written.
+         *
+         * @param on true to use identity of objects for references
+         */
+        public void setIdentityCache(boolean on) {
+            if (cache.size() > 1)
+                throw new IllegalStateException("can't change cache mode after objects are written");
+            identityCache = on;
+            cache = newCache();
+        }
+
+        private Map<Object, Integer> newCache() {
+            Map<Object, Integer> result = identityCache ? new IdentityHashMap<>() : new HashMap<>();
+            result.put(null, 0);
+            return result;
         }
 
         static private int sizeInBytes(long value) {
@@ -337,8 +407,7 @@ public class Boss {
          * @throws IOException
          */
         public void setStreamMode() throws IOException {
-            cache = new HashMap<>();
-            cache.put(null, 0);
+            cache = newCache();
             treeMode = false;
             writeHeader(TYPE_EXTRA, XT_STREAM_MODE);
         }
@@ -419,17 +488,23 @@ public class Boss {
             }
             if (obj instanceof CharSequence) {
                 String s = obj.toString();
-                if (!tryWriteReference(s)) {
-                    Bytes bb = new Bytes(s);
-                    writeHeader(TYPE_TEXT, bb.size());
-                    out.write(bb.toArray());
-                }
+                if (!tryWriteReference(s))
+                    writeText(s);
                 return this;
             }
             if (obj instanceof Bytes)
                 obj = ((Bytes) obj).toArray();
             else if (obj instanceof ByteBuffer) {
-                obj = ((ByteBuffer) obj).array();
+                ByteBuffer b = (ByteBuffer) obj;
+                if (b.hasArray() && !b.isReadOnly() && b.arrayOffset() == 0 && b.position() == 0
+                        && b.remaining() == b.array().length)
+                    obj = b.array();
+                else {
+                    // slice of a bigger array or a read-only view
+                    byte[] data = new byte[b.remaining()];
+                    b.duplicate().get(data);
+                    obj = data;
+                }
             }
             if (obj instanceof byte[]) {
                 byte[] bb = (byte[]) obj;
@@ -475,6 +550,22 @@ public class Boss {
 //            return this;
         }
 
+        private void writeText(String s) throws IOException {
+            if (out instanceof Output) {
+                int length = utf8Length(s);
+                writeHeader(TYPE_TEXT, length);
+                ((Output) out).writeUtf8(s, length);
+            } else if (out instanceof BufferOutput) {
+                int length = utf8Length(s);
+                writeHeader(TYPE_TEXT, length);
+                ((BufferOutput) out).writeUtf8(s, length);
+            } else {
+                byte[] bb = s.getBytes(StandardCharsets.UTF_8);
+                writeHeader(TYPE_TEXT, bb.length);
+                out.write(bb);
+            }
+        }
+
         private void writeMap(Object obj) throws IOException {
             if (!tryWriteReference(obj)) {
                 Map<?, ?> map = (Map<?, ?>) obj;
@@ -574,6 +665,153 @@ public class Boss {
         }
     }
 
+    /**
+     * Size of the string in UTF-8 as {@link String#getBytes(java.nio.charset.Charset)} encodes it: unpaired surrogates
+     * are replaced with '?'.
+     */
+    static int utf8Length(String s) {
+        int n = s.length();
+        int length = n;
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80)
+                continue;
+            if (c < 0x800)
+                length++;
+            else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    // 2 chars to 4 bytes
+                    length += 2;
+                    i++;
+                }
+            } else
+                length += 2;
+        }
+        return length;
+    }
+
+    /**
+     * Encode the string to UTF-8 the same way as {@link #utf8Length(String)} counts it.
+     *
+     * @return position after the last written byte
+     */
+    static int encodeUtf8(String s, byte[] dst, int pos) {
+        int n = s.length();
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80)
+                dst[pos++] = (byte) c;
+            else if (c < 0x800) {
+                dst[pos++] = (byte) (0xC0 | (c >> 6));
+                dst[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    dst[pos++] = (byte) (0xF0 | (cp >> 18));
+                    dst[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                    dst[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    dst[pos++] = (byte) (0x80 | (cp & 0x3F));
+                } else
+                    dst[pos++] = '?';
+            } else {
+                dst[pos++] = (byte) (0xE0 | (c >> 12));
+                dst[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                dst[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * In-memory output of the {@link Writer}. Unlike its parent it is not synchronized, as the writer is not thread
+     * safe anyway, and encodes texts right into its buffer.
+     */
+    static final class Output extends ByteArrayOutputStream {
+
+        private boolean inUse;
+
+        Output(int size) {
+            super(size);
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > buf.length)
+                buf = Arrays.copyOf(buf, Math.max(capacity, buf.length << 1));
+        }
+
+        int capacity() {
+            return buf.length;
+        }
+
+        @Override
+        public void write(int b) {
+            ensureCapacity(count + 1);
+            buf[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            if (off < 0 || len < 0 || off + len > b.length)
+                throw new IndexOutOfBoundsException();
+            ensureCapacity(count + len);
+            System.arraycopy(b, off, buf, count, len);
+            count += len;
+        }
+
+        void writeUtf8(String s, int length) {
+            ensureCapacity(count + length);
+            count = encodeUtf8(s, buf, count);
+        }
+
+        @Override
+        public byte[] toByteArray() {
+            return Arrays.copyOf(buf, count);
+        }
+
+        @Override
+        public void reset() {
+            count = 0;
+        }
+
+        @Override
+        public int size() {
+            return count;
+        }
+    }
+
+    /**
+     * Output of the {@link Writer} to the caller's {@link ByteBuffer}.
+     */
+    static final class BufferOutput extends OutputStream {
+
+        private final ByteBuffer buffer;
+
+        BufferOutput(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void write(int b) {
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            buffer.put(b, off, len);
+        }
+
+        void writeUtf8(String s, int length) {
+            if (buffer.remaining() < length)
+                throw new BufferOverflowException();
+            if (buffer.hasArray()) {
+                int start = buffer.arrayOffset() + buffer.position();
+                encodeUtf8(s, buffer.array(), start);
+                buffer.position(buffer.position() + length);
+            } else
+                buffer.put(s.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
     // private static final Charset utf8 = Charset.forName("utf8");
 
     // private static void log(String s,Object... args) {
@@ -582,6 +820,14 @@ public class Boss {
     // System.out.println(s);
     // }
 
+    /**
+     * BOSS deserializer. Reads from an {@link InputStream} or directly from a byte array or a {@link ByteBuffer}. The
+     * latter is much faster as it does not go through the stream byte by byte and does not copy texts before decoding
+     * them, so prefer it when the whole packed data is already in memory.
+     * <p>
+     * When reading from an array or a buffer, binary fields could be returned as read-only {@link ByteBuffer} slices of
+     * the source instead of {@link Bytes} copies, see {@link #setBinarySlices(boolean)}.
+     */
     static public class Reader {
 
         protected InputStream in;
@@ -591,8 +837,70 @@ public class Boss {
         private int maxCacheEntries, maxStringSize;
         private final BiDeserializer deserializer;
 
+        // array source: data[pos..end)
+        private byte[] data;
+        private int pos, end;
+        // direct buffer source
+        private ByteBuffer buffer;
+        private boolean binarySlices = false;
+
+        // last read header, kept in fields to not allocate it for each object
+        private int headerCode;
+        private long headerValue;
+        private BigInteger headerBigValue;
+
         public Reader(byte[] bytes) {
-            this(new ByteArrayInputStream(bytes));
+            this(bytes, 0, bytes.length);
+        }
+
+        public Reader(byte[] bytes, BiDeserializer deserializer) {
+            this(bytes, 0, bytes.length, deserializer);
+        }
+
+        public Reader(byte[] bytes, int offset, int length) {
+            this(bytes, offset, length, BossBiMapper.newDeserializer());
+        }
+
+        /**
+         * Read from the part of the array. The array is not copied, so it should not be changed while read.
+         *
+         * @param bytes        source data
+         * @param offset       of the first byte to read
+         * @param length       number of bytes to read
+         * @param deserializer to use, could be null to get plain objects
+         */
+        public Reader(byte[] bytes, int offset, int length, BiDeserializer deserializer) {
+            if (offset < 0 || length < 0 || offset + length > bytes.length)
+                throw new IndexOutOfBoundsException("bad offset or length");
+            data = bytes;
+            pos = offset;
+            end = offset + length;
+            cache = new ArrayList<>();
+            treeMode = true;
+            this.deserializer = deserializer;
+        }
+
+        public Reader(ByteBuffer source) {
+            this(source, BossBiMapper.newDeserializer());
+        }
+
+        /**
+         * Read remaining bytes of the buffer. The buffer itself is not changed (a duplicate is read) and its contents is
+         * not copied, so it should not be changed while read.
+         *
+         * @param source       data to read
+         * @param deserializer to use, could be null to get plain objects
+         */
+        public Reader(ByteBuffer source, BiDeserializer deserializer) {
+            if (source.hasArray()) {
+                data = source.array();
+                pos = source.arrayOffset() + source.position();
+                end = source.arrayOffset() + source.limit();
+            } else
+                buffer = source.duplicate();
+            cache = new ArrayList<>();
+            treeMode = true;
+            this.deserializer = deserializer;
         }
 
         public Reader(InputStream stream, BiDeserializer deserializer) {
@@ -606,24 +914,58 @@ public class Boss {
             this(stream, BossBiMapper.newDeserializer());
         }
 
+        /**
+         * Return binary fields as read-only {@link ByteBuffer} slices of the source array or buffer rather than {@link
+         * Bytes} copies. Slices share the memory with the source, so the source should not be changed while they are in
+         * use. Has no effect when reading from a stream. Off by default.
+         *
+         * @param on true to return binaries as slices
+         */
+        public void setBinarySlices(boolean on) {
+            binarySlices = on;
+        }
+
+        /**
+         * Number of bytes that are not read yet, when reading from an array or a buffer.
+         *
+         * @return bytes left in the source, or -1 if reading from a stream
+         */
+        public int remaining() {
+            if (data != null)
+                return end - pos;
+            if (buffer != null)
+                return buffer.remaining();
+            return -1;
+        }
 
         public void traceObject() throws IOException {
-            Header h = readHeader();
-            System.out.println(h);
+            readHeader();
+            System.out.println(headerBigValue != null ? new Header(headerCode, headerBigValue) :
+                    new Header(headerCode, headerValue));
         }
 
-        private Header readHeader() throws IOException {
+        private void readHeader() throws IOException {
             int b = readByte();
-            int code = b & 7;
+            headerCode = b & 7;
             int value = b >>> 3;
+            headerBigValue = null;
             if (value >= 31) {
                 int length = (int) readEncodedLong();
-                return new Header(code, readBig(length));
+                headerBigValue = readBig(length);
+                headerValue = 0;
             } else if (value > 22) {
                 // up to 8 bytes, e.g. long
-                return new Header(code, readLong(value - 22));
-            }
-            return new Header(code, value);
+                headerValue = readLong(value - 22);
+            } else
+                headerValue = value;
+        }
+
+        private static Object smallestNumber(long value, BigInteger bigValue, boolean negative) {
+            if (bigValue != null)
+                return negative ? bigValue.negate() : bigValue;
+            if (Math.abs(value) <= 0x7FFFffff)
+                return negative ? (int) -value : (int) value;
+            return negative ? -value : value;
         }
 
         /**
@@ -634,12 +976,74 @@ public class Boss {
          * @throws IOException
          */
         private final int readByte() throws IOException {
+            if (data != null) {
+                if (pos >= end)
+                    throw new EOFException();
+                return data[pos++] & 0xFF;
+            }
+            if (buffer != null) {
+                if (!buffer.hasRemaining())
+                    throw new EOFException();
+                return buffer.get() & 0xFF;
+            }
             int i = in.read();
             if (i < 0)
                 throw new EOFException();
             return i;
         }
 
+        /**
+         * Read exactly length bytes to a new array.
+         */
+        private byte[] readRaw(int length) throws IOException {
+            if (length == 0)
+                return new byte[0];
+            if (data != null) {
+                if (length > end - pos)
+                    throw new EOFException();
+                byte[] result = Arrays.copyOfRange(data, pos, pos + length);
+                pos += length;
+                return result;
+            }
+            if (buffer != null) {
+                if (length > buffer.remaining())
+                    throw new EOFException();
+                byte[] result = new byte[length];
+                buffer.get(result);
+                return result;
+            }
+            return new Bytes(in, length).toArray();
+        }
+
+        private String readText(int length) throws IOException {
+            if (data != null) {
+                if (length > end - pos)
+                    throw new EOFException();
+                String s = new String(data, pos, length, StandardCharsets.UTF_8);
+                pos += length;
+                return s;
+            }
+            return new String(readRaw(length), StandardCharsets.UTF_8);
+        }
+
+        private ByteBuffer readSlice(int length) throws IOException {
+            ByteBuffer slice;
+            if (data != null) {
+                if (length > end - pos)
+                    throw new EOFException();
+                slice = ByteBuffer.wrap(data, pos, length).slice();
+                pos += length;
+            } else {
+                if (length > buffer.remaining())
+                    throw new EOFException();
+                ByteBuffer b = buffer.duplicate();
+                b.limit(b.position() + length);
+                slice = b.slice();
+                buffer.position(buffer.position() + length);
+            }
+            return slice.asReadOnlyBuffer();
+        }
+
         private long readEncodedLong() throws IOException {
             long value = 0;
             int shift = 0;
@@ -653,7 +1057,7 @@ public class Boss {
         }
 
         private BigInteger readBig(int length) throws IOException {
-            Bytes bb = new Bytes(in, length);
+            Bytes bb = new Bytes(readRaw(length));
             bb.flipSelf();
             return bb.toBigInteger();
         }
@@ -702,58 +1106,53 @@ public class Boss {
 
         @SuppressWarnings("unchecked")
         private <T> T get() throws IOException {
-            Header h = readHeader();
-//            trace("Header " + h);
-            switch (h.code) {
+            readHeader();
+            // header fields are overwritten by nested reads
+            int code = headerCode;
+            long value = headerValue;
+            switch (code) {
                 case TYPE_INT:
-//                    trace("Int: " + h.smallestNumber(false));
-                    return (T) h.smallestNumber(false);
+                    return (T) smallestNumber(value, headerBigValue, false);
                 case TYPE_NINT:
-                    return (T) h.smallestNumber(true);
-                case TYPE_BIN:
+                    return (T) smallestNumber(value, headerBigValue, true);
                 case TYPE_TEXT: {
-                    Bytes bb = h.value > 0 ? new Bytes(in, (int) h.value) : new Bytes();
-                    if (h.code == TYPE_TEXT) {
-                        String s = bb.toString();
-                        cacheObject(s);
-//                        trace("t: " + s);
-//                        traceCache();
-                        return (T) s;
-                    }
-                    cacheObject(bb);
-                    return (T) bb;
+                    String s = value > 0 ? readText((int) value) : "";
+                    cacheObject(s);
+                    return (T) s;
+                }
+                case TYPE_BIN: {
+                    Object bin;
+                    if (binarySlices && in == null)
+                        bin = readSlice((int) value);
+                    else
+                        bin = value > 0 ? new Bytes(readRaw((int) value)) : new Bytes();
+                    cacheObject(bin);
+                    return (T) bin;
                 }
                 case TYPE_LIST: {
-                    ArrayList data = new ArrayList((int) (h.value < 0x10000 ? h.value : 4096));
-                    cacheObject(data);
-                    for (int i = 0; i < h.value; i++)
-                        data.add(get());
-                    return (T) data;
+                    ArrayList list = new ArrayList((int) (value < 0x10000 ? value : 4096));
+                    cacheObject(list);
+                    for (int i = 0; i < value; i++)
+                        list.add(get());
+                    return (T) list;
                 }
                 case TYPE_DICT: {
-                    return readObject(h);
+                    return readObject(value);
                 }
                 case TYPE_CREF:
-                    int i = (int) h.value;
-//                    trace(String.format("Get from cache %d -> %s", h.value,
-//                                        i == 0 ? null : cache.get(i - 1)
-//                    ));
-//                    traceCache();
+                    int i = (int) value;
                     return i == 0 ? null : (T) cache.get(i - 1);
                 case TYPE_EXTRA:
-                    return (T) parseExtra((int) h.value);
+                    return (T) parseExtra((int) value);
             }
             throw new IOException("Bad BOSS header");
         }
 
-        private <T> T readObject(Header h) throws IOException {
+        private <T> T readObject(long size) throws IOException {
             Dictionary hash = new Dictionary();
             cacheObject(hash);
-            for (int i = 0; i < h.value; i++)
+            for (int i = 0; i < size; i++)
                 hash.put(get(), get());
-//            if( hash.containsKey("__type") || hash.containsKey("__t"))
-//                return (T) deserializer.deserialize(hash);
-//            trace("Dict: " + hash);
             return (T) hash;
         }
 
@@ -777,6 +1176,8 @@ public class Boss {
                     len = ((Bytes) obj).size();
                 } else if (obj instanceof byte[]) {
                     len = ((byte[]) obj).length;
+                } else if (obj instanceof ByteBuffer) {
+                    len = ((ByteBuffer) obj).remaining();
                 } else {
 //                    trace("Can't cache it in treemode! : " + obj);
                     return;
@@ -810,7 +1211,7 @@ public class Boss {
                     setStreamMode();
                     return get();
                 case XT_DOUBLE:
-                    return new Bytes(in, 8).toDouble();
+                    return new Bytes(readRaw(8)).toDouble();
             }
             throw new IllegalArgumentException(String.format("Unknown extra code: %d", code));
         }
@@ -829,7 +1230,16 @@ public class Boss {
          * @throws IOException
          */
         public Bytes readBytes() throws IOException {
-            return (Bytes) get();
+            Object x = get();
+            if (x instanceof ByteBuffer)
+                return new Bytes(sliceToArray((ByteBuffer) x));
+            return (Bytes) x;
+        }
+
+        private static byte[] sliceToArray(ByteBuffer slice) {
+            byte[] result = new byte[slice.remaining()];
+            slice.duplicate().get(result);
+            return result;
         }
 
         /**
@@ -845,6 +1255,8 @@ public class Boss {
                 return null;
             if (x.getClass().isArray())
                 return (byte[]) x;
+            if (x instanceof ByteBuffer)
+                return sliceToArray((ByteBuffer) x);
             return ((Bytes) x).toArray();
         }
 
@@ -862,7 +1274,8 @@ public class Boss {
         }
 
         public void close() throws IOException {
-            in.close();
+            if (in != null)
+                in.close();
         }
 
         @SuppressWarnings("unchecked")
@@ -14,12 +14,18 @@ import org.junit.Test;
 
 import java.time.ZonedDateTime;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
+import static java.util.Arrays.asList;
 import static org.hamcrest.core.IsInstanceOf.instanceOf;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 
 @BiType(name="foobar1")
 class Test1 implements BiSerializable {
@@ -160,4 +166,97 @@ public class BiMapperTest {
         byte[] result = ((Bytes)DefaultBiMapper.deserialize(s)).getData();
         assertArrayEquals(x, result);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void registrationChangesLookup() throws Exception {
+        BiMapper mapper = new BiMapper();
+        Test1 t1 = new Test1("foo");
+        // no adapter: left as is, and the lookup is cached
+        assertEquals(t1, mapper.serialize(t1));
+        assertEquals(t1, mapper.serialize(t1));
+
+        mapper.registerClass(Test1.class);
+        Binder s = mapper.serialize(t1);
+        assertEquals("foobar1", s.getStringOrThrow("__type"));
+        Test1 t2 = mapper.deserialize(s);
+        assertEquals("foo", t2.getValue());
+
+        // copy keeps the adapters, unregistering in the source does not affect it
+        BiMapper copy = new BiMapper(mapper);
+        assertTrue(mapper.unregister(Test1.class));
+        assertEquals(t1, mapper.serialize(t1));
+        assertEquals("foobar1", ((Binder) copy.serialize(t1)).getStringOrThrow("__type"));
+    }
+
+    @Test
+    public void concurrentRegistration() throws Exception {
+        BiMapper mapper = new BiMapper();
+        mapper.registerClass(Test1.class);
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread registrar = new Thread(() -> {
+            while (!stop.get()) {
+                mapper.registerClass(Test2.class);
+                mapper.unregister(Test2.class);
+            }
+        });
+        registrar.start();
+        Thread[] readers = new Thread[4];
+        for (int k = 0; k < readers.length; k++) {
+            readers[k] = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 200; i++) {
+                        // serialization replaces map values in place, so each thread has its own data
+                        List<Object> data = new ArrayList<>();
+                        for (int j = 0; j < 100; j++)
+                            data.add(Binder.of("t", new Test1("v" + j), "list", asList(1, "2", new Test1("x"))));
+                        List<Binder> result = mapper.serialize(data);
+                        for (Binder b : result) {
+                            assertEquals("foobar1", b.getStringOrThrow("t", "__type"));
+                            assertEquals("foobar1", ((Binder) b.getListOrThrow("list").get(2)).getStringOrThrow("__type"));
+                        }
+                    }
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            });
+            readers[k].start();
+        }
+        for (Thread t : readers)
+            t.join();
+        stop.set(true);
+        registrar.join();
+        if (failure.get() != null)
+            throw new AssertionError(failure.get());
+    }
+
+    @Test
+    public void adapterChangesAreSeenByCachedLookup() throws Exception {
+        BiMapper mapper = new BiMapper();
+        Test1 t1 = new Test1("foo");
+        mapper.registerAdapter(Test1.class, new BiAdapter<Test1>() {
+            @Override
+            public Binder serialize(Test1 object, BiSerializer serializer) {
+                return Binder.of("v1", object.getValue());
+            }
+
+            @Override
+            public Test1 deserialize(Binder binder, BiDeserializer deserializer) {
+                return new Test1(binder.getStringOrThrow("v1"));
+            }
+        });
+        // adapter without the type name is registered by the class name
+        Binder s = mapper.serialize(Binder.of("list", asList(t1, t1), "one", t1));
+        Binder expected = Binder.of("v1", "foo", "__type", Test1.class.getCanonicalName());
+        assertEquals(expected, s.getBinderOrThrow("one"));
+        assertEquals(asList(expected, expected), s.getListOrThrow("list"));
+        Binder restored = mapper.deserialize(s);
+        assertEquals("foo", ((Test1) restored.get("one")).getValue());
+        assertEquals("foo", ((Test1) restored.getListOrThrow("list").get(1)).getValue());
+
+        // the new adapter replaces the cached one
+        mapper.registerClass(Test1.class);
+        assertEquals(Binder.of("value", "foo", "__type", "foobar1"), mapper.serialize(t1));
+        assertEquals(t1.getValue(), ((Test1) mapper.deserialize(mapper.serialize(t1))).getValue());
+    }
+}
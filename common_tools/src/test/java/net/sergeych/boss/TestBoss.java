@@ -10,6 +10,10 @@
  */
 package net.sergeych.boss;
 
+import net.sergeych.biserializer.BiAdapter;
+import net.sergeych.biserializer.BiDeserializer;
+import net.sergeych.biserializer.BiSerializer;
+import net.sergeych.biserializer.BossBiMapper;
 import net.sergeych.tools.Binder;
 import net.sergeych.tools.JsonTool;
 import net.sergeych.utils.Bytes;
@@ -19,13 +23,17 @@ import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
 import static java.util.Arrays.asList;
 import static org.junit.Assert.*;
@@ -357,6 +365,269 @@ public class TestBoss {
         assertEquals("buzz", res.getBinderOrThrow("c").getStringOrThrow("bar"));
     }
 
+    @Test
+    public void arrayAndBufferSources() throws Exception {
+        List<Object> list = new ArrayList<>();
+        list.add("hello");
+        list.add(Bytes.fromHex("01 02 03"));
+        Binder b = Binder.fromKeysValues("text", "привет", "list", list, "same", list, "big",
+                new BigInteger("123456789012345678901234567890"), "long", -0x12345678901L, "double", 17.37e-111,
+                "empty", "", "bin", new Bytes(new byte[300]));
+        byte[] packed = Boss.dumpToArray(b, "tail", 42);
+
+        byte[] padded = new byte[packed.length + 10];
+        System.arraycopy(packed, 0, padded, 5, packed.length);
+        ByteBuffer direct = ByteBuffer.allocateDirect(packed.length);
+        direct.put(packed).flip();
+
+        Boss.Reader[] readers = {
+                new Boss.Reader(new ByteArrayInputStream(packed)),
+                new Boss.Reader(packed),
+                new Boss.Reader(padded, 5, packed.length),
+                new Boss.Reader(ByteBuffer.wrap(padded, 5, packed.length)),
+                new Boss.Reader(direct)
+        };
+        for (Boss.Reader r : readers) {
+            Binder x = r.read();
+            assertEquals(b.getStringOrThrow("text"), x.getStringOrThrow("text"));
+            assertEquals(list, x.getListOrThrow("list"));
+            assertEquals(x.get("list"), x.get("same"));
+            assertEquals(b.get("big"), x.get("big"));
+            assertEquals(b.get("long"), x.get("long"));
+            assertEquals(b.get("double"), x.get("double"));
+            assertEquals("", x.get("empty"));
+            assertEquals(b.get("bin"), x.get("bin"));
+            assertEquals("tail", r.read());
+            assertEquals(42, (int) r.readInt());
+            try {
+                r.read();
+                fail("must be at the end");
+            } catch (EOFException e) {
+            }
+        }
+        // buffer passed to the reader is not moved
+        assertEquals(0, direct.position());
+    }
+
+    @Test
+    public void binarySlices() throws Exception {
+        Bytes bin = Bytes.random(100);
+        byte[] packed = Boss.dumpToArray(Binder.fromKeysValues("a", bin, "b", bin), bin);
+
+        Boss.Reader r = new Boss.Reader(packed);
+        r.setBinarySlices(true);
+        Binder x = r.read();
+        ByteBuffer a = (ByteBuffer) x.get("a");
+        assertTrue(a.isReadOnly());
+        assertEquals(100, a.remaining());
+        assertEquals(ByteBuffer.wrap(bin.toArray()), a);
+        // cached reference gives the same slice
+        assertSame(a, x.get("b"));
+        assertEquals(bin, r.readBytes());
+        assertEquals(0, r.remaining());
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(packed.length);
+        direct.put(packed).flip();
+        r = new Boss.Reader(direct);
+        r.setBinarySlices(true);
+        x = r.read();
+        assertEquals(ByteBuffer.wrap(bin.toArray()), x.get("a"));
+        assertArrayEquals(bin.toArray(), r.readBinary());
+
+        // truncated data should not be read past the end
+        r = new Boss.Reader(packed, 0, 50);
+        r.setBinarySlices(true);
+        try {
+            r.read();
+            fail("must throw");
+        } catch (EOFException e) {
+        }
+    }
+
+    @Test
+    public void writerTargets() throws Exception {
+        String text = "ascii, кириллица, \u4e2d\u6587, emoji \ud83d\ude00, broken \ud83d and \ude00 ";
+        Binder b = Binder.fromKeysValues("text", text, "list", asList(1, text, Bytes.random(50)), "long",
+                0x123456789L, "double", 17.37e-111, "bin", ByteBuffer.wrap(new byte[]{1, 2, 3, 4, 5}, 1, 3));
+        byte[] expected;
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        new Boss.Writer(bos).writeObject(b);
+        expected = bos.toByteArray();
+
+        // direct encoding gives the same bytes as the JDK encoder
+        assertArrayEquals(expected, Boss.pack(b));
+        assertEquals(text.getBytes("utf-8").length, Boss.utf8Length(text));
+        Binder x = Boss.unpack(expected);
+        assertEquals(new String(text.getBytes("utf-8"), "utf-8"), x.getStringOrThrow("text"));
+        assertEquals(Bytes.fromHex("02 03 04"), x.get("bin"));
+
+        Boss.Writer w = new Boss.Writer(16);
+        w.writeObject(b);
+        assertArrayEquals(expected, w.toByteArray());
+
+        for (ByteBuffer target : asList(ByteBuffer.allocate(1000), ByteBuffer.allocateDirect(1000))) {
+            target.position(7);
+            new Boss.Writer(target).writeObject(b);
+            assertEquals(7 + expected.length, target.position());
+            target.flip().position(7);
+            byte[] written = new byte[target.remaining()];
+            target.get(written);
+            assertArrayEquals(expected, written);
+        }
+
+        try {
+            new Boss.Writer(ByteBuffer.allocate(expected.length - 1)).writeObject(b);
+            fail("must overflow");
+        } catch (BufferOverflowException e) {
+        }
+    }
+
+    @Test
+    public void identityCache() throws Exception {
+        Binder shared = Binder.fromKeysValues("foo", "bar");
+        Binder copy = Binder.fromKeysValues("foo", "bar");
+        List<Object> root = asList(shared, shared, copy);
+
+        Boss.Writer w = new Boss.Writer();
+        w.setIdentityCache(true);
+        w.writeObject(root);
+        byte[] byIdentity = w.toByteArray();
+        byte[] byEquality = Boss.pack(root);
+        // the copy is packed again, the same instance is a reference
+        assertTrue(byIdentity.length > byEquality.length);
+        Object expected = Boss.load(byEquality);
+        Object actual = Boss.load(byIdentity);
+        assertEquals(expected, actual);
+
+        List<Object> read = new Boss.Reader(byIdentity, null).read();
+        assertSame(read.get(0), read.get(1));
+        assertNotSame(read.get(0), read.get(2));
+
+        try {
+            w.setIdentityCache(false);
+            fail("can't change cache after writing");
+        } catch (IllegalStateException e) {
+        }
+    }
+
+    @Test
+    public void nestedPack() throws Exception {
+        // adapter packs the nested data while the outer pack is in progress
+        BossBiMapper.registerAdapter(Packed.class, new BiAdapter<Packed>() {
+            @Override
+            public Binder serialize(Packed object, BiSerializer serializer) {
+                return Binder.fromKeysValues("data", Boss.pack(object.data));
+            }
+
+            @Override
+            public Packed deserialize(Binder binder, BiDeserializer deserializer) {
+                return new Packed(Boss.load(binder.getBinaryOrThrow("data")));
+            }
+
+            @Override
+            public String typeName() {
+                return "TestBossPacked";
+            }
+        });
+        Binder inner = Binder.fromKeysValues("a", "b", "c", asList(1, 2, 3));
+        byte[] packed = Boss.pack(asList(new Packed(inner), "tail", new Packed(inner)));
+        List<Object> x = Boss.load(packed);
+        assertEquals(inner, ((Packed) x.get(0)).data);
+        assertEquals("tail", x.get(1));
+        assertEquals(inner, ((Packed) x.get(2)).data);
+    }
+
+    @Test
+    public void arrayReaderReadsAsStream() throws Exception {
+        Random rnd = new Random(1);
+        for (int i = 0; i < 50; i++) {
+            Binder tree = contractLikeTree(rnd);
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            new Boss.Writer(bos).writeObject(tree);
+            byte[] packed = bos.toByteArray();
+
+            Object expected = new Boss.Reader(new ByteArrayInputStream(packed)).read();
+            assertEquals(tree, expected);
+            assertEquals(expected, new Boss.Reader(packed).read());
+            assertEquals(expected, new Boss.Reader(ByteBuffer.wrap(packed)).read());
+            ByteBuffer direct = ByteBuffer.allocateDirect(packed.length);
+            direct.put(packed).flip();
+            assertEquals(expected, new Boss.Reader(direct).read());
+
+            // inner packed data is read from the slice the same way
+            Boss.Reader r = new Boss.Reader(packed);
+            r.setBinarySlices(true);
+            ByteBuffer data = (ByteBuffer) ((Binder) r.read()).get("data");
+            Object inner = new Boss.Reader(new ByteArrayInputStream(tree.getBinaryOrThrow("data"))).read();
+            assertEquals(inner, new Boss.Reader(data).read());
+        }
+    }
+
+    @Test
+    public void pooledWriterPacksAsStream() throws Exception {
+        Random rnd = new Random(2);
+        List<Object> trees = new ArrayList<>();
+        for (int i = 0; i < 20; i++)
+            trees.add(contractLikeTree(rnd));
+        // big one in the middle makes the pooled buffer grow above the pooled size and be dropped
+        trees.add(10, asList(Bytes.random(2 * 1024 * 1024), "after big"));
+
+        ByteBuffer target = ByteBuffer.allocateDirect(4 * 1024 * 1024);
+        for (int round = 0; round < 2; round++) {
+            for (Object tree : trees) {
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                new Boss.Writer(bos).writeObject(tree);
+                byte[] expected = bos.toByteArray();
+
+                // the pooled buffer is reused from the previous pack and must not leak its bytes
+                byte[] pooled = Boss.pack(tree);
+                assertArrayEquals(expected, pooled);
+                assertEquals(tree, Boss.load(pooled));
+
+                target.clear();
+                new Boss.Writer(target).writeObject(tree);
+                target.flip();
+                byte[] written = new byte[target.remaining()];
+                target.get(written);
+                assertArrayEquals(expected, written);
+            }
+        }
+    }
+
+    /**
+     * Tree shaped like a sealed contract: packed data with keys, roles and strings repeated across it, and the
+     * signatures over it.
+     */
+    private static Binder contractLikeTree(Random rnd) {
+        List<Object> keys = new ArrayList<>();
+        for (int i = 0; i < 1 + rnd.nextInt(3); i++)
+            keys.add(Binder.fromKeysValues("type", "RSAPublicKey", "packed", Bytes.random(rnd.nextInt(200) + 100)));
+        Binder owner = Binder.fromKeysValues("name", "owner", "keys", keys);
+        List<Object> permissions = new ArrayList<>();
+        for (int i = 0; i < rnd.nextInt(5); i++)
+            permissions.add(Binder.fromKeysValues("name", "change_owner", "role", owner, "id", "p" + i));
+        Binder data = Binder.fromKeysValues(
+                "api_level", 3,
+                "definition", Binder.fromKeysValues("issuer", owner, "created_at", 1500000000 + rnd.nextInt(),
+                        "permissions", permissions, "data", Binder.fromKeysValues("name", "тест " + rnd.nextLong())),
+                "state", Binder.fromKeysValues("owner", owner, "revision", rnd.nextInt(100),
+                        "origin", Bytes.random(96), "parent", Bytes.random(96)),
+                "new_items", asList(Bytes.random(96), Bytes.random(96)));
+        List<Object> signatures = new ArrayList<>();
+        for (int i = 0; i < keys.size(); i++)
+            signatures.add(Bytes.random(256 + rnd.nextInt(3) * 128));
+        return Binder.fromKeysValues("type", "unicapsule", "version", 3, "data", new Bytes(Boss.pack(data)),
+                "signatures", signatures);
+    }
+
+    private static class Packed {
+        private final Object data;
+
+        private Packed(Object data) {
+            this.data = data;
+        }
+    }
+
 //	@Test
 //	public void testBadCase1() {
 //		Bytes src = Bytes.fromBase64("L0t0aW1lc3RhbXB5IFdfEYVDaG9zdG5hbWUzZG8tMDAxU3N0YXJ0ZWRfYXR5\nbExdEYVbY29ubmVjdGlvbnPwo25vdGlmaWNhdGlvbnNfcGFzc2VkOA==");
@@ -12,6 +12,7 @@ import net.sergeych.tools.Hashable;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 /**
  * Generic public key interface.
@@ -131,6 +132,31 @@ public abstract class AbstractPublicKey extends AbstractAsymmetricKey implements
         }
     }
 
+    /**
+     * Check the signature of the remaining bytes of the buffer. The buffer is consumed. Default implementation copies
+     * the data to the array, implementations should override it to read the buffer in place.
+     *
+     * @param input     to check the signature against.
+     * @param signature signature to check
+     * @param hashType  type of the hash function used to create the signature
+     * @return true if the signature is correct.
+     */
+    public boolean checkSignature(ByteBuffer input, byte[] signature, HashType hashType, int saltLength) {
+        byte[] data = new byte[input.remaining()];
+        input.get(data);
+        return checkSignature(data, signature, hashType, saltLength);
+    }
+
+    /**
+     * @param input     to check the signature against.
+     * @param signature signature to check
+     * @param hashType  type of the hash function used to create the signature
+     * @return true if the signature is correct.
+     */
+    public boolean checkSignature(ByteBuffer input, byte[] signature, HashType hashType) {
+        return checkSignature(input, signature, hashType, MAX_SALT_LENGTH);
+    }
+
     /**
      * @param data      to check the signature against.
      * @param signature signature to check
@@ -22,6 +22,7 @@ import org.checkerframework.checker.nullness.qual.NonNull;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.List;
@@ -102,6 +103,24 @@ public class PrivateKey extends AbstractKey {
         return privateKey.sign(input, hashType);
     }
 
+    @Override
+    public byte[] sign(byte[] input, HashType hashType) throws EncryptionError {
+        return privateKey.sign(input, hashType);
+    }
+
+    /**
+     * Sign the remaining bytes of the buffer, consuming them. Heap buffers are signed in place.
+     *
+     * @param input    data to sign
+     * @param hashType type of the hash function to use
+     *
+     * @return signature
+     * @throws IOException if the signature could not be created
+     */
+    public byte[] sign(ByteBuffer input, HashType hashType) throws IOException {
+        return privateKey.sign(input, hashType);
+    }
+
     @Override
     public KeyInfo info() {
         if (keyInfo == null) {
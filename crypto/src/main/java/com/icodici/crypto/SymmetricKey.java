@@ -265,11 +265,13 @@ public class SymmetricKey extends AbstractKey implements Serializable, Hashable
         return cipher;
     }
 
-    public byte[] encrypt(byte[] plaintext) throws EncryptionError {
+    // the cipher keeps its working state while transforming a block, so the session key that is shared by
+    // concurrent requests must not be used by two threads at once
+    public synchronized byte[] encrypt(byte[] plaintext) throws EncryptionError {
         return EncryptingStream.encrypt(getCipher(), plaintext);
     }
 
-    public byte[] decrypt(byte[] ciphertext) throws EncryptionError {
+    public synchronized byte[] decrypt(byte[] ciphertext) throws EncryptionError {
         return DecryptingStream.decrypt(getCipher(), ciphertext);
     }
 
@@ -11,6 +11,7 @@ import net.sergeych.utils.Bytes;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 /**
  * Abstract base class for all MAC funtions (sha1, crc32 and so on). Provides utility interface to
@@ -93,6 +94,51 @@ public abstract class Digest {
         return this;
     }
 
+    /**
+     * Update digest with the remaining bytes of the buffer, consuming them: the buffer position is moved to its limit.
+     * Heap buffers are processed in place; bytes of direct and memory-mapped buffers are copied by chunks, so the whole
+     * content is never copied at once. Can not be executed after any {@link #digest()} call.
+     *
+     * @param data
+     *         buffer to process
+     *
+     * @return self
+     */
+    public Digest update(ByteBuffer data) {
+        if (lastDigest == null)
+            _update(data);
+        else
+            throw new IllegalStateException("digest is already calculated");
+        return this;
+    }
+
+    /**
+     * Process the remaining bytes of the buffer and move its position to the limit. Default implementation passes the
+     * heap buffer array to {@link #_update(byte[], int, int)} and copies other buffers there by chunks. Override it
+     * if the implementation could do better.
+     *
+     * @param data
+     *         source message
+     */
+    protected void _update(ByteBuffer data) {
+        if (data.hasArray()) {
+            _update(data.array(), data.arrayOffset() + data.position(), data.remaining());
+            data.position(data.limit());
+        } else {
+            byte[] chunk = new byte[Math.min(BUFFER_CHUNK_SIZE, data.remaining())];
+            while (data.hasRemaining()) {
+                int size = Math.min(chunk.length, data.remaining());
+                data.get(chunk, 0, size);
+                _update(chunk, 0, size);
+            }
+        }
+    }
+
+    /**
+     * Size of the chunk to copy the direct buffer by, see {@link #update(ByteBuffer)}.
+     */
+    protected static final int BUFFER_CHUNK_SIZE = 0x10000;
+
     /**
      * Update disgest with a single byte
      * @param signleByte
@@ -151,6 +197,19 @@ public abstract class Digest {
         return digest();
     }
 
+    /**
+     * Calculate digest of the remaining bytes of the buffer, see {@link #update(ByteBuffer)}.
+     *
+     * @param data
+     *         buffer to process
+     *
+     * @return message digest
+     */
+    public byte[] digest(ByteBuffer data) {
+        update(data);
+        return digest();
+    }
+
     public byte[] digest(InputStream in) throws IOException {
         update(in);
         return digest();
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2018, iCodici S.n.C, All Rights Reserved
+ *
+ */
+
+package com.icodici.crypto.rsaoaep;
+
+import com.icodici.crypto.HashType;
+import org.spongycastle.crypto.Digest;
+import org.spongycastle.crypto.params.ParametersWithRandom;
+import org.spongycastle.crypto.signers.PSSSigner;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Pool of initialized RSA-PSS signers of one key.
+ * <p>
+ * Creating the signer means creating the RSA engine, two digests and initializing the engine with the key, which for
+ * {@link com.icodici.crypto.rsaoaep.scrsa.NativeRSAEngine} converts the key components to GMP numbers. The pool keeps
+ * signers that are done with for the next call, separately for each hash type and salt length, so a key that is used
+ * over and over again (node keys, keys of the frequently seen contracts) pays for it once per thread that uses it
+ * concurrently. A signer is confined to the thread that took it until it is returned.
+ */
+final class PSSSignerPool {
+
+    /**
+     * Keep at most that many idle signers per hash type and salt length.
+     */
+    private static final int MAX_IDLE = 8;
+
+    /**
+     * Read streams by chunks of this size.
+     */
+    private static final int STREAM_CHUNK_SIZE = 0x10000;
+
+    private static final int[] DIGEST_SIZES = new int[HashType.values().length];
+
+    static {
+        for (HashType h : HashType.values())
+            DIGEST_SIZES[h.ordinal()] = h.makeDigest().getDigestSize();
+    }
+
+    private final ParametersWithRandom keyParameters;
+    private final HashType mgf1HashType;
+    private final boolean forSigning;
+    private final ConcurrentHashMap<Long, ConcurrentLinkedQueue<PSSSigner>> idle = new ConcurrentHashMap<>();
+
+    PSSSignerPool(ParametersWithRandom keyParameters, HashType mgf1HashType, boolean forSigning) {
+        this.keyParameters = keyParameters;
+        this.mgf1HashType = mgf1HashType;
+        this.forSigning = forSigning;
+    }
+
+    /**
+     * Take the initialized signer from the pool or create new one. It should be returned with {@link #release(HashType,
+     * int, PSSSigner)} once the signature is generated or verified.
+     *
+     * @param hashType   primary hash type
+     * @param saltLength salt length, must not be {@link com.icodici.crypto.AbstractPublicKey#MAX_SALT_LENGTH}
+     *
+     * @return signer ready to update
+     */
+    PSSSigner take(HashType hashType, int saltLength) {
+        ConcurrentLinkedQueue<PSSSigner> queue = idle.get(poolKey(hashType, saltLength));
+        PSSSigner signer = queue != null ? queue.poll() : null;
+        if (signer == null) {
+            final Digest primaryDigest = hashType.makeDigest();
+            signer = new PSSSigner(RSAEngineFactory.make(), primaryDigest, mgf1HashType.makeDigest(), saltLength);
+            signer.init(forSigning, keyParameters);
+        }
+        return signer;
+    }
+
+    /**
+     * Return the signer to the pool. It is reset, so it is safe to return the signer that failed halfway.
+     */
+    void release(HashType hashType, int saltLength, PSSSigner signer) {
+        signer.reset();
+        ConcurrentLinkedQueue<PSSSigner> queue =
+                idle.computeIfAbsent(poolKey(hashType, saltLength), k -> new ConcurrentLinkedQueue<>());
+        // size() walks the queue, but it never gets longer than few entries
+        if (queue.size() < MAX_IDLE)
+            queue.offer(signer);
+    }
+
+    /**
+     * Number of idle signers of all kinds, for tests.
+     */
+    int idleCount() {
+        return idle.values().stream().mapToInt(ConcurrentLinkedQueue::size).sum();
+    }
+
+    /**
+     * Size of the digest {@link HashType#makeDigest()} creates, without creating it.
+     */
+    static int digestSize(HashType hashType) {
+        return DIGEST_SIZES[hashType.ordinal()];
+    }
+
+    static void update(PSSSigner signer, InputStream input) throws IOException {
+        byte[] buffer = new byte[STREAM_CHUNK_SIZE];
+        int size;
+        while ((size = input.read(buffer)) >= 0) {
+            if (size > 0)
+                signer.update(buffer, 0, size);
+        }
+    }
+
+    static void update(PSSSigner signer, ByteBuffer input) {
+        if (input.hasArray()) {
+            signer.update(input.array(), input.arrayOffset() + input.position(), input.remaining());
+            input.position(input.limit());
+        } else {
+            byte[] buffer = new byte[Math.min(STREAM_CHUNK_SIZE, input.remaining())];
+            while (input.hasRemaining()) {
+                int size = Math.min(buffer.length, input.remaining());
+                input.get(buffer, 0, size);
+                signer.update(buffer, 0, size);
+            }
+        }
+    }
+
+    private static long poolKey(HashType hashType, int saltLength) {
+        return ((long) hashType.ordinal() << 32) | (saltLength & 0xFFFFFFFFL);
+    }
+}
@@ -27,6 +27,7 @@ import org.spongycastle.util.encoders.Hex;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.security.SecureRandom;
 import java.util.Collections;
 import java.util.HashMap;
@@ -64,6 +65,7 @@ public class RSAOAEPPrivateKey extends AbstractPrivateKey {
         final @NonNull HashType mgf1HashType;
         final @NonNull
         SecureRandom rng;
+        final @NonNull PSSSignerPool signers;
 
         State(AsymmetricBlockCipher decryptor,
               RSAPrivateCrtKeyParameters keyParameters, RSAOAEPPublicKey publicKey,
@@ -74,6 +76,7 @@ public class RSAOAEPPrivateKey extends AbstractPrivateKey {
             this.oaepHashType = oaepHashType;
             this.mgf1HashType = mgf1HashType;
             this.rng = rng;
+            this.signers = new PSSSignerPool(new ParametersWithRandom(keyParameters, rng), mgf1HashType, true);
         }
     }
 
@@ -253,52 +256,73 @@ public class RSAOAEPPrivateKey extends AbstractPrivateKey {
     @Override
     public byte[] sign(InputStream input, HashType hashType, @Nullable byte[] salt) throws IllegalStateException, IOException {
 
-        if (state == null) {
+        final State s = state;
+        if (s == null) {
             throw new IllegalStateException();
+        } else if (salt != null) {
+            // Use some specific salt; it is fixed in the signer, so such signers are not pooled
+            final PSSSigner signer = new PSSSigner(
+                    RSAEngineFactory.make(),
+                    hashType.makeDigest(), s.mgf1HashType.makeDigest(),
+                    salt);
+            signer.init(true, new ParametersWithRandom(s.keyParameters, s.rng));
+            PSSSignerPool.update(signer, input);
+            return generateSignature(signer);
         } else {
-            final Digest primaryDigest = hashType.makeDigest();
-
-            final PSSSigner signer;
-            if (salt == null) {
-                // Use maximum possible salt
-                signer = new PSSSigner(
-                        RSAEngineFactory.make(),
-                        primaryDigest, state.mgf1HashType.makeDigest(),
-                        getMaxSaltLength(getBitStrength(), primaryDigest.getDigestSize()));
-            } else {
-                // Use some specific salt
-                signer = new PSSSigner(
-                        RSAEngineFactory.make(),
-                        primaryDigest, state.mgf1HashType.makeDigest(),
-                        salt);
+            // Use maximum possible salt
+            final int saltLength = getMaxSaltLength(getBitStrength(), PSSSignerPool.digestSize(hashType));
+            final PSSSigner signer = s.signers.take(hashType, saltLength);
+            try {
+                PSSSignerPool.update(signer, input);
+                return generateSignature(signer);
+            } finally {
+                s.signers.release(hashType, saltLength, signer);
             }
+        }
+    }
 
-            signer.init(true, new ParametersWithRandom(state.keyParameters, state.rng));
-
-            boolean done = false;
-            while (!done) {
-                int availableBytes = input.available();
-                if (availableBytes <= 0) {
-                    done = true;
-                } else {
-                    byte[] buffer = new byte[availableBytes];
-                    int howManyBytesRead = input.read(buffer);
-                    if (howManyBytesRead <= 0) {
-                        done = true;
-                    } else {
-                        signer.update(buffer, 0, howManyBytesRead);
-                    }
-                }
-            }
+    /**
+     * Sign the remaining bytes of the buffer, consuming them. Heap buffers are signed in place, without copying.
+     * <p>
+     * Signature is created using RSA-PSS as described in PKCS# 1 v 2.1, with the maximum possible salt.
+     */
+    public byte[] sign(ByteBuffer input, HashType hashType) throws IllegalStateException, IOException {
 
+        final State s = state;
+        if (s == null) {
+            throw new IllegalStateException();
+        } else {
+            final int saltLength = getMaxSaltLength(getBitStrength(), PSSSignerPool.digestSize(hashType));
+            final PSSSigner signer = s.signers.take(hashType, saltLength);
             try {
-                return signer.generateSignature();
-            } catch (CryptoException e) {
-                throw new IOException(String.format("Cannot sign data: %s", e.toString()));
+                PSSSignerPool.update(signer, input);
+                return generateSignature(signer);
+            } finally {
+                s.signers.release(hashType, saltLength, signer);
             }
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] sign(byte[] data, HashType hashType) {
+        try {
+            return sign(ByteBuffer.wrap(data), hashType);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to sign", e);
+        }
+    }
+
+    private static byte[] generateSignature(PSSSigner signer) throws IOException {
+        try {
+            return signer.generateSignature();
+        } catch (CryptoException e) {
+            throw new IOException(String.format("Cannot sign data: %s", e.toString()));
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -25,6 +25,7 @@ import org.spongycastle.util.BigIntegers;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.security.SecureRandom;
 import java.util.Collections;
 import java.util.HashMap;
@@ -58,6 +59,7 @@ public class RSAOAEPPublicKey extends AbstractPublicKey {
         final @NonNull HashType oaepHashType;
         final @NonNull HashType mgf1HashType;
         final @NonNull SecureRandom rng;
+        final @NonNull PSSSignerPool verifiers;
 
         State(AsymmetricBlockCipher encryptor, RSAKeyParameters keyParameters,
               HashType oaepHashType, HashType mgf1HashType, SecureRandom rng) {
@@ -66,6 +68,7 @@ public class RSAOAEPPublicKey extends AbstractPublicKey {
             this.oaepHashType = oaepHashType;
             this.mgf1HashType = mgf1HashType;
             this.rng = rng;
+            this.verifiers = new PSSSignerPool(new ParametersWithRandom(keyParameters, rng), mgf1HashType, false);
         }
     }
 
@@ -181,42 +184,69 @@ public class RSAOAEPPublicKey extends AbstractPublicKey {
     public boolean checkSignature(InputStream input, byte[] signature, HashType hashType, int saltLength) throws
             IllegalStateException, IOException {
 
-        if (state == null) {
+        final State s = state;
+        if (s == null) {
             throw new IllegalStateException();
         } else {
-            final Digest primaryDigest = hashType.makeDigest();
-
-            if (saltLength == MAX_SALT_LENGTH) {
-                saltLength = getMaxSaltLength(getBitStrength(), primaryDigest.getDigestSize());
-            }
-            if (saltLength < 0) {
-                throw new RuntimeException(String.format("Incorrect salt length %s", saltLength));
+            saltLength = resolveSaltLength(hashType, saltLength);
+            final PSSSigner signatureChecker = s.verifiers.take(hashType, saltLength);
+            try {
+                PSSSignerPool.update(signatureChecker, input);
+                return signatureChecker.verifySignature(signature);
+            } finally {
+                s.verifiers.release(hashType, saltLength, signatureChecker);
             }
+        }
+    }
 
-            final Signer signatureChecker = new PSSSigner(
-                    RSAEngineFactory.make(),
-                    primaryDigest, state.mgf1HashType.makeDigest(),
-                    saltLength);
-            signatureChecker.init(false, new ParametersWithRandom(state.keyParameters, state.rng));
-
-            boolean done = false;
-            while (!done) {
-                int availableBytes = input.available();
-                if (availableBytes <= 0) {
-                    done = true;
-                } else {
-                    byte[] buffer = new byte[availableBytes];
-                    int howManyBytesRead = input.read(buffer);
-                    if (howManyBytesRead <= 0) {
-                        done = true;
-                    } else {
-                        signatureChecker.update(buffer, 0, howManyBytesRead);
-                    }
-                }
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Heap buffers are checked in place, without copying.
+     */
+    @Override
+    public boolean checkSignature(ByteBuffer input, byte[] signature, HashType hashType, int saltLength) throws
+            IllegalStateException {
+
+        final State s = state;
+        if (s == null) {
+            throw new IllegalStateException();
+        } else {
+            saltLength = resolveSaltLength(hashType, saltLength);
+            final PSSSigner signatureChecker = s.verifiers.take(hashType, saltLength);
+            try {
+                PSSSignerPool.update(signatureChecker, input);
+                return signatureChecker.verifySignature(signature);
+            } finally {
+                s.verifiers.release(hashType, saltLength, signatureChecker);
             }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean checkSignature(byte[] input, byte[] signature, HashType hashType, int saltLength) {
+        return checkSignature(ByteBuffer.wrap(input), signature, hashType, saltLength);
+    }
 
-            return signatureChecker.verifySignature(signature);
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean checkSignature(byte[] input, byte[] signature, HashType hashType) {
+        return checkSignature(ByteBuffer.wrap(input), signature, hashType, MAX_SALT_LENGTH);
+    }
+
+    private int resolveSaltLength(HashType hashType, int saltLength) {
+        if (saltLength == MAX_SALT_LENGTH) {
+            saltLength = getMaxSaltLength(getBitStrength(), PSSSignerPool.digestSize(hashType));
+        }
+        if (saltLength < 0) {
+            throw new RuntimeException(String.format("Incorrect salt length %s", saltLength));
         }
+        return saltLength;
     }
 
     /**
@@ -11,19 +11,29 @@ import com.icodici.crypto.AbstractPrivateKey;
 import com.icodici.crypto.AbstractPublicKey;
 import com.icodici.crypto.HashType;
 import net.sergeych.tools.Hashable;
+import org.junit.Ignore;
 import org.junit.Test;
 import org.spongycastle.crypto.AsymmetricCipherKeyPair;
 import org.spongycastle.crypto.generators.RSAKeyPairGenerator;
 import org.spongycastle.crypto.params.RSAKeyGenerationParameters;
+import org.spongycastle.crypto.params.ParametersWithRandom;
 import org.spongycastle.crypto.params.RSAKeyParameters;
+import org.spongycastle.crypto.signers.PSSSigner;
 import org.spongycastle.util.BigIntegers;
 import org.spongycastle.util.encoders.Hex;
 
+import java.io.ByteArrayInputStream;
 import java.lang.reflect.Field;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.security.SecureRandom;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.junit.Assert.*;
 
@@ -290,4 +300,157 @@ public class RSAOAEPPublicKeyTest {
         }
         assertFalse(publicKeyBadString.isInitialized());
     }
+
+    /**
+     * Test pooled signers and verifiers with byte[], {@link ByteBuffer} and stream input.
+     */
+    @Test
+    public void pooledSignersAndBuffers() throws Exception {
+        RSAOAEPPrivateKey privateKey = new RSAOAEPPrivateKey();
+        privateKey.generate(2048, HashType.SHA1);
+        RSAOAEPPublicKey publicKey = (RSAOAEPPublicKey) privateKey.getPublicKey();
+
+        byte[] message = new byte[100_000];
+        new SecureRandom().nextBytes(message);
+        for (HashType hashType : new HashType[]{HashType.SHA512, HashType.SHA3_384}) {
+            byte[] signature = privateKey.sign(message, hashType);
+            assertTrue(publicKey.checkSignature(message, signature, hashType));
+            assertTrue(publicKey.checkSignature(new ByteArrayInputStream(message), signature, hashType));
+
+            // the same data in the middle of the bigger heap buffer
+            byte[] wrapped = new byte[message.length + 20];
+            System.arraycopy(message, 0, wrapped, 10, message.length);
+            ByteBuffer heap = ByteBuffer.wrap(wrapped, 10, message.length).slice();
+            assertTrue(publicKey.checkSignature(heap, signature, hashType));
+            assertFalse(heap.hasRemaining());
+
+            ByteBuffer direct = ByteBuffer.allocateDirect(message.length);
+            direct.put(message).flip();
+            assertTrue(publicKey.checkSignature(direct, signature, hashType));
+
+            direct.flip();
+            byte[] directSignature = privateKey.sign(direct, hashType);
+            assertTrue(publicKey.checkSignature(message, directSignature, hashType));
+
+            // failed checks return verifiers in a good shape
+            byte[] other = message.clone();
+            other[7] ^= 1;
+            assertFalse(publicKey.checkSignature(other, signature, hashType));
+            assertTrue(publicKey.checkSignature(message, signature, hashType));
+        }
+        assertEquals(2, privateKey.state.signers.idleCount());
+        assertEquals(2, publicKey.state.verifiers.idleCount());
+
+        // signers are thread-confined: concurrent use gives correct results and bounded pools
+        byte[] signature = privateKey.sign(message, HashType.SHA512);
+        ExecutorService pool = Executors.newFixedThreadPool(16);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                final boolean good = i % 2 == 0;
+                results.add(pool.submit(() -> good == publicKey.checkSignature(good ? message : new byte[10], signature, HashType.SHA512)));
+            }
+            for (Future<Boolean> f : results)
+                assertTrue(f.get());
+        } finally {
+            pool.shutdown();
+        }
+        assertTrue(publicKey.state.verifiers.idleCount() <= 8 + 1);
+    }
+
+    /**
+     * Pooled signers are reused, kept apart by hash type and salt length, capped and reset on return, and give the
+     * same results as the signer created per call.
+     */
+    @Test
+    public void signerPool() throws Exception {
+        RSAOAEPPrivateKey privateKey = new RSAOAEPPrivateKey();
+        privateKey.generate(2048, HashType.SHA1);
+        RSAOAEPPublicKey publicKey = (RSAOAEPPublicKey) privateKey.getPublicKey();
+        int saltLength = 2048 / 8 - 64 - 2;
+        PSSSignerPool signers = new PSSSignerPool(
+                new ParametersWithRandom(privateKey.state.keyParameters, privateKey.state.rng), HashType.SHA1, true);
+
+        PSSSigner first = signers.take(HashType.SHA512, saltLength);
+        signers.release(HashType.SHA512, saltLength, first);
+        assertSame(first, signers.take(HashType.SHA512, saltLength));
+        // other hash type or salt length gets its own signer
+        assertNotSame(first, signers.take(HashType.SHA256, saltLength));
+        assertNotSame(first, signers.take(HashType.SHA512, saltLength - 1));
+        signers.release(HashType.SHA512, saltLength, first);
+
+        // the signer returned halfway is reset and signs as the new one
+        byte[] message = new byte[1000];
+        new SecureRandom().nextBytes(message);
+        PSSSigner signer = signers.take(HashType.SHA512, saltLength);
+        signer.update(new byte[]{1, 2, 3}, 0, 3);
+        signers.release(HashType.SHA512, saltLength, signer);
+        signer = signers.take(HashType.SHA512, saltLength);
+        assertSame(first, signer);
+        signer.update(message, 0, message.length);
+        byte[] signature = signer.generateSignature();
+        signers.release(HashType.SHA512, saltLength, signer);
+
+        // pooled signature is checked by the verifier per call, and the other way round
+        PSSSigner verifier = new PSSSigner(RSAEngineFactory.make(), HashType.SHA512.makeDigest(),
+                HashType.SHA1.makeDigest(), saltLength);
+        verifier.init(false, new ParametersWithRandom(publicKey.state.keyParameters, publicKey.state.rng));
+        verifier.update(message, 0, message.length);
+        assertTrue(verifier.verifySignature(signature));
+        assertTrue(publicKey.checkSignature(message, signature, HashType.SHA512));
+
+        PSSSigner perCall = new PSSSigner(RSAEngineFactory.make(), HashType.SHA512.makeDigest(),
+                HashType.SHA1.makeDigest(), saltLength);
+        perCall.init(true, new ParametersWithRandom(privateKey.state.keyParameters, privateKey.state.rng));
+        perCall.update(message, 0, message.length);
+        assertTrue(publicKey.checkSignature(message, perCall.generateSignature(), HashType.SHA512));
+
+        // no more than 8 idle signers of a kind are kept
+        List<PSSSigner> taken = new ArrayList<>();
+        for (int i = 0; i < 20; i++)
+            taken.add(signers.take(HashType.SHA3_256, saltLength));
+        for (PSSSigner s : taken)
+            signers.release(HashType.SHA3_256, saltLength, s);
+        assertEquals(1 + 8, signers.idleCount());
+    }
+
+    /**
+     * Verification throughput with pooled verifiers against creating the verifier on every call. Not a strict
+     * benchmark, just to see the difference.
+     */
+    @Ignore("benchmark")
+    @Test
+    public void verifyBenchmark() throws Exception {
+        byte[] message = new byte[200];
+        new SecureRandom().nextBytes(message);
+        for (int bits : new int[]{2048, 4096}) {
+            RSAOAEPPrivateKey privateKey = new RSAOAEPPrivateKey();
+            privateKey.generate(bits, HashType.SHA1);
+            RSAOAEPPublicKey publicKey = (RSAOAEPPublicKey) privateKey.getPublicKey();
+            byte[] signature = privateKey.sign(message, HashType.SHA512);
+            int saltLength = (bits + 7) / 8 - 64 - 2;
+
+            int repetitions = 2000;
+            for (int round = 0; round < 2; round++) {
+                // first round is a warm up
+                long perCallNanos = 0, pooledNanos = 0;
+                for (int i = 0; i < repetitions; i++) {
+                    long t = System.nanoTime();
+                    PSSSigner verifier = new PSSSigner(RSAEngineFactory.make(), HashType.SHA512.makeDigest(),
+                            HashType.SHA1.makeDigest(), saltLength);
+                    verifier.init(false, new ParametersWithRandom(publicKey.state.keyParameters, publicKey.state.rng));
+                    verifier.update(message, 0, message.length);
+                    assertTrue(verifier.verifySignature(signature));
+                    perCallNanos += System.nanoTime() - t;
+
+                    t = System.nanoTime();
+                    assertTrue(publicKey.checkSignature(message, signature, HashType.SHA512));
+                    pooledNanos += System.nanoTime() - t;
+                }
+                if (round > 0)
+                    System.out.printf("RSA-%d verify, per second: verifier per call %.0f, pooled %.0f%n", bits,
+                            repetitions / (perCallNanos / 1e9), repetitions / (pooledNanos / 1e9));
+            }
+        }
+    }
 }
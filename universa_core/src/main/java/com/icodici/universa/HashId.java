@@ -17,7 +17,16 @@ import net.sergeych.tools.Do;
 import net.sergeych.utils.Base64;
 import net.sergeych.utils.Base64u;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * Hash-based identity v3.
@@ -159,6 +168,38 @@ public class HashId implements Comparable<HashId> {
         return new HashId(data);
     }
 
+    /**
+     * Return new HashId calculating composite digest hash of the remaining bytes of the buffer. The buffer is consumed,
+     * see {@link Digest#update(ByteBuffer)}. Direct and memory-mapped buffers are hashed without copying them to the
+     * heap as a whole.
+     *
+     * @param data for hashing
+     * @return HashId instance corresponding to the data parameter, using default hash algorithm
+     */
+    public static HashId of(ByteBuffer data) {
+        return withDigest(new CompositeDigest().digest(data));
+    }
+
+    /**
+     * Return new HashId calculating composite digest hash of the file contents. The file is memory-mapped by large
+     * regions rather than read to memory, so it is the cheapest way to hash big files.
+     *
+     * @param file to hash
+     * @return HashId instance corresponding to the file contents, using default hash algorithm
+     * @throws IOException if the file could not be read
+     */
+    public static HashId of(Path file) throws IOException {
+        CompositeDigest digest = new CompositeDigest();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            for (long pos = 0; pos < size; pos += MAPPED_REGION_SIZE)
+                digest.update(channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(MAPPED_REGION_SIZE, size - pos)));
+        }
+        return withDigest(digest.digest());
+    }
+
+    private static final long MAPPED_REGION_SIZE = 0x10000000;
+
     static {
         DefaultBiMapper.registerAdapter(HashId.class, new BiAdapter() {
             @Override
@@ -208,15 +249,84 @@ public class HashId implements Comparable<HashId> {
      */
     public static class CompositeDigest extends Digest {
 
+        /**
+         * Data is passed to the three digests by chunks of this size, so every chunk is read from memory once and is
+         * still in the CPU cache when the second and the third digest process it.
+         */
+        private static final int CHUNK_SIZE = 0x4000;
+
+        private static volatile int parallelThreshold =
+                Runtime.getRuntime().availableProcessors() > 1 ? 0x20000 : Integer.MAX_VALUE;
+
         private Sha512_256 sha2Digest = new Sha512_256();
         private Sha3_256 sha3Digest = new Sha3_256();
         private Gost3411_2012_256 gostDigest = new Gost3411_2012_256();
 
+        /**
+         * Set the size of data starting from which the three digests are calculated in parallel, in the common
+         * {@link ForkJoinPool}. Smaller data is hashed in the calling thread, as handing it over costs more than it
+         * gains. By default parallel hashing is disabled on a single CPU.
+         *
+         * @param bytes
+         *         minimal size of data to hash in parallel, {@link Integer#MAX_VALUE} to disable parallel hashing
+         */
+        public static void setParallelThreshold(int bytes) {
+            parallelThreshold = bytes;
+        }
+
+        /**
+         * @return minimal size of data to hash in parallel, see {@link #setParallelThreshold(int)}
+         */
+        public static int getParallelThreshold() {
+            return parallelThreshold;
+        }
+
+        private static boolean isParallel(int size) {
+            return size >= parallelThreshold;
+        }
+
         @Override
         protected void _update(byte[] data, int offset, int size) {
-            sha2Digest.update(data, offset, size);
-            sha3Digest.update(data, offset, size);
-            gostDigest.update(data, offset, size);
+            if (isParallel(size)) {
+                inParallel(
+                        () -> sha2Digest.update(data, offset, size),
+                        () -> sha3Digest.update(data, offset, size),
+                        () -> gostDigest.update(data, offset, size));
+            } else {
+                int end = offset + size;
+                for (int pos = offset; pos < end; pos += CHUNK_SIZE) {
+                    int length = Math.min(CHUNK_SIZE, end - pos);
+                    sha2Digest.update(data, pos, length);
+                    sha3Digest.update(data, pos, length);
+                    gostDigest.update(data, pos, length);
+                }
+            }
+        }
+
+        @Override
+        protected void _update(ByteBuffer data) {
+            if (data.hasArray() || !isParallel(data.remaining())) {
+                // heap data goes in place, direct data is copied once by chunks for all three digests
+                super._update(data);
+            } else {
+                // every digest copies its own chunks, so the mapped file is never read into the heap as a whole
+                ByteBuffer sha3Data = data.duplicate();
+                ByteBuffer gostData = data.duplicate();
+                inParallel(
+                        () -> sha2Digest.update(data),
+                        () -> sha3Digest.update(sha3Data),
+                        () -> gostDigest.update(gostData));
+            }
+        }
+
+        private static void inParallel(Runnable inPlace, Runnable... others) {
+            List<ForkJoinTask<?>> tasks = new ArrayList<>(others.length);
+            for (Runnable r : others)
+                tasks.add(ForkJoinPool.commonPool().submit(r));
+            inPlace.run();
+            // join() runs the task here if no pool thread took it yet
+            for (ForkJoinTask<?> t : tasks)
+                t.join();
         }
 
         @Override
@@ -245,4 +355,3 @@ public class HashId implements Comparable<HashId> {
         }
     }
 }
-
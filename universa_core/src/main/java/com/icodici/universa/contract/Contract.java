@@ -36,6 +36,8 @@ import java.time.ZonedDateTime;
 import java.time.chrono.ChronoZonedDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -230,22 +232,7 @@ public class Contract implements Approvable, BiSerializable, Cloneable {
             });
         });
 
-        for (Object signature : (List) data.getOrThrow("signatures")) {
-            byte[] s = ((Bytes) signature).toArray();
-            PublicKey key = ExtendedSignature.extractPublicKey(s);
-            if (key == null) {
-                Bytes keyId = ExtendedSignature.extractKeyId(s);
-                key = keys.get(keyId);
-            }
-            if (key != null) {
-                verifySignatureQuantized(key);
-                ExtendedSignature es = ExtendedSignature.verify(key, s, contractBytes);
-                if (es != null) {
-                    sealedByKeys.put(key, es);
-                } else
-                    addError(Errors.BAD_SIGNATURE, "keytag:" + key.info().getBase64Tag(), "the signature is broken");
-            }
-        }
+        verifySealedSignatures((List) data.getOrThrow("signatures"), contractBytes, keys);
     }
 
     /**
@@ -372,7 +359,26 @@ public class Contract implements Approvable, BiSerializable, Cloneable {
             });
         });
 
-        for (Object signature : (List) data.getOrThrow("signatures")) {
+        verifySealedSignatures((List) data.getOrThrow("signatures"), contractBytes, keys);
+    }
+
+    /**
+     * Verify signatures of the sealed contract and fill {@link #sealedByKeys}. Keys are resolved and verification
+     * quanta are charged in the order of signatures, then all the signatures are verified at once (in parallel if it
+     * is enabled with {@link ExtendedSignature#setVerifierThreads(int)}) and results are merged in the same order.
+     * Nothing is verified until all the signatures are charged, so a contract over the quanta limit costs no RSA work.
+     *
+     * @param signatures    packed signatures from the unicapsule
+     * @param contractBytes signed data
+     * @param keys          known keys by their ids to resolve signatures without embedded public key
+     *
+     * @throws Quantiser.QuantiserException if quanta limit is reached
+     */
+    private void verifySealedSignatures(List signatures, byte[] contractBytes, Map<Bytes, PublicKey> keys)
+            throws Quantiser.QuantiserException {
+        List<PublicKey> signatureKeys = new ArrayList<>();
+        List<byte[]> packedSignatures = new ArrayList<>();
+        for (Object signature : signatures) {
             byte[] s = ((Bytes) signature).toArray();
             PublicKey key = ExtendedSignature.extractPublicKey(s);
             if (key == null) {
@@ -381,13 +387,23 @@ public class Contract implements Approvable, BiSerializable, Cloneable {
             }
             if (key != null) {
                 verifySignatureQuantized(key);
-                ExtendedSignature es = ExtendedSignature.verify(key, s, contractBytes);
-                if (es != null) {
-                    sealedByKeys.put(key, es);
-                } else
-                    addError(Errors.BAD_SIGNATURE, "keytag:" + key.info().getBase64Tag(), "the signature is broken");
+                signatureKeys.add(key);
+                packedSignatures.add(s);
             }
         }
+
+        List<ExtendedSignature> results = signatureKeys.isEmpty() ? Collections.emptyList() :
+                ExtendedSignature.verifyAll(signatureKeys, packedSignatures,
+                        Collections.nCopies(signatureKeys.size(), contractBytes));
+
+        for (int i = 0; i < results.size(); i++) {
+            PublicKey key = signatureKeys.get(i);
+            ExtendedSignature es = results.get(i);
+            if (es != null) {
+                sealedByKeys.put(key, es);
+            } else
+                addError(Errors.BAD_SIGNATURE, "keytag:" + key.info().getBase64Tag(), "the signature is broken");
+        }
     }
 
     /**
@@ -1649,20 +1665,8 @@ public class Contract implements Approvable, BiSerializable, Cloneable {
      * @return contract's sealed unicapsule
      */
     public byte[] seal() {
-        Object forPack = BossBiMapper.serialize(
-                Binder.of(
-                        "contract", this,
-                        "revoking", revokingItems.stream()
-                                .map(i -> i.getId())
-                                .collect(Collectors.toList()),
-                        "new", newItems.stream()
-                                .map(i -> i.getId(true))
-                                .collect(Collectors.toList())
-                )
-        );
-        byte[] theContract = Boss.pack(
-                forPack
-        );
+        prepareForSeal();
+        byte[] theContract = packTheContract();
         Binder result = Binder.of(
                 "type", "unicapsule",
                 "version", 3,
@@ -1679,6 +1683,105 @@ public class Contract implements Approvable, BiSerializable, Cloneable {
         return sealedBinary;
     }
 
+    /**
+     * Seal a number of contracts at once, like calling {@link #seal()} for each of them, but with all the signatures
+     * made in the common {@link java.util.concurrent.ForkJoinPool}. See {@link #sealAll(Collection, Set,
+     * ExecutorService)}.
+     *
+     * @param contracts to seal
+     * @param keys      keys to add to {@link #getKeysToSignWith()} of every contract, could be empty
+     *
+     * @return sealed binaries in the order of contracts
+     */
+    public static List<byte[]> sealAll(Collection<Contract> contracts, Set<PrivateKey> keys) {
+        return sealAll(contracts, keys, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Seal a number of contracts at once, like calling {@link #seal()} for each of them. Contracts are serialized one
+     * by one in the calling thread; the signatures, which take the most time, are made for all the contracts and keys
+     * at once in the given pool (see {@link ExtendedSignature#signAll(List, List, ExecutorService)}) and then verified
+     * with {@link ExtendedSignature#verifyAll(List, List, List)}.
+     * <p>
+     * Contracts should be independent: a contract should not be a new item of another one in the same batch.
+     *
+     * @param contracts to seal
+     * @param keys      keys to add to {@link #getKeysToSignWith()} of every contract, could be empty
+     * @param pool      to sign in; null to sign in the calling thread
+     *
+     * @return sealed binaries in the order of contracts
+     */
+    public static List<byte[]> sealAll(Collection<Contract> contracts, Set<PrivateKey> keys, ExecutorService pool) {
+        List<Contract> batch = new ArrayList<>(contracts);
+        List<byte[]> packedContracts = new ArrayList<>(batch.size());
+        List<PrivateKey> signKeys = new ArrayList<>();
+        List<byte[]> signData = new ArrayList<>();
+        for (Contract c : batch) {
+            c.keysToSignWith.addAll(keys);
+            c.prepareForSeal();
+            byte[] theContract = c.packTheContract();
+            packedContracts.add(theContract);
+            for (PrivateKey key : c.keysToSignWith) {
+                signKeys.add(key);
+                signData.add(theContract);
+            }
+        }
+
+        List<byte[]> signatures = ExtendedSignature.signAll(signKeys, signData, pool);
+        List<PublicKey> publicKeys = new ArrayList<>(signKeys.size());
+        for (PrivateKey key : signKeys)
+            publicKeys.add(key.getPublicKey());
+        List<ExtendedSignature> verified = ExtendedSignature.verifyAll(publicKeys, signatures, signData);
+
+        List<byte[]> results = new ArrayList<>(batch.size());
+        int next = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            Contract c = batch.get(i);
+            int count = c.keysToSignWith.size();
+            Binder result = Binder.of(
+                    "type", "unicapsule",
+                    "version", 3,
+                    "data", packedContracts.get(i),
+                    "signatures", new ArrayList<>(signatures.subList(next, next + count))
+            );
+            for (int k = next; k < next + count; k++) {
+                if (verified.get(k) != null)
+                    c.sealedByKeys.put(publicKeys.get(k), verified.get(k));
+            }
+            next += count;
+            c.setOwnBinary(result);
+            results.add(c.sealedBinary);
+        }
+        return results;
+    }
+
+    /**
+     * Called by {@link #seal()} and {@link #sealAll(Collection, Set, ExecutorService)} before the contract is packed.
+     * Override it to update state of the contract that should be sealed with it.
+     */
+    protected void prepareForSeal() {
+    }
+
+    /**
+     * Pack the contract with references to its revoking and new items: the data part of the sealed unicapsule.
+     */
+    private byte[] packTheContract() {
+        Object forPack = BossBiMapper.serialize(
+                Binder.of(
+                        "contract", this,
+                        "revoking", revokingItems.stream()
+                                .map(i -> i.getId())
+                                .collect(Collectors.toList()),
+                        "new", newItems.stream()
+                                .map(i -> i.getId(true))
+                                .collect(Collectors.toList())
+                )
+        );
+        return Boss.pack(
+                forPack
+        );
+    }
+
     /**
      * Add signature to sealed (before) contract. Do not deserializing or changing contract bytes,
      * but will change sealed and hashId.
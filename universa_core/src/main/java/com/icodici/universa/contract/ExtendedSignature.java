@@ -15,6 +15,13 @@ import net.sergeych.tools.Binder;
 import net.sergeych.utils.Bytes;
 
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * The extended signature signs the resource with sha512, timestamp and 32-byte key id, see {@link #keyId}. The signed
@@ -169,16 +176,27 @@ public class ExtendedSignature {
             ExtendedSignature es = new ExtendedSignature();
 
             byte[] exts = src.getBinaryOrThrow("exts");
-            boolean isSignValid = key.verify(exts, src.getBinaryOrThrow("sign"), HashType.SHA512);
+
+            // RSA part depends only on the key and the signature, data hashes are checked below anyway
+            VerifiedSignatureCache cache = verifiedCache;
+            Bytes cacheKey = cache != null ? cache.keyOf(key, signature) : null;
+            boolean isSignValid;
             boolean isSign2Valid = true;
-            byte[] sign2bin = null;
-            try {
-                sign2bin = src.getBinaryOrThrow("sign2");
-            } catch (IllegalArgumentException e) {
-                sign2bin = null;
+            if (cache != null && cache.isVerified(cacheKey)) {
+                isSignValid = true;
+            } else {
+                isSignValid = key.verify(exts, src.getBinaryOrThrow("sign"), HashType.SHA512);
+                byte[] sign2bin = null;
+                try {
+                    sign2bin = src.getBinaryOrThrow("sign2");
+                } catch (IllegalArgumentException e) {
+                    sign2bin = null;
+                }
+                if (sign2bin != null)
+                    isSign2Valid = key.verify(exts, sign2bin, HashType.SHA3_384);
+                if (cache != null && isSignValid && isSign2Valid)
+                    cache.putVerified(cacheKey);
             }
-            if (sign2bin != null)
-                isSign2Valid = key.verify(exts, sign2bin, HashType.SHA3_384);
             if (isSignValid && isSign2Valid) {
                 Binder b = Boss.unpack(exts);
                 es.keyId = b.getBytesOrThrow("key");
@@ -213,4 +231,171 @@ public class ExtendedSignature {
         }
         return null;
     }
+
+    private static volatile VerifiedSignatureCache verifiedCache = null;
+
+    /**
+     * Enable the cache of successfully verified signatures, so verifying the same signature with the same key again
+     * does not repeat RSA operations (signed data hashes are still checked every time). Only positive results are
+     * cached. Disabled by default.
+     *
+     * @param size max number of cached signatures, 0 or less disables the cache
+     */
+    public static synchronized void setVerifiedCacheSize(int size) {
+        VerifiedSignatureCache cache = verifiedCache;
+        if (size <= 0)
+            verifiedCache = null;
+        else if (cache == null || cache.getMaxSize() != size)
+            verifiedCache = new VerifiedSignatureCache(size);
+    }
+
+    /**
+     * Get statistics of the verified signatures cache.
+     *
+     * @return {@link Binder} with size, hits and misses, empty if the cache is disabled
+     */
+    public static Binder getVerifiedCacheStats() {
+        VerifiedSignatureCache cache = verifiedCache;
+        if (cache == null)
+            return new Binder();
+        return Binder.of(
+                "size", cache.size(),
+                "hits", cache.getHitCount(),
+                "misses", cache.getMissCount()
+        );
+    }
+
+    private static volatile ExecutorService verifierPool = null;
+    private static int verifierThreads = 1;
+
+    /**
+     * Set the number of threads used by {@link #verifyAll(List, List, List)}. With 1 or less, signatures are verified
+     * one by one in the calling thread, that is the default.
+     *
+     * @param threads number of verifier threads
+     */
+    public static synchronized void setVerifierThreads(int threads) {
+        if (threads < 1)
+            threads = 1;
+        if (threads == verifierThreads)
+            return;
+        ExecutorService old = verifierPool;
+        if (threads > 1) {
+            verifierPool = Executors.newFixedThreadPool(threads, r -> {
+                Thread t = new Thread(r, "signature-verifier");
+                t.setDaemon(true);
+                return t;
+            });
+        } else
+            verifierPool = null;
+        verifierThreads = threads;
+        // already submitted verifications are still done
+        if (old != null)
+            old.shutdown();
+    }
+
+    public static synchronized int getVerifierThreads() {
+        return verifierThreads;
+    }
+
+    /**
+     * Verify a number of signatures at once, in parallel if verifier threads are set with
+     * {@link #setVerifierThreads(int)}. Each signature is checked as with {@link #verify(PublicKey, byte[], byte[])}.
+     *
+     * @param keys       to verify signatures with
+     * @param signatures the binary extended signatures, same size as keys
+     * @param data       signed data for each signature, same size as keys
+     *
+     * @return results in the order of signatures: {@link ExtendedSignature} for valid signatures and null for invalid
+     * ones
+     */
+    public static List<ExtendedSignature> verifyAll(List<PublicKey> keys, List<byte[]> signatures, List<byte[]> data) {
+        int count = signatures.size();
+        if (keys.size() != count || data.size() != count)
+            throw new IllegalArgumentException("keys, signatures and data should have the same size");
+        List<ExtendedSignature> results = new ArrayList<>(count);
+        ExecutorService pool = verifierPool;
+        if (pool == null || count < 2) {
+            for (int i = 0; i < count; i++)
+                results.add(verify(keys.get(i), signatures.get(i), data.get(i)));
+            return results;
+        }
+
+        // the first one is verified in the calling thread while the rest are in the pool
+        List<Future<ExtendedSignature>> futures = new ArrayList<>(count);
+        futures.add(null);
+        for (int i = 1; i < count; i++) {
+            final int index = i;
+            try {
+                futures.add(pool.submit(() -> verify(keys.get(index), signatures.get(index), data.get(index))));
+            } catch (RejectedExecutionException e) {
+                // pool was replaced meanwhile
+                futures.add(null);
+            }
+        }
+        results.add(verify(keys.get(0), signatures.get(0), data.get(0)));
+        for (int i = 1; i < count; i++) {
+            Future<ExtendedSignature> f = futures.get(i);
+            if (f == null) {
+                results.add(verify(keys.get(i), signatures.get(i), data.get(i)));
+                continue;
+            }
+            try {
+                results.add(f.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("signature verification interrupted", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException)
+                    throw (RuntimeException) e.getCause();
+                throw new RuntimeException("signature verification failed", e.getCause());
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Sign a number of data at once, spreading the work over the given pool. Each item is signed as with {@link
+     * #sign(PrivateKey, byte[])}; signing contexts of the keys are reused between items, so signing a lot of data with
+     * the same few keys is the case it is made for.
+     *
+     * @param keys to sign with
+     * @param data data to sign with each key, same size as keys
+     * @param pool to sign in; null to sign one by one in the calling thread
+     *
+     * @return binary signatures in the order of keys
+     */
+    public static List<byte[]> signAll(List<PrivateKey> keys, List<byte[]> data, ExecutorService pool) {
+        int count = keys.size();
+        if (data.size() != count)
+            throw new IllegalArgumentException("keys and data should have the same size");
+        List<byte[]> results = new ArrayList<>(count);
+        if (pool == null || count < 2) {
+            for (int i = 0; i < count; i++)
+                results.add(sign(keys.get(i), data.get(i)));
+            return results;
+        }
+
+        // the first one is signed in the calling thread while the rest are in the pool
+        List<Future<byte[]>> futures = new ArrayList<>(count);
+        futures.add(null);
+        for (int i = 1; i < count; i++) {
+            final int index = i;
+            futures.add(pool.submit(() -> sign(keys.get(index), data.get(index))));
+        }
+        results.add(sign(keys.get(0), data.get(0)));
+        for (int i = 1; i < count; i++) {
+            try {
+                results.add(futures.get(i).get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("signing interrupted", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException)
+                    throw (RuntimeException) e.getCause();
+                throw new RuntimeException("signing failed", e.getCause());
+            }
+        }
+        return results;
+    }
 }
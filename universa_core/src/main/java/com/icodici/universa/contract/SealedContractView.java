@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2018, iCodici S.n.C, All Rights Reserved
+ *
+ */
+
+package com.icodici.universa.contract;
+
+import com.icodici.universa.HashId;
+import net.sergeych.boss.Boss;
+import net.sergeych.tools.Binder;
+
+import java.io.IOException;
+import java.time.ZonedDateTime;
+
+/**
+ * Read-only view of the sealed contract that exposes its header fields without constructing the {@link Contract}.
+ * <p>
+ * Constructing the contract deserializes roles, permissions and references, matches references and verifies all
+ * signatures of the transaction pack, which is a waste when the caller only needs the id, origin, parent or expiration
+ * time, or just has to pass the binary along. The view decodes the Boss binary once, without the {@link
+ * net.sergeych.biserializer.BiDeserializer}, and reads only the state and definition fields. The full contract is
+ * constructed on the first call to {@link #getContract()} and is kept for later calls.
+ * <p>
+ * The view does not check the contract: the binary is not verified until the contract is inflated, so do not make any
+ * decision on its validity from the header fields alone.
+ */
+public class SealedContractView {
+
+    private final byte[] sealed;
+    private final byte[] packedTransaction;
+    private final int apiLevel;
+    private final int revision;
+    private final HashId origin;
+    private final HashId parent;
+    private final ZonedDateTime createdAt;
+    private final ZonedDateTime expiresAt;
+    private final String extendedType;
+
+    private volatile HashId id;
+    private volatile Contract contract;
+
+    /**
+     * Read header fields of the sealed contract binary.
+     *
+     * @param sealed is binary of the sealed contract, as returned by {@link Contract#getLastSealedBinary()}
+     *
+     * @throws IOException if the binary is not a sealed contract
+     */
+    public SealedContractView(byte[] sealed) throws IOException {
+        this(sealed, null);
+    }
+
+    /**
+     * Create view of the contract that is already constructed. It does no decoding at all and is here for the
+     * sources that have the contract at hand, like the cache.
+     *
+     * @param contract is sealed contract
+     */
+    public SealedContractView(Contract contract) {
+        this.contract = contract;
+        sealed = contract.getLastSealedBinary();
+        packedTransaction = null;
+        id = contract.getId();
+        apiLevel = contract.getApiLevel();
+        revision = contract.getRevision();
+        origin = contract.getRawOrigin();
+        parent = contract.getParent();
+        createdAt = contract.getCreatedAt();
+        expiresAt = contract.getExpiresAt();
+        extendedType = contract.getDefinition().getExtendedType();
+    }
+
+    private SealedContractView(byte[] sealed, byte[] packedTransaction) throws IOException {
+        this.sealed = sealed;
+        this.packedTransaction = packedTransaction;
+
+        // decode without BiDeserializer, see Contract(byte[], TransactionPack)
+        Binder data = Boss.load(sealed, null);
+        if (!"unicapsule".equals(data.getString("type", null)))
+            throw new IOException("wrong object type, unicapsule required");
+        apiLevel = data.getIntOrThrow("version");
+
+        Binder payload = Boss.load(data.getBinaryOrThrow("data"), null);
+        Binder contractData = payload.getBinderOrThrow("contract");
+        Binder state = contractData.getBinderOrThrow("state");
+        Binder definition = contractData.getBinderOrThrow("definition");
+
+        revision = state.getIntOrThrow("revision");
+        origin = readHashId(state.get("origin"));
+        parent = readHashId(state.get("parent"));
+        // same rules as Contract.getCreatedAt() and Contract.getExpiresAt()
+        createdAt = origin != null ? state.getZonedDateTime("created_at", null)
+                : definition.getZonedDateTime("created_at", null);
+        ZonedDateTime stateExpiresAt = state.getZonedDateTime("expires_at", null);
+        expiresAt = stateExpiresAt != null ? stateExpiresAt : definition.getZonedDateTime("expires_at", null);
+        extendedType = definition.getString("extended_type", null);
+    }
+
+    /**
+     * Read header fields of the contract packed with {@link Contract#getPackedTransaction()}. Like {@link
+     * Contract#fromPackedTransaction(byte[])} it accepts the sealed contract binary too.
+     *
+     * @param packed is the packed transaction or the sealed contract
+     *
+     * @return view of the main contract of the transaction
+     *
+     * @throws IOException if the binary is neither the transaction pack nor the sealed contract
+     */
+    public static SealedContractView fromPackedTransaction(byte[] packed) throws IOException {
+        Binder data = Boss.load(packed, null);
+        // the transaction pack is serialized with its type name, the sealed contract is a plain binder
+        if ("TransactionPack".equals(data.getString("__type", data.getString("__t", null))))
+            return new SealedContractView(data.getBinaryOrThrow("contract"), packed);
+        return new SealedContractView(packed, packed);
+    }
+
+    private static HashId readHashId(Object serialized) {
+        if (serialized == null)
+            return null;
+        if (serialized instanceof HashId)
+            return (HashId) serialized;
+        return HashId.withDigest(((Binder) serialized).getBinaryOrThrow("composite3"));
+    }
+
+    /**
+     * Get the id of the contract, see {@link Contract#getId()}. Calculating the digest takes the most time of reading
+     * the view, so it is done on the first call.
+     *
+     * @return the id of the contract
+     */
+    public HashId getId() {
+        HashId result = id;
+        if (result == null)
+            id = result = HashId.of(sealed);
+        return result;
+    }
+
+    /**
+     * @return the id of the origin contract, it is the id of this contract for the first revision. See {@link
+     * Contract#getOrigin()}
+     */
+    public HashId getOrigin() {
+        return origin == null ? getId() : origin;
+    }
+
+    /**
+     * @return the state.origin field, null for the first revision. See {@link Contract#getRawOrigin()}
+     */
+    public HashId getRawOrigin() {
+        return origin;
+    }
+
+    /**
+     * @return the id of the parent contract or null
+     */
+    public HashId getParent() {
+        return parent;
+    }
+
+    /**
+     * @return the revision number
+     */
+    public int getRevision() {
+        return revision;
+    }
+
+    /**
+     * @return the version of the sealed binary
+     */
+    public int getApiLevel() {
+        return apiLevel;
+    }
+
+    /**
+     * @return the creation time, see {@link Contract#getCreatedAt()}
+     */
+    public ZonedDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    /**
+     * @return the expiration time, see {@link Contract#getExpiresAt()}
+     */
+    public ZonedDateTime getExpiresAt() {
+        return expiresAt;
+    }
+
+    /**
+     * @return the definition.extended_type field or null for the plain contract
+     */
+    public String getExtendedType() {
+        return extendedType;
+    }
+
+    /**
+     * @return the sealed binary of the contract
+     */
+    public byte[] getSealedBinary() {
+        return sealed;
+    }
+
+    /**
+     * Get the packed transaction of the contract. If the view was read from the packed transaction, it is returned
+     * as is, without constructing the contract.
+     *
+     * @return binary to restore the contract with {@link Contract#fromPackedTransaction(byte[])}
+     *
+     * @throws IOException if the contract could not be constructed
+     */
+    public byte[] getPackedTransaction() throws IOException {
+        if (packedTransaction != null)
+            return packedTransaction;
+        return getContract().getPackedTransaction();
+    }
+
+    /**
+     * @return true if the contract is already constructed
+     */
+    public boolean isInflated() {
+        return contract != null;
+    }
+
+    /**
+     * Get the contract, constructing it on the first call. Constructed contract is deserialized and its signatures are
+     * verified as usual, so it can be checked or used to create new revisions.
+     *
+     * @return the contract
+     *
+     * @throws IOException if the binary could not be deserialized
+     */
+    public Contract getContract() throws IOException {
+        Contract c = contract;
+        if (c == null) {
+            synchronized (this) {
+                c = contract;
+                if (c == null)
+                    contract = c = Contract.fromPackedTransaction(packedTransaction != null ? packedTransaction : sealed);
+            }
+        }
+        return c;
+    }
+
+    @Override
+    public String toString() {
+        return "SealedContractView(" + getId().toBase64String() + ":" + revision + ")";
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2018, iCodici S.n.C, All Rights Reserved
+ *
+ */
+
+package com.icodici.universa.contract;
+
+import com.icodici.crypto.PublicKey;
+import com.icodici.crypto.digest.Sha256;
+import net.sergeych.utils.Bytes;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of successfully verified signatures, see {@link ExtendedSignature#setVerifiedCacheSize(int)}. An entry
+ * is the key fingerprint with the hash of the packed signature; it is only added after the signature was actually
+ * verified with this key, so nothing that was not verified can get into it. Oldest entries are dropped first.
+ */
+class VerifiedSignatureCache {
+
+    private final int maxSize;
+    private final ConcurrentHashMap<Bytes, Boolean> verified = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Bytes> order = new ConcurrentLinkedQueue<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    VerifiedSignatureCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Cache key of the signature.
+     *
+     * @param key       public key the signature is verified with
+     * @param signature packed signature
+     *
+     * @return key fingerprint followed by sha256 of the signature
+     */
+    Bytes keyOf(PublicKey key, byte[] signature) {
+        byte[] fingerprint = key.fingerprint();
+        byte[] hash = new Sha256().digest(signature);
+        byte[] result = new byte[fingerprint.length + hash.length];
+        System.arraycopy(fingerprint, 0, result, 0, fingerprint.length);
+        System.arraycopy(hash, 0, result, fingerprint.length, hash.length);
+        return new Bytes(result);
+    }
+
+    boolean isVerified(Bytes cacheKey) {
+        if (verified.containsKey(cacheKey)) {
+            hits.incrementAndGet();
+            return true;
+        }
+        misses.incrementAndGet();
+        return false;
+    }
+
+    void putVerified(Bytes cacheKey) {
+        if (verified.putIfAbsent(cacheKey, Boolean.TRUE) == null) {
+            order.add(cacheKey);
+            while (verified.size() > maxSize) {
+                Bytes oldest = order.poll();
+                if (oldest == null)
+                    break;
+                verified.remove(oldest);
+            }
+        }
+    }
+
+    int getMaxSize() {
+        return maxSize;
+    }
+
+    int size() {
+        return verified.size();
+    }
+
+    long getHitCount() {
+        return hits.get();
+    }
+
+    long getMissCount() {
+        return misses.get();
+    }
+}
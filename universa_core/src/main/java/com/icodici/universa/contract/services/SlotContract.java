@@ -420,15 +420,13 @@ public class SlotContract extends NSmartContract {
 
     }
 
-    @Override
     /**
-     * We override seal method to recalculate holding at the state.data values
+     * We override seal preparation to recalculate holding at the state.data values
      */
-    public byte[] seal() {
+    @Override
+    protected void prepareForSeal() {
         saveTrackingContractsToState();
         calculatePrepaidKilobytesForDays(true);
-
-        return super.seal();
     }
 
     private void saveTrackingContractsToState() {
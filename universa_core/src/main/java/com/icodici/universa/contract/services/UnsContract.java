@@ -202,12 +202,10 @@ public class UnsContract extends NSmartContract {
     }
 
     @Override
-    public byte[] seal() {
+    protected void prepareForSeal() {
         saveNamesToState();
         saveOriginReferencesToState();
         calculatePrepaidNamesForDays(true);
-
-        return super.seal();
     }
 
     private void saveOriginReferencesToState() {
@@ -11,18 +11,26 @@ import com.icodici.crypto.PrivateKey;
 import com.icodici.db.Db;
 import com.icodici.universa.Approvable;
 import com.icodici.universa.HashId;
+import com.icodici.universa.contract.Contract;
+import com.icodici.universa.contract.SealedContractView;
 import com.icodici.universa.contract.services.*;
 import com.icodici.universa.node2.NetConfig;
 import com.icodici.universa.node2.NodeInfo;
+import net.sergeych.tools.Binder;
 
 import java.time.Duration;
 import java.time.Instant;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.stream.Collectors;
 
 /**
  * Local storage for {@link StateRecord} objects, sort of a database. The implementations should not, except where
@@ -41,6 +49,23 @@ public interface Ledger {
      */
     StateRecord getRecord(HashId id);
 
+    /**
+     * Get the records for a number of ids at once, that could be much faster than calling {@link #getRecord(HashId)}
+     * for each. Found records are cached as with {@link #getRecord(HashId)}.
+     *
+     * @param ids is collection of {@link HashId}s to get records for
+     * @return map of found records by their ids, there are no entries for ids that are not found or expired
+     */
+    default Map<HashId, StateRecord> getRecords(Collection<HashId> ids) {
+        Map<HashId, StateRecord> records = new HashMap<>();
+        for (HashId id : ids) {
+            StateRecord r = getRecord(id);
+            if (r != null)
+                records.put(id, r);
+        }
+        return records;
+    }
+
     /**
      * Create a record in {@link ItemState#LOCKED_FOR_CREATION} state locked by creatorRecordId. Does not check
      * anything, the business logic of it is in the {@link StateRecord}. Still, if a database logic prevents creation of
@@ -122,6 +147,19 @@ public interface Ledger {
      */
     void save(StateRecord stateRecord);
 
+    /**
+     * Save a number of records into the ledger at once. Only records that need saving (see
+     * {@link StateRecord#isDirty()}) are written. Implementations should write them atomically and with as few
+     * database round trips as possible; if called inside {@link #transaction(Callable)}, records should become part
+     * of it. Default implementation just saves records one by one.
+     *
+     * @param stateRecords are {@link StateRecord}s to save
+     */
+    default void saveAll(Collection<StateRecord> stateRecords) {
+        for (StateRecord r : stateRecords)
+            r.save();
+    }
+
     /**
      * Refresh record.
      *
@@ -136,6 +174,24 @@ public interface Ledger {
         return -1;
     }
 
+    /**
+     * Get the greatest record id in the ledger.
+     *
+     * @return the greatest record id, 0 if the ledger is empty, {@link Long#MAX_VALUE} if the implementation can't tell
+     */
+    default long getMaxRecordId() {
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Get statistics of the records cache, if the implementation has one.
+     *
+     * @return {@link Binder} with statistics, empty if there is no cache
+     */
+    default Binder getRecordCacheStats() {
+        return new Binder();
+    }
+
 //    /**
 //     * Return all records with given {@link ItemState}.
 //     *
@@ -157,6 +213,22 @@ public interface Ledger {
 
     boolean isTestnet(HashId itemId);
 
+    /**
+     * Find which of the items are marked with {@link #markTestRecord(HashId)}, like calling {@link #isTestnet(HashId)}
+     * for each of them.
+     *
+     * @param ids is collection of {@link HashId}s to check
+     * @return ids of the test records
+     */
+    default Set<HashId> getTestnetIds(Collection<HashId> ids) {
+        Set<HashId> result = new HashSet<>();
+        for (HashId id : ids) {
+            if (isTestnet(id))
+                result.add(id);
+        }
+        return result;
+    }
+
     void updateSubscriptionInStorage(long id, ZonedDateTime expiresAt);
 
     void updateNameRecord(long id, ZonedDateTime expiresAt);
@@ -191,7 +263,49 @@ public interface Ledger {
     void removeNode(NodeInfo nodeInfo);
     Map<HashId,StateRecord> findUnfinished();
 
+    /**
+     * Get the next page of records that are not finished, see {@link #findUnfinished()}, in the order of their record
+     * ids. Expired records are destroyed and skipped like in {@link #findUnfinished()}. Unlike it, the page does not
+     * load the whole ledger backlog into memory, so the node that went down with many items in processing can
+     * sanitate them page by page.
+     *
+     * <p>
+     * Records created after the sanitation has started belong to the running processors, so the pages are bounded by
+     * the {@link #getMaxRecordId()} taken when the sanitation starts.
+     *
+     * @param afterRecordId cursor: return records with greater record id only, 0 for the first page
+     * @param upToRecordId  return records with record id not greater than this one only
+     * @param limit         max number of records to return
+     *
+     * @return records in ascending order of record ids, empty list if there are no more
+     */
+    default List<StateRecord> findUnfinished(long afterRecordId, long upToRecordId, int limit) {
+        Map<HashId, StateRecord> all = findUnfinished();
+        if (all == null)
+            return new ArrayList<>();
+        return all.values().stream()
+                .filter(r -> r.getRecordId() > afterRecordId && r.getRecordId() <= upToRecordId)
+                .sorted(Comparator.comparingLong(StateRecord::getRecordId))
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+
     Approvable getItem(StateRecord record);
+
+    /**
+     * Get the stored contract as the {@link SealedContractView}, which gives its header fields and the packed binary
+     * without deserializing the contract and verifying its signatures. Use it where the item is only passed along or
+     * its id, origin or expiration is needed; the contract is constructed by {@link SealedContractView#getContract()}.
+     *
+     * @param record is record of the item
+     *
+     * @return view of the stored contract or null if there is no such contract
+     */
+    default SealedContractView getItemView(StateRecord record) {
+        Approvable item = getItem(record);
+        return item instanceof Contract ? new SealedContractView((Contract) item) : null;
+    }
+
     void putItem(StateRecord record, Approvable item, Instant keepTill);
 
 
@@ -232,4 +346,25 @@ public interface Ledger {
     void clearExpiredNameRecords(Duration holdDuration);
 
     void cleanup();
+
+    /**
+     * Delete expired records with their items and the items that are not to be kept anymore, by batches of at most
+     * batchSize rows, pausing between batches so the cleanup does not take the database from live registrations.
+     * Default implementation just calls {@link #cleanup()}.
+     *
+     * @param batchSize  max number of rows deleted at once
+     * @param batchPause pause between batches
+     */
+    default void cleanup(int batchSize, Duration batchPause) {
+        cleanup();
+    }
+
+    /**
+     * Get statistics of the cleanup, if the implementation collects them.
+     *
+     * @return {@link Binder} with statistics, empty if there are none
+     */
+    default Binder getCleanupStats() {
+        return new Binder();
+    }
 }
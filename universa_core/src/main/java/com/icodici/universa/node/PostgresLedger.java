@@ -15,13 +15,14 @@ import com.icodici.db.PooledDb;
 import com.icodici.universa.Approvable;
 import com.icodici.universa.HashId;
 import com.icodici.universa.contract.Contract;
+import com.icodici.universa.contract.SealedContractView;
 import com.icodici.universa.contract.services.*;
 import com.icodici.universa.node2.NetConfig;
 import com.icodici.universa.node2.NodeInfo;
 import net.sergeych.boss.Boss;
 import net.sergeych.tools.Binder;
+import net.sergeych.tools.Do;
 
-import java.lang.ref.WeakReference;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -32,6 +33,7 @@ import java.time.temporal.ChronoUnit;
 import java.util.*;
 import java.util.concurrent.Callable;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 
 /**
@@ -49,19 +51,48 @@ public class PostgresLedger implements Ledger {
 
     private boolean sqlite = false;
 
-    private Map<HashId, WeakReference<StateRecord>> cachedRecords = new WeakHashMap<>();
-    private Map<Long, WeakReference<StateRecord>> cachedRecordsById = new WeakHashMap<>();
-    private boolean useCache = true;
+    /**
+     * Default max number of {@link StateRecord}s kept in the records cache.
+     */
+    public final static int DEFAULT_MAX_CACHED_RECORDS = 100_000;
 
-    public PostgresLedger(String connectionString, Properties properties) throws SQLException {
+    private final StateRecordCache cachedRecords;
+    private volatile boolean useCache = true;
+
+    /**
+     * Max number of rows deleted at once by {@link #cleanup()}.
+     */
+    public final static int DEFAULT_CLEANUP_BATCH_SIZE = 1000;
+
+    private final AtomicLong cleanupRunsCount = new AtomicLong();
+    private final AtomicLong cleanupBatchesCount = new AtomicLong();
+    private final AtomicLong cleanedRecordsCount = new AtomicLong();
+    private final AtomicLong cleanedItemsCount = new AtomicLong();
+    private volatile long lastCleanupMillis = 0;
+
+    /**
+     * @param connectionString JDBC connection string
+     * @param properties       JDBC connection properties
+     * @param maxCachedRecords max number of {@link StateRecord}s kept in the records cache
+     *
+     * @throws SQLException if the database can not be migrated
+     */
+    public PostgresLedger(String connectionString, Properties properties, int maxCachedRecords) throws SQLException {
+        cachedRecords = new StateRecordCache(maxCachedRecords);
         dbPool = new DbPool(connectionString, properties, MAX_CONNECTIONS);
         init(dbPool);
     }
 
+    public PostgresLedger(String connectionString, Properties properties) throws SQLException {
+        this(connectionString, properties, DEFAULT_MAX_CACHED_RECORDS);
+    }
+
+    public PostgresLedger(String connectionString, int maxCachedRecords) throws SQLException {
+        this(connectionString, new Properties(), maxCachedRecords);
+    }
+
     public PostgresLedger(String connectionString) throws SQLException {
-        Properties properties = new Properties();
-        dbPool = new DbPool(connectionString, properties, MAX_CONNECTIONS);
-        init(dbPool);
+        this(connectionString, new Properties(), DEFAULT_MAX_CACHED_RECORDS);
     }
 
     private void init(DbPool dbPool) throws SQLException {
@@ -113,49 +144,85 @@ public class PostgresLedger implements Ledger {
         return sr;
     }
 
-    private StateRecord getFromCache(HashId itemId) {
-        if (useCache) {
-            synchronized (cachedRecords) {
-                WeakReference<StateRecord> ref = cachedRecords.get(itemId);
-                if (ref == null)
-                    return null;
-                StateRecord r = ref.get();
-                if (r == null) {
-                    cachedRecords.remove(itemId);
-                    return null;
+    @Override
+    public Map<HashId, StateRecord> getRecords(Collection<HashId> ids) {
+        Map<HashId, StateRecord> records = new HashMap<>();
+        Set<HashId> missing = new LinkedHashSet<>();
+        for (HashId id : ids) {
+            StateRecord cached = getFromCache(id);
+            if (cached != null)
+                records.put(id, cached);
+            else
+                missing.add(id);
+        }
+        if (!missing.isEmpty()) {
+            protect(() -> {
+                // digests are passed as hex strings as the driver can't encode bytea arrays
+                String[] hashes = new String[missing.size()];
+                int i = 0;
+                for (HashId id : missing)
+                    hashes[i++] = Do.bytesToHex(id.getDigest());
+                try (
+                        PooledDb db = dbPool.db();
+                        PreparedStatement statement = db.statement(
+                                "SELECT * FROM ledger WHERE hash = ANY(ARRAY(SELECT decode(unnest(?), 'hex')))")
+                ) {
+                    statement.setArray(1, statement.getConnection().createArrayOf("text", hashes));
+                    try (ResultSet rs = statement.executeQuery()) {
+                        while (rs.next()) {
+                            StateRecord record = new StateRecord(this, rs);
+                            if (records.putIfAbsent(record.getId(), record) == null)
+                                putToCache(record);
+                        }
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    throw e;
                 }
-                return r;
+                return null;
+            });
+        }
+        removeExpired(records);
+        return records;
+    }
+
+    private void removeExpired(Map<HashId, StateRecord> records) {
+        Iterator<StateRecord> it = records.values().iterator();
+        while (it.hasNext()) {
+            StateRecord sr = it.next();
+            if (sr.isExpired()) {
+                sr.destroy();
+                it.remove();
             }
-        } else
-            return null;
+        }
+    }
+
+    private StateRecord getFromCache(HashId itemId) {
+        return useCache ? cachedRecords.get(itemId) : null;
     }
 
     private StateRecord getFromCacheById(long recordId) {
-        if (useCache) {
-            synchronized (cachedRecordsById) {
-                WeakReference<StateRecord> ref = cachedRecordsById.get(recordId);
-                if (ref == null)
-                    return null;
-                StateRecord r = ref.get();
-                if (r == null) {
-                    cachedRecordsById.remove(recordId);
-                    return null;
-                }
-                return r;
-            }
-        } else
-            return null;
+        return useCache ? cachedRecords.getById(recordId) : null;
     }
 
     private void putToCache(StateRecord r) {
-        if (useCache) {
-            synchronized (cachedRecords) {
-                cachedRecords.put(r.getId(), new WeakReference<StateRecord>(r));
-            }
-            synchronized (cachedRecordsById) {
-                cachedRecordsById.put(r.getRecordId(), new WeakReference<StateRecord>(r));
-            }
-        }
+        if (useCache)
+            cachedRecords.put(r);
+    }
+
+    private void removeFromCache(StateRecord r) {
+        if (useCache)
+            cachedRecords.remove(r);
+    }
+
+    /**
+     * Get records cache statistics: size, hits, misses, evictions, revivals of evicted records still in use and hit rate.
+     *
+     * @return {@link Binder} with statistics
+     */
+    @Override
+    public Binder getRecordCacheStats() {
+        return cachedRecords.getStats();
     }
 
 
@@ -248,6 +315,40 @@ public class PostgresLedger implements Ledger {
             });
     }
 
+    @Override
+    public List<StateRecord> findUnfinished(long afterRecordId, long upToRecordId, int limit) {
+        return protect(() -> {
+            List<StateRecord> result = new ArrayList<>();
+            long cursor = afterRecordId;
+            boolean more = true;
+            // the page could consist of expired records only, then look further
+            while (result.isEmpty() && more) {
+                more = false;
+                try (
+                        PooledDb db = dbPool.db();
+                        PreparedStatement statement = db.statement(
+                                "SELECT * FROM ledger WHERE state IN (1,2,3,5,9) AND id > ? AND id <= ? ORDER BY id ASC LIMIT ?")
+                ) {
+                    statement.setLong(1, cursor);
+                    statement.setLong(2, upToRecordId);
+                    statement.setInt(3, limit);
+                    try (ResultSet rs = statement.executeQuery()) {
+                        while (rs.next()) {
+                            StateRecord record = new StateRecord(this, rs);
+                            cursor = record.getRecordId();
+                            more = true;
+                            if (record.isExpired())
+                                record.destroy();
+                            else
+                                result.add(record);
+                        }
+                    }
+                }
+            }
+            return result;
+        });
+    }
+
     @Override
     public Approvable getItem(final StateRecord record) {
             return protect(() -> {
@@ -262,6 +363,20 @@ public class PostgresLedger implements Ledger {
             });
     }
 
+    @Override
+    public SealedContractView getItemView(final StateRecord record) {
+            return protect(() -> {
+                try (ResultSet rs = inPool(db -> db.queryRow("select packed from items where id = ?", record.getRecordId()))) {
+                    if (rs == null)
+                        return null;
+                    return SealedContractView.fromPackedTransaction(rs.getBytes("packed"));
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    throw e;
+                }
+            });
+    }
+
     @Override
     public void putItem(StateRecord record, Approvable item, Instant keepTill) {
         if (item instanceof Contract) {
@@ -320,6 +435,14 @@ public class PostgresLedger implements Ledger {
         }
     }
 
+    @Override
+    public long getMaxRecordId() {
+        return protect(() -> dbPool.execute((db) -> {
+            Object max = db.queryOne("SELECT MAX(id) FROM ledger");
+            return max == null ? 0L : ((Number) max).longValue();
+        }));
+    }
+
     @Override
     public Map<ItemState, Integer> getLedgerSize(ZonedDateTime createdAfter) {
             return protect(() -> {
@@ -394,12 +517,7 @@ public class PostgresLedger implements Ledger {
                 d.update("DELETE FROM ledger WHERE id = ?", recordId);
                 return null;
             });
-            synchronized (cachedRecords) {
-                cachedRecords.remove(record.getId());
-            }
-            synchronized (cachedRecordsById) {
-                cachedRecordsById.remove(record.getRecordId());
-            }
+            removeFromCache(record);
             return null;
         });
     }
@@ -438,6 +556,32 @@ public class PostgresLedger implements Ledger {
 
 
 
+    @Override
+    public Set<HashId> getTestnetIds(Collection<HashId> ids) {
+        if (ids.isEmpty())
+            return new HashSet<>();
+        return protect(() -> {
+            Set<HashId> result = new HashSet<>();
+            // same encoding as in getRecords
+            String[] hashes = new String[ids.size()];
+            int i = 0;
+            for (HashId id : ids)
+                hashes[i++] = Do.bytesToHex(id.getDigest());
+            try (
+                    PooledDb db = dbPool.db();
+                    PreparedStatement statement = db.statement(
+                            "SELECT hash FROM ledger_testrecords WHERE hash = ANY(ARRAY(SELECT decode(unnest(?), 'hex')))")
+            ) {
+                statement.setArray(1, statement.getConnection().createArrayOf("text", hashes));
+                try (ResultSet rs = statement.executeQuery()) {
+                    while (rs.next())
+                        result.add(HashId.withDigest(rs.getBytes(1)));
+                }
+            }
+            return result;
+        });
+    }
+
     @Override
     public void save(StateRecord stateRecord) {
         if (stateRecord.getLedger() == null) {
@@ -478,6 +622,7 @@ public class PostgresLedger implements Ledger {
                         stateRecord.getLockedByRecordId(),
                         stateRecord.getRecordId()
                 );
+                putToCache(stateRecord);
             }
         } catch (SQLException se) {
             se.printStackTrace();
@@ -488,6 +633,100 @@ public class PostgresLedger implements Ledger {
     }
 
 
+    @Override
+    public void saveAll(Collection<StateRecord> stateRecords) {
+        List<StateRecord> toInsert = new ArrayList<>();
+        List<StateRecord> toUpdate = new ArrayList<>();
+        for (StateRecord stateRecord : stateRecords) {
+            if (stateRecord.getLedger() == null) {
+                stateRecord.setLedger(this);
+            } else if (stateRecord.getLedger() != this)
+                throw new IllegalStateException("can't save with a different ledger (make a copy!)");
+            if (!stateRecord.isDirty())
+                continue;
+            if (stateRecord.getRecordId() == 0)
+                toInsert.add(stateRecord);
+            else
+                toUpdate.add(stateRecord);
+        }
+        if (toInsert.isEmpty() && toUpdate.isEmpty())
+            return;
+
+        try (PooledDb db = dbPool.db()) {
+            // inside the ledger transaction we are already on its connection and just add to it
+            if (db.isInTransaction())
+                saveAllWithDb(db, toInsert, toUpdate);
+            else
+                db.transaction(() -> {
+                    saveAllWithDb(db, toInsert, toUpdate);
+                    return null;
+                });
+        } catch (SQLException se) {
+            se.printStackTrace();
+            throw new Failure("StateRecord saveAll failed:" + se);
+        } catch (Exception e) {
+            e.printStackTrace();
+            throw new Failure("StateRecord saveAll failed:" + e);
+        }
+        // only written records are clean, a failed batch is saved again with the next save
+        for (StateRecord r : toInsert) {
+            r.clearDirty();
+            putToCache(r);
+        }
+        for (StateRecord r : toUpdate) {
+            r.clearDirty();
+            putToCache(r);
+        }
+    }
+
+    /**
+     * Write records with two JDBC batches: one for new records (keys are returned in the order of rows) and one for
+     * updates.
+     */
+    private void saveAllWithDb(PooledDb db, List<StateRecord> toInsert, List<StateRecord> toUpdate) throws SQLException {
+        if (!toInsert.isEmpty()) {
+            try (
+                    PreparedStatement statement =
+                            db.statementReturningKeys(
+                                    "insert into ledger(hash,state,created_at, expires_at, locked_by_id) values(?,?,?,?,?);"
+                            )
+            ) {
+                for (StateRecord stateRecord : toInsert) {
+                    statement.setBytes(1, stateRecord.getId().getDigest());
+                    statement.setInt(2, stateRecord.getState().ordinal());
+                    statement.setLong(3, StateRecord.unixTime(stateRecord.getCreatedAt()));
+                    statement.setLong(4, StateRecord.unixTime(stateRecord.getExpiresAt()));
+                    statement.setLong(5, stateRecord.getLockedByRecordId());
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+                try (ResultSet keys = statement.getGeneratedKeys()) {
+                    for (StateRecord stateRecord : toInsert) {
+                        if (!keys.next())
+                            throw new SQLException("generated keys are not supported");
+                        stateRecord.setRecordId(keys.getLong(1));
+                    }
+                }
+            }
+        }
+        if (!toUpdate.isEmpty()) {
+            try (
+                    PreparedStatement statement =
+                            db.statement("update ledger set state=?, expires_at=?, locked_by_id=? where id=?")
+            ) {
+                for (StateRecord stateRecord : toUpdate) {
+                    statement.setInt(1, stateRecord.getState().ordinal());
+                    statement.setLong(2, StateRecord.unixTime(stateRecord.getExpiresAt()));
+                    statement.setLong(3, stateRecord.getLockedByRecordId());
+                    statement.setLong(4, stateRecord.getRecordId());
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+        }
+    }
+
+
     @Override
     public void reload(StateRecord stateRecord) throws StateRecord.NotFoundException {
         try {
@@ -497,9 +736,12 @@ public class PostgresLedger implements Ledger {
                             stateRecord.getId().getDigest()
                     );
             ) {
-                if (rs == null)
+                if (rs == null) {
+                    removeFromCache(stateRecord);
                     throw new StateRecord.NotFoundException("record not found");
+                }
                 stateRecord.initFrom(rs);
+                putToCache(stateRecord);
             } catch (Exception e) {
                 e.printStackTrace();
                 throw e;
@@ -521,7 +763,6 @@ public class PostgresLedger implements Ledger {
         } else {
             this.useCache = false;
             cachedRecords.clear();
-            cachedRecordsById.clear();
         }
     }
 
@@ -683,27 +924,123 @@ public class PostgresLedger implements Ledger {
         }
     }
 
+    @Override
     public void cleanup() {
-        try (PooledDb db = dbPool.db()) {
-
-            long now = Instant.now().getEpochSecond();
-            String sqlText = "delete from items where id in (select id from ledger where expires_at < ?);";
-            db.update(sqlText, now);
-
-            sqlText = "delete from ledger where expires_at < ?;";
-            db.update(sqlText, now);
-
-            sqlText = "delete from items where keepTill < ?;";
-            db.update(sqlText, now);
-
+        cleanup(DEFAULT_CLEANUP_BATCH_SIZE, Duration.ZERO);
+    }
 
+    /**
+     * Delete expired records with their items, then the items that are not to be kept anymore.
+     * <p>
+     * Rows are deleted oldest first by batches of batchSize, using the indexes on expiration times. Every batch is one
+     * statement that commits on its own, so the cleanup locks a batch of rows at a time, the deleted batches stay
+     * deleted if the cleanup is interrupted, and the next run goes on with what is left. Rows locked by live
+     * transactions are skipped till the next run instead of being waited for.
+     */
+    @Override
+    public void cleanup(int batchSize, Duration batchPause) {
+        long now = Instant.now().getEpochSecond();
+        long started = System.currentTimeMillis();
+        cleanupRunsCount.incrementAndGet();
+        try {
+            int deleted;
+            do {
+                deleted = deleteExpiredRecords(now, batchSize);
+                cleanedRecordsCount.addAndGet(deleted);
+            } while (deleted >= batchSize && pauseCleanup(batchPause));
+            do {
+                deleted = deleteExpiredItems(now, batchSize);
+                cleanedItemsCount.addAndGet(deleted);
+            } while (deleted >= batchSize && pauseCleanup(batchPause));
         } catch (SQLException se) {
             se.printStackTrace();
             throw new Failure("cleanup failed:" + se);
+        } finally {
+            lastCleanupMillis = System.currentTimeMillis() - started;
+        }
+    }
+
+    /**
+     * @return false if interrupted, the cleanup should stop then
+     */
+    private boolean pauseCleanup(Duration batchPause) {
+        try {
+            if (!batchPause.isZero())
+                Thread.sleep(batchPause.toMillis());
+            return !Thread.currentThread().isInterrupted();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Delete one batch of records expired before the given time, together with their items.
+     *
+     * @return number of deleted records
+     */
+    private int deleteExpiredRecords(long expiredBefore, int limit) throws SQLException {
+        cleanupBatchesCount.incrementAndGet();
+        try (
+                PooledDb db = dbPool.db();
+                // items reference the records, so both go in one statement, the reference is checked at its end
+                PreparedStatement statement = db.statement(
+                        "WITH expired AS (" +
+                                "SELECT id FROM ledger WHERE expires_at < ? ORDER BY expires_at LIMIT ? " +
+                                "FOR UPDATE SKIP LOCKED), " +
+                                "expired_items AS (DELETE FROM items WHERE id IN (SELECT id FROM expired)) " +
+                                "DELETE FROM ledger WHERE id IN (SELECT id FROM expired) RETURNING id")
+        ) {
+            statement.setLong(1, expiredBefore);
+            statement.setInt(2, limit);
+            int count = 0;
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    count++;
+                    if (useCache)
+                        cachedRecords.removeById(rs.getLong(1));
+                }
+            }
+            return count;
+        }
+    }
 
+    /**
+     * Delete one batch of items kept till the given time.
+     *
+     * @return number of deleted items
+     */
+    private int deleteExpiredItems(long keptTill, int limit) throws SQLException {
+        cleanupBatchesCount.incrementAndGet();
+        try (
+                PooledDb db = dbPool.db();
+                PreparedStatement statement = db.statement(
+                        "DELETE FROM items WHERE ctid = ANY(ARRAY(" +
+                                "SELECT ctid FROM items WHERE keepTill < ? ORDER BY keepTill LIMIT ? " +
+                                "FOR UPDATE SKIP LOCKED))")
+        ) {
+            statement.setLong(1, keptTill);
+            statement.setInt(2, limit);
+            return statement.executeUpdate();
         }
     }
 
+    /**
+     * Get cleanup statistics: number of runs and batches, deleted records and items, and the duration of the last run.
+     *
+     * @return {@link Binder} with statistics
+     */
+    @Override
+    public Binder getCleanupStats() {
+        return Binder.of(
+                "runs", cleanupRunsCount.get(),
+                "batches", cleanupBatchesCount.get(),
+                "records", cleanedRecordsCount.get(),
+                "items", cleanedItemsCount.get(),
+                "lastRunMillis", lastCleanupMillis
+        );
+    }
+
     public void savePayment(int amount, ZonedDateTime date) {
 
 
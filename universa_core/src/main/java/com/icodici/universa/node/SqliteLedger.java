@@ -80,6 +80,58 @@ public class SqliteLedger implements Ledger {
         return sr;
     }
 
+    /**
+     * Max number of parameters in one IN list, SQLite limits the number of host parameters in a statement.
+     */
+    private static final int MAX_IN_LIST_SIZE = 500;
+
+    @Override
+    public Map<HashId, StateRecord> getRecords(Collection<HashId> ids) {
+        Map<HashId, StateRecord> records = new HashMap<>();
+        List<HashId> missing = new ArrayList<>();
+        for (HashId id : new LinkedHashSet<>(ids)) {
+            StateRecord cached = getFromCache(id);
+            if (cached != null)
+                records.put(id, cached);
+            else
+                missing.add(id);
+        }
+        protect(() -> {
+            for (int from = 0; from < missing.size(); from += MAX_IN_LIST_SIZE) {
+                List<HashId> chunk = missing.subList(from, Math.min(from + MAX_IN_LIST_SIZE, missing.size()));
+                Object[] digests = new Object[chunk.size()];
+                for (int i = 0; i < digests.length; i++)
+                    digests[i] = chunk.get(i).getDigest();
+                String sqlText = "SELECT * FROM ledger WHERE hash IN (" +
+                        String.join(",", Collections.nCopies(digests.length, "?")) + ")";
+                try (
+                        PreparedStatement statement = db.statement(sqlText, digests);
+                        ResultSet rs = statement.executeQuery()
+                ) {
+                    while (rs.next()) {
+                        StateRecord record = new StateRecord(this, rs);
+                        if (records.putIfAbsent(record.getId(), record) == null)
+                            putToCache(record);
+                    }
+                }
+            }
+            return null;
+        });
+        removeExpired(records);
+        return records;
+    }
+
+    private void removeExpired(Map<HashId, StateRecord> records) {
+        Iterator<StateRecord> it = records.values().iterator();
+        while (it.hasNext()) {
+            StateRecord sr = it.next();
+            if (sr.isExpired()) {
+                sr.destroy();
+                it.remove();
+            }
+        }
+    }
+
     private StateRecord getFromCache(HashId itemId) {
         if (useCache) {
             synchronized (cachedRecords) {
@@ -97,6 +97,10 @@ public class StateRecord implements HashIdentifiable {
         dirty = true;
     }
 
+    protected void clearDirty() {
+        dirty = false;
+    }
+
     public final StateRecord setState(ItemState newState) {
         if (state != newState) {
             state = newState;
@@ -0,0 +1,272 @@
+/*
+ * Copyright (c) 2018, iCodici S.n.C, All Rights Reserved
+ *
+ */
+
+package com.icodici.universa.node;
+
+import com.icodici.universa.HashId;
+import net.sergeych.tools.Binder;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded cache of {@link StateRecord} instances, indexed both by item {@link HashId} and by record id. Holds strong
+ * references, so the ledger returns the same instance for a record while it is cached.
+ * <p>
+ * Reads and writes go to concurrent maps without a common monitor. When the cache grows over its limit, entries are
+ * evicted with the CLOCK (second chance) policy: an entry read since the last pass is skipped once, so records in
+ * active use stay in the cache.
+ * <p>
+ * Evicted records are still reachable through weak references until they are garbage collected. A record that is
+ * evicted while some processor holds it is returned from the cache again, and brought back to it, instead of a
+ * second instance being loaded from the database, so there is never more than one instance of the record.
+ */
+class StateRecordCache {
+
+    private final int maxSize;
+
+    private final ConcurrentHashMap<HashId, Entry> byHash = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, Entry> byId = new ConcurrentHashMap<>();
+
+    // order of insertion for the clock hand, may contain entries that are already replaced or removed
+    private final ConcurrentLinkedQueue<Entry> clock = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger clockSize = new AtomicInteger();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    // evicted records that could still be in use
+    private final ConcurrentHashMap<HashId, EvictedEntry> evictedByHash = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, EvictedEntry> evictedById = new ConcurrentHashMap<>();
+    private final ReferenceQueue<StateRecord> collected = new ReferenceQueue<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong revivals = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    StateRecordCache(int maxSize) {
+        if (maxSize < 1)
+            throw new IllegalArgumentException("cache size should be positive");
+        this.maxSize = maxSize;
+    }
+
+    StateRecord get(HashId id) {
+        Entry e = byHash.get(id);
+        return e != null ? hit(e) : revive(evictedByHash.get(id));
+    }
+
+    StateRecord getById(long recordId) {
+        Entry e = byId.get(recordId);
+        return e != null ? hit(e) : revive(evictedById.get(recordId));
+    }
+
+    private StateRecord hit(Entry e) {
+        e.referenced = true;
+        hits.incrementAndGet();
+        return e.record;
+    }
+
+    private StateRecord revive(EvictedEntry evicted) {
+        StateRecord record = evicted != null ? evicted.get() : null;
+        if (record == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        revivals.incrementAndGet();
+        put(record);
+        return record;
+    }
+
+    /**
+     * Put the record or refresh its indexes, e.g. when it got a record id on save.
+     *
+     * @param record to cache
+     */
+    void put(StateRecord record) {
+        expungeCollected();
+        HashId id = record.getId();
+        forgetEvicted(id, record.getRecordId());
+        Entry e = byHash.get(id);
+        if (e == null || e.record != record) {
+            Entry created = new Entry(record);
+            Entry old = byHash.put(id, created);
+            if (old != null)
+                unindexId(old);
+            clock.add(created);
+            clockSize.incrementAndGet();
+            e = created;
+        }
+        long recordId = record.getRecordId();
+        if (recordId != 0)
+            byId.put(recordId, e);
+        if (byHash.size() > maxSize || clockSize.get() > 2 * maxSize)
+            evict();
+    }
+
+    /**
+     * Drop the record from the cache if it is cached.
+     *
+     * @param record to remove
+     */
+    void remove(StateRecord record) {
+        forgetEvicted(record.getId(), record.getRecordId());
+        Entry e = byHash.get(record.getId());
+        if (e != null && byHash.remove(record.getId(), e))
+            unindexId(e);
+        if (record.getRecordId() != 0) {
+            Entry byRecordId = byId.get(record.getRecordId());
+            if (byRecordId != null && byId.remove(record.getRecordId(), byRecordId))
+                byHash.remove(byRecordId.record.getId(), byRecordId);
+        }
+    }
+
+    /**
+     * Drop the record with the given record id if it is cached, e.g. when its row is deleted.
+     *
+     * @param recordId of the record to remove
+     */
+    void removeById(long recordId) {
+        Entry e = byId.get(recordId);
+        if (e != null)
+            remove(e.record);
+    }
+
+    void clear() {
+        byHash.clear();
+        byId.clear();
+        evictedByHash.clear();
+        evictedById.clear();
+        evictionLock.lock();
+        try {
+            clock.clear();
+            clockSize.set(0);
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    int size() {
+        return byHash.size();
+    }
+
+    private void unindexId(Entry e) {
+        long recordId = e.record.getRecordId();
+        if (recordId != 0)
+            byId.remove(recordId, e);
+    }
+
+    private boolean isLive(Entry e) {
+        return byHash.get(e.record.getId()) == e;
+    }
+
+    private void evict() {
+        // only one thread moves the clock hand, others just go on
+        if (!evictionLock.tryLock())
+            return;
+        try {
+            while (byHash.size() > maxSize || clockSize.get() > 2 * maxSize) {
+                Entry e = clock.poll();
+                if (e == null)
+                    break;
+                clockSize.decrementAndGet();
+                if (!isLive(e))
+                    continue;
+                if (e.referenced || byHash.size() <= maxSize) {
+                    // second chance, or we are only dropping stale entries from the clock
+                    e.referenced = false;
+                    clock.add(e);
+                    clockSize.incrementAndGet();
+                    continue;
+                }
+                if (byHash.remove(e.record.getId(), e)) {
+                    unindexId(e);
+                    evictions.incrementAndGet();
+                    EvictedEntry evicted = new EvictedEntry(e.record, collected);
+                    evictedByHash.put(evicted.id, evicted);
+                    if (evicted.recordId != 0)
+                        evictedById.put(evicted.recordId, evicted);
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private void forgetEvicted(HashId id, long recordId) {
+        EvictedEntry evicted = evictedByHash.remove(id);
+        if (evicted != null && evicted.recordId != 0)
+            evictedById.remove(evicted.recordId, evicted);
+        if (recordId != 0)
+            evictedById.remove(recordId);
+    }
+
+    private void expungeCollected() {
+        EvictedEntry evicted;
+        while ((evicted = (EvictedEntry) collected.poll()) != null) {
+            evictedByHash.remove(evicted.id, evicted);
+            if (evicted.recordId != 0)
+                evictedById.remove(evicted.recordId, evicted);
+        }
+    }
+
+    long getHitCount() {
+        return hits.get();
+    }
+
+    long getMissCount() {
+        return misses.get();
+    }
+
+    long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * @return number of evicted records that were found still in use and brought back to the cache
+     */
+    long getRevivalCount() {
+        return revivals.get();
+    }
+
+    Binder getStats() {
+        long h = hits.get();
+        long m = misses.get();
+        return Binder.of(
+                "size", size(),
+                "maxSize", maxSize,
+                "hits", h,
+                "misses", m,
+                "evictions", evictions.get(),
+                "revivals", revivals.get(),
+                "evictedAlive", evictedByHash.size(),
+                "hitRate", h + m == 0 ? 0.0 : (double) h / (h + m)
+        );
+    }
+
+    private static final class EvictedEntry extends WeakReference<StateRecord> {
+        private final HashId id;
+        private final long recordId;
+
+        private EvictedEntry(StateRecord record, ReferenceQueue<StateRecord> queue) {
+            super(record, queue);
+            id = record.getId();
+            recordId = record.getRecordId();
+        }
+    }
+
+    private static final class Entry {
+        private final StateRecord record;
+        private volatile boolean referenced;
+
+        private Entry(StateRecord record) {
+            this.record = record;
+        }
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2018, iCodici S.n.C, All Rights Reserved
+ *
+ */
+
+package com.icodici.universa.node2;
+
+import net.sergeych.tools.Binder;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Re-polls the nodes that have not answered yet, each one on its own schedule.
+ * <p>
+ * The node keeps the time from the first request to the answer for every other node. A node that was asked is asked
+ * again only when its own 99th percentile of that time has passed since the last request, and the delay doubles with
+ * every request it leaves without answer, up to the last period of the configured schedule. Until the node has
+ * answered enough times for the percentile to mean something, the configured schedule is used as is, like {@link
+ * net.sergeych.tools.RunnableWithDynamicPeriod} did. All polls of the node share one {@link TimerWheel}, and a poll
+ * wakes up only when some node is due, not on every period.
+ */
+public class AdaptivePoller {
+
+    /**
+     * Answers of the node needed before its percentile is used instead of the configured schedule.
+     */
+    private static final int MIN_SAMPLES = 10;
+
+    private final TimerWheel wheel;
+    private final Executor executor;
+    private final ConcurrentHashMap<Integer, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+    private volatile Duration minDelay;
+    private volatile boolean adaptive;
+
+    private final AtomicLong pollsCount = new AtomicLong();
+    private final AtomicLong roundsCount = new AtomicLong();
+    private final AtomicLong requestsCount = new AtomicLong();
+
+    /**
+     * @param wheel    timer to wake polls up with
+     * @param executor to run the rounds with
+     * @param minDelay lower bound of the delay before the node is asked again
+     * @param adaptive if false, nodes are polled on the configured schedules only
+     */
+    public AdaptivePoller(TimerWheel wheel, Executor executor, Duration minDelay, boolean adaptive) {
+        this.wheel = wheel;
+        this.executor = executor;
+        this.minDelay = minDelay;
+        this.adaptive = adaptive;
+    }
+
+    /**
+     * Start polling. The nodes are supposed to be notified already, so the first round is due after the first
+     * delay.
+     *
+     * @param periodsMillis configured schedule: delays before the first, second and later requests to the same node;
+     *                      the last one is repeated and is the upper bound of the adaptive delay
+     * @param notified      nodes that have just been notified
+     * @param waitingFor    nodes that have not answered yet, checked on every round
+     * @param round         sends requests to the nodes that are due, called on every round, with empty list too, so
+     *                      it can check whether the polling is expired
+     *
+     * @return the poll, cancel it when the answers are not needed anymore
+     */
+    public Poll start(List<Integer> periodsMillis, Collection<NodeInfo> notified,
+                      Supplier<Collection<NodeInfo>> waitingFor, Consumer<List<NodeInfo>> round) {
+        pollsCount.incrementAndGet();
+        Poll poll = new Poll(periodsMillis, waitingFor, round);
+        long now = System.nanoTime();
+        long firstDelay = Long.MAX_VALUE;
+        for (NodeInfo node : notified) {
+            poll.requests.put(node.getNumber(), new Request(now, now, 1));
+            firstDelay = Math.min(firstDelay, delayMillis(node, 1, periodsMillis));
+        }
+        poll.schedule(firstDelay == Long.MAX_VALUE ? lastPeriod(periodsMillis) : firstDelay);
+        return poll;
+    }
+
+    /**
+     * Delay before the node that has got the given number of requests without answer is asked again.
+     */
+    long delayMillis(NodeInfo node, int requests, List<Integer> periodsMillis) {
+        if (adaptive) {
+            LatencyHistogram h = latencies.get(node.getNumber());
+            if (h != null && h.getCount() >= MIN_SAMPLES) {
+                long delay = Math.max(h.getPercentileMillis(99), minDelay.toMillis());
+                delay <<= Math.min(requests - 1, 16);
+                return Math.min(delay, lastPeriod(periodsMillis));
+            }
+        }
+        return periodsMillis.get(Math.min(requests - 1, periodsMillis.size() - 1));
+    }
+
+    private static long lastPeriod(List<Integer> periodsMillis) {
+        return periodsMillis.get(periodsMillis.size() - 1);
+    }
+
+    /**
+     * Record the time the node took to answer.
+     */
+    void record(NodeInfo node, long nanos) {
+        latencies.computeIfAbsent(node.getNumber(), n -> new LatencyHistogram()).record(nanos);
+    }
+
+    public Duration getMinDelay() {
+        return minDelay;
+    }
+
+    public void setMinDelay(Duration minDelay) {
+        this.minDelay = minDelay;
+    }
+
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    public void setAdaptive(boolean adaptive) {
+        this.adaptive = adaptive;
+    }
+
+    /**
+     * @return {@link Binder} with poll, round and request counters, answer times of the nodes and the timer stats
+     */
+    public Binder getStats() {
+        Binder nodes = new Binder();
+        for (Map.Entry<Integer, LatencyHistogram> e : latencies.entrySet())
+            nodes.put(String.valueOf(e.getKey()), Binder.of(
+                    "answers", e.getValue().getCount(),
+                    "p99", e.getValue().getPercentileMillis(99)
+            ));
+        return Binder.of(
+                "adaptive", adaptive,
+                "polls", pollsCount.get(),
+                "rounds", roundsCount.get(),
+                "requests", requestsCount.get(),
+                "nodes", nodes,
+                "timer", wheel.getStats()
+        );
+    }
+
+    /**
+     * Requests sent to one node by one poll.
+     */
+    private static class Request {
+
+        private final long firstAt;
+        private final long lastAt;
+        private final int count;
+
+        private Request(long firstAt, long lastAt, int count) {
+            this.firstAt = firstAt;
+            this.lastAt = lastAt;
+            this.count = count;
+        }
+    }
+
+    /**
+     * Polling of the nodes about one subject.
+     */
+    public class Poll implements Runnable {
+
+        private final List<Integer> periodsMillis;
+        private final Supplier<Collection<NodeInfo>> waitingFor;
+        private final Consumer<List<NodeInfo>> round;
+        private final ConcurrentHashMap<Integer, Request> requests = new ConcurrentHashMap<>();
+        private volatile TimerWheel.Timeout timeout;
+        private volatile boolean cancelled = false;
+
+        private Poll(List<Integer> periodsMillis, Supplier<Collection<NodeInfo>> waitingFor,
+                     Consumer<List<NodeInfo>> round) {
+            this.periodsMillis = periodsMillis;
+            this.waitingFor = waitingFor;
+            this.round = round;
+        }
+
+        /**
+         * The node has answered: record the time it took and do not ask it again.
+         */
+        public void answered(NodeInfo node) {
+            Request r = requests.remove(node.getNumber());
+            if (r != null)
+                record(node, System.nanoTime() - r.firstAt);
+        }
+
+        public void cancel() {
+            cancelled = true;
+            TimerWheel.Timeout t = timeout;
+            if (t != null)
+                t.cancel();
+        }
+
+        @Override
+        public void run() {
+            if (cancelled)
+                return;
+            roundsCount.incrementAndGet();
+            long now = System.nanoTime();
+            List<NodeInfo> due = new ArrayList<>();
+            long nextDelay = lastPeriod(periodsMillis);
+            for (NodeInfo node : waitingFor.get()) {
+                Request r = requests.get(node.getNumber());
+                long delay = r == null ? 0 : delayMillis(node, r.count, periodsMillis);
+                long left = r == null ? 0 : delay - TimeUnit.NANOSECONDS.toMillis(now - r.lastAt);
+                if (left <= 0)
+                    due.add(node);
+                else
+                    nextDelay = Math.min(nextDelay, left);
+            }
+            round.accept(due);
+            if (cancelled)
+                return;
+            for (NodeInfo node : due) {
+                Request r = requests.get(node.getNumber());
+                Request next = r == null ? new Request(now, now, 1) : new Request(r.firstAt, now, r.count + 1);
+                requests.put(node.getNumber(), next);
+                nextDelay = Math.min(nextDelay, delayMillis(node, next.count, periodsMillis));
+            }
+            requestsCount.addAndGet(due.size());
+            schedule(nextDelay);
+        }
+
+        private void schedule(long delayMillis) {
+            TimerWheel.Timeout t;
+            try {
+                t = wheel.schedule(this, Math.max(delayMillis, 1), executor);
+            } catch (RejectedExecutionException ignored) {
+                // the node is shutting down
+                return;
+            }
+            timeout = t;
+            // cancelled while scheduling
+            if (cancelled)
+                t.cancel();
+        }
+    }
+}
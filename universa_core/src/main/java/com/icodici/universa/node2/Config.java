@@ -12,6 +12,7 @@ import com.icodici.crypto.KeyAddress;
 import com.icodici.crypto.PublicKey;
 import com.icodici.universa.Core;
 import com.icodici.universa.contract.services.NSmartContract;
+import com.icodici.universa.node.PostgresLedger;
 import net.sergeych.utils.Base64u;
 import net.sergeych.utils.Bytes;
 
@@ -21,6 +22,10 @@ import java.util.*;
 
 public class Config {
 
+    /**
+     * Number of threads of the client HTTP server serving the client requests.
+     */
+    public static final int CLIENT_HTTP_THREADS = 32;
 
     private KeyAddress networkAdminKeyAddress = null;
     private KeyAddress networkReconfigKeyAddress = null;
@@ -57,8 +62,25 @@ public class Config {
         config.maxDownloadOnApproveTime = maxDownloadOnApproveTime;
         config.declinedItemExpiration = declinedItemExpiration;
         config.maxCacheAge = maxCacheAge;
+        config.maxCacheItems = maxCacheItems;
+        config.maxCacheBytes = maxCacheBytes;
+        config.signatureVerifierThreads = signatureVerifierThreads;
+        config.verifiedSignaturesCacheSize = verifiedSignaturesCacheSize;
+        config.notificationsCoalescingTime = notificationsCoalescingTime;
+        config.workerThreads = workerThreads;
+        config.lowPrioWorkerThreads = lowPrioWorkerThreads;
+        config.elasticWorkers = elasticWorkers;
+        config.timerThreads = timerThreads;
+        config.maxElasticWorkers = maxElasticWorkers;
         config.maxNameCacheAge = maxNameCacheAge;
         config.maxGetItemTime = maxGetItemTime;
+        config.maxStatesPerQuery = maxStatesPerQuery;
+        config.maxStateWaitTime = maxStateWaitTime;
+        config.maxStateWaiters = maxStateWaiters;
+        config.sanitationPageSize = sanitationPageSize;
+        config.cleanupBatchSize = cleanupBatchSize;
+        config.cleanupBatchPause = cleanupBatchPause;
+        config.maxCachedRecords = maxCachedRecords;
         synchronized (this) {
             config.negativeConsensus = negativeConsensus;
             config.positiveConsensus = positiveConsensus;
@@ -66,6 +88,8 @@ public class Config {
         }
         config.maxElectionsTime = maxElectionsTime;
         config.pollTimeMillis = new ArrayList<>(pollTimeMillis);
+        config.adaptivePolling = adaptivePolling;
+        config.minPollTime = minPollTime;
         config.consensusReceivedCheckTime = new ArrayList<>(consensusReceivedCheckTime);
         config.maxConsensusReceivedCheckTime = maxConsensusReceivedCheckTime;
         config.resyncTime = new ArrayList<>(resyncTime);
@@ -152,11 +176,28 @@ public class Config {
 
     private Duration declinedItemExpiration = Duration.ofDays(10);
     private Duration maxCacheAge = Duration.ofMinutes(20);
+    private int maxCacheItems = ItemCache.DEFAULT_MAX_ENTRIES;
+    private long maxCacheBytes = ItemCache.DEFAULT_MAX_BYTES;
+    private int signatureVerifierThreads = Runtime.getRuntime().availableProcessors();
+    private int verifiedSignaturesCacheSize = 0;
+    private Duration notificationsCoalescingTime = Duration.ZERO;
+    private int workerThreads = 128;
+    private int lowPrioWorkerThreads = 16;
+    private boolean elasticWorkers = false;
+    private int timerThreads = 4;
+    private int maxElasticWorkers = 1024;
     private Duration maxDiskCacheAge = Duration.ofMinutes(40);
     private Duration maxNameCacheAge = Duration.ofMinutes(5);
     private Duration statsIntervalSmall = Duration.ofSeconds(30);
     private Duration statsIntervalBig = Duration.ofSeconds(3600);
     private Duration maxGetItemTime = Duration.ofSeconds(30);
+    private int maxStatesPerQuery = 1000;
+    private Duration maxStateWaitTime = Duration.ofSeconds(4);
+    private int maxStateWaiters = CLIENT_HTTP_THREADS / 2;
+    private int sanitationPageSize = 1000;
+    private int cleanupBatchSize = 1000;
+    private int maxCachedRecords = PostgresLedger.DEFAULT_MAX_CACHED_RECORDS;
+    private Duration cleanupBatchPause = Duration.ofMillis(50);
     private int getItemRetryCount = 10;
     private int negativeConsensus;
     private int positiveConsensus;
@@ -164,6 +205,8 @@ public class Config {
     private Duration maxElectionsTime = Duration.ofMinutes(15);
     private List<Integer> pollTimeMillis = Arrays.asList(1000,1000,1000,2000,4000,8000,16000,32000,60000);
     private List<Integer> consensusReceivedCheckTime = Arrays.asList(1000,1000,1000,2000,4000,8000,16000,32000,60000);
+    private boolean adaptivePolling = true;
+    private Duration minPollTime = Duration.ofMillis(100);
     private Duration maxConsensusReceivedCheckTime = Duration.ofMinutes(15);
     private List<Integer> resyncTime = Arrays.asList(1000,1000,1000,2000,4000,8000,16000,32000,60000);
     private Duration checkItemTime = Duration.ofMillis(200);
@@ -275,6 +318,239 @@ public class Config {
         this.maxCacheAge = maxCacheAge;
     }
 
+    /**
+     * Maximum number of items the node keeps in {@link ItemCache}.
+     *
+     * @return max number of cached items
+     */
+    public int getMaxCacheItems() {
+        return maxCacheItems;
+    }
+
+    public void setMaxCacheItems(int maxCacheItems) {
+        this.maxCacheItems = maxCacheItems;
+    }
+
+    /**
+     * Maximum estimated size of all items the node keeps in {@link ItemCache}, in bytes.
+     *
+     * @return max size of cached items
+     */
+    public long getMaxCacheBytes() {
+        return maxCacheBytes;
+    }
+
+    public void setMaxCacheBytes(long maxCacheBytes) {
+        this.maxCacheBytes = maxCacheBytes;
+    }
+
+    /**
+     * Number of threads to verify contract signatures in parallel when unpacking contracts and transaction packs. 1 or
+     * less means signatures are verified one by one in the calling thread.
+     *
+     * @return number of verifier threads
+     */
+    public int getSignatureVerifierThreads() {
+        return signatureVerifierThreads;
+    }
+
+    public void setSignatureVerifierThreads(int signatureVerifierThreads) {
+        this.signatureVerifierThreads = signatureVerifierThreads;
+    }
+
+    /**
+     * Max number of successfully verified signatures to remember, so the same signatures are not verified again when
+     * the contract comes once more. 0 disables the cache, that is the default.
+     *
+     * @return size of verified signatures cache
+     */
+    public int getVerifiedSignaturesCacheSize() {
+        return verifiedSignaturesCacheSize;
+    }
+
+    public void setVerifiedSignaturesCacheSize(int verifiedSignaturesCacheSize) {
+        this.verifiedSignaturesCacheSize = verifiedSignaturesCacheSize;
+    }
+
+    /**
+     * Time the network waits for more notifications to the same node to send them in one packet. Zero means no extra
+     * wait, only notifications that are queued while previous packets are sent are coalesced.
+     *
+     * @return notifications coalescing time
+     */
+    public Duration getNotificationsCoalescingTime() {
+        return notificationsCoalescingTime;
+    }
+
+    public void setNotificationsCoalescingTime(Duration notificationsCoalescingTime) {
+        this.notificationsCoalescingTime = notificationsCoalescingTime;
+    }
+
+    /**
+     * Number of threads the node runs its processing on. In the elastic mode it is not used.
+     *
+     * @return size of the node worker pool
+     */
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    public void setWorkerThreads(int workerThreads) {
+        this.workerThreads = workerThreads;
+    }
+
+    /**
+     * Number of threads for the low priority node work like cleanup and sanitation. In the elastic mode it is not used.
+     *
+     * @return size of the low priority worker pool
+     */
+    public int getLowPrioWorkerThreads() {
+        return lowPrioWorkerThreads;
+    }
+
+    public void setLowPrioWorkerThreads(int lowPrioWorkerThreads) {
+        this.lowPrioWorkerThreads = lowPrioWorkerThreads;
+    }
+
+    /**
+     * In the elastic mode only {@link #getTimerThreads()} threads fire the node timers and the work itself runs on
+     * threads that are created on demand and let go when idle, so blocking tasks do not hold up each other. Off by
+     * default, then fixed pools of {@link #getWorkerThreads()} and {@link #getLowPrioWorkerThreads()} are used.
+     *
+     * @return true if the node uses elastic workers
+     */
+    public boolean isElasticWorkers() {
+        return elasticWorkers;
+    }
+
+    public void setElasticWorkers(boolean elasticWorkers) {
+        this.elasticWorkers = elasticWorkers;
+    }
+
+    /**
+     * Number of timer threads of each node executor in the elastic mode.
+     *
+     * @return number of timer threads
+     */
+    public int getTimerThreads() {
+        return timerThreads;
+    }
+
+    public void setTimerThreads(int timerThreads) {
+        this.timerThreads = timerThreads;
+    }
+
+    /**
+     * Max number of elastic workers of each node executor. When all of them are busy, the timer thread runs the task
+     * itself, so the timers are late for a while instead of the node running out of threads.
+     *
+     * @return max number of elastic workers
+     */
+    public int getMaxElasticWorkers() {
+        return maxElasticWorkers;
+    }
+
+    public void setMaxElasticWorkers(int maxElasticWorkers) {
+        this.maxElasticWorkers = maxElasticWorkers;
+    }
+
+    /**
+     * Maximum number of item states the node returns for one getStates client command. The client asks for the rest
+     * with the next command.
+     *
+     * @return maximum number of states per query
+     */
+    public int getMaxStatesPerQuery() {
+        return maxStatesPerQuery;
+    }
+
+    public void setMaxStatesPerQuery(int maxStatesPerQuery) {
+        this.maxStatesPerQuery = maxStatesPerQuery;
+    }
+
+    /**
+     * Longest time the waitState and waitParcelProcessingState client commands wait for the processing to finish. It
+     * should be less than the read timeout of the clients.
+     *
+     * @return maximum wait time of one command
+     */
+    public Duration getMaxStateWaitTime() {
+        return maxStateWaitTime;
+    }
+
+    public void setMaxStateWaitTime(Duration maxStateWaitTime) {
+        this.maxStateWaitTime = maxStateWaitTime;
+    }
+
+    /**
+     * Maximum number of the waitState and waitParcelProcessingState client commands waiting at once. Each of them
+     * holds a thread of the client HTTP server, so keep it well below its thread count. By default, half of {@link
+     * #CLIENT_HTTP_THREADS}, the other half serves the rest of the commands.
+     *
+     * @return maximum number of waiting commands
+     */
+    public int getMaxStateWaiters() {
+        return maxStateWaiters;
+    }
+
+    public void setMaxStateWaiters(int maxStateWaiters) {
+        this.maxStateWaiters = maxStateWaiters;
+    }
+
+    /**
+     * Number of unfinished records the node reads from the ledger at once when it sanitates them at startup. The next
+     * page is read when fewer than half of that are waiting to be sanitated.
+     *
+     * @return page size
+     */
+    public int getSanitationPageSize() {
+        return sanitationPageSize;
+    }
+
+    public void setSanitationPageSize(int sanitationPageSize) {
+        this.sanitationPageSize = sanitationPageSize;
+    }
+
+    /**
+     * Max number of expired rows the ledger cleanup deletes at once.
+     *
+     * @return batch size
+     */
+    public int getCleanupBatchSize() {
+        return cleanupBatchSize;
+    }
+
+    public void setCleanupBatchSize(int cleanupBatchSize) {
+        this.cleanupBatchSize = cleanupBatchSize;
+    }
+
+    /**
+     * Pause of the ledger cleanup between batches, to leave the database to live registrations for a while.
+     *
+     * @return pause between batches
+     */
+    public Duration getCleanupBatchPause() {
+        return cleanupBatchPause;
+    }
+
+    public void setCleanupBatchPause(Duration cleanupBatchPause) {
+        this.cleanupBatchPause = cleanupBatchPause;
+    }
+
+    /**
+     * Max number of ledger records {@link PostgresLedger} keeps in its cache. Read once, when the ledger is
+     * constructed.
+     *
+     * @return max number of cached records
+     */
+    public int getMaxCachedRecords() {
+        return maxCachedRecords;
+    }
+
+    public void setMaxCachedRecords(int maxCachedRecords) {
+        this.maxCachedRecords = maxCachedRecords;
+    }
+
     public Duration getMaxGetItemTime() {
         return maxGetItemTime;
     }
@@ -303,6 +579,35 @@ public class Config {
         this.pollTimeMillis = new ArrayList<>(pollTimeMillis);
     }
 
+    /**
+     * If true, the node that has not answered is polled again after its own 99th percentile of the answer time, see
+     * {@link AdaptivePoller}. {@link #getPollTime()} and {@link #getConsensusReceivedCheckTime()} are used until the
+     * node has answered enough times, and their last periods are the upper bounds. If false, only these schedules are
+     * used.
+     *
+     * @return true if polling adapts to the answer times of the nodes
+     */
+    public boolean isAdaptivePolling() {
+        return adaptivePolling;
+    }
+
+    public void setAdaptivePolling(boolean adaptivePolling) {
+        this.adaptivePolling = adaptivePolling;
+    }
+
+    /**
+     * Lower bound of the adaptive delay before the node is polled again.
+     *
+     * @return minimum poll delay
+     */
+    public Duration getMinPollTime() {
+        return minPollTime;
+    }
+
+    public void setMinPollTime(Duration minPollTime) {
+        this.minPollTime = minPollTime;
+    }
+
     public List<Integer> getConsensusReceivedCheckTime() {
         return consensusReceivedCheckTime;
     }
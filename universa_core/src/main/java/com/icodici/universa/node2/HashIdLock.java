@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2018, iCodici S.n.C, All Rights Reserved
+ *
+ */
+
+package com.icodici.universa.node2;
+
+import com.icodici.universa.HashId;
+import net.sergeych.tools.Binder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Per-{@link HashId} lock manager, base for {@link ItemLock} and {@link ParcelLock}.
+ * <p>
+ * Lock objects are kept in a concurrent map only while they are in use: each {@link #synchronize(HashId, Function)}
+ * call or {@link #retain(Object)} holds a reference and the lock is dropped from the map as soon as the last holder
+ * leaves. There is no global mutex and the memory used is bounded by the number of ids in use, without waiting for
+ * garbage collection of the keys.
+ * <p>
+ * Lock object passed to the callable is a plain monitor and is the same for all concurrent users of the id. If it
+ * should stay the monitor of the id after the callable returns (like processors use it as a mutex), call
+ * {@link #retain(Object)} from the callable and {@link #release(Object)} when done.
+ * <p>
+ * Contention is counted for acquisitions that actually wait for the monitor longer than {@link
+ * #CONTENDED_WAIT_NANOS}. Holders that only keep the lock retained do not count. The entry is timed only when somebody
+ * else uses the lock, so the path with a single user costs nothing extra.
+ */
+public abstract class HashIdLock {
+
+    /**
+     * Entering the free monitor takes far less than that, so longer entries are the waits for another thread.
+     */
+    static final long CONTENDED_WAIT_NANOS = 10_000;
+
+    private final ConcurrentHashMap<HashId, Monitor> monitors = new ConcurrentHashMap<>();
+
+    private final AtomicLong acquiredCount = new AtomicLong();
+    private final AtomicLong contendedCount = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    /**
+     * Execute a callable acquiring a unique lock (mutex) for a given {@link HashId}. Locks is released upon callable
+     * return.
+     *
+     * @param id       ot get a lock to
+     * @param callable lamda to execute exclusively for the id
+     * @param <T> is type
+     *
+     * @return whatever the callable returns
+     *
+     * @throws Exception whatever callable throws
+     */
+    public <T> T synchronize(HashId id, Function<Object, T> callable) throws Exception {
+        Monitor lock = acquire(id);
+        try {
+            acquiredCount.incrementAndGet();
+            // could wait only if somebody else uses it: holders includes us, reentrant calls do not wait
+            if (lock.holders > 1 && !Thread.holdsLock(lock)) {
+                long started = System.nanoTime();
+                synchronized (lock) {
+                    entered(started);
+                    return callable.apply(lock);
+                }
+            }
+            synchronized (lock) {
+                return callable.apply(lock);
+            }
+        } finally {
+            release(lock);
+        }
+    }
+
+    /**
+     * Execute a callable holding the locks of all the given ids at once. Locks are acquired in the order of ids, so
+     * concurrent calls with overlapping ids do not deadlock each other. Locks are released upon callable return.
+     *
+     * @param ids      to get locks to, duplicates are allowed
+     * @param callable to execute exclusively for all the ids
+     * @param <T> is type
+     *
+     * @return whatever the callable returns
+     *
+     * @throws Exception whatever callable throws
+     */
+    public <T> T synchronizeAll(Collection<HashId> ids, Callable<T> callable) throws Exception {
+        List<Monitor> locks = new ArrayList<>();
+        try {
+            for (HashId id : new TreeSet<>(ids)) {
+                locks.add(acquire(id));
+                acquiredCount.incrementAndGet();
+            }
+            return holdAll(locks, 0, callable);
+        } finally {
+            locks.forEach(this::release);
+        }
+    }
+
+    private <T> T holdAll(List<Monitor> locks, int from, Callable<T> callable) throws Exception {
+        if (from == locks.size())
+            return callable.call();
+        long started = System.nanoTime();
+        synchronized (locks.get(from)) {
+            entered(started);
+            return holdAll(locks, from + 1, callable);
+        }
+    }
+
+    private void entered(long started) {
+        long waited = System.nanoTime() - started;
+        if (waited >= CONTENDED_WAIT_NANOS) {
+            contendedCount.incrementAndGet();
+            waitNanos.addAndGet(waited);
+            maxWaitNanos.accumulateAndGet(waited, Math::max);
+        }
+    }
+
+    /**
+     * Keep the lock object in use after {@link #synchronize(HashId, Function)} returns, so any later synchronize on
+     * the same id gets the same monitor. Must be called while the lock is held, e.g. from the callable. Each call
+     * should be paired with {@link #release(Object)}.
+     *
+     * @param lock object passed to the callable
+     */
+    public void retain(Object lock) {
+        Monitor m = (Monitor) lock;
+        monitors.compute(m.id, (k, v) -> {
+            if (v != m)
+                throw new IllegalStateException("lock for " + k + " is not held");
+            m.holders++;
+            return m;
+        });
+    }
+
+    /**
+     * Release the lock object kept with {@link #retain(Object)}.
+     *
+     * @param lock object passed to the callable
+     */
+    public void release(Object lock) {
+        Monitor m = (Monitor) lock;
+        monitors.computeIfPresent(m.id, (k, v) -> {
+            if (v != m)
+                return v;
+            return --m.holders > 0 ? m : null;
+        });
+    }
+
+    private Monitor acquire(HashId id) {
+        return monitors.compute(id, (k, v) -> {
+            if (v == null)
+                v = new Monitor(k);
+            v.holders++;
+            return v;
+        });
+    }
+
+    /**
+     * Number of locks in use, acquired or retained.
+     *
+     * @return number of locks in use
+     */
+    public int size() {
+        return monitors.size();
+    }
+
+    /**
+     * @return total number of lock acquisitions
+     */
+    public long getAcquiredCount() {
+        return acquiredCount.get();
+    }
+
+    /**
+     * @return number of acquisitions that had to wait for another thread, see {@link #CONTENDED_WAIT_NANOS}
+     */
+    public long getContendedCount() {
+        return contendedCount.get();
+    }
+
+    /**
+     * @return total time spent waiting for contended locks, in nanoseconds
+     */
+    public long getWaitNanos() {
+        return waitNanos.get();
+    }
+
+    /**
+     * @return longest single wait for a contended lock, in nanoseconds
+     */
+    public long getMaxWaitNanos() {
+        return maxWaitNanos.get();
+    }
+
+    /**
+     * Get lock statistics for the node stats.
+     *
+     * @return {@link Binder} with counters
+     */
+    public Binder getStats() {
+        return Binder.of(
+                "size", size(),
+                "acquired", getAcquiredCount(),
+                "contended", getContendedCount(),
+                "waitMillis", getWaitNanos() / 1_000_000,
+                "maxWaitMillis", getMaxWaitNanos() / 1_000_000
+        );
+    }
+
+    /**
+     * Monitor object of the id. Holders count is changed only inside map compute functions so it is consistent
+     * with the map state.
+     */
+    private static final class Monitor {
+        private final HashId id;
+        private volatile int holders;
+
+        private Monitor(HashId id) {
+            this.id = id;
+        }
+    }
+}
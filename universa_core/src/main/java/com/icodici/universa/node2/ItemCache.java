@@ -9,23 +9,91 @@ package com.icodici.universa.node2;
 
 import com.icodici.universa.Approvable;
 import com.icodici.universa.HashId;
+import com.icodici.universa.contract.Contract;
 import com.icodici.universa.node.ItemResult;
+import net.sergeych.tools.Binder;
 import net.sergeych.utils.Base64;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
 import java.time.Duration;
-import java.time.Instant;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * Bounded cache of the items being processed or recently processed by the node.
+ * <p>
+ * The cache is limited both by the number of entries and by the estimated size of the cached items (the size of the
+ * sealed binary for contracts). Replacement follows the W-TinyLFU scheme: every new item gets into a small LRU
+ * window, and when it leaves the window it is admitted to the main LRU region only if it is used more often than
+ * the entry it would evict, according to the compact frequency sketch. Expired entries are collected from a timer
+ * wheel, so the periodic cleanup touches only entries that are actually due, never the whole cache.
+ * <p>
+ * Lookups are lock-free; accesses are recorded in a small lossy buffer and applied to the policy in batches.
+ */
 public class ItemCache {
 
+    public static final int DEFAULT_MAX_ENTRIES = 100_000;
+    public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+    /**
+     * Weight of the items we can't estimate the size of, e.g. contracts that were not sealed yet.
+     */
+    static final int DEFAULT_ITEM_WEIGHT = 4096;
+
+    private static final int WHEEL_SIZE = 64;
+    private static final int READ_BUFFER_SIZE = 128;
+    private static final int READ_BUFFER_DRAIN_THRESHOLD = READ_BUFFER_SIZE / 2;
+
     private final Timer cleanerTimer = new Timer();
-    private final Duration maxAge;
+    private final long maxAgeMillis;
+    private final int maxEntries;
+    private final long maxBytes;
+    private final int maxWindowEntries;
+
+    private final ConcurrentHashMap<HashId,Record> records = new ConcurrentHashMap<>();
+
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final AccessQueue window = new AccessQueue();
+    private final AccessQueue main = new AccessQueue();
+    private final FrequencySketch sketch;
+    private final ArrayBlockingQueue<Record> readBuffer = new ArrayBlockingQueue<>(READ_BUFFER_SIZE);
+    private long weightedSize = 0;
+
+    private final long tickMillis;
+    private final Record[] wheel = new Record[WHEEL_SIZE];
+    private long processedTick;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
 
     public ItemCache(Duration maxAge) {
-        this.maxAge = maxAge;
+        this(maxAge, DEFAULT_MAX_ENTRIES, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Create the cache.
+     *
+     * @param maxAge is time to keep an item in the cache
+     * @param maxEntries is the maximum number of cached items
+     * @param maxBytes is the maximum estimated size of all cached items, in bytes
+     */
+    public ItemCache(Duration maxAge, int maxEntries, long maxBytes) {
+        if (maxEntries < 1 || maxBytes < 1)
+            throw new IllegalArgumentException("cache limits should be positive");
+        this.maxAgeMillis = maxAge.toMillis();
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        maxWindowEntries = Math.max(1, maxEntries / 100);
+        sketch = new FrequencySketch(maxEntries);
+        // each wheel bucket should hold entries of a single tick only, so the wheel should cover maxAge
+        tickMillis = Math.max(1, maxAgeMillis / (WHEEL_SIZE - 1) + 1);
+        processedTick = System.currentTimeMillis() / tickMillis;
         cleanerTimer.schedule(new TimerTask() {
             @Override
             public void run() {
@@ -34,10 +102,32 @@ public class ItemCache {
         }, 5000, 5000);
     }
 
+    /**
+     * Remove expired entries: walk the timer wheel buckets that have passed since the last call.
+     */
     final void cleanUp() {
-        // we should avoid creating an object for each check:
-        Instant now = Instant.now();
-        records.values().forEach(r->r.checkExpiration(now));
+        long nowTick = System.currentTimeMillis() / tickMillis;
+        evictionLock.lock();
+        try {
+            drainReadBuffer();
+            long ticks = Math.min(nowTick - processedTick, WHEEL_SIZE);
+            for (long t = nowTick - ticks; t < nowTick; t++) {
+                int index = (int) (t % WHEEL_SIZE);
+                Record r = wheel[index];
+                while (r != null) {
+                    Record next = r.wheelNext;
+                    // the bucket could also keep entries from the next round of the wheel
+                    if (r.expiresAt < nowTick * tickMillis) {
+                        removeRecord(r);
+                        expirations.incrementAndGet();
+                    }
+                    r = next;
+                }
+            }
+            processedTick = nowTick;
+        } finally {
+            evictionLock.unlock();
+        }
     }
 
     public void shutdown() {
@@ -46,14 +136,14 @@ public class ItemCache {
     }
 
     public @Nullable Approvable get(HashId itemId) {
-        Record i = records.get(itemId);
+        Record i = lookup(itemId);
         if( i != null && i.item == null )
             throw new RuntimeException("cache: record with empty item");
         return i != null ? i.item : null;
     }
 
     public @Nullable ItemResult getResult(HashId itemId) {
-        Record r = records.get(itemId);
+        Record r = lookup(itemId);
         if( r != null && r.item == null )
             throw new RuntimeException("cache: record with empty item");
         return r != null ? r.result : null;
@@ -62,6 +152,21 @@ public class ItemCache {
     public void put(Approvable item, ItemResult result) {
         // this will plainly override current if any
         Record r = new Record(item, result);
+        evictionLock.lock();
+        try {
+            drainReadBuffer();
+            Record old = records.put(r.id, r);
+            if (old != null)
+                unlinkRecord(old);
+            window.linkLast(r);
+            r.inWindow = true;
+            weightedSize += r.weight;
+            scheduleExpiration(r);
+            sketch.increment(r.id);
+            evictEntries();
+        } finally {
+            evictionLock.unlock();
+        }
     }
 
     public void update(HashId itemId, ItemResult result) {
@@ -74,8 +179,6 @@ public class ItemCache {
         }
     }
 
-    private ConcurrentHashMap<HashId,Record> records = new ConcurrentHashMap();
-
     public void idsCheck(HashId itemId) {
         for(HashId x: records.keySet()) {
             System.out.println(" checking "+itemId+" eq "+x+ ": "+itemId.equals(x) + " / " + x.equals(itemId) );
@@ -89,23 +192,304 @@ public class ItemCache {
         return records.size();
     }
 
+    /**
+     * @return estimated size of all cached items, in bytes
+     */
+    public long weightedSize() {
+        evictionLock.lock();
+        try {
+            return weightedSize;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public long getExpirationCount() {
+        return expirations.get();
+    }
+
+    /**
+     * @return cache counters and limits, to be reported with the node stats
+     */
+    public Binder getStats() {
+        return Binder.of(
+                "size", size(),
+                "bytes", weightedSize(),
+                "maxSize", maxEntries,
+                "maxBytes", maxBytes,
+                "hits", hits.get(),
+                "misses", misses.get(),
+                "evictions", evictions.get(),
+                "expirations", expirations.get()
+        );
+    }
+
+    private Record lookup(HashId itemId) {
+        Record r = records.get(itemId);
+        if (r == null || r.expiresAt < System.currentTimeMillis()) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        // lossy: if the buffer is full the access is just not recorded
+        readBuffer.offer(r);
+        if (readBuffer.size() >= READ_BUFFER_DRAIN_THRESHOLD && evictionLock.tryLock()) {
+            try {
+                drainReadBuffer();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+        return r;
+    }
+
+    /// policy section, all methods below should be called under the evictionLock ///
+
+    private void drainReadBuffer() {
+        Record r;
+        while ((r = readBuffer.poll()) != null) {
+            // record could be already removed, then we just skip it
+            if (records.get(r.id) != r)
+                continue;
+            sketch.increment(r.id);
+            if (r.inWindow)
+                window.moveToLast(r);
+            else
+                main.moveToLast(r);
+        }
+    }
+
+    private boolean isOverBudget() {
+        return records.size() > maxEntries || weightedSize > maxBytes;
+    }
+
+    private void evictEntries() {
+        // entries leaving the window compete with the least recently used entry of the main region
+        while (window.size > maxWindowEntries) {
+            Record candidate = window.first;
+            window.unlink(candidate);
+            candidate.inWindow = false;
+            if (isOverBudget()) {
+                Record victim = main.first;
+                if (victim != null && sketch.frequency(candidate.id) <= sketch.frequency(victim.id)) {
+                    evict(candidate);
+                    continue;
+                }
+                if (victim != null)
+                    evict(victim);
+            }
+            main.linkLast(candidate);
+        }
+        // large items could still exceed the byte budget
+        while (isOverBudget()) {
+            Record victim = main.first != null ? main.first : window.first;
+            if (victim == null)
+                break;
+            evict(victim);
+        }
+    }
+
+    private void evict(Record r) {
+        removeRecord(r);
+        evictions.incrementAndGet();
+    }
+
+    private void removeRecord(Record r) {
+        if (records.remove(r.id, r))
+            unlinkRecord(r);
+    }
+
+    private void unlinkRecord(Record r) {
+        if (r.inWindow)
+            window.unlink(r);
+        else if (main.contains(r))
+            main.unlink(r);
+        unscheduleExpiration(r);
+        weightedSize -= r.weight;
+    }
+
+    private void scheduleExpiration(Record r) {
+        int index = (int) ((r.expiresAt / tickMillis) % WHEEL_SIZE);
+        Record head = wheel[index];
+        r.wheelNext = head;
+        r.wheelPrev = null;
+        if (head != null)
+            head.wheelPrev = r;
+        wheel[index] = r;
+        r.wheelIndex = index;
+    }
+
+    private void unscheduleExpiration(Record r) {
+        if (r.wheelIndex < 0)
+            return;
+        if (r.wheelPrev != null)
+            r.wheelPrev.wheelNext = r.wheelNext;
+        else
+            wheel[r.wheelIndex] = r.wheelNext;
+        if (r.wheelNext != null)
+            r.wheelNext.wheelPrev = r.wheelPrev;
+        r.wheelPrev = r.wheelNext = null;
+        r.wheelIndex = -1;
+    }
+
+    private static int weigh(Approvable item) {
+        if (item instanceof Contract) {
+            byte[] sealed = ((Contract) item).getLastSealedBinary();
+            if (sealed != null)
+                return sealed.length;
+        }
+        return DEFAULT_ITEM_WEIGHT;
+    }
+
     private class Record {
-        private Instant expiresAt;
-        private Approvable item;
-        private ItemResult result;
+        private final HashId id;
+        private final long expiresAt;
+        private final int weight;
+        private final Approvable item;
+        private volatile ItemResult result;
+
+        private boolean inWindow;
+        private Record prev;
+        private Record next;
+        private Record wheelPrev;
+        private Record wheelNext;
+        private int wheelIndex = -1;
 
         private Record(Approvable item, ItemResult result) {
-            expiresAt = Instant.now().plus(maxAge);
+            expiresAt = System.currentTimeMillis() + maxAgeMillis;
+            this.id = item.getId();
             this.item = item;
             this.result = result;
-            records.put(item.getId(), this);
+            this.weight = weigh(item);
+        }
+    }
+
+    /**
+     * Intrusive LRU list of records, least recently used first.
+     */
+    private class AccessQueue {
+        private Record first;
+        private Record last;
+        private int size;
+
+        private boolean contains(Record r) {
+            return r.prev != null || r.next != null || first == r;
+        }
+
+        private void linkLast(Record r) {
+            r.prev = last;
+            r.next = null;
+            if (last == null)
+                first = r;
+            else
+                last.next = r;
+            last = r;
+            size++;
         }
 
-        private void checkExpiration(Instant now) {
-            if( expiresAt.isBefore(now) ) {
-//                System.out.println("cache expired "+item.getId());
-                records.remove(item.getId());
+        private void unlink(Record r) {
+            if (r.prev == null)
+                first = r.next;
+            else
+                r.prev.next = r.next;
+            if (r.next == null)
+                last = r.prev;
+            else
+                r.next.prev = r.prev;
+            r.prev = r.next = null;
+            size--;
+        }
+
+        private void moveToLast(Record r) {
+            if (last != r) {
+                unlink(r);
+                linkLast(r);
             }
         }
     }
+
+    /**
+     * Count-min sketch with 4-bit counters estimating how often the item was requested recently. Counters are halved
+     * when the number of increments reaches the sample size, so the old popularity fades away.
+     */
+    static class FrequencySketch {
+        private static final long RESET_MASK = 0x7777777777777777L;
+        private static final int[] SEEDS = {0x97cb3127, 0xb9d2f1ad, 0x8a1f9d71, 0xc2b2ae35};
+
+        private final long[] table;
+        private final int tableMask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int maxEntries) {
+            int length = 1;
+            while (length < maxEntries && length < (1 << 30))
+                length <<= 1;
+            table = new long[length];
+            tableMask = length - 1;
+            sampleSize = (int) Math.min(10L * maxEntries, Integer.MAX_VALUE);
+        }
+
+        int frequency(Object key) {
+            int hash = spread(key.hashCode());
+            int frequency = Integer.MAX_VALUE;
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(hash, i);
+                int offset = counterOffset(hash, i);
+                frequency = Math.min(frequency, (int) ((table[index] >>> offset) & 0xfL));
+            }
+            return frequency;
+        }
+
+        void increment(Object key) {
+            int hash = spread(key.hashCode());
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(hash, i);
+                int offset = counterOffset(hash, i);
+                long mask = 0xfL << offset;
+                if ((table[index] & mask) != mask) {
+                    table[index] += 1L << offset;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize)
+                reset();
+        }
+
+        private void reset() {
+            for (int i = 0; i < table.length; i++)
+                table[i] = (table[i] >>> 1) & RESET_MASK;
+            additions >>>= 1;
+        }
+
+        private int indexOf(int hash, int i) {
+            long h = (long) (hash + SEEDS[i]) * SEEDS[i];
+            h += h >>> 32;
+            return ((int) h) & tableMask;
+        }
+
+        private int counterOffset(int hash, int i) {
+            // 16 counters per long, each row uses its own quarter of them
+            return (((hash >>> (i << 3)) & 3) + (i << 2)) << 2;
+        }
+
+        private static int spread(int x) {
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            return (x >>> 16) ^ x;
+        }
+    }
 }
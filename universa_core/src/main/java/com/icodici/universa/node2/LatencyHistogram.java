@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2018, iCodici S.n.C, All Rights Reserved
+ *
+ */
+
+package com.icodici.universa.node2;
+
+import net.sergeych.tools.Binder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of durations with fixed millisecond buckets. Recording is a couple of atomic increments, so it
+ * can be used on hot paths like executor tasks. Percentiles are estimated as the upper bound of the bucket the
+ * percentile falls into.
+ */
+public class LatencyHistogram {
+
+    /**
+     * Upper bounds of the buckets, in milliseconds. Everything longer goes to the last, unbounded bucket.
+     */
+    private static final long[] BOUNDS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000};
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS.length + 1);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Record the duration.
+     *
+     * @param nanos duration in nanoseconds, negative values are counted as zero
+     */
+    public void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+        long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+        int i = 0;
+        while (i < BOUNDS.length && millis >= BOUNDS[i])
+            i++;
+        buckets.incrementAndGet(i);
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * @return number of recorded durations
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return longest recorded duration, in milliseconds
+     */
+    public long getMaxMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxNanos.get());
+    }
+
+    /**
+     * @return mean of recorded durations, in milliseconds
+     */
+    public double getMeanMillis() {
+        long n = count.get();
+        return n == 0 ? 0.0 : totalNanos.get() / 1e6 / n;
+    }
+
+    /**
+     * Estimate the percentile.
+     *
+     * @param percentile from 0 to 100
+     *
+     * @return upper bound of the bucket the percentile falls into, in milliseconds; for the last bucket it is the
+     * longest recorded duration. 0 if nothing is recorded.
+     */
+    public long getPercentileMillis(double percentile) {
+        long n = count.get();
+        if (n == 0)
+            return 0;
+        long rank = (long) Math.ceil(n * percentile / 100.0);
+        if (rank < 1)
+            rank = 1;
+        long seen = 0;
+        for (int i = 0; i < BOUNDS.length; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank)
+                return BOUNDS[i];
+        }
+        return Math.max(getMaxMillis(), BOUNDS[BOUNDS.length - 1]);
+    }
+
+    /**
+     * Get the histogram for the node stats.
+     *
+     * @return {@link Binder} with count, mean, max, percentiles and non-empty buckets keyed by their upper bound
+     */
+    public Binder getStats() {
+        Binder histogram = new Binder();
+        for (int i = 0; i <= BOUNDS.length; i++) {
+            long c = buckets.get(i);
+            if (c > 0)
+                histogram.put(i < BOUNDS.length ? "<" + BOUNDS[i] : ">=" + BOUNDS[BOUNDS.length - 1], c);
+        }
+        return Binder.of(
+                "count", getCount(),
+                "meanMillis", getMeanMillis(),
+                "maxMillis", getMaxMillis(),
+                "p50Millis", getPercentileMillis(50),
+                "p99Millis", getPercentileMillis(99),
+                "buckets", histogram
+        );
+    }
+}
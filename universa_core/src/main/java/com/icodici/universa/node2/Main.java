@@ -212,6 +212,7 @@ public class Main {
         network = new NetworkV2(netConfig, myInfo, nodeKey);
         network.setVerboseLevel(networkVerboseLvl);
         network.setUDPVerboseLevel(networkUDPVerboseLvl);
+        network.setNotificationsCoalescingTime(config.getNotificationsCoalescingTime());
 
         node = new Node(config, myInfo, ledger, network);
         node.setVerboseLevel(nodeVerboseLvl);
@@ -340,8 +341,33 @@ public class Main {
         );
 
         config.setIsFreeRegistrationsAllowedFromYaml(settings.getBoolean("allow_free_registrations", false));
-
-        ledger = new PostgresLedger(settings.getStringOrThrow("database"));
+        config.setMaxCacheItems(settings.getInt("item_cache_max_items", config.getMaxCacheItems()));
+        config.setMaxCacheBytes(settings.getLong("item_cache_max_bytes", config.getMaxCacheBytes()));
+        config.setSignatureVerifierThreads(settings.getInt("signature_verifier_threads",
+                config.getSignatureVerifierThreads()));
+        config.setVerifiedSignaturesCacheSize(settings.getInt("verified_signatures_cache_size",
+                config.getVerifiedSignaturesCacheSize()));
+        config.setNotificationsCoalescingTime(Duration.ofMillis(settings.getLong("notifications_coalescing_millis",
+                config.getNotificationsCoalescingTime().toMillis())));
+        config.setWorkerThreads(settings.getInt("worker_threads", config.getWorkerThreads()));
+        config.setLowPrioWorkerThreads(settings.getInt("low_prio_worker_threads", config.getLowPrioWorkerThreads()));
+        config.setElasticWorkers(settings.getBoolean("elastic_workers", config.isElasticWorkers()));
+        config.setTimerThreads(settings.getInt("timer_threads", config.getTimerThreads()));
+        config.setMaxElasticWorkers(settings.getInt("max_elastic_workers", config.getMaxElasticWorkers()));
+        config.setMaxStatesPerQuery(settings.getInt("max_states_per_query", config.getMaxStatesPerQuery()));
+        config.setMaxStateWaitTime(Duration.ofMillis(settings.getLong("max_state_wait_millis",
+                config.getMaxStateWaitTime().toMillis())));
+        config.setMaxStateWaiters(settings.getInt("max_state_waiters", config.getMaxStateWaiters()));
+        config.setSanitationPageSize(settings.getInt("sanitation_page_size", config.getSanitationPageSize()));
+        config.setCleanupBatchSize(settings.getInt("cleanup_batch_size", config.getCleanupBatchSize()));
+        config.setCleanupBatchPause(Duration.ofMillis(settings.getLong("cleanup_batch_pause_millis",
+                config.getCleanupBatchPause().toMillis())));
+        config.setAdaptivePolling(settings.getBoolean("adaptive_polling", config.isAdaptivePolling()));
+        config.setMinPollTime(Duration.ofMillis(settings.getLong("min_poll_millis",
+                config.getMinPollTime().toMillis())));
+        config.setMaxCachedRecords(settings.getInt("ledger_cache_max_records", config.getMaxCachedRecords()));
+
+        ledger = new PostgresLedger(settings.getStringOrThrow("database"), config.getMaxCachedRecords());
         log("ledger constructed");
 
         log("key loaded: " + nodeKey.info());
@@ -11,6 +11,7 @@ import com.icodici.crypto.KeyAddress;
 import com.icodici.crypto.PublicKey;
 import com.icodici.universa.*;
 import com.icodici.universa.contract.Contract;
+import com.icodici.universa.contract.ExtendedSignature;
 import com.icodici.universa.contract.Parcel;
 import com.icodici.universa.contract.permissions.ChangeOwnerPermission;
 import com.icodici.universa.contract.permissions.ModifyDataPermission;
@@ -33,11 +34,14 @@ import org.checkerframework.checker.nullness.qual.Nullable;
 
 import java.io.IOException;
 import java.text.SimpleDateFormat;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Supplier;
 
 /**
@@ -55,10 +59,46 @@ public class Node {
     private ScheduledFuture<?> statsCollector;
 
     public boolean isSanitating() {
-        return !recordsToSanitate.isEmpty();
+        return sanitating;
     }
 
-    private Map<HashId,StateRecord> recordsToSanitate;
+    private volatile boolean sanitating = true;
+
+    /**
+     * Window of the unfinished records read from the ledger and not sanitated yet. Records are read page by page, see
+     * {@link #loadSanitationPage()}, so the window holds a page or two and the locked records waiting for their
+     * lockers.
+     */
+    private final Map<HashId,StateRecord> recordsToSanitate = new ConcurrentHashMap<>();
+
+    /**
+     * Records of the window that are being resynced now.
+     */
+    private final Set<HashId> sanitatingIds = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Locked records of the window by the record id of their locker, guarded by recordsToSanitate.
+     */
+    private final Map<Long, List<StateRecord>> sanitationLocks = new HashMap<>();
+
+    /**
+     * Final states of the sanitated records by their record ids, to release the records they have locked that are
+     * read with the later pages. Guarded by recordsToSanitate.
+     */
+    private final Map<Long, ItemState> sanitatedStates = new HashMap<>();
+
+    // only the sanitation task touches the cursor
+    private long sanitationCursor = 0;
+    // records created after the sanitation has started belong to the running processors
+    private long sanitationUpTo = 0;
+    private volatile boolean sanitationPagesDone = false;
+    private volatile int sanitationWaiting = 0;
+    private volatile Instant sanitationStartedAt;
+    private final AtomicLong sanitationPages = new AtomicLong();
+    private final AtomicLong sanitationLoaded = new AtomicLong();
+    private final AtomicLong sanitationDone = new AtomicLong();
+    private final AtomicLong sanitationReleased = new AtomicLong();
+    private final AtomicLong sanitationRestarted = new AtomicLong();
 
     public Map<HashId, StateRecord> getRecordsToSanitate() {
         return recordsToSanitate;
@@ -90,17 +130,7 @@ public class Node {
     private ConcurrentHashMap<HashId, ItemProcessor> processors = new ConcurrentHashMap();
     private ConcurrentHashMap<HashId, ParcelProcessor> parcelProcessors = new ConcurrentHashMap();
 
-    private ScheduledExecutorService executorService = new ScheduledThreadPoolExecutor(128, new ThreadFactory() {
-
-        private final ThreadGroup threadGroup = new ThreadGroup("node-workers");
-
-        @Override
-        public Thread newThread(Runnable r) {
-            Thread thread = new Thread(threadGroup,r);
-            thread.setName("node-"+myInfo.getNumber()+"-worker");
-            return thread;
-        }
-    });
+    private final NodeExecutor executorService;
 
     private NSmartContract.NodeInfoProvider nodeInfoProvider = new NSmartContract.NodeInfoProvider() {
 
@@ -134,18 +164,17 @@ public class Node {
         }
     };
 
-    private ScheduledExecutorService lowPrioExecutorService = new ScheduledThreadPoolExecutor(16, new ThreadFactory() {
+    private final NodeExecutor lowPrioExecutorService;
 
-        private final ThreadGroup threadGroup = new ThreadGroup("low-prio-node-workers");
+    /**
+     * Polls of all item processors share one timer wheel of 10ms ticks that turns in about 10 seconds.
+     */
+    private static final long POLL_TIMER_TICK_MILLIS = 10;
+    private static final int POLL_TIMER_WHEEL_SIZE = 1024;
 
-        @Override
-        public Thread newThread(Runnable r) {
-            Thread thread = new Thread(threadGroup,r);
-            thread.setName("low-prio-node-"+myInfo.getNumber()+"-worker");
-            thread.setPriority((Thread.NORM_PRIORITY+Thread.MIN_PRIORITY)/2);
-            return thread;
-        }
-    });
+    private final TimerWheel pollTimer;
+    private final AdaptivePoller adaptivePoller;
+    private final ResyncCoordinator<ResyncingItem> resyncCoordinator;
 
     public Node(Config config, NodeInfo myInfo, Ledger ledger, Network network) {
 
@@ -153,19 +182,31 @@ public class Node {
         this.myInfo = myInfo;
         this.ledger = ledger;
         this.network = network;
-        cache = new ItemCache(config.getMaxCacheAge());
+        executorService = createExecutor("node-workers", "node-" + myInfo.getNumber() + "-worker",
+                Thread.NORM_PRIORITY, config.getWorkerThreads());
+        lowPrioExecutorService = createExecutor("low-prio-node-workers", "low-prio-node-" + myInfo.getNumber() + "-worker",
+                (Thread.NORM_PRIORITY + Thread.MIN_PRIORITY) / 2, config.getLowPrioWorkerThreads());
+        pollTimer = new TimerWheel("node-" + myInfo.getNumber() + "-poll-timer", POLL_TIMER_TICK_MILLIS, POLL_TIMER_WHEEL_SIZE);
+        adaptivePoller = new AdaptivePoller(pollTimer, executorService, config.getMinPollTime(), config.isAdaptivePolling());
+        resyncCoordinator = new ResyncCoordinator<>(pollTimer, executorService, this::otherNodes,
+                (node, items) -> network.deliver(node, new ItemResyncNotification(myInfo,
+                        items.keySet().iterator().next(), items, new HashSet<>(), true)),
+                this::commitResynced);
+        cache = new ItemCache(config.getMaxCacheAge(), config.getMaxCacheItems(), config.getMaxCacheBytes());
         parcelCache = new ParcelCache(config.getMaxCacheAge());
         envCache = new EnvCache(config.getMaxCacheAge());
         nameCache = new NameCache(config.getMaxNameCacheAge());
+        ExtendedSignature.setVerifierThreads(config.getSignatureVerifierThreads());
+        ExtendedSignature.setVerifiedCacheSize(config.getVerifiedSignaturesCacheSize());
         config.updateConsensusConfig(network.getNodesCount());
 
         label = "Node(" + myInfo.getNumber() + ") ";
 
         network.subscribe(myInfo, notification -> onNotification(notification));
 
-        recordsToSanitate = ledger.findUnfinished();
-
-        System.out.println(label + " " + recordsToSanitate.size());
+        sanitationStartedAt = Instant.now();
+        sanitationUpTo = ledger.getMaxRecordId();
+        loadSanitationPage();
 
         if(!recordsToSanitate.isEmpty()) {
             pulseStartSanitation();
@@ -182,14 +223,49 @@ public class Node {
 
     }
 
+    /**
+     * Create the node executor as configured: either a fixed pool of the given size or, with
+     * {@link Config#isElasticWorkers()}, a few timer threads that hand tasks over to elastic workers.
+     */
+    private NodeExecutor createExecutor(String groupName, String threadName, int priority, int threads) {
+        ThreadGroup threadGroup = new ThreadGroup(groupName);
+        ThreadFactory threadFactory = r -> {
+            Thread thread = new Thread(threadGroup, r);
+            thread.setName(threadName);
+            thread.setPriority(priority);
+            return thread;
+        };
+        if (!config.isElasticWorkers())
+            return new NodeExecutor(threads, threadFactory, null, 0);
+        ThreadFactory timerFactory = r -> {
+            Thread thread = new Thread(threadGroup, r);
+            thread.setName(threadName + "-timer");
+            return thread;
+        };
+        return new NodeExecutor(config.getTimerThreads(), timerFactory, threadFactory, config.getMaxElasticWorkers());
+    }
+
     private void pulseStartCleanup() {
-        lowPrioExecutorService.scheduleAtFixedRate(() -> ledger.cleanup(),1,config.getMaxDiskCacheAge().getSeconds(),TimeUnit.SECONDS);
+        lowPrioExecutorService.scheduleAtFixedRate(() -> {
+            // a failed run should not cancel the next ones
+            try {
+                ledger.cleanup(config.getCleanupBatchSize(), config.getCleanupBatchPause());
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        },1,config.getMaxDiskCacheAge().getSeconds(),TimeUnit.SECONDS);
         lowPrioExecutorService.scheduleAtFixedRate(() -> ledger.removeExpiredStorageSubscriptionsCascade(),config.getExpriedStorageCleanupInterval().getSeconds(),config.getExpriedStorageCleanupInterval().getSeconds(),TimeUnit.SECONDS);
         lowPrioExecutorService.scheduleAtFixedRate(() -> ledger.clearExpiredNameRecords(config.getHoldDuration()),config.getExpriedNamesCleanupInterval().getSeconds(),config.getExpriedNamesCleanupInterval().getSeconds(),TimeUnit.SECONDS);
     }
 
     private void dbSanitationFinished() {
 
+        sanitating = false;
+
+        synchronized (recordsToSanitate) {
+            sanitatedStates.clear();
+        }
+
         sanitationFinished.fire();
 
         nodeStats.init(ledger,config);
@@ -218,37 +294,40 @@ public class Node {
         );
     }
 
-    ArrayList<HashId> sanitatingIds = new ArrayList<>();
-
     private void startSanitation() {
-        if(recordsToSanitate.isEmpty()) {
-            sanitator.cancel(false);
-            dbSanitationFinished();
-            return;
-        }
+        try {
+            if(isShuttingDown)
+                return;
+
+            // read the next page before the window runs dry
+            if(!sanitationPagesDone && sanitationWaiting < config.getSanitationPageSize() / 2)
+                loadSanitationPage();
 
-        for (int i = 0; i < sanitatingIds.size(); i++) {
-            if (!recordsToSanitate.containsKey(sanitatingIds.get(i))) {
-                sanitatingIds.remove(i);
-                --i;
+            if(sanitationPagesDone && recordsToSanitate.isEmpty()) {
+                sanitator.cancel(false);
+                report(label, () -> "sanitation finished: " + getSanitationStats(), DatagramAdapter.VerboseLevel.BASE);
+                dbSanitationFinished();
+                return;
             }
-        }
 
-        if (sanitatingIds.size() < MAX_SANITATING_RECORDS) {
             synchronized (recordsToSanitate) {
+                sanitatingIds.removeIf(id -> !recordsToSanitate.containsKey(id));
+
+                int waiting = 0;
                 for (StateRecord r : recordsToSanitate.values()) {
-                    if (r.getState() != ItemState.LOCKED && r.getState() != ItemState.LOCKED_FOR_CREATION && !sanitatingIds.contains(r.getId())) {
-                        sanitateRecord(r);
+                    if (r.getState() == ItemState.LOCKED || r.getState() == ItemState.LOCKED_FOR_CREATION || sanitatingIds.contains(r.getId()))
+                        continue;
+                    if (sanitatingIds.size() < MAX_SANITATING_RECORDS) {
                         sanitatingIds.add(r.getId());
-                        if (sanitatingIds.size() == MAX_SANITATING_RECORDS) {
-                            break;
-                        }
+                        sanitateRecord(r);
+                    } else {
+                        waiting++;
                     }
                 }
-            }
-            if (sanitatingIds.size() == 0 && recordsToSanitate.size() > 0) {
-                //ONLY LOCKED LEFT -> RESYNC THEM
-                synchronized (recordsToSanitate) {
+                sanitationWaiting = waiting;
+
+                if (sanitationPagesDone && sanitatingIds.isEmpty() && !recordsToSanitate.isEmpty()) {
+                    //ONLY LOCKED LEFT -> RESYNC THEM
                     for (StateRecord r : recordsToSanitate.values()) {
                         r.setState(ItemState.PENDING);
                         try {
@@ -263,11 +342,71 @@ public class Node {
                             e.printStackTrace();
                         }
                     }
+                    sanitationLocks.clear();
                 }
             }
+        } catch (Exception e) {
+            // keep the periodic task alive, the next run will try again
+            e.printStackTrace();
         }
+    }
 
+    /**
+     * Read the next page of unfinished records into the window. Locked records whose lockers are sanitated already
+     * are released at once, others wait in the window for their lockers.
+     */
+    private void loadSanitationPage() {
+        List<StateRecord> page = ledger.findUnfinished(sanitationCursor, sanitationUpTo, config.getSanitationPageSize());
+        if (page.isEmpty()) {
+            sanitationPagesDone = true;
+            return;
+        }
+        sanitationPages.incrementAndGet();
+        sanitationLoaded.addAndGet(page.size());
+        int waiting = 0;
+        synchronized (recordsToSanitate) {
+            for (StateRecord r : page) {
+                sanitationCursor = Math.max(sanitationCursor, r.getRecordId());
+                boolean locked = r.getState() == ItemState.LOCKED || r.getState() == ItemState.LOCKED_FOR_CREATION;
+                if (locked) {
+                    ItemState lockerState = sanitatedStates.get(r.getLockedByRecordId());
+                    if (lockerState != null && releaseSanitationLock(lockerState, r)) {
+                        sanitationReleased.incrementAndGet();
+                        continue;
+                    }
+                    sanitationLocks.computeIfAbsent(r.getLockedByRecordId(), k -> new ArrayList<>()).add(r);
+                } else {
+                    waiting++;
+                }
+                recordsToSanitate.put(r.getId(), r);
+            }
+        }
+        sanitationWaiting += waiting;
+        report(label, () -> "sanitation page " + sanitationPages.get() + ": " + page.size() + " records, " +
+                recordsToSanitate.size() + " in the window, " + sanitationDone.get() + " sanitated",
+                DatagramAdapter.VerboseLevel.DETAILED);
+    }
 
+    /**
+     * Get the progress of the sanitation of the records left unfinished by the previous run of the node.
+     *
+     * @return {@link Binder} with the counters of read, sanitated, released and restarted records, the window and the
+     * time spent
+     */
+    public Binder getSanitationStats() {
+        Instant started = sanitationStartedAt;
+        return Binder.of(
+                "sanitating", sanitating,
+                "pages", sanitationPages.get(),
+                "loaded", sanitationLoaded.get(),
+                "sanitated", sanitationDone.get(),
+                "released", sanitationReleased.get(),
+                "restarted", sanitationRestarted.get(),
+                "inFlight", sanitatingIds.size(),
+                "window", recordsToSanitate.size(),
+                "allRead", sanitationPagesDone,
+                "seconds", started == null ? 0 : Duration.between(started, Instant.now()).getSeconds()
+        );
     }
 
     private void sanitateRecord(StateRecord r) {
@@ -384,6 +523,61 @@ public class Node {
         return ir;
     }
 
+    /**
+     * Check the states of a number of items at once, like {@link #checkItem(HashId)} does for each of them. Results of
+     * items being processed are taken from their processors, the rest is looked up in the ledger with one {@link
+     * Ledger#getRecords(Collection)} call and answered from {@link ItemCache} where the result is cached. Only items
+     * with pending records and no processor take the usual per-item path.
+     *
+     * @param itemIds items to check the state of, could contain duplicates
+     *
+     * @return results in the order of itemIds
+     */
+    public @NonNull List<ItemResult> checkItems(@NonNull List<HashId> itemIds) {
+        Map<HashId, ItemResult> results = new HashMap<>();
+        List<HashId> notProcessing = new ArrayList<>();
+        for (HashId id : itemIds) {
+            ItemProcessor ip = processors.get(id);
+            if (ip != null)
+                results.put(id, ip.getResult());
+            else
+                notProcessing.add(id);
+        }
+
+        Map<HashId, StateRecord> records = notProcessing.isEmpty() ? Collections.emptyMap() :
+                ledger.getRecords(notProcessing);
+        for (HashId id : notProcessing) {
+            if (results.containsKey(id))
+                continue;
+            StateRecord r = records.get(id);
+            ItemResult ir;
+            if (r == null) {
+                // not a shared ItemResult.UNDEFINED, errors and testnet flag are set below
+                ir = new ItemResult(ItemState.UNDEFINED, false, null, null);
+            } else if (!r.isPending()) {
+                ir = cache.getResult(id);
+                if (ir == null)
+                    ir = new ItemResult(r, cache.get(id) != null);
+            } else {
+                Object x = checkItemInternal(id);
+                ir = (x instanceof ItemResult) ? (ItemResult) x : ((ItemProcessor) x).getResult();
+            }
+            results.put(id, ir);
+        }
+
+        Set<HashId> testnet = ledger.getTestnetIds(results.keySet());
+        List<ItemResult> list = new ArrayList<>(itemIds.size());
+        for (HashId id : itemIds) {
+            ItemResult ir = results.get(id);
+            ItemInformer.Record record = informer.takeFor(id);
+            if (record != null)
+                ir.errors = record.errorRecords;
+            ir.isTestnet = testnet.contains(id);
+            list.add(ir);
+        }
+        return list;
+    }
+
     /**
      * Check the parcel's processing state. If parcel is not under processing (not start or already finished)
      * return ParcelProcessingState.NOT_EXIST
@@ -522,12 +716,6 @@ public class Node {
 
         NodeInfo from = notification.getFrom();
 
-        // get processor, do not create new if not exist
-        // register resync vote for waiting processor or deliver resync vote
-        Object itemObject = checkItemInternal(notification.getItemId());
-
-
-
         if (notification.answerIsRequested()) {
             // iterate on subItems of parent item that need to resync (stored at ItemResyncNotification.getItemsToResync())
             for (HashId hid : itemsToResync.keySet()) {
@@ -568,22 +756,15 @@ public class Node {
             );
         }
 
-        if (itemObject instanceof ItemProcessor) {
-            ItemProcessor ip = (ItemProcessor) itemObject;
-            if(ip.processingState.isResyncing()) {
-                ip.lock(() -> {
-                    for (HashId hid : itemsToResync.keySet()) {
-                        ip.resyncVote(hid, from, itemsToResync.get(hid));
-                        if(itemsWithEnvironments.contains(hid)) {
-                            ip.addEnvToSources(hid,from);
-                        }
-                    }
-
+        // the notification may carry votes for the items of many processors (and so may the request, with the states
+        // the sender knows), every resyncing processor gets the votes for its items
+        resyncCoordinator.vote(from, itemsToResync, itemsWithEnvironments);
+    }
 
-                    return null;
-                });
-            }
-        }
+    private Collection<NodeInfo> otherNodes() {
+        List<NodeInfo> nodes = new ArrayList<>(network.allNodes());
+        nodes.remove(myInfo);
+        return nodes;
     }
 
     private NImmutableEnvironment getEnvironment(HashId hid) {
@@ -870,6 +1051,8 @@ public class Node {
                             "nothing found, will create item processor"),
                             DatagramAdapter.VerboseLevel.BASE);
                     ItemProcessor processor = new ItemProcessor(itemId, parcelId, item, lock, forceChecking);
+                    // processor uses the lock as its mutex, keep it for the id until processor is removed
+                    itemLock.retain(lock);
                     processors.put(itemId, processor);
                     return processor;
                 } else {
@@ -913,6 +1096,7 @@ public class Node {
                         }
                     }
                     processor = new ParcelProcessor(parcelId, parcel, lock);
+                    parcelLock.retain(lock);
                     parcelProcessors.put(parcelId, processor);
 
                     return processor;
@@ -1008,6 +1192,8 @@ public class Node {
         System.out.println(toString() + "please wait, executorService is shutting down");
         executorService.shutdown();
         lowPrioExecutorService.shutdown();
+        resyncCoordinator.shutdown();
+        pollTimer.shutdown();
         try {
             executorService.awaitTermination(5, TimeUnit.SECONDS);
         } catch (InterruptedException e) {
@@ -1093,8 +1279,14 @@ public class Node {
     }
 
     public Binder provideStats(Integer showDays) {
-        if(nodeStats.nodeStartTime == null)
+        if(nodeStats.nodeStartTime == null) {
+            if(sanitating)
+                // the only progress to watch until the node is ready
+                return Binder.of(
+                        "nodeNumber", myInfo.getNumber(),
+                        "sanitation", getSanitationStats());
             throw new IllegalStateException("node state are not initialized. wait for node initialization to finish.");
+        }
 
         Binder result = Binder.of(
                 "uptime", Instant.now().getEpochSecond() - nodeStats.nodeStartTime.toEpochSecond(),
@@ -1103,8 +1295,22 @@ public class Node {
                 "bigIntervalApproved", nodeStats.bigIntervalApproved,
                 "uptimeApproved", nodeStats.uptimeApproved,
                 "coreVersion", Core.VERSION,
-                "nodeNumber", myInfo.getNumber()
+                "nodeNumber", myInfo.getNumber(),
+                "itemCache", cache.getStats(),
+                "recordCache", ledger.getRecordCacheStats(),
+                "verifiedSignatures", ExtendedSignature.getVerifiedCacheStats(),
+                "itemLock", itemLock.getStats(),
+                "parcelLock", parcelLock.getStats(),
+                "executor", executorService.getStats(),
+                "lowPrioExecutor", lowPrioExecutorService.getStats(),
+                "poller", adaptivePoller.getStats(),
+                "resync", resyncCoordinator.getStats(),
+                "cleanup", ledger.getCleanupStats(),
+                "sanitation", getSanitationStats()
                 );
+        if(network instanceof NetworkV2) {
+            result.put("itemFetch", ((NetworkV2) network).getItemFetchStats());
+        }
         if(showDays != null) {
             result.put("payments",nodeStats.getPaymentStats(ledger,showDays));
         }
@@ -1588,7 +1794,8 @@ public class Node {
                     parcelId, " :: removeSelf, state ", processingState),
                     DatagramAdapter.VerboseLevel.BASE);
             if(processingState.canRemoveSelf()) {
-                parcelProcessors.remove(parcelId);
+                if (parcelProcessors.remove(parcelId, this))
+                    parcelLock.release(mutex);
 
                 stopDownloader();
                 stopProcesser();
@@ -1616,7 +1823,7 @@ public class Node {
 
     /// ItemProcessor ///
 
-    private class ItemProcessor {
+    private class ItemProcessor implements ResyncCoordinator.Resync {
 
         private final HashId itemId;
         private final HashId parcelId;
@@ -1660,9 +1867,8 @@ public class Node {
         private final Object resyncMutex;
 
         private ScheduledFuture<?> downloader;
-        private RunnableWithDynamicPeriod poller;
-        private RunnableWithDynamicPeriod consensusReceivedChecker;
-        private RunnableWithDynamicPeriod resyncer;
+        private AdaptivePoller.Poll poller;
+        private AdaptivePoller.Poll consensusReceivedChecker;
         private ScheduledFuture<?> envSaver;
 
         /**
@@ -1788,12 +1994,13 @@ public class Node {
                     } else {
                         try {
                             // first we have to wait for sources
-                            NodeInfo source;
+                            List<NodeInfo> currentSources;
                             // Important: it could be disturbed by notifications
                             synchronized (sources) {
-                                source = Do.sample(sources);
+                                currentSources = new ArrayList<>(sources);
                             }
-                            item = network.getItem(itemId, source, config.getMaxGetItemTime());
+                            // network asks the fastest sources at once and takes the first answer
+                            item = network.getItem(itemId, currentSources, config.getMaxGetItemTime());
                             if (item != null) {
                                 itemDownloaded();
                                 return;
@@ -1978,11 +2185,30 @@ public class Node {
 
         private final synchronized void checkReferencesOf(Approvable checkingItem) {
 
+            if(processingState.canContinue()) {
+                if (!processingState.isProcessedToConsensus()) {
+                    Set<HashId> ids = new HashSet<>();
+                    for (Approvable ref : checkingItem.getReferencedItems())
+                        ids.add(ref.getId());
+                    checkReferencesOf(checkingItem, ledger.getRecords(ids));
+                }
+            }
+        }
+
+        /**
+         * Check references of the item using already loaded records.
+         *
+         * @param checkingItem is item to check
+         * @param records are records loaded with {@link Ledger#getRecords(Collection)} for all the referenced items
+         */
+        private final synchronized void checkReferencesOf(Approvable checkingItem, Map<HashId, StateRecord> records) {
+
             if(processingState.canContinue()) {
                 if (!processingState.isProcessedToConsensus()) {
                     for (Approvable ref : checkingItem.getReferencedItems()) {
                         HashId id = ref.getId();
-                        if (!ledger.isApproved(id)) {
+                        StateRecord r = records.get(id);
+                        if (r == null || !r.getState().isApproved()) {
                             checkingItem.addError(Errors.BAD_REF, id.toString(), "reference not approved");
                         }
                     }
@@ -1994,13 +2220,23 @@ public class Node {
 
             if(processingState.canContinue()) {
                 if (!processingState.isProcessedToConsensus()) {
+                    // load records of all revoking items and their references at once, it also warms the ledger
+                    // cache for lockToRevoke below
+                    Set<HashId> ids = new HashSet<>();
+                    for (Approvable revokingItem : checkingItem.getRevokingItems()) {
+                        ids.add(revokingItem.getId());
+                        for (Approvable ref : revokingItem.getReferencedItems())
+                            ids.add(ref.getId());
+                    }
+                    Map<HashId, StateRecord> records = ledger.getRecords(ids);
+
                     // check revoking items
                     for (Approvable revokingItem : checkingItem.getRevokingItems()) {
 
                         if (revokingItem instanceof Contract)
                             ((Contract)revokingItem).getErrors().clear();
 
-                        checkReferencesOf(revokingItem);
+                        checkReferencesOf(revokingItem, records);
 
                         // if revoking item is smart contract node additionally check it
                         if(revokingItem instanceof NSmartContract) {
@@ -2156,11 +2392,18 @@ public class Node {
                 HashMap<HashId, StateRecord> unknownParts = new HashMap<>();
                 HashMap<HashId, StateRecord> knownParts = new HashMap<>();
                 if (baseCheckPassed) {
+                    Set<HashId> ids = new HashSet<>();
+                    for (Approvable ref : item.getReferencedItems())
+                        ids.add(ref.getId());
+                    for (Approvable a : item.getRevokingItems())
+                        ids.add(a.getId());
+                    Map<HashId, StateRecord> records = ledger.getRecords(ids);
+
                     // check the referenced items
                     for (Approvable ref : item.getReferencedItems()) {
                         HashId id = ref.getId();
 //                        if(refModel.type == Reference.TYPE_EXISTING && id != null) {
-                        StateRecord r = ledger.getRecord(id);
+                        StateRecord r = records.get(id);
 
                         if (r == null || !r.getState().isConsensusFound()) {
                             unknownParts.put(id, r);
@@ -2172,7 +2415,7 @@ public class Node {
 
                     // check revoking items
                     for (Approvable a : item.getRevokingItems()) {
-                        StateRecord r = ledger.getRecord(a.getId());
+                        StateRecord r = records.get(a.getId());
 
                         if (r == null || !r.getState().isConsensusFound()) {
                             unknownParts.put(a.getId(), r);
@@ -2230,12 +2473,9 @@ public class Node {
                     synchronized (mutex) {
                         if (!processingState.isProcessedToConsensus()) {
                             if (poller == null) {
-                                List<Integer> pollTimes = config.getPollTime();
-                                poller = new RunnableWithDynamicPeriod(() -> sendStartPollingNotification(),
-                                        pollTimes,
-                                        executorService
-                                );
-                                poller.run();
+                                // nodes are notified by broadcastMyState(), each is asked again when it is late
+                                poller = adaptivePoller.start(config.getPollTime(), network.allNodes(),
+                                        this::nodesWithoutVote, this::sendStartPollingNotification);
                             }
                         }
                     }
@@ -2243,7 +2483,19 @@ public class Node {
             }
         }
 
-        private final void sendStartPollingNotification() {
+        /**
+         * @return nodes that have not voted yet
+         */
+        private List<NodeInfo> nodesWithoutVote() {
+            List<NodeInfo> result = new ArrayList<>();
+            for (NodeInfo node : network.allNodes()) {
+                if (!positiveNodes.contains(node) && !negativeNodes.contains(node))
+                    result.add(node);
+            }
+            return result;
+        }
+
+        private final void sendStartPollingNotification(List<NodeInfo> nodes) {
 
             if(processingState.canContinue()) {
                 if (!processingState.isProcessedToConsensus()) {
@@ -2259,7 +2511,9 @@ public class Node {
                             return;
                         }
                     }
-                    // at this point we should requery the nodes that did not yet answered us
+                    if (nodes.isEmpty())
+                        return;
+                    // at this point we should requery the nodes that did not yet answered us and are late
                     Notification notification;
                     ParcelNotification.ParcelNotificationType notificationType;
                     if(item.shouldBeU()) {
@@ -2268,7 +2522,6 @@ public class Node {
                         notificationType = ParcelNotification.ParcelNotificationType.PAYLOAD;
                     }
                     notification = new ParcelNotification(myInfo, itemId, parcelId, getResult(), true, notificationType);
-                    List<NodeInfo> nodes = network.allNodes();
                     for(NodeInfo node : nodes) {
                         if (!positiveNodes.contains(node) && !negativeNodes.contains(node))
                             network.deliver(node, notification);
@@ -2287,6 +2540,16 @@ public class Node {
                 boolean positiveConsensus = false;
                 boolean negativeConsensus = false;
 
+                if (!myInfo.equals(node)) {
+                    // the node has answered, do not ask it again
+                    AdaptivePoller.Poll p = poller;
+                    if (p != null)
+                        p.answered(node);
+                    p = consensusReceivedChecker;
+                    if (p != null)
+                        p.answered(node);
+                }
+
                 // check if vote already count
                 if((state.isPositive() && positiveNodes.contains(node)) ||
                         (!state.isPositive() && negativeNodes.contains(node))) {
@@ -2353,16 +2616,79 @@ public class Node {
 
         // commit subitems of given item to the ledger (recursively)
         private void downloadAndCommitSubItemsOf(Approvable commitingItem) {
+            if(processingState.canContinue()) {
+                // Mark all the subitems (including nested ones) and store them in one batch holding all their
+                // locks, so nobody changes the records in between, and only then run smart contracts callbacks
+                // and update the cache
+                Set<HashId> subIds = new HashSet<>();
+                collectSubItemIds(commitingItem, subIds);
+                Map<HashId, StateRecord> subRecords = new LinkedHashMap<>();
+                try {
+                    itemLock.synchronizeAll(subIds, () -> {
+                        markSubItemsOf(commitingItem, subRecords);
+                        ledger.saveAll(subRecords.values());
+                        return null;
+                    });
+                } catch (Ledger.Failure failure) {
+                    emergencyBreak();
+                    return;
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    emergencyBreak();
+                    return;
+                }
+                commitSubItemsOf(commitingItem, subRecords);
+            }
+        }
+
+        private void collectSubItemIds(Approvable commitingItem, Set<HashId> subIds) {
+            for (Approvable revokingItem : commitingItem.getRevokingItems())
+                subIds.add(revokingItem.getId());
+            for (Approvable newItem : commitingItem.getNewItems()) {
+                subIds.add(newItem.getId());
+                collectSubItemIds(newItem, subIds);
+            }
+        }
+
+        // should be called holding the locks of all the subitems, see collectSubItemIds
+        private void markSubItemsOf(Approvable commitingItem, Map<HashId, StateRecord> subRecords) {
+            for (Approvable revokingItem : commitingItem.getRevokingItems()) {
+                // The record may not exist due to ledger desync, so we create it if need
+                try {
+                    StateRecord r = ledger.findOrCreate(revokingItem.getId());
+                    r.setState(ItemState.REVOKED);
+                    r.setExpiresAt(ZonedDateTime.now().plus(config.getRevokedItemExpiration()));
+                    subRecords.put(revokingItem.getId(), r);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+
+            for (Approvable newItem : commitingItem.getNewItems()) {
+                // The record may not exist due to ledger desync too, so we create it if need
+                try {
+                    StateRecord r = ledger.findOrCreate(newItem.getId());
+                    r.setState(ItemState.APPROVED);
+                    r.setExpiresAt(newItem.getExpiresAt());
+                    subRecords.put(newItem.getId(), r);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+
+                markSubItemsOf(newItem, subRecords);
+            }
+        }
+
+        private void commitSubItemsOf(Approvable commitingItem, Map<HashId, StateRecord> subRecords) {
             if(processingState.canContinue()) {
                 for (Approvable revokingItem : commitingItem.getRevokingItems()) {
-                    // The record may not exist due to ledger desync, so we create it if need
+                    StateRecord r = subRecords.get(revokingItem.getId());
                     try {
                         itemLock.synchronize(revokingItem.getId(), lock -> {
-                            StateRecord r = ledger.findOrCreate(revokingItem.getId());
-                            r.setState(ItemState.REVOKED);
-                            r.setExpiresAt(ZonedDateTime.now().plus(config.getRevokedItemExpiration()));
+                            // record could not be marked
+                            if (r == null)
+                                return null;
                             try {
-                                r.save();
                                 // if revoking item is smart contract node calls method onRevoked
                                 if(revokingItem instanceof NSmartContract) {
 
@@ -2400,14 +2726,13 @@ public class Node {
                 }
 
                 for (Approvable newItem : commitingItem.getNewItems()) {
-                    // The record may not exist due to ledger desync too, so we create it if need
+                    StateRecord r = subRecords.get(newItem.getId());
                     try {
                         itemLock.synchronize(newItem.getId(), lock -> {
-                            StateRecord r = ledger.findOrCreate(newItem.getId());
-                            r.setState(ItemState.APPROVED);
-                            r.setExpiresAt(newItem.getExpiresAt());
+                            // record could not be marked
+                            if (r == null)
+                                return null;
                             try {
-                                r.save();
                                 Binder newExtraResult = new Binder();
                                 // if new item is smart contract node calls method onCreated or onUpdated
                                 if(newItem instanceof NSmartContract) {
@@ -2459,7 +2784,7 @@ public class Node {
                     lowPrioExecutorService.schedule(() -> checkSpecialItem(newItem),100,TimeUnit.MILLISECONDS);
 
 
-                    downloadAndCommitSubItemsOf(newItem);
+                    commitSubItemsOf(newItem, subRecords);
                 }
             }
         }
@@ -2761,7 +3086,7 @@ public class Node {
 
         private void stopPoller() {
             if (poller != null)
-                poller.cancel(true);
+                poller.cancel();
         }
 
         private boolean isPollingExpired() {
@@ -2781,18 +3106,15 @@ public class Node {
 
                 synchronized (mutex) {
                     if(consensusReceivedChecker == null) {
-                        List<Integer> periodsMillis = config.getConsensusReceivedCheckTime();
-                        consensusReceivedChecker = new RunnableWithDynamicPeriod(() -> sendNewConsensusNotification(),
-                                periodsMillis,
-                                executorService
-                        );
-                        consensusReceivedChecker.run();
+                        // votes got so far are answers to polling, the rest are asked on their own schedule
+                        consensusReceivedChecker = adaptivePoller.start(config.getConsensusReceivedCheckTime(),
+                                network.allNodes(), this::nodesWithoutVote, this::sendNewConsensusNotification);
                     }
                 }
             }
         }
 
-        private final void sendNewConsensusNotification() {
+        private final void sendNewConsensusNotification(List<NodeInfo> nodes) {
             if(processingState.canContinue()) {
 
                 if (processingState.isConsensusSentAndReceived())
@@ -2807,7 +3129,9 @@ public class Node {
                         return;
                     }
                 }
-                // at this point we should requery the nodes that did not yet answered us
+                if (nodes.isEmpty())
+                    return;
+                // at this point we should requery the nodes that did not yet answered us and are late
                 Notification notification;
                 ParcelNotification.ParcelNotificationType notificationType;
                 if(item.shouldBeU()) {
@@ -2816,7 +3140,6 @@ public class Node {
                     notificationType = ParcelNotification.ParcelNotificationType.PAYLOAD;
                 }
                 notification = new ParcelNotification(myInfo, itemId, parcelId, getResult(), true, notificationType);
-                List<NodeInfo> nodes = network.allNodes();
                 for(NodeInfo node : nodes) {
                     if (!positiveNodes.contains(node) && !negativeNodes.contains(node)) {
                         // if node do not know own vote we do not send notification, just looking for own state
@@ -2854,7 +3177,7 @@ public class Node {
 
         private void stopConsensusReceivedChecker() {
             if(consensusReceivedChecker != null)
-                consensusReceivedChecker.cancel(true);
+                consensusReceivedChecker.cancel();
         }
 
         //////////// resync section /////////////
@@ -2893,54 +3216,63 @@ public class Node {
                         }
                     }
 
-                    synchronized (mutex) {
-                        List<Integer> periodsMillis = config.getResyncTime();
-                        if(resyncer == null) {
-                            resyncer = new RunnableWithDynamicPeriod(() -> sendResyncNotification(),
-                                    periodsMillis,
-                                    executorService
-                            );
-                            resyncer.run();
+                    // other nodes are asked about our items together with the items of other processors
+                    if (!processingState.isGotResyncedState()) {
+                        synchronized (resyncMutex) {
+                            resyncCoordinator.register(this, resyncingItems.keySet(), config.getResyncTime());
                         }
                     }
                 }
             }
         }
 
-        private final void sendResyncNotification() {
+        @Override
+        public boolean isWaitingForVotes() {
             if(processingState.canContinue()) {
                 if (!processingState.isProcessedToConsensus()) {
                     synchronized (mutex) {
                         if (processingState.isGotResyncedState())
-                            return;
+                            return false;
                         if (isResyncExpired()) {
                             // cancel by timeout expired
                             processingState = ItemProcessingState.GOT_RESYNCED_STATE;
                             for (ResyncingItem ri : resyncingItems.values()) {
                                 ri.closeByTimeout();
                             }
-                            stopResync();
-                            return;
+                            return false;
                         }
                     }
-                    network.eachNode(node -> {
-                        HashMap<HashId, ItemState> itemsToResync = new HashMap<>();
-                        for (HashId hid : resyncingItems.keySet()) {
-                            if (resyncingItems.get(hid).needsResyncVoteFrom(node)) {
-                                //Resync should only send "final" states no PENDING* is possible here
-                                itemsToResync.put(hid, resyncingItems.get(hid).getItemState().isConsensusFound() ? resyncingItems.get(hid).getItemState() : ItemState.UNDEFINED);
-                            }
-                        }
-                        if (itemsToResync.size() > 0) {
-                            ItemResyncNotification notification = new ItemResyncNotification(myInfo, itemId, itemsToResync, new HashSet<>(),  true);
+                    return true;
+                }
+            }
+            return false;
+        }
 
-                            network.deliver(node, notification);
-                        }
-                    });
-                } else {
-                    stopResync();
+        @Override
+        public Map<HashId, ItemState> getItemsToAsk(NodeInfo node) {
+            HashMap<HashId, ItemState> itemsToResync = new HashMap<>();
+            synchronized (resyncMutex) {
+                for (ResyncingItem ri : resyncingItems.values()) {
+                    if (ri.needsResyncVoteFrom(node)) {
+                        //Resync should only send "final" states no PENDING* is possible here
+                        itemsToResync.put(ri.getId(), ri.getItemState().isConsensusFound() ? ri.getItemState() : ItemState.UNDEFINED);
+                    }
                 }
             }
+            return itemsToResync;
+        }
+
+        @Override
+        public void resyncVote(HashId hid, NodeInfo node, ItemState state, boolean withEnvironment) {
+            if(processingState.isResyncing()) {
+                lock(() -> {
+                    resyncVote(hid, node, state);
+                    if (withEnvironment) {
+                        addEnvToSources(hid, node);
+                    }
+                    return null;
+                });
+            }
         }
 
         private final void resyncVote(HashId hid, NodeInfo node, ItemState state) {
@@ -3100,10 +3432,7 @@ public class Node {
         }
 
         private void stopResync() {
-            if (resyncer != null) {
-                resyncer.cancel(true);
-                resyncer = null;
-            }
+            resyncCoordinator.unregister(this);
         }
 
         public void addItemToResync(HashId hid, StateRecord record) {
@@ -3237,7 +3566,8 @@ public class Node {
 
         //used in test purposes
         private void forceRemoveSelf() {
-            processors.remove(itemId);
+            if (processors.remove(itemId, this))
+                itemLock.release(mutex);
 
             stopDownloader();
             stopPoller();
@@ -3312,95 +3642,106 @@ public class Node {
     private void itemSanitationDone(StateRecord record) {
 
         synchronized (recordsToSanitate) {
-            if(recordsToSanitate.containsKey(record.getId())) {
-
-
-                recordsToSanitate.remove(record.getId());
-                Set<HashId> idsToRemove = new HashSet<>();
-                for (StateRecord r : recordsToSanitate.values()) {
-                    if (r.getLockedByRecordId() == record.getRecordId()) {
-                        try {
-                            itemLock.synchronize(r.getId(), lock -> {
-                                if (record.getState() == ItemState.APPROVED) {
-                                    //ITEM ACCEPTED. LOCKED -> REVOKED, LOCKED_FOR_CREATION -> ACCEPTED
-                                    if (r.getState() == ItemState.LOCKED) {
-                                        r.setState(ItemState.REVOKED);
-                                        r.save();
-                                        synchronized (cache) {
-                                            cache.update(r.getId(), new ItemResult(r));
-                                        }
-                                        idsToRemove.add(r.getId());
-                                    } else if (r.getState() == ItemState.LOCKED_FOR_CREATION) {
-                                        r.setState(ItemState.APPROVED);
-                                        r.save();
-                                        synchronized (cache) {
-                                            cache.update(r.getId(), new ItemResult(r));
-                                        }
-                                        idsToRemove.add(r.getId());
-                                    }
-                                } else if (record.getState() == ItemState.DECLINED) {
-                                    //ITEM REJECTED. LOCKED -> ACCEPTED, LOCKED_FOR_CREATION -> REMOVE
-                                    if (r.getState() == ItemState.LOCKED) {
-                                        r.setState(ItemState.APPROVED);
-                                        r.save();
-                                        synchronized (cache) {
-                                            cache.update(r.getId(), new ItemResult(r));
-                                        }
-                                        idsToRemove.add(r.getId());
-                                    } else if (r.getState() == ItemState.LOCKED_FOR_CREATION) {
-                                        r.destroy();
-                                        synchronized (cache) {
-                                            cache.update(r.getId(), null);
-                                        }
-                                        idsToRemove.add(r.getId());
-                                    }
-                                } else if (record.getState() == ItemState.REVOKED) {
-                                    //ITEM ACCEPTED AND THEN REVOKED. LOCKED -> REVOKED, LOCKED_FOR_CREATION -> ACCEPTED
-                                    if (r.getState() == ItemState.LOCKED) {
-                                        r.setState(ItemState.REVOKED);
-                                        r.save();
-                                        synchronized (cache) {
-                                            cache.update(r.getId(), new ItemResult(r));
-                                        }
-                                        idsToRemove.add(r.getId());
-                                    } else if (r.getState() == ItemState.LOCKED_FOR_CREATION) {
-                                        r.setState(ItemState.APPROVED);
-                                        r.save();
-                                        synchronized (cache) {
-                                            cache.update(r.getId(), new ItemResult(r));
-                                        }
-                                        idsToRemove.add(r.getId());
-                                    }
-                                } else if (record.getState() == ItemState.UNDEFINED) {
-                                    //ITEM UNDEFINED. LOCKED -> ACCEPTED, LOCKED_FOR_CREATION -> REMOVE
-                                    if (r.getState() == ItemState.LOCKED) {
-                                        r.setState(ItemState.APPROVED);
-                                        r.save();
-                                        synchronized (cache) {
-                                            cache.update(r.getId(), new ItemResult(r));
-                                        }
-                                        idsToRemove.add(r.getId());
-                                    } else if (r.getState() == ItemState.LOCKED_FOR_CREATION) {
-                                        r.destroy();
-                                        synchronized (cache) {
-                                            cache.update(r.getId(), null);
-                                        }
-                                        idsToRemove.add(r.getId());
-                                    }
-                                }
-                                return null;
-                            });
-                        } catch (Exception e) {
-                            e.printStackTrace();
+            if(recordsToSanitate.remove(record.getId()) != null) {
+                sanitatingIds.remove(record.getId());
+                sanitationDone.incrementAndGet();
+                sanitatedStates.put(record.getRecordId(), record.getState());
+
+                List<StateRecord> locked = sanitationLocks.remove(record.getRecordId());
+                if (locked != null) {
+                    for (StateRecord r : locked) {
+                        if (recordsToSanitate.containsKey(r.getId()) && releaseSanitationLock(record.getState(), r)) {
+                            recordsToSanitate.remove(r.getId());
+                            sanitationReleased.incrementAndGet();
                         }
                     }
                 }
-
-                idsToRemove.stream().forEach(id -> recordsToSanitate.remove(id));
-
             }
+        }
+    }
 
+    /**
+     * Resolve the record locked by the sanitated record according to the final state of the locker.
+     *
+     * @return true if the locked record is resolved and should not be sanitated
+     */
+    private boolean releaseSanitationLock(ItemState lockerState, StateRecord r) {
+        AtomicBoolean released = new AtomicBoolean(false);
+        try {
+            itemLock.synchronize(r.getId(), lock -> {
+                if (lockerState == ItemState.APPROVED) {
+                    //ITEM ACCEPTED. LOCKED -> REVOKED, LOCKED_FOR_CREATION -> ACCEPTED
+                    if (r.getState() == ItemState.LOCKED) {
+                        r.setState(ItemState.REVOKED);
+                        r.save();
+                        synchronized (cache) {
+                            cache.update(r.getId(), new ItemResult(r));
+                        }
+                        released.set(true);
+                    } else if (r.getState() == ItemState.LOCKED_FOR_CREATION) {
+                        r.setState(ItemState.APPROVED);
+                        r.save();
+                        synchronized (cache) {
+                            cache.update(r.getId(), new ItemResult(r));
+                        }
+                        released.set(true);
+                    }
+                } else if (lockerState == ItemState.DECLINED) {
+                    //ITEM REJECTED. LOCKED -> ACCEPTED, LOCKED_FOR_CREATION -> REMOVE
+                    if (r.getState() == ItemState.LOCKED) {
+                        r.setState(ItemState.APPROVED);
+                        r.save();
+                        synchronized (cache) {
+                            cache.update(r.getId(), new ItemResult(r));
+                        }
+                        released.set(true);
+                    } else if (r.getState() == ItemState.LOCKED_FOR_CREATION) {
+                        r.destroy();
+                        synchronized (cache) {
+                            cache.update(r.getId(), null);
+                        }
+                        released.set(true);
+                    }
+                } else if (lockerState == ItemState.REVOKED) {
+                    //ITEM ACCEPTED AND THEN REVOKED. LOCKED -> REVOKED, LOCKED_FOR_CREATION -> ACCEPTED
+                    if (r.getState() == ItemState.LOCKED) {
+                        r.setState(ItemState.REVOKED);
+                        r.save();
+                        synchronized (cache) {
+                            cache.update(r.getId(), new ItemResult(r));
+                        }
+                        released.set(true);
+                    } else if (r.getState() == ItemState.LOCKED_FOR_CREATION) {
+                        r.setState(ItemState.APPROVED);
+                        r.save();
+                        synchronized (cache) {
+                            cache.update(r.getId(), new ItemResult(r));
+                        }
+                        released.set(true);
+                    }
+                } else if (lockerState == ItemState.UNDEFINED) {
+                    //ITEM UNDEFINED. LOCKED -> ACCEPTED, LOCKED_FOR_CREATION -> REMOVE
+                    if (r.getState() == ItemState.LOCKED) {
+                        r.setState(ItemState.APPROVED);
+                        r.save();
+                        synchronized (cache) {
+                            cache.update(r.getId(), new ItemResult(r));
+                        }
+                        released.set(true);
+                    } else if (r.getState() == ItemState.LOCKED_FOR_CREATION) {
+                        r.destroy();
+                        synchronized (cache) {
+                            cache.update(r.getId(), null);
+                        }
+                        released.set(true);
+                    }
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            e.printStackTrace();
         }
+        return released.get();
     }
 
     private void itemSanitationFailed(StateRecord record) {
@@ -3425,6 +3766,7 @@ public class Node {
                 } catch (Exception e) {
                     e.printStackTrace();
                 }
+                sanitationRestarted.incrementAndGet();
                 Object x = checkItemInternal(contract.getId(),null,contract,true,true,true);
                 if (x instanceof ItemProcessor) {
                     ((ItemProcessor)x).doneEvent.addConsumer(i -> executorService.schedule( () -> itemSanitationDone(record),0,TimeUnit.SECONDS));
@@ -3729,6 +4071,95 @@ public class Node {
     }
 
 
+    /**
+     * Write the items resynced to the consensus states into the ledger. Every node that has voted for the states is
+     * asked once about all the items it voted for, creation and expiration times are averaged over the answers, and
+     * the records are saved in one batch.
+     *
+     * @param items resolved by {@link ResyncCoordinator}
+     */
+    private void commitResynced(List<ResyncingItem> items) {
+        Map<NodeInfo, List<HashId>> idsByNode = new HashMap<>();
+        for (ResyncingItem ri : items)
+            for (NodeInfo ni : ri.getCommittingVoters())
+                idsByNode.computeIfAbsent(ni, k -> new ArrayList<>()).add(ri.getId());
+
+        // the nodes are asked in parallel, each no longer than the max get item time, so a slow or dead node does not
+        // stall the round
+        Map<NodeInfo, Future<Map<HashId, ItemResult>>> answers = new HashMap<>();
+        for (Map.Entry<NodeInfo, List<HashId>> e : idsByNode.entrySet())
+            answers.put(e.getKey(), executorService.submit(() -> network.getItemStates(e.getKey(), e.getValue())));
+        long deadline = System.nanoTime() + config.getMaxGetItemTime().toNanos();
+
+        Map<HashId, Average> createdAtAvg = new HashMap<>();
+        Map<HashId, Average> expiresAtAvg = new HashMap<>();
+        for (Map.Entry<NodeInfo, Future<Map<HashId, ItemResult>>> e : answers.entrySet()) {
+            try {
+                Map<HashId, ItemResult> results = e.getValue().get(Math.max(0, deadline - System.nanoTime()),
+                        TimeUnit.NANOSECONDS);
+                for (Map.Entry<HashId, ItemResult> r : results.entrySet()) {
+                    if (r.getValue().createdAt == null || r.getValue().expiresAt == null)
+                        continue;
+                    createdAtAvg.computeIfAbsent(r.getKey(), k -> new Average()).update(r.getValue().createdAt.toEpochSecond());
+                    expiresAtAvg.computeIfAbsent(r.getKey(), k -> new Average()).update(r.getValue().expiresAt.toEpochSecond());
+                }
+            } catch (TimeoutException ignored) {
+                // the node is too slow, the others are enough
+                e.getValue().cancel(true);
+            } catch (ExecutionException ex) {
+                // the node is not available, the others are enough
+                if (!(ex.getCause() instanceof IOException))
+                    ex.getCause().printStackTrace();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                answers.values().forEach(f -> f.cancel(true));
+                break;
+            }
+        }
+
+        Map<HashId, StateRecord> records = new LinkedHashMap<>();
+        List<HashId> ids = new ArrayList<>();
+        for (ResyncingItem ri : items)
+            ids.add(ri.getId());
+        boolean saved = true;
+        try {
+            // records are changed and saved holding all their locks, so nobody changes them in between
+            itemLock.synchronizeAll(ids, () -> {
+                for (ResyncingItem ri : items) {
+                    HashId id = ri.getId();
+                    if (!createdAtAvg.containsKey(id))
+                        continue;
+                    ZonedDateTime createdAt = ZonedDateTime.ofInstant(
+                            Instant.ofEpochSecond((long) createdAtAvg.get(id).average()), ZoneId.systemDefault());
+                    ZonedDateTime expiresAt = ZonedDateTime.ofInstant(
+                            Instant.ofEpochSecond((long) expiresAtAvg.get(id).average()), ZoneId.systemDefault());
+                    try {
+                        StateRecord newRecord = ledger.findOrCreate(id);
+                        newRecord.setState(ri.committingState)
+                                .setCreatedAt(createdAt)
+                                .setExpiresAt(expiresAt);
+                        records.put(id, newRecord);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+                ledger.saveAll(records.values());
+                return null;
+            });
+        } catch (Exception e) {
+            e.printStackTrace();
+            saved = false;
+        }
+        if (saved) {
+            synchronized (cache) {
+                for (StateRecord r : records.values())
+                    cache.update(r.getId(), new ItemResult(r));
+            }
+        }
+        for (ResyncingItem ri : items)
+            ri.commitFinished(saved);
+    }
+
     /**
      * Class for resyncing item, used at the ItemProcessor for subItems of main (parent) item.
      */
@@ -3738,6 +4169,7 @@ public class Node {
         private StateRecord record;
         private final ItemState stateWas;
         private ResyncingItemProcessingState resyncingState;
+        private ItemState committingState;
 
         private final AsyncEvent<ResyncingItem> finishEvent = new AsyncEvent<>();
 
@@ -3824,61 +4256,28 @@ public class Node {
 
             resyncingState = ResyncingItemProcessingState.IS_COMMITTING;
 
-            final Average startDateAvg = new Average();
-            final Average expiresAtAvg = new Average();
+            if(committingState.isConsensusFound()) {
+                this.committingState = committingState;
+                // written to the ledger with other resolved items, see commitResynced
+                resyncCoordinator.commit(this);
+            } else {
+                resyncingState = ResyncingItemProcessingState.COMMIT_FAILED;
+                finishEvent.fire(this);
+            }
+        }
 
-            executorService.submit(()->{
-                if(committingState.isConsensusFound()) {
-                    Set<NodeInfo> rNodes = new HashSet<>();
-                    Set<NodeInfo> nowNodes = resyncNodes.get(committingState);
+        private void commitFinished(boolean successful) {
+            resyncingState = successful ? ResyncingItemProcessingState.COMMIT_SUCCESSFUL : ResyncingItemProcessingState.COMMIT_FAILED;
+            finishEvent.fire(this);
+        }
 
-                    // make local set of nodes to prevent changing set of nodes while commiting
-                    synchronized (resyncNodes) {
-                        for (NodeInfo ni : nowNodes) {
-                            rNodes.add(ni);
-                        }
-                    }
-                    for (NodeInfo ni : rNodes) {
-                        if (ni != null) {
-                            try {
-                                ItemResult r = network.getItemState(ni, hashId);
-                                if (r != null) {
-                                    startDateAvg.update(r.createdAt.toEpochSecond());
-                                    expiresAtAvg.update(r.expiresAt.toEpochSecond());
-
-                                    ZonedDateTime createdAt = ZonedDateTime.ofInstant(
-                                            Instant.ofEpochSecond((long) startDateAvg.average()), ZoneId.systemDefault());
-                                    ZonedDateTime expiresAt = ZonedDateTime.ofInstant(
-                                            Instant.ofEpochSecond((long) expiresAtAvg.average()), ZoneId.systemDefault());
-
-                                    try {
-                                        itemLock.synchronize(hashId, lock -> {
-                                            StateRecord newRecord = ledger.findOrCreate(hashId);
-                                            newRecord.setState(committingState)
-                                                    .setCreatedAt(createdAt)
-                                                    .setExpiresAt(expiresAt)
-                                                    .save();
-                                            synchronized (cache) {
-                                                cache.update(newRecord.getId(), new ItemResult(newRecord));
-                                            }
-                                            return null;
-                                        });
-                                    } catch (Exception e) {
-                                        e.printStackTrace();
-                                    }
-                                }
-                            } catch (IOException e) {
-                            } catch (Exception e) {
-                                e.printStackTrace();
-                            }
-                        }
-                    }
-                    resyncingState = ResyncingItemProcessingState.COMMIT_SUCCESSFUL;
-                } else {
-                    resyncingState = ResyncingItemProcessingState.COMMIT_FAILED;
-                }
-                finishEvent.fire(this);
-            }, Node.this.toString() + " > item " + hashId + " :: resyncAndCommit -> body");
+        /**
+         * @return nodes that have voted for the state being committed
+         */
+        private Set<NodeInfo> getCommittingVoters() {
+            synchronized (mutex) {
+                return new HashSet<>(resyncNodes.get(committingState));
+            }
         }
 
         public void closeByTimeout() {
@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2018, iCodici S.n.C, All Rights Reserved
+ *
+ */
+
+package com.icodici.universa.node2;
+
+import net.sergeych.tools.Binder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Scheduled executor of the node that measures its tasks.
+ * <p>
+ * It works in one of two modes. In the pooled mode it is a plain {@link ScheduledThreadPoolExecutor} with a fixed
+ * number of threads that both fire timers and run tasks. In the elastic mode the scheduler threads only fire timers
+ * and hand every task over to a cached pool of workers, which grows while tasks block (e.g. on ledger or network
+ * calls) and shrinks back when they are idle, so a burst of blocking work does not stall the timers and delayed tasks.
+ * The pool grows up to the given number of workers; when all of them are busy, the timer thread runs the task itself,
+ * which slows down taking new tasks until a worker is free.
+ * <p>
+ * In both modes futures returned by the executor are {@link ScheduledFuture} instances, periodic tasks never overlap
+ * and are stopped on shutdown like in {@link ScheduledThreadPoolExecutor}. For every task the time it waited after it
+ * was due and the time it ran are recorded, see {@link #getStats()}.
+ */
+public class NodeExecutor extends ScheduledThreadPoolExecutor {
+
+    /**
+     * Keep idle elastic workers that long before letting them go.
+     */
+    private static final long WORKER_KEEP_ALIVE_SECONDS = 60;
+
+    private final ThreadPoolExecutor workers;
+
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger handedOver = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong saturatedCount = new AtomicLong();
+    private final LatencyHistogram waitTimes = new LatencyHistogram();
+    private final LatencyHistogram runTimes = new LatencyHistogram();
+
+    /**
+     * Create the executor.
+     *
+     * @param threads       number of threads in the pooled mode or number of timer threads in the elastic mode
+     * @param threadFactory factory of the executor threads
+     * @param workerFactory factory of the elastic workers, null for the pooled mode
+     * @param maxWorkers    max number of the elastic workers, not used in the pooled mode
+     */
+    public NodeExecutor(int threads, ThreadFactory threadFactory, ThreadFactory workerFactory, int maxWorkers) {
+        super(Math.max(1, threads), threadFactory);
+        if (workerFactory != null)
+            workers = new ThreadPoolExecutor(0, Math.max(1, maxWorkers), WORKER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new SynchronousQueue<>(), workerFactory);
+        else
+            workers = null;
+    }
+
+    /**
+     * @return true if tasks are run by elastic workers
+     */
+    public boolean isElastic() {
+        return workers != null;
+    }
+
+    @Override
+    protected <V> RunnableScheduledFuture<V> decorateTask(Runnable runnable, RunnableScheduledFuture<V> task) {
+        return new MeasuredTask<>(task);
+    }
+
+    @Override
+    protected <V> RunnableScheduledFuture<V> decorateTask(Callable<V> callable, RunnableScheduledFuture<V> task) {
+        return new MeasuredTask<>(task);
+    }
+
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        if (workers != null)
+            workers.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        List<Runnable> result = new ArrayList<>(super.shutdownNow());
+        if (workers != null)
+            result.addAll(workers.shutdownNow());
+        return result;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return super.isTerminated() && (workers == null || workers.isTerminated());
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        if (!super.awaitTermination(timeout, unit))
+            return false;
+        return workers == null || workers.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Number of tasks that are due but not started yet. It walks the queue, so it is meant for stats only.
+     *
+     * @return number of tasks waiting for a thread
+     */
+    public int getReadyCount() {
+        int ready = handedOver.get();
+        for (Runnable r : getQueue()) {
+            if (((Delayed) r).getDelay(TimeUnit.NANOSECONDS) <= 0)
+                ready++;
+        }
+        return ready;
+    }
+
+    /**
+     * @return number of tasks being run now
+     */
+    public int getRunningCount() {
+        return active.get();
+    }
+
+    /**
+     * @return number of task runs finished, periodic tasks are counted on every run
+     */
+    public long getFinishedCount() {
+        return completed.get();
+    }
+
+    /**
+     * @return histogram of the times tasks waited for a thread after they were due
+     */
+    public LatencyHistogram getWaitTimes() {
+        return waitTimes;
+    }
+
+    /**
+     * @return histogram of the task run times
+     */
+    public LatencyHistogram getRunTimes() {
+        return runTimes;
+    }
+
+    /**
+     * Get the executor statistics for the node stats.
+     *
+     * @return {@link Binder} with queue depth, active count and latency histograms
+     */
+    public Binder getStats() {
+        return Binder.of(
+                "mode", isElastic() ? "elastic" : "pooled",
+                "threads", getPoolSize() + (workers != null ? workers.getPoolSize() : 0),
+                "scheduled", getQueue().size(),
+                "queued", getReadyCount(),
+                "active", getRunningCount(),
+                "finished", getFinishedCount(),
+                "saturated", saturatedCount.get(),
+                "waitTime", waitTimes.getStats(),
+                "runTime", runTimes.getStats()
+        );
+    }
+
+    private void runMeasured(RunnableScheduledFuture<?> task) {
+        // the task is not rescheduled until it is run, so the negative delay is how long it is overdue
+        waitTimes.record(-task.getDelay(TimeUnit.NANOSECONDS));
+        active.incrementAndGet();
+        long started = System.nanoTime();
+        try {
+            task.run();
+        } finally {
+            active.decrementAndGet();
+            runTimes.record(System.nanoTime() - started);
+            completed.incrementAndGet();
+        }
+    }
+
+    /**
+     * Task wrapper that is put into the scheduler queue. Periodic tasks reschedule this wrapper, so every run is
+     * measured and, in the elastic mode, handed over to a worker.
+     */
+    private class MeasuredTask<V> implements RunnableScheduledFuture<V> {
+
+        private final RunnableScheduledFuture<V> task;
+
+        private MeasuredTask(RunnableScheduledFuture<V> task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            if (workers == null) {
+                runMeasured(task);
+                return;
+            }
+            handedOver.incrementAndGet();
+            try {
+                workers.execute(() -> {
+                    handedOver.decrementAndGet();
+                    runMeasured(task);
+                });
+            } catch (RejectedExecutionException e) {
+                handedOver.decrementAndGet();
+                if (workers.isShutdown()) {
+                    // workers are shut down together with the scheduler, nothing can run it anymore
+                    task.cancel(false);
+                } else {
+                    // all workers are busy
+                    saturatedCount.incrementAndGet();
+                    runMeasured(task);
+                }
+            }
+        }
+
+        @Override
+        public boolean isPeriodic() {
+            return task.isPeriodic();
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return task.getDelay(unit);
+        }
+
+        @Override
+        public int compareTo(Delayed o) {
+            return task.compareTo(o instanceof MeasuredTask ? ((MeasuredTask<?>) o).task : o);
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return task.cancel(mayInterruptIfRunning);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return task.isCancelled();
+        }
+
+        @Override
+        public boolean isDone() {
+            return task.isDone();
+        }
+
+        @Override
+        public V get() throws InterruptedException, ExecutionException {
+            return task.get();
+        }
+
+        @Override
+        public V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            return task.get(timeout, unit);
+        }
+    }
+}
@@ -0,0 +1,340 @@
+/*
+ * Copyright (c) 2018, iCodici S.n.C, All Rights Reserved
+ *
+ */
+
+package com.icodici.universa.node2;
+
+import com.icodici.universa.HashId;
+import com.icodici.universa.node.ItemState;
+import net.sergeych.tools.Binder;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Resyncs all the items of the node together.
+ * <p>
+ * Every resync (the item processor with its items to resync) used to ask all the nodes about its items with own
+ * notifications on its own timer, so after sanitation or a network split the node sent thousands of notifications
+ * with one item each. Resyncs are now registered here, and one round every {@link #TICK_MILLIS} collects the items of
+ * all the resyncs that are due into one map per node, so each node gets as few notifications as the packet size
+ * allows. The answers carry votes for many items, and every vote is passed to all the resyncs waiting for that item,
+ * whatever item the notification was sent about, so the nodes that answer item by item are understood too. The items
+ * resolved by the votes are passed to the committer together, once per round, to be written to the ledger in one
+ * batch.
+ *
+ * @param <C> the resolved item to commit
+ */
+public class ResyncCoordinator<C> {
+
+    /**
+     * Max number of items asked in one notification. {@link ItemResyncNotification} writes every item id as a Base64
+     * key of 128 chars, about 130 bytes, and the answer may list the item twice, with its state and in the items with
+     * environment. So 50 items take up to about 13 KB, within the 16 KB of
+     * {@link com.icodici.universa.node2.network.NetworkV2#MAX_PACKED_NOTIFICATIONS_SIZE}, which can not be split.
+     */
+    public static final int MAX_ITEMS_PER_NOTIFICATION = 50;
+
+    /**
+     * Interval between the rounds. New resyncs wait for the next round, so the ones started together are asked about
+     * together.
+     */
+    public static final long TICK_MILLIS = 100;
+
+    /**
+     * Max number of resolved items passed to the committer at once.
+     */
+    public static final int MAX_COMMIT_BATCH = 1000;
+
+    /**
+     * The resync of a number of items, usually the item processor.
+     */
+    public interface Resync {
+
+        /**
+         * Check whether the resync still waits for votes, it can also expire the resync here.
+         *
+         * @return false if votes are not needed anymore, the resync is unregistered then
+         */
+        boolean isWaitingForVotes();
+
+        /**
+         * @param node to ask
+         *
+         * @return the items that still need the vote of the node, with own states of them
+         */
+        Map<HashId, ItemState> getItemsToAsk(NodeInfo node);
+
+        /**
+         * Register the vote of the node.
+         *
+         * @param itemId          resynced item
+         * @param node            that has voted
+         * @param state           the node knows
+         * @param withEnvironment true if the node has the environment of the item
+         */
+        void resyncVote(HashId itemId, NodeInfo node, ItemState state, boolean withEnvironment);
+    }
+
+    private final TimerWheel wheel;
+    private final Executor executor;
+    private final Supplier<Collection<NodeInfo>> nodes;
+    private final BiConsumer<NodeInfo, HashMap<HashId, ItemState>> sender;
+    private final Consumer<List<C>> committer;
+
+    private final ConcurrentHashMap<Resync, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<HashId, Set<Resync>> resyncsByItem = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<C> toCommit = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean ticking = new AtomicBoolean(false);
+    private volatile boolean stopped = false;
+
+    private final AtomicLong roundsCount = new AtomicLong();
+    private final AtomicLong notificationsCount = new AtomicLong();
+    private final AtomicLong askedCount = new AtomicLong();
+    private final AtomicLong votesCount = new AtomicLong();
+    private final AtomicLong commitBatchesCount = new AtomicLong();
+    private final AtomicLong committedCount = new AtomicLong();
+
+    /**
+     * @param wheel     timer to run rounds with
+     * @param executor  to run rounds and commits with
+     * @param nodes     nodes to ask, without this one
+     * @param sender    sends the request for the states of the items to the node
+     * @param committer writes the resolved items to the ledger
+     */
+    public ResyncCoordinator(TimerWheel wheel, Executor executor, Supplier<Collection<NodeInfo>> nodes,
+                             BiConsumer<NodeInfo, HashMap<HashId, ItemState>> sender, Consumer<List<C>> committer) {
+        this.wheel = wheel;
+        this.executor = executor;
+        this.nodes = nodes;
+        this.sender = sender;
+        this.committer = committer;
+    }
+
+    /**
+     * Register the resync, or update the items of the registered one keeping its schedule. The nodes are asked about
+     * its items in the next round, then on the given schedule until it has got all the votes.
+     *
+     * @param resync        to register
+     * @param itemIds       items it resyncs
+     * @param periodsMillis delays before the second, third and later requests; the last one is repeated
+     */
+    public void register(Resync resync, Collection<HashId> itemIds, List<Integer> periodsMillis) {
+        Set<HashId> ids = new HashSet<>(itemIds);
+        Entry entry = new Entry(ids, periodsMillis);
+        Entry was = entries.put(resync, entry);
+        if (was != null) {
+            entry.nextAt = was.nextAt;
+            entry.requests = was.requests;
+            unindex(resync, was.itemIds);
+        }
+        for (HashId id : ids)
+            // add under the map lock so unindexing of the same id does not drop the set we add to
+            resyncsByItem.compute(id, (k, resyncs) -> {
+                if (resyncs == null)
+                    resyncs = ConcurrentHashMap.newKeySet();
+                resyncs.add(resync);
+                return resyncs;
+            });
+        startTicking();
+    }
+
+    public void unregister(Resync resync) {
+        Entry was = entries.remove(resync);
+        if (was != null)
+            unindex(resync, was.itemIds);
+    }
+
+    private void unindex(Resync resync, Set<HashId> itemIds) {
+        for (HashId id : itemIds)
+            resyncsByItem.computeIfPresent(id, (k, resyncs) -> {
+                resyncs.remove(resync);
+                return resyncs.isEmpty() ? null : resyncs;
+            });
+    }
+
+    /**
+     * Pass the votes of the node to every resync waiting for the voted items.
+     *
+     * @param from                 node that has voted
+     * @param states               voted states of the items
+     * @param itemsWithEnvironment items the node has the environments of
+     *
+     * @return number of votes passed
+     */
+    public int vote(NodeInfo from, Map<HashId, ItemState> states, Set<HashId> itemsWithEnvironment) {
+        int passed = 0;
+        for (Map.Entry<HashId, ItemState> e : states.entrySet()) {
+            Set<Resync> resyncs = resyncsByItem.get(e.getKey());
+            if (resyncs == null)
+                continue;
+            boolean withEnvironment = itemsWithEnvironment.contains(e.getKey());
+            for (Resync resync : resyncs) {
+                resync.resyncVote(e.getKey(), from, e.getValue(), withEnvironment);
+                passed++;
+            }
+        }
+        votesCount.addAndGet(passed);
+        return passed;
+    }
+
+    /**
+     * Queue the resolved item to be passed to the committer with the others in the next round.
+     */
+    public void commit(C resolved) {
+        toCommit.add(resolved);
+        startTicking();
+    }
+
+    /**
+     * Stop the rounds. The items that are not committed yet are dropped.
+     */
+    public void shutdown() {
+        stopped = true;
+    }
+
+    private void startTicking() {
+        if (!stopped && ticking.compareAndSet(false, true))
+            schedule();
+    }
+
+    private void schedule() {
+        try {
+            wheel.schedule(this::tick, TICK_MILLIS, executor);
+        } catch (RejectedExecutionException ignored) {
+            // the node is shutting down
+            ticking.set(false);
+        }
+    }
+
+    private void tick() {
+        if (stopped) {
+            ticking.set(false);
+            return;
+        }
+        try {
+            commitResolved();
+            askNodes();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        if (entries.isEmpty() && toCommit.isEmpty()) {
+            ticking.set(false);
+            // registered while we were stopping
+            if ((!entries.isEmpty() || !toCommit.isEmpty()) && ticking.compareAndSet(false, true))
+                schedule();
+        } else {
+            schedule();
+        }
+    }
+
+    private void commitResolved() {
+        while (!toCommit.isEmpty()) {
+            List<C> batch = new ArrayList<>();
+            C c;
+            while (batch.size() < MAX_COMMIT_BATCH && (c = toCommit.poll()) != null)
+                batch.add(c);
+            if (batch.isEmpty())
+                return;
+            commitBatchesCount.incrementAndGet();
+            committedCount.addAndGet(batch.size());
+            committer.accept(batch);
+        }
+    }
+
+    /**
+     * One round: ask every node about the items of all the resyncs that are due.
+     */
+    void askNodes() {
+        long now = System.nanoTime();
+        List<Resync> due = new ArrayList<>();
+        for (Map.Entry<Resync, Entry> e : entries.entrySet()) {
+            if (e.getValue().nextAt - now > 0)
+                continue;
+            if (e.getKey().isWaitingForVotes())
+                due.add(e.getKey());
+            else
+                unregister(e.getKey());
+        }
+        if (due.isEmpty())
+            return;
+        roundsCount.incrementAndGet();
+        for (NodeInfo node : nodes.get()) {
+            // resyncs of the same items ask about them once
+            HashMap<HashId, ItemState> items = new HashMap<>();
+            for (Resync resync : due)
+                items.putAll(resync.getItemsToAsk(node));
+            askedCount.addAndGet(items.size());
+            HashMap<HashId, ItemState> chunk = new HashMap<>();
+            for (Map.Entry<HashId, ItemState> e : items.entrySet()) {
+                chunk.put(e.getKey(), e.getValue());
+                if (chunk.size() == MAX_ITEMS_PER_NOTIFICATION) {
+                    send(node, chunk);
+                    chunk = new HashMap<>();
+                }
+            }
+            if (!chunk.isEmpty())
+                send(node, chunk);
+        }
+        for (Resync resync : due) {
+            Entry entry = entries.get(resync);
+            if (entry != null)
+                entry.requested(now);
+        }
+    }
+
+    private void send(NodeInfo node, HashMap<HashId, ItemState> items) {
+        notificationsCount.incrementAndGet();
+        sender.accept(node, items);
+    }
+
+    /**
+     * @return {@link Binder} with the numbers of resyncs and items being resynced, rounds, notifications, asked items,
+     * votes and commits
+     */
+    public Binder getStats() {
+        return Binder.of(
+                "resyncs", entries.size(),
+                "items", resyncsByItem.size(),
+                "toCommit", toCommit.size(),
+                "rounds", roundsCount.get(),
+                "notifications", notificationsCount.get(),
+                "asked", askedCount.get(),
+                "votes", votesCount.get(),
+                "commitBatches", commitBatchesCount.get(),
+                "committed", committedCount.get()
+        );
+    }
+
+    /**
+     * Schedule of one registered resync.
+     */
+    private static class Entry {
+
+        private final Set<HashId> itemIds;
+        private final List<Integer> periodsMillis;
+        private volatile long nextAt = System.nanoTime();
+        private volatile int requests = 0;
+
+        private Entry(Set<HashId> itemIds, List<Integer> periodsMillis) {
+            this.itemIds = itemIds;
+            this.periodsMillis = periodsMillis;
+        }
+
+        private void requested(long now) {
+            long delay = periodsMillis.get(Math.min(requests, periodsMillis.size() - 1));
+            requests++;
+            nextAt = now + TimeUnit.MILLISECONDS.toNanos(delay);
+        }
+    }
+}
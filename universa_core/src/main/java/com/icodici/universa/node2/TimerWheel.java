@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2018, iCodici S.n.C, All Rights Reserved
+ *
+ */
+
+package com.icodici.universa.node2;
+
+import net.sergeych.tools.Binder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hashed wheel timer for many short-lived timeouts that do not need to be precise, like re-polling of the items being
+ * processed.
+ * <p>
+ * Scheduling the task with {@link java.util.concurrent.ScheduledExecutorService} puts it into the shared delay queue
+ * of the executor, where adding and cancelling cost O(log n) under the executor lock, and the timer threads of {@link
+ * NodeExecutor} compete with the workers for that lock. The wheel takes new timeouts into a lock-free queue and sorts
+ * them into slots of one tick each, so adding and cancelling are O(1), and one thread per wheel wakes up once per tick
+ * to fire the timeouts of the current slot. Timeouts fire up to one tick late. Fired tasks are run by the executor
+ * given when scheduling, the wheel thread never runs them itself.
+ */
+public class TimerWheel {
+
+    private final long tickNanos;
+    private final List<List<Timeout>> wheel;
+    private final ConcurrentLinkedQueue<Timeout> incoming = new ConcurrentLinkedQueue<>();
+    private final Thread worker;
+    private final long startedAt = System.nanoTime();
+    private volatile boolean stopped = false;
+    private long currentTick = 0;
+
+    private final AtomicLong scheduledCount = new AtomicLong();
+    private final AtomicLong cancelledCount = new AtomicLong();
+    private final AtomicLong firedCount = new AtomicLong();
+    private volatile int pending = 0;
+
+    /**
+     * Create the wheel and start its thread.
+     *
+     * @param name       name of the wheel thread
+     * @param tickMillis resolution of the wheel
+     * @param wheelSize  number of slots; timeouts longer than wheelSize ticks wait for several turns of the wheel
+     */
+    public TimerWheel(String name, long tickMillis, int wheelSize) {
+        if (tickMillis <= 0 || wheelSize <= 0)
+            throw new IllegalArgumentException("tick and wheel size should be positive");
+        tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        wheel = new ArrayList<>(wheelSize);
+        for (int i = 0; i < wheelSize; i++)
+            wheel.add(new ArrayList<>());
+        worker = new Thread(this::work, name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Run the task with the executor once the delay has passed.
+     *
+     * @param task        to run
+     * @param delayMillis delay, it is rounded up to the whole ticks
+     * @param executor    to run the task with; if it rejects the task, the task is dropped
+     *
+     * @return handle to cancel the timeout
+     */
+    public Timeout schedule(Runnable task, long delayMillis, Executor executor) {
+        Timeout t = new Timeout(task, executor, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis));
+        if (stopped)
+            throw new RejectedExecutionException("timer wheel is stopped");
+        scheduledCount.incrementAndGet();
+        incoming.add(t);
+        return t;
+    }
+
+    /**
+     * Stop the wheel thread. Timeouts that have not fired yet never fire.
+     */
+    public void shutdown() {
+        stopped = true;
+        worker.interrupt();
+    }
+
+    /**
+     * @return {@link Binder} with scheduled, fired and cancelled counters and the number of timeouts in the wheel
+     */
+    public Binder getStats() {
+        return Binder.of(
+                "scheduled", scheduledCount.get(),
+                "fired", firedCount.get(),
+                "cancelled", cancelledCount.get(),
+                "pending", pending
+        );
+    }
+
+    private void work() {
+        while (!stopped) {
+            long deadline = startedAt + (currentTick + 1) * tickNanos;
+            long sleep = deadline - System.nanoTime();
+            if (sleep > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleep);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            currentTick++;
+            // the current slot is fired before the new timeouts are put into the wheel, so a timeout put into it now
+            // is due a whole turn later
+            fireExpired(wheel.get((int) (currentTick % wheel.size())));
+            takeIncoming();
+        }
+    }
+
+    private void takeIncoming() {
+        Timeout t;
+        int count = pending;
+        while ((t = incoming.poll()) != null) {
+            if (t.cancelled)
+                continue;
+            long ticks = (t.deadline - startedAt + tickNanos - 1) / tickNanos;
+            if (ticks <= currentTick) {
+                fire(t);
+                continue;
+            }
+            // the slot is visited every wheel size ticks starting with the next one
+            t.rounds = (ticks - currentTick - 1) / wheel.size();
+            wheel.get((int) (ticks % wheel.size())).add(t);
+            count++;
+        }
+        pending = count;
+    }
+
+    private void fireExpired(List<Timeout> slot) {
+        if (slot.isEmpty())
+            return;
+        // removing from the middle of the list is slow, so keep the timeouts of the next turns in place
+        int kept = 0;
+        int count = pending;
+        for (int i = 0; i < slot.size(); i++) {
+            Timeout t = slot.get(i);
+            if (t.cancelled) {
+                count--;
+            } else if (t.rounds > 0) {
+                t.rounds--;
+                slot.set(kept++, t);
+            } else {
+                count--;
+                fire(t);
+            }
+        }
+        slot.subList(kept, slot.size()).clear();
+        pending = count;
+    }
+
+    private void fire(Timeout t) {
+        firedCount.incrementAndGet();
+        try {
+            t.executor.execute(t.task);
+        } catch (RejectedExecutionException ignored) {
+            // the executor is shut down, nothing to run the task with
+        } catch (Throwable e) {
+            // the executor may run the task right here, it should not stop the wheel
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * The task waiting in the wheel.
+     */
+    public class Timeout {
+
+        private final Runnable task;
+        private final Executor executor;
+        private final long deadline;
+        private volatile boolean cancelled = false;
+        // only the wheel thread touches it
+        private long rounds;
+
+        private Timeout(Runnable task, Executor executor, long deadline) {
+            this.task = task;
+            this.executor = executor;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Do not run the task if it is not run yet. The timeout is removed from the wheel when its slot comes.
+         */
+        public void cancel() {
+            if (!cancelled) {
+                cancelled = true;
+                cancelledCount.incrementAndGet();
+            }
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+}
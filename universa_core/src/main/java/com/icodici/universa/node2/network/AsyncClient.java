@@ -0,0 +1,307 @@
+/*
+ * Copyright (c) 2018, iCodici S.n.C, All Rights Reserved
+ *
+ */
+
+package com.icodici.universa.node2.network;
+
+import com.icodici.crypto.PrivateKey;
+import com.icodici.crypto.PublicKey;
+import com.icodici.universa.HashId;
+import com.icodici.universa.node.ItemResult;
+import com.icodici.universa.node2.NodeInfo;
+import net.sergeych.tools.Binder;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Asynchronous client of the whole network.
+ * <p>
+ * {@link Client} talks to one node and blocks the caller for every command. This client keeps an authenticated session
+ * with every node it has sent something to, and returns futures. Each request goes to the node that answers fastest at
+ * the moment. If the answer is late, the request is hedged: the same request is sent to the next node after a delay
+ * derived from the 95th percentile latency of the first one, and the first answer wins. A node that fails is skipped
+ * the same way, without waiting. Many requests may be in flight at once over the same sessions, and HTTP connections
+ * are kept alive by {@link BasicHttpClient}.
+ * <p>
+ * Only read-only commands are hedged. {@link #register(byte[])} sends the transaction to one node and goes to the next
+ * one only if the node fails to answer.
+ */
+public class AsyncClient {
+
+    private final PrivateKey clientPrivateKey;
+    private final List<Endpoint> endpoints = new ArrayList<>();
+    private final ExecutorService pool;
+    private final boolean ownPool;
+    private final PeerRanking ranking = new PeerRanking("async-client-timer");
+
+    private volatile int maxAttempts = 3;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    /**
+     * Create client of the network loaded from the given node, see {@link Client#Client(String, PrivateKey,
+     * BasicHttpClientSession)}. Sessions are started on demand.
+     *
+     * @param someNodeUrl      url of some node in the network
+     * @param clientPrivateKey client private key
+     *
+     * @throws IOException if the network configuration could not be loaded
+     */
+    public AsyncClient(String someNodeUrl, PrivateKey clientPrivateKey) throws IOException {
+        this(clientPrivateKey, null);
+        Client networkClient = new Client(someNodeUrl, clientPrivateKey, null, true);
+        int number = 0;
+        for (Client.NodeRecord r : networkClient.getNodes())
+            endpoints.add(new Endpoint(number++, r.url, r.key));
+    }
+
+    /**
+     * Create client of the given nodes. Sessions are started on demand.
+     *
+     * @param clientPrivateKey client private key
+     * @param nodes            nodes to send requests to
+     * @param pool             executor to run the requests in, or null to use own pool of daemon threads. Requests
+     *                         block the threads while waiting for answers, so the pool should not be too small.
+     */
+    public AsyncClient(PrivateKey clientPrivateKey, Collection<NodeInfo> nodes, ExecutorService pool) {
+        this(clientPrivateKey, pool);
+        for (NodeInfo info : nodes)
+            endpoints.add(new Endpoint(info.getNumber(), info.publicUrlString(), info.getPublicKey()));
+    }
+
+    private AsyncClient(PrivateKey clientPrivateKey, ExecutorService pool) {
+        this.clientPrivateKey = clientPrivateKey;
+        ownPool = pool == null;
+        this.pool = ownPool ? Executors.newCachedThreadPool(PeerRanking.daemonThreads("async-client")) : pool;
+    }
+
+    /**
+     * Stop the timer and, if the client created its own pool, the pool. Requests in flight are not interrupted, but
+     * they are not hedged anymore.
+     */
+    public void shutdown() {
+        ranking.shutdown();
+        if (ownPool)
+            pool.shutdown();
+    }
+
+    /**
+     * @return number of nodes the client sends requests to
+     */
+    public int size() {
+        return endpoints.size();
+    }
+
+    /**
+     * Delay before the request is hedged to the next node, used while the latency of the node is not known yet. When
+     * it is, the 95th percentile of the node latency is used instead, but not less than {@link #getMinHedgeDelay()}.
+     */
+    public Duration getHedgeDelay() {
+        return ranking.getHedgeDelay();
+    }
+
+    public void setHedgeDelay(Duration hedgeDelay) {
+        ranking.setHedgeDelay(hedgeDelay);
+    }
+
+    public Duration getMinHedgeDelay() {
+        return ranking.getMinHedgeDelay();
+    }
+
+    public void setMinHedgeDelay(Duration minHedgeDelay) {
+        ranking.setMinHedgeDelay(minHedgeDelay);
+    }
+
+    /**
+     * Maximum number of nodes one request is sent to, both by hedging and after failures.
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * Execute the read-only command on the fastest node, hedging it to other nodes if the answer is late or the node
+     * fails. The command must not change anything, as it can be executed by several nodes.
+     *
+     * @param name   command name
+     * @param params command params
+     *
+     * @return future of the first answer. It fails with {@link CommandFailedException} if the node reports an error,
+     * or with {@link IOException} if no node answered.
+     */
+    public CompletableFuture<Binder> command(String name, Binder params) {
+        return send(name, params, true);
+    }
+
+    /**
+     * Look for known state of item by given id, see {@link Client#getState(HashId)}.
+     *
+     * @param itemId to find state of
+     *
+     * @return future of the {@link ItemResult} of the first node that answered
+     */
+    public CompletableFuture<ItemResult> getState(HashId itemId) {
+        return send("getState", Binder.of("itemId", itemId), true).thenApply(AsyncClient::itemResult);
+    }
+
+    /**
+     * Register contract on the network without payment, see {@link Client#register(byte[])}. The transaction is not
+     * hedged, it is sent to the next node only if the node fails to answer.
+     *
+     * @param packed {@link com.icodici.universa.contract.TransactionPack} binary
+     *
+     * @return future of the result of registration
+     */
+    public CompletableFuture<ItemResult> register(byte[] packed) {
+        return send("approve", Binder.of("packedItem", packed), false).thenApply(AsyncClient::itemResult);
+    }
+
+    private static ItemResult itemResult(Binder result) {
+        Object ir = result.getOrThrow("itemResult");
+        if (ir instanceof ItemResult)
+            return (ItemResult) ir;
+        return ItemResult.UNDEFINED;
+    }
+
+    /**
+     * Get the client statistics.
+     *
+     * @return {@link Binder} with request, hedge and failure counters and latency histograms of the nodes
+     */
+    public Binder getStats() {
+        Binder nodes = new Binder();
+        for (Endpoint e : endpoints)
+            nodes.put(String.valueOf(e.number), Binder.of(
+                    "url", e.url,
+                    "inFlight", e.inFlight.get(),
+                    "failures", e.record.getFailuresInRow(),
+                    "latency", e.record.getLatency().getStats()
+            ));
+        return Binder.of(
+                "requests", requests.get(),
+                "hedges", ranking.getHedges(),
+                "failures", failures.get(),
+                "nodes", nodes
+        );
+    }
+
+    private CompletableFuture<Binder> send(String name, Binder params, boolean hedged) {
+        requests.incrementAndGet();
+        Request request = new Request(name, params, ranking.rank(endpoints, maxAttempts), hedged);
+        if (request.targets.isEmpty())
+            request.result.completeExceptionally(new IOException("no nodes to send " + name + " to"));
+        else
+            request.next();
+        return request.result;
+    }
+
+    /**
+     * One command raced among the ranked nodes.
+     */
+    private class Request extends PeerRanking.Race<Endpoint, Binder> {
+
+        private final String name;
+        private final Binder params;
+
+        private Request(String name, Binder params, List<Endpoint> targets, boolean hedged) {
+            super(ranking, targets, hedged);
+            this.name = name;
+            this.params = params;
+        }
+
+        @Override
+        protected void send(Endpoint e) {
+            try {
+                pool.execute(() -> run(e));
+            } catch (RejectedExecutionException ex) {
+                result.completeExceptionally(new IOException("client is shut down", ex));
+            }
+        }
+
+        @Override
+        protected void lost(Throwable error) {
+            result.completeExceptionally(new IOException("no node answered " + name, error));
+        }
+
+        private void run(Endpoint e) {
+            if (result.isDone())
+                return;
+            try {
+                result.complete(e.command(name, params));
+            } catch (CommandFailedException ex) {
+                // the node answered, and the other nodes would answer the same
+                result.completeExceptionally(ex);
+            } catch (Exception ex) {
+                failures.incrementAndGet();
+                failed(ex);
+            }
+        }
+    }
+
+    /**
+     * The node, its session and its latency.
+     */
+    private class Endpoint implements PeerRanking.Ranked {
+
+        private final int number;
+        private final String url;
+        private final PublicKey key;
+        private final PeerRanking.Record record = ranking.newRecord();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private BasicHttpClient httpClient;
+
+        private Endpoint(int number, String url, PublicKey key) {
+            this.number = number;
+            this.url = url;
+            this.key = key;
+        }
+
+        @Override
+        public PeerRanking.Record getRecord() {
+            return record;
+        }
+
+        @Override
+        public int getLoad() {
+            return inFlight.get();
+        }
+
+        private synchronized BasicHttpClient connect() throws IOException {
+            if (httpClient == null) {
+                BasicHttpClient c = new BasicHttpClient(url);
+                c.start(clientPrivateKey, key, null);
+                httpClient = c;
+            }
+            return httpClient;
+        }
+
+        private Binder command(String name, Binder params) throws IOException {
+            inFlight.incrementAndGet();
+            long started = System.nanoTime();
+            try {
+                Binder result = connect().command(name, params);
+                record.answered(System.nanoTime() - started);
+                return result;
+            } catch (CommandFailedException e) {
+                record.answered(System.nanoTime() - started);
+                throw e;
+            } catch (IOException | RuntimeException e) {
+                record.failed();
+                throw e;
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+    }
+}
@@ -23,6 +23,7 @@ import net.sergeych.utils.Ut;
 import org.checkerframework.checker.nullness.qual.NonNull;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
@@ -220,64 +221,72 @@ public class BasicHttpClient {
      */
     public Binder command(String name, Binder params) throws IOException {
 
-        synchronized (this) {
-            if (session == null || session.getSessionKey() == null)
+        Binder call = Binder.fromKeysValues(
+                "command", name,
+                "params", params
+        );
+        for (int i = 0; i < DEFAULT_RECONNECT_TIMES; i++) {
+            // commands of the same session run concurrently, only the handshake is exclusive, so waiting for the
+            // lock here means waiting for the (re)start in progress
+            BasicHttpClientSession s;
+            synchronized (this) {
+                s = session;
+            }
+            if (s == null || s.getSessionKey() == null)
                 throw new IllegalStateException("Session does not created or session key is not got yet.");
 
-            Binder call = Binder.fromKeysValues(
-                    "command", name,
-                    "params", params
-            );
-            for (int i = 0; i < DEFAULT_RECONNECT_TIMES; i++) {
-                ErrorRecord er = null;
-                try {
-                    Answer a = requestOrThrow("command",
-                            "command", "command",
-                            "params", session.getSessionKey().encrypt(Boss.pack(call)),
-                            "session_id", session.getSessionId()
-                    );
-                    Binder data = Boss.unpack(
-                            session.getSessionKey().decrypt(a.data.getBinaryOrThrow("result"))
-                    );
-                    Binder result = data.getBinder("result", null);
-                    if (result != null)
-                        return result;
-                    System.out.println("result: " + result);
-                    er = (ErrorRecord) data.get("error");
-                    if (er == null)
-                        er = new ErrorRecord(Errors.FAILURE, "", "unprocessablereply");
-                } catch (EndpointException e) {
-                    // this is not good = we'd better pass it in the encoded block
-                    ErrorRecord r = e.getFirstError();
-                    if (r.getError() == Errors.COMMAND_FAILED)
-                        throw e;
-                    System.err.println(r);
-                } catch (SocketTimeoutException e) {
+            ErrorRecord er = null;
+            try {
+                Answer a = requestOrThrow("command",
+                        "command", "command",
+                        "params", s.getSessionKey().encrypt(Boss.pack(call)),
+                        "session_id", s.getSessionId()
+                );
+                Binder data = Boss.unpack(
+                        s.getSessionKey().decrypt(a.data.getBinaryOrThrow("result"))
+                );
+                Binder result = data.getBinder("result", null);
+                if (result != null)
+                    return result;
+                System.out.println("result: " + result);
+                er = (ErrorRecord) data.get("error");
+                if (er == null)
+                    er = new ErrorRecord(Errors.FAILURE, "", "unprocessablereply");
+            } catch (EndpointException e) {
+                // this is not good = we'd better pass it in the encoded block
+                ErrorRecord r = e.getFirstError();
+                if (r.getError() == Errors.COMMAND_FAILED)
+                    throw e;
+                System.err.println(r);
+            } catch (SocketTimeoutException e) {
 //                    e.printStackTrace();
-                    System.err.println("Socket timeout while executing command " + name);
-                    log.d("Socket timeout while executing command " + name + ": " + e);
-                } catch (ConnectException e) {
+                System.err.println("Socket timeout while executing command " + name);
+                log.d("Socket timeout while executing command " + name + ": " + e);
+            } catch (ConnectException e) {
 //                    e.printStackTrace();
-                    System.err.println("Connection refused while executing command " + name);
-                    log.d("Connection refused while executing command " + name + ": " + e);
-                } catch (IOException e) {
-                    e.printStackTrace();
-                    log.d("error executing command " + name + ": " + e);
-                }
-                // if we get here with error, we need to throw it.
-                if (er != null)
-                    throw new CommandFailedException(er);
-                // otherwise it is an recoverable error and we must retry
-                log.d("repeating command " + name + ", attempt " + (i + 1));
-                try {
-                    Thread.sleep(i * 3 * 100);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                }
-                restart();
+                System.err.println("Connection refused while executing command " + name);
+                log.d("Connection refused while executing command " + name + ": " + e);
+            } catch (IOException e) {
+                e.printStackTrace();
+                log.d("error executing command " + name + ": " + e);
+            }
+            // if we get here with error, we need to throw it.
+            if (er != null)
+                throw new CommandFailedException(er);
+            // otherwise it is an recoverable error and we must retry
+            log.d("repeating command " + name + ", attempt " + (i + 1));
+            try {
+                Thread.sleep(i * 3 * 100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            // the session could be restarted already by the concurrent command that failed the same way
+            synchronized (this) {
+                if (session == s)
+                    restart();
             }
-            throw new IOException("Failed to execute command " + name);
         }
+        throw new IOException("Failed to execute command " + name);
     }
 
     /**
@@ -311,51 +320,54 @@ public class BasicHttpClient {
     }
 
     public Answer request(String path, Binder params) throws IOException {
-        synchronized (this) {
-            String charset = "UTF-8";
+        // not synchronized: commands of one session may be in flight at once, each on its own connection
+        String charset = "UTF-8";
 
-            byte[] data = Boss.pack(params);
+        byte[] data = Boss.pack(params);
 
-            String boundary = "==boundary==" + Ut.randomString(48);
+        String boundary = "==boundary==" + Ut.randomString(48);
 
-            String CRLF = "\r\n"; // Line separator required by multipart/form-data.
+        String CRLF = "\r\n"; // Line separator required by multipart/form-data.
 
-            URLConnection connection = new URL(url + "/" + path).openConnection();
+        URLConnection connection = new URL(url + "/" + path).openConnection();
 
-            connection.setDoOutput(true);
+        connection.setDoOutput(true);
 
-            connection.setConnectTimeout(CONNECTION_TIMEOUT);
-            connection.setReadTimeout(CONNECTION_READ_TIMEOUT);
-            connection.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + boundary);
-            connection.setRequestProperty("User-Agent", "Universa JAVA API Client");
+        connection.setConnectTimeout(CONNECTION_TIMEOUT);
+        connection.setReadTimeout(CONNECTION_READ_TIMEOUT);
+        connection.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + boundary);
+        connection.setRequestProperty("User-Agent", "Universa JAVA API Client");
 
 
-            try (
-                    OutputStream output = connection.getOutputStream();
-                    PrintWriter writer = new PrintWriter(new OutputStreamWriter(output, charset), true);
-            ) {
-                // Send normal param.
+        try (
+                OutputStream output = connection.getOutputStream();
+                PrintWriter writer = new PrintWriter(new OutputStreamWriter(output, charset), true);
+        ) {
+            // Send normal param.
 
-                // Send binary file.
-                writer.append("--" + boundary).append(CRLF);
-                writer.append("Content-Disposition: form-data; name=\"requestData\"; filename=\"requestData.boss\"").append(CRLF);
-                writer.append("Content-Type: application/octet-stream").append(CRLF);
-                writer.append("Content-Transfer-Encoding: binary").append(CRLF);
-                writer.append(CRLF).flush();
-                output.write(data);
-                output.flush(); // Important before continuing with writer!
-                writer.append(CRLF).flush(); // CRLF is important! It indicates end of boundary.
+            // Send binary file.
+            writer.append("--" + boundary).append(CRLF);
+            writer.append("Content-Disposition: form-data; name=\"requestData\"; filename=\"requestData.boss\"").append(CRLF);
+            writer.append("Content-Type: application/octet-stream").append(CRLF);
+            writer.append("Content-Transfer-Encoding: binary").append(CRLF);
+            writer.append(CRLF).flush();
+            output.write(data);
+            output.flush(); // Important before continuing with writer!
+            writer.append(CRLF).flush(); // CRLF is important! It indicates end of boundary.
 
-                // End of multipart/form-data.
-                writer.append("--" + boundary + "--").append(CRLF).flush();
-            }
+            // End of multipart/form-data.
+            writer.append("--" + boundary + "--").append(CRLF).flush();
+        }
 
-            HttpURLConnection httpConnection = (HttpURLConnection) connection;
-            int responseCode = httpConnection.getResponseCode();
-            byte[] answer = Do.read(httpConnection.getInputStream());
-            httpConnection.disconnect();
-            return new Answer(responseCode, Binder.from(Boss.load(answer)));
+        HttpURLConnection httpConnection = (HttpURLConnection) connection;
+        int responseCode = httpConnection.getResponseCode();
+        // the stream is read to the end and closed, but the connection is not disconnected, so the socket stays in
+        // the keep-alive cache and the next request to the node does not have to connect again
+        byte[] answer;
+        try (InputStream in = httpConnection.getInputStream()) {
+            answer = Do.read(in);
         }
+        return new Answer(responseCode, Binder.from(Boss.load(answer)));
     }
 
     @Override
@@ -13,6 +13,7 @@ import com.icodici.crypto.PublicKey;
 import com.icodici.universa.Approvable;
 import com.icodici.universa.Decimal;
 import com.icodici.universa.ErrorRecord;
+import com.icodici.universa.Errors;
 import com.icodici.universa.HashId;
 import com.icodici.universa.contract.Contract;
 import com.icodici.universa.contract.Parcel;
@@ -33,9 +34,16 @@ import java.net.HttpURLConnection;
 import java.net.URL;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 
 public class Client {
@@ -310,16 +318,9 @@ public class Client {
         if(binderResult instanceof ItemResult) {
             ItemResult lastResult = (ItemResult) binderResult;
             if (millisToWait > 0 && lastResult.state.isPending()) {
-                Instant end = Instant.now().plusMillis(millisToWait);
                 try {
                     Contract c = Contract.fromPackedTransaction(packed);
-                    while (Instant.now().isBefore(end) && lastResult.state.isPending()) {
-                        Thread.currentThread().sleep(100);
-                        lastResult = getState(c.getId());
-                        //System.out.println("test: " + lastResult);
-                    }
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
+                    lastResult = waitState(c.getId(), millisToWait);
                 } catch (Quantiser.QuantiserException e) {
                     throw new ClientError(e);
                 } catch (IOException e) {
@@ -361,21 +362,11 @@ public class Client {
                 Instant end = Instant.now().plusMillis(millisToWait);
                 try {
                     Parcel parcel = Parcel.unpack(packed);
-                    Node.ParcelProcessingState pState = getParcelProcessingState(parcel.getId());
-                    while (Instant.now().isBefore(end) && pState.isProcessing()) {
-                        System.out.println("parcel state is: " + pState);
-                        Thread.currentThread().sleep(100);
-                        pState = getParcelProcessingState(parcel.getId());
-                    }
+                    Node.ParcelProcessingState pState = waitParcelProcessingState(parcel.getId(), millisToWait);
                     System.out.println("parcel state is: " + pState);
-                    ItemResult lastResult = getState(parcel.getPayloadContract().getId());
-                    while (Instant.now().isBefore(end) && lastResult.state.isPending()) {
-                        Thread.currentThread().sleep(100);
-                        lastResult = getState(parcel.getPayloadContract().getId());
-                        System.out.println("test: " + lastResult);
-                    }
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
+                    ItemResult lastResult = waitState(parcel.getPayloadContract().getId(),
+                            Math.max(0, end.toEpochMilli() - Instant.now().toEpochMilli()));
+                    System.out.println("test: " + lastResult);
                 } catch (Quantiser.QuantiserException e) {
                     throw new ClientError(e);
                 } catch (IOException e) {
@@ -430,6 +421,217 @@ public class Client {
         });
     }
 
+    /**
+     * Wait until the item is processed by the node, that is, its state is not pending anymore, but no longer than the
+     * time given. Instead of polling getState, the client sends the waitState command, which the node answers as soon
+     * as the item is done or its own wait time is over, so there is one round trip for every few seconds of waiting.
+     * Nodes that do not support the command are polled with getState.
+     *
+     * @param itemId       to wait for
+     * @param millisToWait maximum time to wait, 0 to get the current state
+     * @return the last known {@link ItemResult}, it is pending if the time is over
+     * @throws ClientError
+     */
+    public ItemResult waitState(HashId itemId, long millisToWait) throws ClientError {
+        long end = System.currentTimeMillis() + millisToWait;
+        long retryMillis = MIN_RETRY_MILLIS;
+        while (true) {
+            long left = Math.max(0, end - System.currentTimeMillis());
+            ItemResult lastResult;
+            boolean waited = false;
+            if (waitCommandsSupported) {
+                Binder result;
+                try {
+                    result = httpClient.command("waitState",
+                            "itemId", itemId,
+                            "waitMillis", Math.min(left, MAX_WAIT_COMMAND_MILLIS));
+                } catch (CommandFailedException e) {
+                    if (e.getErrorRecord() == null || e.getErrorRecord().getError() != Errors.UNKNOWN_COMMAND)
+                        throw e;
+                    // the node is older than the command
+                    waitCommandsSupported = false;
+                    continue;
+                } catch (Exception e) {
+                    throw new ClientError(e);
+                }
+                Object ir = result.getOrThrow("itemResult");
+                lastResult = ir instanceof ItemResult ? (ItemResult) ir : ItemResult.UNDEFINED;
+                waited = result.getBoolean("waited", false);
+            } else {
+                lastResult = getState(itemId);
+            }
+            if (!lastResult.state.isPending() || System.currentTimeMillis() >= end)
+                return lastResult;
+            if (waited) {
+                retryMillis = MIN_RETRY_MILLIS;
+            } else {
+                // the node did not wait, it is busy or does not support waiting, so do not ask it at once
+                if (!sleepBeforeRetry(end, retryMillis))
+                    return lastResult;
+                retryMillis = Math.min(retryMillis * 2, MAX_RETRY_MILLIS);
+            }
+        }
+    }
+
+    /**
+     * Subscribe to the item processing result, see {@link #waitState(HashId, long)}. The waiting runs in the
+     * background on a pool of {@link #MAX_SUBSCRIPTION_THREADS} threads shared by all clients, use the future to get
+     * the callback. When all of them are busy, the subscription waits in the queue, and the time it spent there is
+     * taken from millisToWait.
+     *
+     * @param itemId       to wait for
+     * @param millisToWait maximum time to wait
+     * @return future of the last known {@link ItemResult}, it is pending if the time is over
+     */
+    public CompletableFuture<ItemResult> subscribeState(HashId itemId, long millisToWait) {
+        long end = System.currentTimeMillis() + millisToWait;
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return waitState(itemId, Math.max(0, end - System.currentTimeMillis()));
+            } catch (ClientError e) {
+                throw new CompletionException(e);
+            }
+        }, subscriptions);
+    }
+
+    /**
+     * Wait until the parcel processing is finished, but no longer than the time given. Works like {@link
+     * #waitState(HashId, long)}.
+     *
+     * @param parcelId     id of the parcel to wait for
+     * @param millisToWait maximum time to wait, 0 to get the current state
+     * @return the last known processing state of the parcel
+     * @throws ClientError
+     */
+    public Node.ParcelProcessingState waitParcelProcessingState(HashId parcelId, long millisToWait) throws ClientError {
+        long end = System.currentTimeMillis() + millisToWait;
+        long retryMillis = MIN_RETRY_MILLIS;
+        while (true) {
+            long left = Math.max(0, end - System.currentTimeMillis());
+            Node.ParcelProcessingState lastState;
+            boolean waited = false;
+            if (waitCommandsSupported) {
+                Binder result;
+                try {
+                    result = httpClient.command("waitParcelProcessingState",
+                            "parcelId", parcelId,
+                            "waitMillis", Math.min(left, MAX_WAIT_COMMAND_MILLIS));
+                } catch (CommandFailedException e) {
+                    if (e.getErrorRecord() == null || e.getErrorRecord().getError() != Errors.UNKNOWN_COMMAND)
+                        throw e;
+                    waitCommandsSupported = false;
+                    continue;
+                } catch (Exception e) {
+                    throw new ClientError(e);
+                }
+                Object ps = result.getOrThrow("processingState");
+                lastState = ps instanceof Node.ParcelProcessingState ? (Node.ParcelProcessingState) ps :
+                        Node.ParcelProcessingState.valueOf(result.getBinder("processingState").getStringOrThrow("state"));
+                waited = result.getBoolean("waited", false);
+            } else {
+                lastState = getParcelProcessingState(parcelId);
+            }
+            if (!lastState.isProcessing() || System.currentTimeMillis() >= end)
+                return lastState;
+            if (waited) {
+                retryMillis = MIN_RETRY_MILLIS;
+            } else {
+                if (!sleepBeforeRetry(end, retryMillis))
+                    return lastState;
+                retryMillis = Math.min(retryMillis * 2, MAX_RETRY_MILLIS);
+            }
+        }
+    }
+
+    /**
+     * Sleep for a random time between half and the whole of retryMillis, so the clients the node has turned away do
+     * not come back all at once, but not past the end.
+     */
+    private static boolean sleepBeforeRetry(long end, long retryMillis) {
+        long millis = retryMillis / 2 + ThreadLocalRandom.current().nextLong(retryMillis / 2 + 1);
+        try {
+            Thread.sleep(Math.max(1, Math.min(millis, end - System.currentTimeMillis())));
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Wait for the answer to one waitState command no longer than that, to stay within the read timeout of {@link
+     * BasicHttpClient}.
+     */
+    private static final long MAX_WAIT_COMMAND_MILLIS = 4000;
+
+    /**
+     * Retry delay when the node did not wait. It doubles with every retry up to {@link #MAX_RETRY_MILLIS} and is
+     * reset once the node waits again.
+     */
+    private static final long MIN_RETRY_MILLIS = 100;
+    private static final long MAX_RETRY_MILLIS = 3200;
+
+    private volatile boolean waitCommandsSupported = true;
+
+    /**
+     * Max number of threads running {@link #subscribeState(HashId, long)} subscriptions.
+     */
+    public static final int MAX_SUBSCRIPTION_THREADS = 16;
+
+    private static final ThreadPoolExecutor subscriptions = new ThreadPoolExecutor(
+            MAX_SUBSCRIPTION_THREADS, MAX_SUBSCRIPTION_THREADS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+            r -> {
+                Thread t = new Thread(r, "client-subscription");
+                t.setDaemon(true);
+                return t;
+            });
+
+    static {
+        subscriptions.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Look for known states of a number of items by their ids, in as few round trips as the node allows. See {@link
+     * #getStates(Collection, BiConsumer)}.
+     *
+     * @param itemIds to find states of
+     * @return known {@link ItemResult}s by ids, in the order of itemIds
+     * @throws ClientError
+     */
+    public Map<HashId, ItemResult> getStates(Collection<HashId> itemIds) throws ClientError {
+        Map<HashId, ItemResult> results = new LinkedHashMap<>();
+        getStates(itemIds, results::put);
+        return results;
+    }
+
+    /**
+     * Look for known states of a number of items by their ids. The node answers up to its limit of states per command,
+     * so the large collection is sent by pages and the results of every page are passed to the consumer as soon as
+     * they are received, without waiting for the rest.
+     *
+     * @param itemIds  to find states of
+     * @param consumer gets the id and the known {@link ItemResult} (ItemState.UNDEFINED if not found), in the order
+     *                 of itemIds
+     * @throws ClientError
+     */
+    public void getStates(Collection<HashId> itemIds, BiConsumer<HashId, ItemResult> consumer) throws ClientError {
+        List<HashId> ids = new ArrayList<>(itemIds);
+        int offset = 0;
+        while (offset < ids.size()) {
+            List<HashId> page = ids.subList(offset, Math.min(ids.size(), offset + statesPageSize));
+            Binder result = protect(() -> httpClient.command("getStates", "itemIds", new ArrayList<>(page)));
+            List<Object> results = result.getListOrThrow("itemResults");
+            if (results.isEmpty())
+                throw new ClientError(new IOException("no states returned by " + getUrl()));
+            // the node tells its limit, use it for the next pages
+            statesPageSize = Math.max(1, result.getInt("limit", statesPageSize));
+            for (Object ir : results)
+                consumer.accept(ids.get(offset++), ir instanceof ItemResult ? (ItemResult) ir : ItemResult.UNDEFINED);
+        }
+    }
+
+    private volatile int statesPageSize = 1000;
+
     /**
      * Force synchronization with the rest of the network of given item by its id. May require special client key / network configuration
      * @param itemId to synchronize
@@ -14,12 +14,14 @@ import com.icodici.universa.Errors;
 import com.icodici.universa.HashId;
 import com.icodici.universa.contract.Contract;
 import com.icodici.universa.contract.Parcel;
+import com.icodici.universa.contract.SealedContractView;
 import com.icodici.universa.contract.services.NImmutableEnvironment;
 import com.icodici.universa.contract.services.NNameRecord;
 import com.icodici.universa.contract.services.NSmartContract;
 import com.icodici.universa.contract.services.SlotContract;
 import com.icodici.universa.node.ItemResult;
 import com.icodici.universa.node.ItemState;
+import com.icodici.universa.node.StateRecord;
 import com.icodici.universa.node.network.BasicHTTPService;
 import com.icodici.universa.node2.*;
 import net.sergeych.boss.Boss;
@@ -33,6 +35,7 @@ import java.util.Date;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class ClientHTTPServer extends BasicHttpServer {
@@ -40,6 +43,11 @@ public class ClientHTTPServer extends BasicHttpServer {
 
     private static final String API_VERSION = "3.1.0";
 
+    /**
+     * The answer of {@link #getItems(Binder)} is cut after it gets that big.
+     */
+    private static final int MAX_ITEMS_ANSWER_SIZE = 4 * 1024 * 1024;
+
     private final BufferedLogger log;
     private ItemCache cache;
     private ParcelCache parcelCache;
@@ -51,9 +59,14 @@ public class ClientHTTPServer extends BasicHttpServer {
 
     private ExecutorService es = Executors.newFixedThreadPool(40);
 
+    /**
+     * Number of client commands that are waiting for the item or parcel processing to finish now.
+     */
+    private final AtomicInteger stateWaiters = new AtomicInteger();
+
 
     public ClientHTTPServer(PrivateKey privateKey, int port, BufferedLogger logger) throws IOException {
-        super(privateKey, port, 32, logger);
+        super(privateKey, port, Config.CLIENT_HTTP_THREADS, logger);
         log = logger;
 
         addSecureEndpoint("status", (params, session) -> Binder.of(
@@ -71,16 +84,7 @@ public class ClientHTTPServer extends BasicHttpServer {
             if (encodedString.equals("cache_test")) {
                 data = "the cache test data".getBytes();
             } else {
-                HashId id = HashId.withDigest(encodedString);
-                if (cache != null) {
-                    Contract c = (Contract) cache.get(id);
-                    if (c != null) {
-                        data = c.getPackedTransaction();
-                    }
-                }
-                if (data == null) {
-                    data = node.getLedger().getContractInStorage(id);
-                }
+                data = getPackedItem(HashId.withDigest(encodedString));
             }
 
             if (data != null) {
@@ -159,6 +163,8 @@ public class ClientHTTPServer extends BasicHttpServer {
                 response.setResponseCode(404);
         });
 
+        addEndpoint("/items", this::getItems);
+
         addEndpoint("/network", (Binder params, Result result) -> {
             if (networkData == null) {
                 List<Binder> nodes = new ArrayList<Binder>();
@@ -182,7 +188,10 @@ public class ClientHTTPServer extends BasicHttpServer {
 
         addSecureEndpoint("getStats", this::getStats);
         addSecureEndpoint("getState", this::getState);
+        addSecureEndpoint("getStates", this::getStates);
         addSecureEndpoint("getParcelProcessingState", this::getParcelProcessingState);
+        addSecureEndpoint("waitState", this::waitState);
+        addSecureEndpoint("waitParcelProcessingState", this::waitParcelProcessingState);
         addSecureEndpoint("approve", this::approve);
         addSecureEndpoint("resyncItem", this::resyncItem);
         addSecureEndpoint("setVerbose", this::setVerbose);
@@ -198,6 +207,67 @@ public class ClientHTTPServer extends BasicHttpServer {
 
     }
 
+    /**
+     * Find the packed transaction of the item in the cache, the storage or the ledger.
+     *
+     * @return packed transaction or null if the node does not have the item
+     */
+    private byte[] getPackedItem(HashId id) {
+        byte[] data = null;
+        if (cache != null) {
+            Contract c = (Contract) cache.get(id);
+            if (c != null) {
+                data = c.getPackedTransaction();
+            }
+        }
+        if (data == null) {
+            data = node.getLedger().getContractInStorage(id);
+        }
+        if (data == null) {
+            // the item could be evicted from the bounded cache while still being processed
+            StateRecord record = node.getLedger().getRecord(id);
+            if (record != null) {
+                // only the binary is needed, so do not deserialize and verify the stored contract
+                SealedContractView view = node.getLedger().getItemView(record);
+                if (view != null) {
+                    try {
+                        data = view.getPackedTransaction();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Packed transactions of many items at once, for other nodes downloading items, see {@link ItemFetcher}. Items
+     * the node does not have are returned as nulls. The answer stops before {@link #MAX_ITEMS_ANSWER_SIZE} is
+     * exceeded, so it may be shorter than the list of ids, but it always has at least one item.
+     *
+     * @param params "ids": list of item id digests, no more than {@link ItemFetcher#MAX_BATCH_SIZE}
+     *
+     * @return "items": packed transactions in the order of ids
+     */
+    private Binder getItems(Binder params) {
+        List<Object> ids = params.getListOrThrow("ids");
+        if (ids.size() > ItemFetcher.MAX_BATCH_SIZE)
+            throw new IllegalArgumentException("too many ids: " + ids.size() + ", max " + ItemFetcher.MAX_BATCH_SIZE);
+        List<byte[]> items = new ArrayList<>(ids.size());
+        long size = 0;
+        for (Object x : ids) {
+            if (size >= MAX_ITEMS_ANSWER_SIZE)
+                break;
+            byte[] digest = x instanceof Bytes ? ((Bytes) x).toArray() : (byte[]) x;
+            byte[] data = getPackedItem(HashId.withDigest(digest));
+            if (data != null)
+                size += data.length;
+            items.add(data);
+        }
+        return Binder.of("items", items);
+    }
+
     @Override
     public void shutdown() {
         es.shutdown();
@@ -347,6 +417,24 @@ public class ClientHTTPServer extends BasicHttpServer {
         }
     }
 
+    private Binder getStates(Binder params, Session session) throws CommandFailedException {
+
+        checkNode(session);
+        List<HashId> ids = params.getListOrThrow("itemIds");
+        // answer at most the limit, the client asks for the rest with the next command
+        int limit = config.getMaxStatesPerQuery();
+        if (ids.size() > limit)
+            ids = ids.subList(0, limit);
+        try {
+            return Binder.of(
+                    "itemResults", node.checkItems(ids),
+                    "limit", limit);
+        } catch (Exception e) {
+            System.out.println("getStates ERROR: " + e.getMessage());
+            throw new CommandFailedException(Errors.COMMAND_FAILED, "getStates", e.getMessage());
+        }
+    }
+
     private Binder resyncItem(Binder params, Session session) throws CommandFailedException {
 
         checkNode(session);
@@ -442,7 +530,10 @@ public class ClientHTTPServer extends BasicHttpServer {
 
     private Binder getStats(Binder params, Session session) throws CommandFailedException {
 
-        checkNode(session);
+        // the admin may watch the sanitation progress, see Node.getSanitationStats()
+        if (node == null || !node.isSanitating() || config == null ||
+                !config.getNetworkAdminKeyAddress().isMatchingKey(session.getPublicKey()))
+            checkNode(session);
 
         if (config == null || node == null || !(config.getNetworkAdminKeyAddress().isMatchingKey(session.getPublicKey()) ||
                                                 node.getNodeKey().equals(session.getPublicKey()))) {
@@ -453,6 +544,67 @@ public class ClientHTTPServer extends BasicHttpServer {
         return node.provideStats(params.getInt("showDays",null));
     }
 
+    /**
+     * Long-poll version of getState: if the item is being processed, wait until it is done, but no longer than
+     * waitMillis and {@link Config#getMaxStateWaitTime()}, then answer like getState. Every waiting command holds an
+     * HTTP server thread, so when {@link Config#getMaxStateWaiters()} commands are waiting already, the command answers
+     * at once and "waited" is false, telling the client to back off before the next one.
+     */
+    private Binder waitState(Binder params, Session session) throws CommandFailedException {
+        checkNode(session);
+        HashId itemId = (HashId) params.get("itemId");
+        try {
+            boolean waited = waitFor(params, millis -> node.waitItem(itemId, millis));
+            return Binder.of(
+                    "itemResult", node.checkItem(itemId),
+                    "waited", waited);
+        } catch (Exception e) {
+            System.out.println("waitState ERROR: " + e.getMessage());
+            return Binder.of(
+                    "itemResult", itemResultOfError(Errors.COMMAND_FAILED, "waitState", e.getMessage()));
+        }
+    }
+
+    /**
+     * Long-poll version of getParcelProcessingState, see {@link #waitState(Binder, Session)}.
+     */
+    private Binder waitParcelProcessingState(Binder params, Session session) throws CommandFailedException {
+        checkNode(session);
+        HashId parcelId = (HashId) params.get("parcelId");
+        try {
+            boolean waited = waitFor(params, millis -> node.waitParcel(parcelId, millis));
+            return Binder.of(
+                    "processingState", node.checkParcelProcessingState(parcelId),
+                    "waited", waited);
+        } catch (Exception e) {
+            System.out.println("waitParcelProcessingState ERROR: " + e.getMessage());
+            throw new CommandFailedException(Errors.COMMAND_FAILED, "waitParcelProcessingState", e.getMessage());
+        }
+    }
+
+    private interface Waiter {
+        void waitFor(long millis) throws InterruptedException, TimeoutException;
+    }
+
+    private boolean waitFor(Binder params, Waiter waiter) throws InterruptedException {
+        long maxMillis = config.getMaxStateWaitTime().toMillis();
+        long millis = Math.min(params.getLong("waitMillis", maxMillis), maxMillis);
+        if (millis <= 0)
+            return false;
+        if (stateWaiters.incrementAndGet() > config.getMaxStateWaiters()) {
+            stateWaiters.decrementAndGet();
+            return false;
+        }
+        try {
+            waiter.waitFor(millis);
+        } catch (TimeoutException ignored) {
+            // still processing, the client will ask again
+        } finally {
+            stateWaiters.decrementAndGet();
+        }
+        return true;
+    }
+
     private Binder getParcelProcessingState(Binder params, Session session) throws CommandFailedException {
         checkNode(session);
         try {
@@ -0,0 +1,477 @@
+/*
+ * Copyright (c) 2018, iCodici S.n.C, All Rights Reserved
+ *
+ */
+
+package com.icodici.universa.node2.network;
+
+import com.icodici.universa.HashId;
+import com.icodici.universa.node2.NodeInfo;
+import net.sergeych.tools.Binder;
+import net.sergeych.tools.Do;
+import net.sergeych.utils.Bytes;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Downloads packed items from other nodes for {@link NetworkV2}.
+ * <p>
+ * Connections to the node are not closed after the download, so the JDK keeps them alive and the next download from
+ * the same node does not connect again. Each node gets at most {@link #MAX_IN_FLIGHT_PER_PEER} requests at once;
+ * items requested while these are in flight wait in the queue of the node and are sent in one request to the
+ * {@code /items} endpoint of {@link ClientHTTPServer}, up to {@link #MAX_BATCH_SIZE} at once. Nodes that do not
+ * have the endpoint yet get the items one by one from {@code /contracts}.
+ * <p>
+ * {@link #fetchFirst(HashId, Collection, Duration)} asks the node with the best latency and failure record first. If
+ * it is late, the item is requested from the next one after the 95th percentile of the node latency, and the first
+ * node that has the item wins; the requests to the others are cancelled if they are still in the queue. Every answer
+ * is unpacked as soon as it comes, so a broken answer counts as a failure of its node and does not win. Ranking and
+ * hedging are shared with {@link AsyncClient}, see {@link PeerRanking}.
+ */
+class ItemFetcher {
+
+    /**
+     * Max number of items requested from the node at once. {@link ClientHTTPServer} answers no more than that.
+     */
+    static final int MAX_BATCH_SIZE = 64;
+
+    /**
+     * Max number of requests sent to one node at once, the rest wait in the queue to be batched.
+     */
+    static final int MAX_IN_FLIGHT_PER_PEER = 2;
+
+    private static final int CONNECTION_TIMEOUT = 2000;
+    private static final int CONNECTION_READ_TIMEOUT = 10000;
+
+    private final ConcurrentHashMap<Integer, Peer> peers = new ConcurrentHashMap<>();
+    private final ExecutorService pool;
+    private final PeerRanking ranking;
+
+    private volatile int maxSources = 3;
+
+    private final AtomicLong races = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+
+    ItemFetcher(String name) {
+        pool = Executors.newCachedThreadPool(PeerRanking.daemonThreads(name));
+        ranking = new PeerRanking(name + "-timer");
+    }
+
+    void shutdown() {
+        ranking.shutdown();
+        pool.shutdownNow();
+    }
+
+    /**
+     * Delay before the item is requested from the next node, used while the latency of the node is not known yet.
+     * When it is, the 95th percentile of the node latency is used instead, but not less than the min hedge delay.
+     */
+    Duration getHedgeDelay() {
+        return ranking.getHedgeDelay();
+    }
+
+    void setHedgeDelay(Duration hedgeDelay) {
+        ranking.setHedgeDelay(hedgeDelay);
+    }
+
+    void setMinHedgeDelay(Duration minHedgeDelay) {
+        ranking.setMinHedgeDelay(minHedgeDelay);
+    }
+
+    /**
+     * Max number of nodes one item is requested from by {@link #fetchFirst(HashId, Collection, Duration)}.
+     */
+    int getMaxSources() {
+        return maxSources;
+    }
+
+    void setMaxSources(int maxSources) {
+        this.maxSources = maxSources;
+    }
+
+    /**
+     * Request the packed item from the node. The request is queued and may be sent together with other items
+     * requested from the same node.
+     *
+     * @param source node to download from
+     * @param itemId item to download
+     *
+     * @return future of the packed transaction, or of null if the node has no such item. It fails with {@link
+     * IOException} if the node did not answer. Cancel it to drop the request if it is not sent yet.
+     */
+    CompletableFuture<byte[]> fetch(NodeInfo source, HashId itemId) {
+        return fetch(peer(source), itemId);
+    }
+
+    private CompletableFuture<byte[]> fetch(Peer peer, HashId itemId) {
+        Pending p = new Pending(itemId);
+        peer.queue.add(p);
+        drain(peer);
+        return p.future;
+    }
+
+    /**
+     * Download the packed item from the first of the sources that has it. Sources are ranked by their latency and
+     * failures, and no more than {@link #getMaxSources()} of them are asked.
+     *
+     * @param itemId     item to download
+     * @param sources    nodes that should have the item
+     * @param maxTimeout time to wait for the item
+     *
+     * @return packed transaction or null if no source returned it in time
+     *
+     * @throws InterruptedException if the calling thread is interrupted
+     */
+    byte[] fetchFirst(HashId itemId, Collection<NodeInfo> sources, Duration maxTimeout) throws InterruptedException {
+        return fetchFirst(itemId, sources, maxTimeout, data -> data);
+    }
+
+    /**
+     * Download the item from the first of the sources that returns it intact, see {@link #fetchFirst(HashId,
+     * Collection, Duration)}. The answer of each node is unpacked when it comes; if it fails, the node is counted as
+     * failed and the item is requested from the next node at once.
+     *
+     * @param itemId     item to download
+     * @param sources    nodes that should have the item
+     * @param maxTimeout time to wait for the item
+     * @param unpacker   makes the item of the packed transaction and checks it
+     *
+     * @return unpacked item or null if no source returned it in time
+     *
+     * @throws InterruptedException if the calling thread is interrupted
+     */
+    <T> T fetchFirst(HashId itemId, Collection<NodeInfo> sources, Duration maxTimeout, Unpacker<T> unpacker)
+            throws InterruptedException {
+        List<Peer> ranked = rank(sources);
+        if (ranked.isEmpty())
+            return null;
+        races.incrementAndGet();
+        Race<T> race = new Race<>(itemId, ranked, unpacker);
+        race.next();
+        try {
+            return race.result.get(maxTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            return null;
+        } catch (TimeoutException e) {
+            timeouts.incrementAndGet();
+            return null;
+        } finally {
+            race.cancel();
+        }
+    }
+
+    List<Peer> rank(Collection<NodeInfo> sources) {
+        List<Peer> known = new ArrayList<>();
+        for (NodeInfo info : sources)
+            known.add(peer(info));
+        return ranking.rank(known, maxSources);
+    }
+
+    private Peer peer(NodeInfo info) {
+        Peer peer = peers.computeIfAbsent(info.getNumber(), n -> new Peer(info));
+        // the node could be reconfigured with the same number
+        peer.info = info;
+        return peer;
+    }
+
+    /**
+     * Send queued items of the node unless it has too many requests in flight already. Called when items are queued
+     * and when the request is done.
+     */
+    private void drain(Peer peer) {
+        while (!peer.queue.isEmpty()) {
+            int n = peer.inFlight.get();
+            if (n >= MAX_IN_FLIGHT_PER_PEER)
+                return;
+            if (!peer.inFlight.compareAndSet(n, n + 1))
+                continue;
+            int batchSize = peer.batchUnsupported ? 1 : MAX_BATCH_SIZE;
+            List<Pending> batch = new ArrayList<>();
+            Pending p;
+            while (batch.size() < batchSize && (p = peer.queue.poll()) != null) {
+                // skip cancelled requests and those some other node has answered already
+                if (!p.future.isDone())
+                    batch.add(p);
+            }
+            if (batch.isEmpty()) {
+                peer.inFlight.decrementAndGet();
+                continue;
+            }
+            try {
+                pool.execute(() -> {
+                    try {
+                        download(peer, batch);
+                    } finally {
+                        peer.inFlight.decrementAndGet();
+                        drain(peer);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                peer.inFlight.decrementAndGet();
+                IOException error = new IOException("item fetcher is shut down", e);
+                batch.forEach(x -> x.future.completeExceptionally(error));
+                return;
+            }
+        }
+    }
+
+    private void download(Peer peer, List<Pending> batch) {
+        long started = System.nanoTime();
+        peer.requests.incrementAndGet();
+        try {
+            List<byte[]> found;
+            if (batch.size() == 1) {
+                found = Collections.singletonList(download(peer.info, batch.get(0).itemId));
+            } else {
+                List<HashId> ids = new ArrayList<>(batch.size());
+                for (Pending p : batch)
+                    ids.add(p.itemId);
+                found = downloadAll(peer, ids);
+            }
+            peer.record.answered(System.nanoTime() - started);
+            for (int i = 0; i < batch.size(); i++) {
+                Pending p = batch.get(i);
+                if (i < found.size()) {
+                    byte[] data = found.get(i);
+                    if (data != null)
+                        peer.items.incrementAndGet();
+                    else
+                        peer.misses.incrementAndGet();
+                    p.future.complete(data);
+                } else {
+                    // the answer was cut by size, request the rest again
+                    peer.queue.add(p);
+                }
+            }
+        } catch (FileNotFoundException e) {
+            if (batch.size() > 1 && !peer.batchUnsupported) {
+                // the node has no /items endpoint yet
+                peer.batchUnsupported = true;
+                peer.queue.addAll(batch);
+            } else
+                failed(peer, batch, e);
+        } catch (Exception e) {
+            failed(peer, batch, e);
+        }
+    }
+
+    private void failed(Peer peer, List<Pending> batch, Exception e) {
+        peer.failures.incrementAndGet();
+        peer.record.failed();
+        IOException error = e instanceof IOException ? (IOException) e :
+                new IOException("failed to download from node " + peer.info.getNumber(), e);
+        batch.forEach(p -> p.future.completeExceptionally(error));
+    }
+
+    /**
+     * Download one packed item with GET {@code /contracts/<id>}.
+     *
+     * @return packed transaction or null if the node has no such item
+     */
+    byte[] download(NodeInfo source, HashId itemId) throws IOException {
+        URL url = new URL(source.publicUrlString() + "/contracts/" + itemId.toBase64String());
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(CONNECTION_TIMEOUT);
+        connection.setReadTimeout(CONNECTION_READ_TIMEOUT);
+        connection.setRequestProperty("User-Agent", "Universa JAVA API Client");
+        connection.setRequestMethod("GET");
+        int code = connection.getResponseCode();
+        if (code == 404) {
+            // read the error page to the end, otherwise the connection is not reused
+            try (InputStream in = connection.getErrorStream()) {
+                if (in != null)
+                    Do.read(in);
+            }
+            return null;
+        }
+        if (code != 200)
+            throw new IOException("node " + source.getNumber() + " answered " + code);
+        try (InputStream in = connection.getInputStream()) {
+            return Do.read(in);
+        }
+    }
+
+    /**
+     * Download packed items with one request to {@code /items}.
+     *
+     * @return packed transactions in the order of ids, null for items the node does not have. The list may be
+     * shorter than ids if the answer has grown too big, the rest should be requested again.
+     *
+     * @throws FileNotFoundException if the node has no such endpoint
+     */
+    List<byte[]> downloadAll(Peer peer, List<HashId> ids) throws IOException {
+        List<byte[]> digests = new ArrayList<>(ids.size());
+        for (HashId id : ids)
+            digests.add(id.getDigest());
+        BasicHttpClient.Answer answer = peer.httpClient().request("items", Binder.of("ids", digests));
+        if (!answer.isOk() || answer.data.containsKey("errors"))
+            throw new IOException("node " + peer.info.getNumber() + " failed to return items: " + answer);
+        List<Object> items = answer.data.getListOrThrow("items");
+        List<byte[]> result = new ArrayList<>(items.size());
+        for (Object x : items)
+            result.add(x == null ? null : x instanceof Bytes ? ((Bytes) x).toArray() : (byte[]) x);
+        return result;
+    }
+
+    /**
+     * @return {@link Binder} with race counters and latency and failure stats of the nodes
+     */
+    Binder getStats() {
+        Binder nodes = new Binder();
+        for (Peer p : peers.values())
+            nodes.put(String.valueOf(p.info.getNumber()), Binder.of(
+                    "requests", p.requests.get(),
+                    "items", p.items.get(),
+                    "misses", p.misses.get(),
+                    "failures", p.failures.get(),
+                    "broken", p.broken.get(),
+                    "queued", p.queue.size(),
+                    "inFlight", p.inFlight.get(),
+                    "batches", !p.batchUnsupported,
+                    "latency", p.record.getLatency().getStats()
+            ));
+        return Binder.of(
+                "races", races.get(),
+                "hedges", ranking.getHedges(),
+                "timeouts", timeouts.get(),
+                "nodes", nodes
+        );
+    }
+
+    /**
+     * Makes the item of the downloaded packed transaction.
+     */
+    interface Unpacker<T> {
+
+        /**
+         * @param data packed transaction
+         *
+         * @return the item
+         *
+         * @throws Exception if the data is broken or is not the requested item
+         */
+        T unpack(byte[] data) throws Exception;
+    }
+
+    /**
+     * The item requested from one node.
+     */
+    private static class Pending {
+
+        private final HashId itemId;
+        private final CompletableFuture<byte[]> future = new CompletableFuture<>();
+
+        private Pending(HashId itemId) {
+            this.itemId = itemId;
+        }
+    }
+
+    /**
+     * The item requested from the ranked nodes one after another until some node returns it.
+     */
+    private class Race<T> extends PeerRanking.Race<Peer, T> {
+
+        private final HashId itemId;
+        private final Unpacker<T> unpacker;
+        private final List<CompletableFuture<byte[]>> attempts = new CopyOnWriteArrayList<>();
+
+        private Race(HashId itemId, List<Peer> targets, Unpacker<T> unpacker) {
+            super(ranking, targets, true);
+            this.itemId = itemId;
+            this.unpacker = unpacker;
+        }
+
+        @Override
+        protected void send(Peer peer) {
+            CompletableFuture<byte[]> attempt = fetch(peer, itemId);
+            attempts.add(attempt);
+            attempt.whenComplete((data, error) -> {
+                if (data == null) {
+                    // the node does not have it or failed, no reason to wait for the hedge delay
+                    failed(error);
+                    return;
+                }
+                if (result.isDone())
+                    return;
+                T item;
+                try {
+                    item = unpacker.unpack(data);
+                } catch (Exception e) {
+                    // the node has answered with garbage, it is no better than the failed one
+                    peer.broken.incrementAndGet();
+                    peer.record.failed();
+                    failed(e);
+                    return;
+                }
+                if (item != null)
+                    result.complete(item);
+                else
+                    failed(null);
+            });
+        }
+
+        @Override
+        protected void lost(Throwable error) {
+            result.complete(null);
+        }
+
+        private void cancel() {
+            for (CompletableFuture<byte[]> a : attempts)
+                a.cancel(false);
+        }
+    }
+
+    /**
+     * The node, its queue and its latency.
+     */
+    class Peer implements PeerRanking.Ranked {
+
+        private volatile NodeInfo info;
+        private final ConcurrentLinkedQueue<Pending> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final PeerRanking.Record record = ranking.newRecord();
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong items = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong broken = new AtomicLong();
+        private volatile boolean batchUnsupported;
+        private BasicHttpClient httpClient;
+
+        private Peer(NodeInfo info) {
+            this.info = info;
+        }
+
+        NodeInfo getInfo() {
+            return info;
+        }
+
+        private synchronized BasicHttpClient httpClient() {
+            if (httpClient == null || !httpClient.getUrl().equals(info.publicUrlString()))
+                httpClient = new BasicHttpClient(info.publicUrlString());
+            return httpClient;
+        }
+
+        @Override
+        public PeerRanking.Record getRecord() {
+            return record;
+        }
+
+        /**
+         * Requests in flight, and one more if some items wait in the queue.
+         */
+        @Override
+        public int getLoad() {
+            return inFlight.get() + (queue.isEmpty() ? 0 : 1);
+        }
+    }
+}
@@ -15,10 +15,14 @@ import com.icodici.universa.node.ItemResult;
 import com.icodici.universa.node2.NetConfig;
 import com.icodici.universa.node2.NodeInfo;
 import com.icodici.universa.node2.Notification;
+import net.sergeych.tools.Do;
 
 import java.io.IOException;
 import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeoutException;
 import java.util.function.Consumer;
 
@@ -69,6 +73,23 @@ public abstract class Network {
     public abstract Approvable getItem(HashId itemId, NodeInfo node, Duration maxTimeout)
             throws InterruptedException;
 
+    /**
+     * Block until the item will be available from any of the specified nodes non excessing specified timeout. The
+     * default implementation asks one random node, networks that can ask several nodes at once override it.
+     *
+     * @param itemId     item do load
+     * @param sources    nodes that should have the item, not empty
+     * @param maxTimeout is maximum timeout
+     * @return the downloaded item, null if the nodes can't provide it or network error has occurred
+     *
+     * @throws InterruptedException with unexpected interruption
+     */
+    public Approvable getItem(HashId itemId, Collection<NodeInfo> sources, Duration maxTimeout)
+            throws InterruptedException {
+        NodeInfo source = Do.sample(sources);
+        return getItem(itemId, source, maxTimeout);
+    }
+
     public abstract NImmutableEnvironment getEnvironment(HashId itemId, NodeInfo nodeInfo, Duration maxTimeout) throws InterruptedException;
 
     public abstract Parcel getParcel(HashId itemId, NodeInfo node, Duration maxTimeout)
@@ -111,6 +132,26 @@ public abstract class Network {
         return null;
     }
 
+    /**
+     * Get the states of a number of items the node knows. The default implementation asks about the items one by one,
+     * networks that can ask about many items at once override it.
+     *
+     * @param nodeInfo node to ask
+     * @param ids      of the items
+     * @return known results by the item ids, there are no entries for the items the node has not answered about
+     *
+     * @throws IOException on network failure
+     */
+    public Map<HashId, ItemResult> getItemStates(NodeInfo nodeInfo, Collection<HashId> ids) throws IOException {
+        Map<HashId, ItemResult> results = new HashMap<>();
+        for (HashId id : ids) {
+            ItemResult r = getItemState(nodeInfo, id);
+            if (r != null)
+                results.put(id, r);
+        }
+        return results;
+    }
+
 
     public void addNode(NodeInfo nodeInfo) {
         netConfig.addNode(nodeInfo);
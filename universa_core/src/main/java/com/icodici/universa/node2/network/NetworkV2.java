@@ -10,6 +10,8 @@ package com.icodici.universa.node2.network;
 import com.icodici.crypto.PrivateKey;
 import com.icodici.crypto.SymmetricKey;
 import com.icodici.universa.Approvable;
+import com.icodici.universa.ErrorRecord;
+import com.icodici.universa.Errors;
 import com.icodici.universa.HashId;
 import com.icodici.universa.contract.Parcel;
 import com.icodici.universa.contract.TransactionPack;
@@ -17,15 +19,20 @@ import com.icodici.universa.contract.services.NImmutableEnvironment;
 import com.icodici.universa.node.ItemResult;
 import com.icodici.universa.node2.*;
 import net.sergeych.boss.Boss;
+import net.sergeych.tools.Binder;
 import net.sergeych.tools.Do;
 import net.sergeych.utils.LogPrinter;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.time.Duration;
 import java.util.*;
-import java.util.concurrent.Callable;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 
 public class NetworkV2 extends Network {
@@ -40,6 +47,35 @@ public class NetworkV2 extends Network {
     protected int verboseLevel = DatagramAdapter.VerboseLevel.DETAILED;
     private Consumer<Notification> consumer;
 
+    /**
+     * Max number of notifications in one packet, the receiving side rejects packets with more, see {@link #unpack(byte[])}.
+     */
+    public static final int MAX_PACKED_NOTIFICATIONS = 1000;
+
+    /**
+     * Max size of packed notifications to send as one block. Adapter cuts blocks to datagrams of
+     * {@link DatagramAdapter#MAX_PACKET_SIZE}, so too big blocks are more likely to be retransmitted.
+     */
+    public static final int MAX_PACKED_NOTIFICATIONS_SIZE = 32 * DatagramAdapter.MAX_PACKET_SIZE;
+
+    /**
+     * Number of threads packing and sending notifications. Each destination is flushed by one thread at a time, so
+     * its notifications stay in order, while different destinations are flushed in parallel.
+     */
+    public static final int DELIVERY_THREADS = 4;
+
+    private final ConcurrentHashMap<Integer, OutboundQueue> outboundQueues = new ConcurrentHashMap<>();
+    private final AtomicInteger deliveryThreadsCount = new AtomicInteger();
+    private final ScheduledExecutorService deliveryExecutor = Executors.newScheduledThreadPool(DELIVERY_THREADS, r -> {
+        Thread t = new Thread(r, "network-delivery-" + deliveryThreadsCount.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    });
+    private volatile Duration notificationsCoalescingTime = Duration.ZERO;
+
+    private final AtomicLong deliveredNotificationsCount = new AtomicLong();
+    private final AtomicLong sentPacketsCount = new AtomicLong();
+
     public NetworkV2(NetConfig netConfig, NodeInfo myInfo, PrivateKey myKey) throws IOException {
         super(netConfig);
         this.myInfo = myInfo;
@@ -119,14 +155,76 @@ public class NetworkV2 extends Network {
         }
     }
 
+    /**
+     * Put the notification to the outbound queue of the destination node. Notifications queued for the same node within
+     * {@link #getNotificationsCoalescingTime()} are sent together in one packet (and those queued while previous
+     * packets are being sent, so under load notifications are coalesced even with zero coalescing time). Notifications
+     * are packed in the order they are queued, and only one delivery thread flushes the queue of the node at a time.
+     *
+     * @param toNode is {@link NodeInfo} of node for sending
+     * @param notification is sending {@link Notification}
+     */
     @Override
     public void deliver(NodeInfo toNode, Notification notification) {
+        logNotification(notification,toNode);
+
+        OutboundQueue queue = outboundQueues.computeIfAbsent(toNode.getNumber(), k -> new OutboundQueue());
+        queue.node = toNode;
+        queue.notifications.add(notification);
+        if (queue.scheduled.compareAndSet(false, true)) {
+            try {
+                long delay = notificationsCoalescingTime.toMillis();
+                if (delay > 0)
+                    deliveryExecutor.schedule(() -> flush(queue), delay, TimeUnit.MILLISECONDS);
+                else
+                    deliveryExecutor.execute(() -> flush(queue));
+            } catch (RejectedExecutionException e) {
+                report(getLabel(), "network is shut down, notification is not delivered");
+            }
+        }
+    }
+
+    /**
+     * Send all notifications queued for the node, packing up to {@link #MAX_PACKED_NOTIFICATIONS} to a packet. The
+     * queue stays scheduled while it is flushed, so no other thread flushes it at the same time.
+     *
+     * @param queue to send
+     */
+    private void flush(OutboundQueue queue) {
+        do {
+            NodeInfo toNode = queue.node;
+            List<Notification> batch = new ArrayList<>();
+            Notification n;
+            while ((n = queue.notifications.poll()) != null) {
+                batch.add(n);
+                if (batch.size() >= MAX_PACKED_NOTIFICATIONS) {
+                    sendPacked(toNode, batch);
+                    batch = new ArrayList<>();
+                }
+            }
+            if (!batch.isEmpty())
+                sendPacked(toNode, batch);
+            queue.scheduled.set(false);
+            // notifications queued before the reset did not schedule the flush, so send them too unless
+            // some later one has scheduled it already
+        } while (!queue.notifications.isEmpty() && queue.scheduled.compareAndSet(false, true));
+    }
+
+    private void sendPacked(NodeInfo toNode, List<Notification> notifications) {
         try {
-            byte[] data = packNotifications(myInfo, Do.listOf(notification));
-            logNotification(notification,toNode);
+            byte[] data = packNotifications(myInfo, notifications);
+            if (data.length > MAX_PACKED_NOTIFICATIONS_SIZE && notifications.size() > 1) {
+                // rare case of big notifications, just split it in halves
+                int half = notifications.size() / 2;
+                sendPacked(toNode, notifications.subList(0, half));
+                sendPacked(toNode, notifications.subList(half, notifications.size()));
+                return;
+            }
 
             if(adapter != null) {
                 adapter.send(toNode, data);
+                sentPacketsCount.incrementAndGet();
+                deliveredNotificationsCount.addAndGet(notifications.size());
             } else {
                 report(getLabel(), "UDPAdapter is null");
             }
@@ -201,31 +299,59 @@ public class NetworkV2 extends Network {
         consumer = notificationConsumer;
     }
 
-//    private final Map<NodeInfo,BasicHttpClient> httpClients = new HashMap<>();
+    private final ItemFetcher itemFetcher = new ItemFetcher("item-fetcher");
 
     @Override
     public Approvable getItem(HashId itemId, NodeInfo nodeInfo, Duration maxTimeout) throws InterruptedException {
+        CompletableFuture<byte[]> future = itemFetcher.fetch(nodeInfo, itemId);
         try {
-//            URL url = new URL("http://localhost:8080/contracts/" + itemId.toBase64String());
-            URL url = new URL(nodeInfo.publicUrlString() + "/contracts/" + itemId.toBase64String());
-            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-            connection.setRequestProperty("User-Agent", "Universa JAVA API Client");
-            connection.setRequestProperty("Connection", "close");
-            connection.setRequestMethod("GET");
-            if (200 != connection.getResponseCode())
-                return null;
-            byte[] data = Do.read(connection.getInputStream());
-            TransactionPack tp = TransactionPack.unpack(data, true);
-//            tp.trace();
-//            Contract c = Contract.fromPackedTransaction(data);
-            return tp.getContract();
-        } catch (Exception e) {
+            byte[] data = future.get(maxTimeout.toMillis(), TimeUnit.MILLISECONDS);
+            return data == null ? null : unpackItem(data);
+        } catch (ExecutionException | TimeoutException e) {
             report(getLabel(), "download failure. from: " + nodeInfo.getNumber() + " by: " + myInfo.getNumber() +" reason: " + e, DatagramAdapter.VerboseLevel.BASE);
+            return null;
+        } finally {
+            // drop the request if it still waits in the queue, nobody needs the answer now
+            future.cancel(false);
+        }
+    }
+
+    /**
+     * Download the item from the source that answers first with the intact item, see {@link ItemFetcher}.
+     */
+    @Override
+    public Approvable getItem(HashId itemId, Collection<NodeInfo> sources, Duration maxTimeout) throws InterruptedException {
+        Approvable item = itemFetcher.fetchFirst(itemId, sources, maxTimeout, data -> {
+            Approvable a = TransactionPack.unpack(data, true).getContract();
+            if (!itemId.equals(a.getId()))
+                throw new IOException("downloaded item " + a.getId() + " instead of " + itemId);
+            return a;
+        });
+        if (item == null) {
+            report(getLabel(), () -> concatReportMessage("download failure. item: ", itemId, " from: ", sources.size(),
+                    " sources by: ", myInfo.getNumber()), DatagramAdapter.VerboseLevel.BASE);
+            return null;
+        }
+        return item;
+    }
+
+    private Approvable unpackItem(byte[] data) {
+        try {
+            return TransactionPack.unpack(data, true).getContract();
+        } catch (Exception e) {
+            report(getLabel(), "failed to unpack downloaded item by: " + myInfo.getNumber() + " reason: " + e, DatagramAdapter.VerboseLevel.BASE);
             e.printStackTrace();
             return null;
         }
     }
 
+    /**
+     * @return latency, failure and race counters of item downloads, see {@link ItemFetcher#getStats()}
+     */
+    public Binder getItemFetchStats() {
+        return itemFetcher.getStats();
+    }
+
 
     @Override
     public NImmutableEnvironment getEnvironment(HashId itemId, NodeInfo nodeInfo, Duration maxTimeout) throws InterruptedException {
@@ -235,11 +361,14 @@ public class NetworkV2 extends Network {
             URL url = new URL(nodeInfo.publicUrlString() + "/environments/" + itemId.toBase64String());
             HttpURLConnection connection = (HttpURLConnection) url.openConnection();
             connection.setRequestProperty("User-Agent", "Universa JAVA API Client");
-            connection.setRequestProperty("Connection", "close");
             connection.setRequestMethod("GET");
             if (200 != connection.getResponseCode())
                 return null;
-            byte[] data = Do.read(connection.getInputStream());
+            byte[] data;
+            // close the stream but keep the connection alive for the next download
+            try (InputStream in = connection.getInputStream()) {
+                data = Do.read(in);
+            }
             return Boss.load(data);
 
         } catch (Exception e) {
@@ -256,11 +385,13 @@ public class NetworkV2 extends Network {
             URL url = new URL(nodeInfo.publicUrlString() + "/parcels/" + itemId.toBase64String());
             HttpURLConnection connection = (HttpURLConnection) url.openConnection();
             connection.setRequestProperty("User-Agent", "Universa JAVA API Client");
-            connection.setRequestProperty("Connection", "close");
             connection.setRequestMethod("GET");
             if (200 != connection.getResponseCode())
                 return null;
-            byte[] data = Do.read(connection.getInputStream());
+            byte[] data;
+            try (InputStream in = connection.getInputStream()) {
+                data = Do.read(in);
+            }
             Parcel parcel = Parcel.unpack(data);
 //            tp.trace();
 //            Contract c = Contract.fromPackedTransaction(data);
@@ -275,15 +406,35 @@ public class NetworkV2 extends Network {
 
     @Override
     public ItemResult getItemState(NodeInfo nodeInfo, HashId id) throws IOException {
-        Client client;
+        return getClient(nodeInfo).getState(id);
+    }
+
+    @Override
+    public Map<HashId, ItemResult> getItemStates(NodeInfo nodeInfo, Collection<HashId> ids) throws IOException {
+        try {
+            return getClient(nodeInfo).getStates(ids);
+        } catch (ClientError e) {
+            // the command error comes wrapped
+            Throwable cause = e instanceof CommandFailedException ? e : e.getCause();
+            if (!(cause instanceof CommandFailedException))
+                throw e;
+            ErrorRecord er = ((CommandFailedException) cause).getErrorRecord();
+            if (er == null || er.getError() != Errors.UNKNOWN_COMMAND)
+                throw e;
+            // the node is older than getStates, ask it item by item
+            return super.getItemStates(nodeInfo, ids);
+        }
+    }
+
+    private Client getClient(NodeInfo nodeInfo) throws IOException {
         synchronized (cachedClients) {
-            client = cachedClients.get(nodeInfo);
+            Client client = cachedClients.get(nodeInfo);
             if( client == null ) {
                 client = new Client(myKey, nodeInfo, null);
                 cachedClients.put(nodeInfo, client);
             }
+            return client;
         }
-        return client.getState(id);
     }
 
     private String exceptionCallback(String message) {
@@ -292,6 +443,8 @@ public class NetworkV2 extends Network {
     }
 
     public void shutdown() {
+        deliveryExecutor.shutdownNow();
+        itemFetcher.shutdown();
         if(adapter != null)
             adapter.shutdown();
     }
@@ -311,6 +464,33 @@ public class NetworkV2 extends Network {
     }
 
 
+    /**
+     * Time to wait for more notifications to the same node before sending them in one packet.
+     *
+     * @return coalescing time, zero means notifications are sent as soon as possible
+     */
+    public Duration getNotificationsCoalescingTime() {
+        return notificationsCoalescingTime;
+    }
+
+    public void setNotificationsCoalescingTime(Duration notificationsCoalescingTime) {
+        this.notificationsCoalescingTime = notificationsCoalescingTime;
+    }
+
+    /**
+     * @return number of notifications passed to the adapter
+     */
+    public long getDeliveredNotificationsCount() {
+        return deliveredNotificationsCount.get();
+    }
+
+    /**
+     * @return number of packed notification packets passed to the adapter
+     */
+    public long getSentPacketsCount() {
+        return sentPacketsCount.get();
+    }
+
     public int getVerboseLevel() {
         return verboseLevel;
     }
@@ -375,4 +555,13 @@ public class NetworkV2 extends Network {
         }
         return returnMessage.toString();
     }
+
+    /**
+     * Notifications waiting to be sent to the node.
+     */
+    private static final class OutboundQueue {
+        private final ConcurrentLinkedQueue<Notification> notifications = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private volatile NodeInfo node;
+    }
 }
@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2018, iCodici S.n.C, All Rights Reserved
+ *
+ */
+
+package com.icodici.universa.node2.network;
+
+import com.icodici.universa.node2.LatencyHistogram;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ranks nodes by their latency and failures and hedges requests among them, for {@link AsyncClient} and {@link
+ * ItemFetcher}.
+ * <p>
+ * The request goes to the best ranked node first. If the answer is late, the same request is sent to the next node
+ * after the 95th percentile latency of the first one, and the first answer wins; see {@link Race}. A node that fails
+ * is skipped the same way, without waiting.
+ */
+class PeerRanking {
+
+    private final ScheduledExecutorService timer;
+
+    private volatile Duration hedgeDelay = Duration.ofMillis(300);
+    private volatile Duration minHedgeDelay = Duration.ofMillis(20);
+
+    private final AtomicLong hedges = new AtomicLong();
+
+    /**
+     * @param name name of the timer thread that sends hedged requests
+     */
+    PeerRanking(String name) {
+        timer = Executors.newSingleThreadScheduledExecutor(daemonThreads(name));
+    }
+
+    static ThreadFactory daemonThreads(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, name + "-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /**
+     * Stop the timer. Races in progress go on without hedging.
+     */
+    void shutdown() {
+        timer.shutdownNow();
+    }
+
+    /**
+     * Delay before the request is hedged to the next node, used while the latency of the node is not known yet. When
+     * it is, the 95th percentile of the node latency is used instead, but not less than {@link #getMinHedgeDelay()}.
+     */
+    Duration getHedgeDelay() {
+        return hedgeDelay;
+    }
+
+    void setHedgeDelay(Duration hedgeDelay) {
+        this.hedgeDelay = hedgeDelay;
+    }
+
+    Duration getMinHedgeDelay() {
+        return minHedgeDelay;
+    }
+
+    void setMinHedgeDelay(Duration minHedgeDelay) {
+        this.minHedgeDelay = minHedgeDelay;
+    }
+
+    /**
+     * @return number of requests sent to the next node, both because of the late answer and of the failure
+     */
+    long getHedges() {
+        return hedges.get();
+    }
+
+    /**
+     * Sort the nodes best first. Nodes are shuffled before sorting, so equally good nodes share the load.
+     *
+     * @param nodes to rank
+     * @param max   max number of nodes to return
+     *
+     * @return no more than max best nodes, best first
+     */
+    <P extends Ranked> List<P> rank(Collection<P> nodes, int max) {
+        List<P> ranked = new ArrayList<>(nodes);
+        Collections.shuffle(ranked);
+        // scores change while sorting, so take them once
+        Map<P, Double> scores = new HashMap<>();
+        for (P p : ranked)
+            scores.put(p, p.getRecord().score(p.getLoad()));
+        ranked.sort(Comparator.comparingDouble(scores::get));
+        return ranked.size() > max ? new ArrayList<>(ranked.subList(0, max)) : ranked;
+    }
+
+    /**
+     * Node that could be ranked.
+     */
+    interface Ranked {
+
+        /**
+         * @return latency and failure record of the node, see {@link PeerRanking#newRecord()}
+         */
+        Record getRecord();
+
+        /**
+         * @return number of requests the node is busy with
+         */
+        int getLoad();
+    }
+
+    /**
+     * @return new record for the node
+     */
+    Record newRecord() {
+        return new Record();
+    }
+
+    /**
+     * Latency and failures in a row of one node.
+     */
+    class Record {
+
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final AtomicInteger failuresInRow = new AtomicInteger();
+        private volatile double averageMillis = -1;
+
+        private Record() {
+        }
+
+        /**
+         * The node has answered, either with the result or with an error.
+         *
+         * @param nanos time the node took to answer
+         */
+        void answered(long nanos) {
+            latency.record(nanos);
+            failuresInRow.set(0);
+            double millis = nanos / 1e6;
+            // concurrent updates may lose one sample, it is only used for ranking
+            double average = averageMillis;
+            averageMillis = average < 0 ? millis : average * 0.8 + millis * 0.2;
+        }
+
+        /**
+         * The node has not answered.
+         */
+        void failed() {
+            failuresInRow.incrementAndGet();
+        }
+
+        int getFailuresInRow() {
+            return failuresInRow.get();
+        }
+
+        LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        /**
+         * Lower is better: the expected latency, grown by the load and doubled for every failure in a row. Nodes that
+         * were never asked are expected to answer within the hedge delay.
+         *
+         * @param load number of requests the node is busy with
+         */
+        double score(int load) {
+            double average = averageMillis;
+            double expected = average < 0 ? hedgeDelay.toMillis() : Math.max(average, 0.1);
+            return expected * (1 + load) * (1 << Math.min(failuresInRow.get(), 10));
+        }
+
+        long hedgeDelayMillis() {
+            // the histogram gives bucket bounds, so a few samples are enough
+            long delay = latency.getCount() < 10 ? hedgeDelay.toMillis() : latency.getPercentileMillis(95);
+            return Math.max(delay, minHedgeDelay.toMillis());
+        }
+    }
+
+    /**
+     * The request sent to the ranked nodes one after another until some node answers. The next node is asked when
+     * the previous one fails or, if the race is hedged, when its answer is late.
+     *
+     * @param <P> node
+     * @param <T> result
+     */
+    static abstract class Race<P extends Ranked, T> {
+
+        private final PeerRanking ranking;
+        protected final List<P> targets;
+        protected final CompletableFuture<T> result = new CompletableFuture<>();
+        private final boolean hedged;
+        private final AtomicInteger started = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+
+        /**
+         * @param ranking the nodes are ranked by
+         * @param targets ranked nodes, see {@link PeerRanking#rank(Collection, int)}
+         * @param hedged  ask the next node when the answer is late, otherwise only when the node fails
+         */
+        Race(PeerRanking ranking, List<P> targets, boolean hedged) {
+            this.ranking = ranking;
+            this.targets = targets;
+            this.hedged = hedged;
+        }
+
+        /**
+         * Send the request to the next node, if any.
+         */
+        void next() {
+            int i = started.getAndIncrement();
+            if (i >= targets.size() || result.isDone())
+                return;
+            P target = targets.get(i);
+            if (i > 0)
+                ranking.hedges.incrementAndGet();
+            if (hedged && i + 1 < targets.size()) {
+                try {
+                    ranking.timer.schedule(() -> {
+                        if (!result.isDone())
+                            next();
+                    }, target.getRecord().hedgeDelayMillis(), TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException ignored) {
+                    // shut down, the request goes on without hedging
+                }
+            }
+            send(target);
+        }
+
+        /**
+         * Send the request to the node. The implementation completes {@link #result} with the answer, or calls {@link
+         * #failed(Throwable)} if the node has not answered.
+         */
+        protected abstract void send(P target);
+
+        /**
+         * Called when all the nodes have failed.
+         *
+         * @param error failure of the last node
+         */
+        protected abstract void lost(Throwable error);
+
+        /**
+         * The node has failed: go to the next one at once, without waiting for the hedge delay.
+         */
+        protected void failed(Throwable error) {
+            if (failed.incrementAndGet() >= targets.size())
+                lost(error);
+            else
+                next();
+        }
+    }
+}
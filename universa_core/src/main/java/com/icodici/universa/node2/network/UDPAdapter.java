@@ -26,6 +26,8 @@ import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 
 import static java.util.Arrays.asList;
@@ -57,7 +59,48 @@ public class UDPAdapter extends DatagramAdapter {
      */
     static public final int CLEANUP_TIME = 15000;
 
-    private boolean isShuttingDown = false;
+    /**
+     * Number of threads that send outgoing blocks, see {@link #send(NodeInfo, byte[])}.
+     */
+    static public final int SENDER_THREADS = 4;
+
+    /**
+     * Number of threads that process received packets: reassemble blocks, decrypt and pass data to the receiver.
+     */
+    static public final int RECEIVER_THREADS = Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * Max number of data blocks sent to a node and not yet acknowledged. Until some of them are delivered (or dropped
+     * after {@link DatagramAdapter#RETRANSMIT_MAX_ATTEMPTS}) next payloads wait in the outbound queue. Should be small:
+     * each acknowledge makes the adapter resend packets that still wait after 3 acknowledges, so a wide window ends up
+     * in many needless resends.
+     */
+    static public final int MAX_BLOCKS_IN_FLIGHT = 4;
+
+    /**
+     * Max number of payloads waiting in the outbound queue of a node. While the node is down the queue does not
+     * grow above it: the oldest payloads are dropped, so the node does not get a burst of stale data when it is back.
+     * The queue is dropped as a whole when the broken session with the node is removed.
+     */
+    static public final int MAX_OUTBOUND_QUEUE_SIZE = 1024;
+
+    /**
+     * Sessions are spread to this number of stripes by remote node number. Each stripe has its own lock and receive
+     * queue, so work for different nodes goes in parallel, while everything for the same node is done in order.
+     */
+    static private final int SESSION_STRIPES = 64;
+
+    private final ExecutorService senderPool = Executors.newFixedThreadPool(SENDER_THREADS,
+            daemonThreads("UDP-sender"));
+    private final ExecutorService receiverPool = Executors.newFixedThreadPool(RECEIVER_THREADS,
+            daemonThreads("UDP-receiver"));
+    private final Object[] sessionLocks = new Object[SESSION_STRIPES];
+    private final ConcurrentHashMap<Integer, OutboundQueue> outboundQueues = new ConcurrentHashMap<>();
+    private final SerialQueue[] receiveQueues = new SerialQueue[SESSION_STRIPES];
+    // received data is passed to the receiver from one thread at a time, as it was before
+    private final SerialQueue deliveryQueue = new SerialQueue(receiverPool);
+
+    private volatile boolean isShuttingDown = false;
 
     protected String label = null;
 
@@ -76,6 +119,11 @@ public class UDPAdapter extends DatagramAdapter {
 
         label = myNodeInfo.getNumber() + "-0: ";
 
+        for (int i = 0; i < SESSION_STRIPES; i++) {
+            sessionLocks[i] = new Object();
+            receiveQueues[i] = new SerialQueue(receiverPool);
+        }
+
         socket = new DatagramSocket(myNodeInfo.getNodeAddress().getPort());
         socket.setReuseAddress(true);
 
@@ -104,18 +152,62 @@ public class UDPAdapter extends DatagramAdapter {
     }
 
 
+    /**
+     * Put the payload to the outbound queue of the destination node and return. Queues are drained by the pool of
+     * {@link #SENDER_THREADS}, so slow handshake or encryption for one node does not hold sending to others. Payloads
+     * to the same node are passed to the session in the order they are sent, no more than
+     * {@link #MAX_BLOCKS_IN_FLIGHT} not delivered at a time.
+     *
+     * @param destination to send to
+     * @param payload data to send, copied before return
+     * @throws InterruptedException never thrown now, kept for compatibility
+     */
     @Override
-    synchronized public void send(NodeInfo destination, byte[] payload) throws InterruptedException {
+    public void send(NodeInfo destination, byte[] payload) throws InterruptedException {
         report(getLabel(), () -> concatReportMessage("send to ", destination.getNumber(),
                 ", is shutting down: ", isShuttingDown), VerboseLevel.BASE);
 
+        if(!isShuttingDown) {
+            OutboundQueue queue = outboundQueues.computeIfAbsent(destination.getNumber(), OutboundQueue::new);
+            queue.destination = destination;
+            queue.add(payload.clone());
+            queue.schedule();
+        }
+    }
+
+    /**
+     * Continue sending to the node if it has payloads waiting for the free place in the sending window.
+     *
+     * @param nodeNumber is number of remote node
+     */
+    protected void resumeSending(int nodeNumber) {
+        OutboundQueue queue = outboundQueues.get(nodeNumber);
+        if (queue != null)
+            queue.schedule();
+    }
+
+    private boolean isSendingWindowFull(int nodeNumber) {
+        Session session = sessionsById.get(nodeNumber);
+        // not delivered data blocks stay in the waiting queue until acknowledged
+        return session != null && session.waitingBlocksQueue.size() >= MAX_BLOCKS_IN_FLIGHT;
+    }
+
+    /**
+     * Pass the payload to the session with destination, starting handshake if needed. Must be called holding the
+     * {@link #sessionLockFor(int)} of the destination.
+     *
+     * @param destination to send to
+     * @param payload data to send
+     * @throws InterruptedException if something went wrong
+     */
+    protected void sendRawData(NodeInfo destination, byte[] payload) throws InterruptedException {
         if(!isShuttingDown) {
             Session session = sessionsById.get(destination.getNumber());
 
             Block rawBlock = new Block(myNodeInfo.getNumber(), destination.getNumber(),
                     new Random().nextInt(Integer.MAX_VALUE), PacketTypes.RAW_DATA,
                     destination.getNodeAddress().getAddress(), destination.getNodeAddress().getPort(),
-                    payload.clone());
+                    payload);
 
             if (session != null) {
                 if (session.isValid()) {
@@ -166,6 +258,8 @@ public class UDPAdapter extends DatagramAdapter {
 
         report(getLabel(), "shutting down...", VerboseLevel.BASE);
         socketListenThread.shutdownThread();
+        senderPool.shutdownNow();
+        receiverPool.shutdownNow();
         socket.close();
         socket.disconnect();
         closeSessions();
@@ -194,6 +288,8 @@ public class UDPAdapter extends DatagramAdapter {
     public void closeSessions() {
         report(getLabel(), "closeSessions");
         sessionsById.clear();
+        for (OutboundQueue queue : outboundQueues.values())
+            queue.clear();
     }
 
 
@@ -301,43 +397,45 @@ public class UDPAdapter extends DatagramAdapter {
      * @param session is {@link Session} in which sending is.
      * @throws InterruptedException if something went wrong
      */
-    synchronized protected void sendAsDataBlock(Block rawDataBlock, Session session) throws InterruptedException {
-        report(getLabel(), () -> concatReportMessage("send data to ", session.remoteNodeId), VerboseLevel.BASE);
-        report(getLabel(), () -> concatReportMessage("sessionKey is ", session.sessionKey.hashCode(),
-                " for ", session.remoteNodeId));
+    protected void sendAsDataBlock(Block rawDataBlock, Session session) throws InterruptedException {
+        synchronized (sessionLockFor(session.remoteNodeId)) {
+            report(getLabel(), () -> concatReportMessage("send data to ", session.remoteNodeId), VerboseLevel.BASE);
+            report(getLabel(), () -> concatReportMessage("sessionKey is ", session.sessionKey.hashCode(),
+                    " for ", session.remoteNodeId));
 
-        byte[] crc32Local = new Crc32().digest(rawDataBlock.payload);
-        report(getLabel(), () -> concatReportMessage("sendAsDataBlock: Crc32 id is ",
-                Arrays.equals(rawDataBlock.crc32, crc32Local)));
+            byte[] crc32Local = new Crc32().digest(rawDataBlock.payload);
+            report(getLabel(), () -> concatReportMessage("sendAsDataBlock: Crc32 id is ",
+                    Arrays.equals(rawDataBlock.crc32, crc32Local)));
 
-        try {
-            byte[] encrypted = session.sessionKey.etaEncrypt(rawDataBlock.payload.clone());
-
-            Binder binder = Binder.fromKeysValues(
-                    "data", encrypted,
-                    "crc32", rawDataBlock.crc32
-            );
-            byte[] packedData = Boss.pack(binder);
-            report(getLabel(), () -> concatReportMessage(" data size: ", rawDataBlock.payload.length,
-                    " for ", session.remoteNodeId));
-            Block block = new Block(myNodeInfo.getNumber(), session.remoteNodeId,
-                    rawDataBlock.blockId, PacketTypes.DATA,
-                    session.address, session.port,
-                    packedData);
-            sendBlock(block, session);
-        } catch (EncryptionError encryptionError) {
-            callErrorCallbacks("[sendAsDataBlock] EncryptionError in node "
-                    + myNodeInfo.getNumber() + ": " + encryptionError.getMessage());
-            if (sessionsById.containsKey(session.remoteNodeId)) {
-                sessionsById.remove(session.remoteNodeId);
+            try {
+                byte[] encrypted = etaEncrypt(session.sessionKey, rawDataBlock.payload.clone());
+
+                Binder binder = Binder.fromKeysValues(
+                        "data", encrypted,
+                        "crc32", rawDataBlock.crc32
+                );
+                byte[] packedData = Boss.pack(binder);
+                report(getLabel(), () -> concatReportMessage(" data size: ", rawDataBlock.payload.length,
+                        " for ", session.remoteNodeId));
+                Block block = new Block(myNodeInfo.getNumber(), session.remoteNodeId,
+                        rawDataBlock.blockId, PacketTypes.DATA,
+                        session.address, session.port,
+                        packedData);
+                sendBlock(block, session);
+            } catch (EncryptionError encryptionError) {
+                callErrorCallbacks("[sendAsDataBlock] EncryptionError in node "
+                        + myNodeInfo.getNumber() + ": " + encryptionError.getMessage());
+                if (sessionsById.containsKey(session.remoteNodeId)) {
+                    sessionsById.remove(session.remoteNodeId);
+                }
+                Session newSession = getOrCreateSession(session.remoteNodeId,
+                        session.address,
+                        session.port);
+                newSession.publicKey = session.publicKey;
+                newSession.remoteNodeId = session.remoteNodeId;
+                newSession.addBlockToWaitingQueue(rawDataBlock);
+                sendHello(newSession);
             }
-            Session newSession = getOrCreateSession(session.remoteNodeId,
-                    session.address,
-                    session.port);
-            newSession.publicKey = session.publicKey;
-            newSession.remoteNodeId = session.remoteNodeId;
-            newSession.addBlockToWaitingQueue(rawDataBlock);
-            sendHello(newSession);
         }
     }
 
@@ -384,41 +482,43 @@ public class UDPAdapter extends DatagramAdapter {
      * @param session is {@link Session} in which sending is.
      * @throws InterruptedException if something went wrong
      */
-    synchronized protected void sendKeyRequest(Session session) throws InterruptedException {
-        report(getLabel(), () -> concatReportMessage("send key request to ", session.remoteNodeId), VerboseLevel.BASE);
+    protected void sendKeyRequest(Session session) throws InterruptedException {
+        synchronized (sessionLockFor(session.remoteNodeId)) {
+            report(getLabel(), () -> concatReportMessage("send key request to ", session.remoteNodeId), VerboseLevel.BASE);
 
-        session.state = Session.KEY_REQ;
-        List data = asList(session.localNonce, session.remoteNonce);
-        try {
-            byte[] packed = Boss.pack(data);
-            byte[] signed = ownPrivateKey.sign(packed, HashType.SHA512);
-
-            Binder binder = Binder.fromKeysValues(
-                    "data", packed,
-                    "signature", signed
-            );
-
-            Block block = new Block(myNodeInfo.getNumber(), session.remoteNodeId,
-                                    new Random().nextInt(Integer.MAX_VALUE), PacketTypes.KEY_REQ,
-                                    session.address, session.port,
-                                    Boss.pack(binder));
-            sendBlock(block, session);
-        } catch (EncryptionError encryptionError) {
-            callErrorCallbacks("[sendKeyRequest] EncryptionError in node "
-                    + myNodeInfo.getNumber() + ": " + encryptionError.getMessage());
-//            encryptionError.printStackTrace();
-            if (sessionsById.containsKey(session.remoteNodeId)) {
-                sessionsById.remove(session.remoteNodeId);
-            }
-            Session newSession = getOrCreateSession(session.remoteNodeId,
-                    session.address,
-                    session.port);
-            newSession.publicKey = session.publicKey;
-            newSession.remoteNodeId = session.remoteNodeId;
-            for (Block b : session.waitingBlocksQueue) {
-                newSession.addBlockToWaitingQueue(b);
+            session.state = Session.KEY_REQ;
+            List data = asList(session.localNonce, session.remoteNonce);
+            try {
+                byte[] packed = Boss.pack(data);
+                byte[] signed = ownPrivateKey.sign(packed, HashType.SHA512);
+
+                Binder binder = Binder.fromKeysValues(
+                        "data", packed,
+                        "signature", signed
+                );
+
+                Block block = new Block(myNodeInfo.getNumber(), session.remoteNodeId,
+                                        new Random().nextInt(Integer.MAX_VALUE), PacketTypes.KEY_REQ,
+                                        session.address, session.port,
+                                        Boss.pack(binder));
+                sendBlock(block, session);
+            } catch (EncryptionError encryptionError) {
+                callErrorCallbacks("[sendKeyRequest] EncryptionError in node "
+                        + myNodeInfo.getNumber() + ": " + encryptionError.getMessage());
+    //            encryptionError.printStackTrace();
+                if (sessionsById.containsKey(session.remoteNodeId)) {
+                    sessionsById.remove(session.remoteNodeId);
+                }
+                Session newSession = getOrCreateSession(session.remoteNodeId,
+                        session.address,
+                        session.port);
+                newSession.publicKey = session.publicKey;
+                newSession.remoteNodeId = session.remoteNodeId;
+                for (Block b : session.waitingBlocksQueue) {
+                    newSession.addBlockToWaitingQueue(b);
+                }
+                sendHello(newSession);
             }
-            sendHello(newSession);
         }
     }
 
@@ -429,46 +529,48 @@ public class UDPAdapter extends DatagramAdapter {
      * @param session is {@link Session} in which sending is.
      * @throws InterruptedException if something went wrong
      */
-    synchronized protected void sendSessionKey(Session session) throws InterruptedException {
-        report(getLabel(), () -> concatReportMessage("send session key to ", session.remoteNodeId), VerboseLevel.BASE);
-        report(getLabel(), () -> concatReportMessage("sessionKey is ", session.sessionKey.hashCode(),
-                " for ", session.remoteNodeId));
+    protected void sendSessionKey(Session session) throws InterruptedException {
+        synchronized (sessionLockFor(session.remoteNodeId)) {
+            report(getLabel(), () -> concatReportMessage("send session key to ", session.remoteNodeId), VerboseLevel.BASE);
+            report(getLabel(), () -> concatReportMessage("sessionKey is ", session.sessionKey.hashCode(),
+                    " for ", session.remoteNodeId));
 
-        List data = asList(session.sessionKey.getKey(), session.remoteNonce);
-        try {
-            byte[] packed = Boss.pack(data);
-            PublicKey sessionPublicKey = new PublicKey(session.publicKey.pack());
-            byte[] encrypted = sessionPublicKey.encrypt(packed);
-            byte[] signed = ownPrivateKey.sign(encrypted, HashType.SHA512);
-
-            Binder binder = Binder.fromKeysValues(
-                    "data", encrypted,
-                    "signature", signed
-            );
-
-            Block block = new Block(myNodeInfo.getNumber(), session.remoteNodeId,
-                                    new Random().nextInt(Integer.MAX_VALUE), PacketTypes.SESSION,
-                                    session.address, session.port,
-                                    Boss.pack(binder));
-            sendBlock(block, session);
-            session.state = Session.SESSION;
-        } catch (EncryptionError encryptionError) {
-            callErrorCallbacks("[sendSessionKey] EncryptionError in node "
-                    + myNodeInfo.getNumber() + ": " + encryptionError.getMessage());
-
-//            encryptionError.printStackTrace();
-            if (sessionsById.containsKey(session.remoteNodeId)) {
-                sessionsById.remove(session.remoteNodeId);
-            }
-            Session newSession = getOrCreateSession(session.remoteNodeId,
-                    session.address,
-                    session.port);
-            newSession.publicKey = session.publicKey;
-            newSession.remoteNodeId = session.remoteNodeId;
-            for (Block b : session.waitingBlocksQueue) {
-                newSession.addBlockToWaitingQueue(b);
+            List data = asList(session.sessionKey.getKey(), session.remoteNonce);
+            try {
+                byte[] packed = Boss.pack(data);
+                PublicKey sessionPublicKey = new PublicKey(session.publicKey.pack());
+                byte[] encrypted = sessionPublicKey.encrypt(packed);
+                byte[] signed = ownPrivateKey.sign(encrypted, HashType.SHA512);
+
+                Binder binder = Binder.fromKeysValues(
+                        "data", encrypted,
+                        "signature", signed
+                );
+
+                Block block = new Block(myNodeInfo.getNumber(), session.remoteNodeId,
+                                        new Random().nextInt(Integer.MAX_VALUE), PacketTypes.SESSION,
+                                        session.address, session.port,
+                                        Boss.pack(binder));
+                sendBlock(block, session);
+                session.state = Session.SESSION;
+            } catch (EncryptionError encryptionError) {
+                callErrorCallbacks("[sendSessionKey] EncryptionError in node "
+                        + myNodeInfo.getNumber() + ": " + encryptionError.getMessage());
+
+    //            encryptionError.printStackTrace();
+                if (sessionsById.containsKey(session.remoteNodeId)) {
+                    sessionsById.remove(session.remoteNodeId);
+                }
+                Session newSession = getOrCreateSession(session.remoteNodeId,
+                        session.address,
+                        session.port);
+                newSession.publicKey = session.publicKey;
+                newSession.remoteNodeId = session.remoteNodeId;
+                for (Block b : session.waitingBlocksQueue) {
+                    newSession.addBlockToWaitingQueue(b);
+                }
+                sendHello(newSession);
             }
-            sendHello(newSession);
         }
     }
 
@@ -557,9 +659,10 @@ public class UDPAdapter extends DatagramAdapter {
         session.sessionKey = sessionKey;
         report(getLabel(), () -> concatReportMessage("sessionKey is ", session.sessionKey.hashCode(),
                 " localNonce is ", session.localNonce, " for ", session.remoteNodeId), VerboseLevel.BASE);
-        sessionsById.putIfAbsent(remoteId, session);
+        // other thread could create the session meanwhile, then use its one
+        Session existing = sessionsById.putIfAbsent(remoteId, session);
 
-        return session;
+        return existing != null ? existing : session;
 
     }
 
@@ -574,65 +677,76 @@ public class UDPAdapter extends DatagramAdapter {
         List<Block> blocksToRemove;
         List<Session> brokenSessions = new ArrayList<>();
         for(Session session : sessionsById.values()) {
-            blocksToRemove = new ArrayList();
-            for (Block block : session.sendingBlocksQueue) {
-                if(!block.isDelivered()) {
-                    report(getLabel(), () -> concatReportMessage("block: ", block.blockId,
-                            " type: ", block.type, " sendAttempts: ", block.sendAttempts, " not delivered"));
-                    try {
-                        if(block.sendAttempts >= RETRANSMIT_MAX_ATTEMPTS) {
-                            report(getLabel(), () -> concatReportMessage("block ", block.blockId,
-                                    " type ", block.type, " will be removed"));
-                            blocksToRemove.add(block);
-                        } else {
-                            sendBlock(block, session);
+            // the session is changed under the lock of its node, as handshake and sending do
+            synchronized (sessionLockFor(session.remoteNodeId)) {
+                blocksToRemove = new ArrayList();
+                for (Block block : session.sendingBlocksQueue) {
+                    if(!block.isDelivered()) {
+                        report(getLabel(), () -> concatReportMessage("block: ", block.blockId,
+                                " type: ", block.type, " sendAttempts: ", block.sendAttempts, " not delivered"));
+                        try {
+                            if(block.sendAttempts >= RETRANSMIT_MAX_ATTEMPTS) {
+                                report(getLabel(), () -> concatReportMessage("block ", block.blockId,
+                                        " type ", block.type, " will be removed"));
+                                blocksToRemove.add(block);
+                            } else {
+                                sendBlock(block, session);
+                            }
+                        } catch (InterruptedException e) {
+                            e.printStackTrace();
                         }
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
                     }
                 }
-            }
 
-            for(Block rb : blocksToRemove) {
-                try {
-//                    if(rb.type == PacketTypes.DATA && session.sendingBlocksQueue.contains(rb)) {
-//                        System.err.println(getLabel() + "block " + rb.blockId + " type " + rb.type + " has not delivered and will be removed");
-//                        callErrorCallbacks("block " + rb.blockId + " type " + rb.type + " has not delivered and will be removed");
-//                    }
-                    session.removeBlockFromSendingQueue(rb);
-                    session.removeBlockFromWaitingQueue(rb.blockId);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
+                for(Block rb : blocksToRemove) {
+                    try {
+    //                    if(rb.type == PacketTypes.DATA && session.sendingBlocksQueue.contains(rb)) {
+    //                        System.err.println(getLabel() + "block " + rb.blockId + " type " + rb.type + " has not delivered and will be removed");
+    //                        callErrorCallbacks("block " + rb.blockId + " type " + rb.type + " has not delivered and will be removed");
+    //                    }
+                        session.removeBlockFromSendingQueue(rb);
+                        session.removeBlockFromWaitingQueue(rb.blockId);
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
                 }
-            }
 
-            if(blocksToRemove.size() > 0) {
-                report(getLabel(), () -> concatReportMessage("Session with remote ", session.remoteNodeId,
-                        " is possible broken, state: ",
-                        session.state,
-                        ", num sending: ", session.sendingBlocksQueue.size(),
-                        ", num waiting: ", session.waitingBlocksQueue.size()));
-
-                if(session.state != Session.EXCHANGING && session.state != Session.SESSION) {
-                    if(session.sendingBlocksQueue.isEmpty()) {
-
-                        report(getLabel(), () -> concatReportMessage("Session with remote ",
-                                session.remoteNodeId, " is broken, state: ",
-                                session.state,
-                                ", num sending: ", session.sendingBlocksQueue.size(),
-                                ", num waiting: ", session.waitingBlocksQueue.size(), ", will be removed"));
-                        brokenSessions.add(session);
+                if(blocksToRemove.size() > 0) {
+                    report(getLabel(), () -> concatReportMessage("Session with remote ", session.remoteNodeId,
+                            " is possible broken, state: ",
+                            session.state,
+                            ", num sending: ", session.sendingBlocksQueue.size(),
+                            ", num waiting: ", session.waitingBlocksQueue.size()));
+
+                    if(session.state != Session.EXCHANGING && session.state != Session.SESSION) {
+                        if(session.sendingBlocksQueue.isEmpty()) {
+
+                            report(getLabel(), () -> concatReportMessage("Session with remote ",
+                                    session.remoteNodeId, " is broken, state: ",
+                                    session.state,
+                                    ", num sending: ", session.sendingBlocksQueue.size(),
+                                    ", num waiting: ", session.waitingBlocksQueue.size(), ", will be removed"));
+                            brokenSessions.add(session);
+                        }
                     }
                 }
             }
         }
 
-
         for(Session session : brokenSessions) {
-            if (sessionsById.containsKey(session.remoteNodeId)) {
-                sessionsById.remove(session.remoteNodeId);
+            synchronized (sessionLockFor(session.remoteNodeId)) {
+                // the node could get the new session meanwhile, keep it
+                if (sessionsById.remove(session.remoteNodeId, session)) {
+                    OutboundQueue queue = outboundQueues.get(session.remoteNodeId);
+                    if (queue != null)
+                        queue.clear();
+                }
             }
         }
+
+        // dropped blocks and removed sessions free the sending windows too
+        for (OutboundQueue queue : outboundQueues.values())
+            queue.schedule();
     }
 
     /**
@@ -743,6 +857,173 @@ public class UDPAdapter extends DatagramAdapter {
     }
 
 
+    /**
+     * Pass decrypted data to the receiver. Blocks are decrypted in parallel, but the receiver is called from one
+     * thread at a time, so it need not be thread safe.
+     *
+     * @param data received from remote node
+     */
+    protected void deliver(byte[] data) {
+        deliveryQueue.execute(() -> receiver.accept(data));
+    }
+
+    private static int stripeOf(int nodeNumber) {
+        return Math.floorMod(nodeNumber, SESSION_STRIPES);
+    }
+
+    /**
+     * Lock that guards handshake and sending for the sessions with the remote node.
+     *
+     * @param nodeNumber is number of remote node
+     * @return lock object of the node stripe
+     */
+    protected Object sessionLockFor(int nodeNumber) {
+        return sessionLocks[stripeOf(nodeNumber)];
+    }
+
+    /**
+     * Symmetric keys are shared between sessions (the own session key is sent to all remote nodes) and their block
+     * cipher is not thread safe, so sessions processed in parallel lock the key while using it.
+     */
+    private static byte[] etaEncrypt(SymmetricKey key, byte[] data) throws EncryptionError {
+        synchronized (key) {
+            return key.etaEncrypt(data);
+        }
+    }
+
+    private static byte[] etaDecrypt(SymmetricKey key, byte[] data) throws EncryptionError, SymmetricKey.AuthenticationFailed {
+        synchronized (key) {
+            return key.etaDecrypt(data);
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        return r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /**
+     * Payloads waiting to be sent to the node.
+     */
+    private class OutboundQueue {
+        private final int nodeNumber;
+        private final ConcurrentLinkedQueue<byte[]> payloads = new ConcurrentLinkedQueue<>();
+        // size of payloads, as the size() of the concurrent queue walks all of it
+        private final AtomicInteger size = new AtomicInteger();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private volatile NodeInfo destination;
+
+        OutboundQueue(int nodeNumber) {
+            this.nodeNumber = nodeNumber;
+        }
+
+        void add(byte[] payload) {
+            payloads.add(payload);
+            if (size.incrementAndGet() > MAX_OUTBOUND_QUEUE_SIZE && poll() != null)
+                report(getLabel(), () -> concatReportMessage("outbound queue to ", nodeNumber,
+                        " is full, the oldest payload is dropped"), VerboseLevel.BASE);
+        }
+
+        byte[] poll() {
+            byte[] payload = payloads.poll();
+            if (payload != null)
+                size.decrementAndGet();
+            return payload;
+        }
+
+        void clear() {
+            while (poll() != null) {
+                // drop all waiting payloads
+            }
+        }
+
+        void schedule() {
+            if (!payloads.isEmpty() && scheduled.compareAndSet(false, true)) {
+                try {
+                    senderPool.execute(this::drain);
+                } catch (RejectedExecutionException e) {
+                    // adapter is shutting down
+                    scheduled.set(false);
+                }
+            }
+        }
+
+        private void drain() {
+            // reset before sending: whatever is added after it schedules the next drain
+            scheduled.set(false);
+            try {
+                // payloads are taken under the lock, so the order is kept even if drains overlap
+                synchronized (sessionLockFor(nodeNumber)) {
+                    byte[] payload;
+                    while (!isShuttingDown && !isSendingWindowFull(nodeNumber) && (payload = poll()) != null)
+                        sendRawData(destination, payload);
+                }
+            } catch (InterruptedException e) {
+                report(getLabel(), "expected interrupted exception");
+            } catch (Exception e) {
+                callErrorCallbacks("unexpected error in node " + myNodeInfo.getNumber() + ": " + e);
+                e.printStackTrace();
+            }
+            // if the window is full, resumeSending is called when blocks are delivered or dropped
+        }
+    }
+
+    /**
+     * Queue of tasks that are executed one by one in the order they are added, using threads of the shared pool. Many
+     * queues can share a small pool: a queue takes a pool thread only while it has tasks.
+     */
+    private class SerialQueue {
+
+        /**
+         * Max tasks run at once before giving the pool thread to other queues.
+         */
+        private static final int MAX_TASKS_PER_RUN = 64;
+
+        private final ExecutorService executor;
+        private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        SerialQueue(ExecutorService executor) {
+            this.executor = executor;
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            schedule();
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    executor.execute(this::run);
+                } catch (RejectedExecutionException e) {
+                    // adapter is shutting down
+                    scheduled.set(false);
+                }
+            }
+        }
+
+        private void run() {
+            Runnable task;
+            int count = 0;
+            while (count++ < MAX_TASKS_PER_RUN && (task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    callErrorCallbacks("unexpected error in node " + myNodeInfo.getNumber() + ": " + e);
+                    e.printStackTrace();
+                }
+            }
+            scheduled.set(false);
+            if (!tasks.isEmpty())
+                schedule();
+        }
+    }
+
+
     /// for debug
 
     public Block createTestBlock(int senderNodeId, int receiverNodeId, int blockId, int type,
@@ -833,124 +1114,151 @@ public class UDPAdapter extends DatagramAdapter {
 
                 if(active) {
 
-                    // first of all reconstruct packet from got bytes array
+                    // first of all reconstruct packet from got bytes array, all the rest is done by receiver
+                    // threads, in order for each remote node
                     byte[] data = Arrays.copyOfRange(receivedDatagram.getData(), 0, receivedDatagram.getLength());
+                    InetAddress address = receivedDatagram.getAddress();
+                    int port = receivedDatagram.getPort();
 
                     Packet packet = new Packet();
-                    Block waitingBlock = null;
                     try {
                         packet.parseFromByteArray(data);
 
                         report(getLabel(), () -> concatReportMessage("got packet with blockId: ",
                                 packet.blockId, " packetId: ", packet.packetId, " type: ", packet.type));
 
-                        // check if we packet is from block we got earlier
-                        // if block already exist - we choose it
-                        // otherwise we create new block for packet
-                        if (waitingBlocks.containsKey(packet.blockId)) {
-                            waitingBlock = waitingBlocks.get(packet.blockId);
-                        } else {
-                            if (obtainedBlocks.containsKey(packet.blockId)) {
-                                // Do nothing, cause we got and obtained this block already
-                                report(getLabel(), () -> concatReportMessage(" warning: repeated block given, with id ", packet.blockId));
-                            } else {
-                                waitingBlock = new Block(packet.senderNodeId, packet.receiverNodeId,
-                                        packet.blockId, packet.type,
-                                        receivedDatagram.getAddress(), receivedDatagram.getPort());
-                                waitingBlocks.put(waitingBlock.blockId, waitingBlock);
+                        receiveQueues[stripeOf(packet.senderNodeId)].execute(() -> {
+                            // session state is changed both here and when sending, see sendRawData
+                            synchronized (sessionLockFor(packet.senderNodeId)) {
+                                processPacket(packet, address, port);
                             }
+                            // got acks free the sending window
+                            resumeSending(packet.senderNodeId);
+                        });
+                    } catch (IllegalArgumentException e) {
+                        e.printStackTrace();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                } else {
+                    report(getLabel(), "socket will be closed");
+                    shutdownThread();
+                }
+            }
+        }
+
+
+        /**
+         * Add the packet to its block and process the block when it got all packets. Runs in a receiver thread.
+         * @param packet is received {@link Packet}
+         * @param address of remote party the packet came from
+         * @param port of remote party the packet came from
+         */
+        protected void processPacket(Packet packet, InetAddress address, int port) {
+            Block waitingBlock = null;
+            try {
+                // check if we packet is from block we got earlier
+                // if block already exist - we choose it
+                // otherwise we create new block for packet
+                if (waitingBlocks.containsKey(packet.blockId)) {
+                    waitingBlock = waitingBlocks.get(packet.blockId);
+                } else {
+                    if (obtainedBlocks.containsKey(packet.blockId)) {
+                        // Do nothing, cause we got and obtained this block already
+                        report(getLabel(), () -> concatReportMessage(" warning: repeated block given, with id ", packet.blockId));
+                    } else {
+                        waitingBlock = new Block(packet.senderNodeId, packet.receiverNodeId,
+                                packet.blockId, packet.type,
+                                address, port);
+                        waitingBlocks.put(waitingBlock.blockId, waitingBlock);
+                    }
 //                        waitingBlock = new Block(packet.senderNodeId, packet.receiverNodeId, packet.blockId, packet.type);
 //                        waitingBlocks.put(waitingBlock.blockId, waitingBlock);
-                        }
+                }
 
-                        // if we found or create block - add packet to it
-                        // and if all packets is got by block start block obtaining
-                        if (waitingBlock != null) {
-                            waitingBlock.addToPackets(packet);
+                // if we found or create block - add packet to it
+                // and if all packets is got by block start block obtaining
+                if (waitingBlock != null) {
+                    waitingBlock.addToPackets(packet);
 
-                            // if all packets is got by block start block obtaining
-                            if (waitingBlock.isSolid()) {
-                                moveWaitingBlockToObtained(waitingBlock);
-                                waitingBlock.reconstruct();
-                                obtainSolidBlock(waitingBlock);
-                            } else {
-                                // if we got only part of block - send PACKET_ACK
-                                // and clean session's blocks according packet.type
-                                if (packet.type != PacketTypes.PACKET_ACK) {
+                    // if all packets is got by block start block obtaining
+                    if (waitingBlock.isSolid()) {
+                        moveWaitingBlockToObtained(waitingBlock);
+                        waitingBlock.reconstruct();
+                        obtainSolidBlock(waitingBlock);
+                    } else {
+                        // if we got only part of block - send PACKET_ACK
+                        // and clean session's blocks according packet.type
+                        if (packet.type != PacketTypes.PACKET_ACK) {
 //                                    Session session = sessionsById.get(packet.senderNodeId);
 //                                    if (session == null) {
-//                                        session = getOrCreateSession(packet.senderNodeId, receivedDatagram.getAddress(), receivedDatagram.getPort());
+//                                        session = getOrCreateSession(packet.senderNodeId, address, port);
 //                                    }
-                                    report(getLabel(), () -> concatReportMessage("got packet type: ",
-                                            packet.type, " brotherPacketsNum: ", packet.brotherPacketsNum,
-                                            " from ", packet.senderNodeId), VerboseLevel.BASE);
-                                    Session session = getOrCreateSession(packet.senderNodeId, receivedDatagram.getAddress(), receivedDatagram.getPort());
-                                    sendPacketAck(session, packet.blockId, packet.packetId);
-                                    switch (packet.type) {
-                                        case PacketTypes.HELLO:
-                                            session.makeBlockDeliveredByType(PacketTypes.HELLO);
-                                            break;
-                                        case PacketTypes.WELCOME:
-                                            session.makeBlockDeliveredByType(PacketTypes.HELLO);
-                                            session.makeBlockDeliveredByType(PacketTypes.WELCOME);
-                                            break;
-                                        case PacketTypes.KEY_REQ:
-                                            session.makeBlockDeliveredByType(PacketTypes.HELLO);
-                                            session.makeBlockDeliveredByType(PacketTypes.WELCOME);
-                                            session.makeBlockDeliveredByType(PacketTypes.KEY_REQ);
-                                            break;
-                                        case PacketTypes.SESSION:
-                                            session.makeBlockDeliveredByType(PacketTypes.HELLO);
-                                            session.makeBlockDeliveredByType(PacketTypes.WELCOME);
-                                            session.makeBlockDeliveredByType(PacketTypes.KEY_REQ);
-                                            session.makeBlockDeliveredByType(PacketTypes.SESSION);
-                                        case PacketTypes.DATA:
-                                            if(session.isValid() && (session.state == Session.EXCHANGING || session.state == Session.SESSION)) {
-                                                session.makeBlockDeliveredByType(PacketTypes.HELLO);
-                                                session.makeBlockDeliveredByType(PacketTypes.WELCOME);
-                                                session.makeBlockDeliveredByType(PacketTypes.KEY_REQ);
-                                                session.makeBlockDeliveredByType(PacketTypes.SESSION);
-                                            }
-                                            break;
+                            report(getLabel(), () -> concatReportMessage("got packet type: ",
+                                    packet.type, " brotherPacketsNum: ", packet.brotherPacketsNum,
+                                    " from ", packet.senderNodeId), VerboseLevel.BASE);
+                            Session session = getOrCreateSession(packet.senderNodeId, address, port);
+                            sendPacketAck(session, packet.blockId, packet.packetId);
+                            switch (packet.type) {
+                                case PacketTypes.HELLO:
+                                    session.makeBlockDeliveredByType(PacketTypes.HELLO);
+                                    break;
+                                case PacketTypes.WELCOME:
+                                    session.makeBlockDeliveredByType(PacketTypes.HELLO);
+                                    session.makeBlockDeliveredByType(PacketTypes.WELCOME);
+                                    break;
+                                case PacketTypes.KEY_REQ:
+                                    session.makeBlockDeliveredByType(PacketTypes.HELLO);
+                                    session.makeBlockDeliveredByType(PacketTypes.WELCOME);
+                                    session.makeBlockDeliveredByType(PacketTypes.KEY_REQ);
+                                    break;
+                                case PacketTypes.SESSION:
+                                    session.makeBlockDeliveredByType(PacketTypes.HELLO);
+                                    session.makeBlockDeliveredByType(PacketTypes.WELCOME);
+                                    session.makeBlockDeliveredByType(PacketTypes.KEY_REQ);
+                                    session.makeBlockDeliveredByType(PacketTypes.SESSION);
+                                case PacketTypes.DATA:
+                                    if(session.isValid() && (session.state == Session.EXCHANGING || session.state == Session.SESSION)) {
+                                        session.makeBlockDeliveredByType(PacketTypes.HELLO);
+                                        session.makeBlockDeliveredByType(PacketTypes.WELCOME);
+                                        session.makeBlockDeliveredByType(PacketTypes.KEY_REQ);
+                                        session.makeBlockDeliveredByType(PacketTypes.SESSION);
                                     }
-                                }
+                                    break;
                             }
                         }
+                    }
+                }
 
-                    } catch (IllegalArgumentException e) {
-                        e.printStackTrace();
-                    } catch (InterruptedException e) {
-                        report(getLabel(), "expected interrupted exception");
-//                        e.printStackTrace();
-                    } catch (SymmetricKey.AuthenticationFailed e) {
-                        callErrorCallbacks("SymmetricKey.AuthenticationFailed in node " + myNodeInfo.getNumber() + ": " + e.getMessage());
-                        e.printStackTrace();
-                    } catch (EncryptionError e) {
-                        callErrorCallbacks(getLabel() + " EncryptionError in node " + myNodeInfo.getNumber() + ": " + e.getMessage());
-
-                        report(getLabel(), () -> concatReportMessage("EncryptionError in node ",
-                                myNodeInfo.getNumber(), ": ", e.getMessage()), VerboseLevel.BASE);
-                        for (Session s : sessionsById.values()) {
-                            report(getLabel(), ">>---", VerboseLevel.BASE);
-                            report(getLabel(), () -> concatReportMessage(">>local node: ",
-                                    myNodeInfo.getNumber(), " remote node: ", s.remoteNodeId), VerboseLevel.BASE);
-                            report(getLabel(), () -> concatReportMessage(">>local nonce: ",
-                                    s.localNonce, " remote nonce: ", s.remoteNonce), VerboseLevel.BASE);
-                            report(getLabel(), () -> concatReportMessage(">>state: ", s.state), VerboseLevel.BASE);
-                            report(getLabel(), () -> concatReportMessage(">>session key: ",
-                                    s.sessionKey.hashCode()), VerboseLevel.BASE);
-                        }
+            } catch (IllegalArgumentException e) {
+                e.printStackTrace();
+            } catch (InterruptedException e) {
+                report(getLabel(), "expected interrupted exception");
 //                        e.printStackTrace();
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    } catch (IllegalStateException e) {
-                        callErrorCallbacks("IllegalStateException in node " + myNodeInfo.getNumber() + ": " + e.getMessage());
-                        e.printStackTrace();
-                    }
-                } else {
-                    report(getLabel(), "socket will be closed");
-                    shutdownThread();
+            } catch (SymmetricKey.AuthenticationFailed e) {
+                callErrorCallbacks("SymmetricKey.AuthenticationFailed in node " + myNodeInfo.getNumber() + ": " + e.getMessage());
+                e.printStackTrace();
+            } catch (EncryptionError e) {
+                callErrorCallbacks(getLabel() + " EncryptionError in node " + myNodeInfo.getNumber() + ": " + e.getMessage());
+
+                report(getLabel(), () -> concatReportMessage("EncryptionError in node ",
+                        myNodeInfo.getNumber(), ": ", e.getMessage()), VerboseLevel.BASE);
+                for (Session s : sessionsById.values()) {
+                    report(getLabel(), ">>---", VerboseLevel.BASE);
+                    report(getLabel(), () -> concatReportMessage(">>local node: ",
+                            myNodeInfo.getNumber(), " remote node: ", s.remoteNodeId), VerboseLevel.BASE);
+                    report(getLabel(), () -> concatReportMessage(">>local nonce: ",
+                            s.localNonce, " remote nonce: ", s.remoteNonce), VerboseLevel.BASE);
+                    report(getLabel(), () -> concatReportMessage(">>state: ", s.state), VerboseLevel.BASE);
+                    report(getLabel(), () -> concatReportMessage(">>session key: ",
+                            s.sessionKey.hashCode()), VerboseLevel.BASE);
                 }
+//                        e.printStackTrace();
+            } catch (IOException e) {
+                e.printStackTrace();
+            } catch (IllegalStateException e) {
+                callErrorCallbacks("IllegalStateException in node " + myNodeInfo.getNumber() + ": " + e.getMessage());
+                e.printStackTrace();
             }
         }
 
@@ -1154,7 +1462,12 @@ public class UDPAdapter extends DatagramAdapter {
 
                                 report(getLabel(), " successfully verified ");
 
-                                byte[] decryptedData = ownPrivateKey.decrypt(signedUnbossed);
+                                byte[] decryptedData;
+                                // private key decryptor is not thread safe, and SESSION blocks from different nodes
+                                // are processed in parallel
+                                synchronized (ownPrivateKey) {
+                                    decryptedData = ownPrivateKey.decrypt(signedUnbossed);
+                                }
                                 List receivedData = Boss.load(decryptedData);
                                 byte[] sessionKey = ((Bytes) receivedData.get(0)).toArray();
                                 byte[] receiverNonce = ((Bytes) receivedData.get(1)).toArray();
@@ -1168,7 +1481,7 @@ public class UDPAdapter extends DatagramAdapter {
                                             sessionIsValid));
 
                                     // Tell remote nonce we got session or send own and no need to resend it.
-                                    answerAckOrNack(session, block, receivedDatagram.getAddress(), receivedDatagram.getPort());
+                                    answerAckOrNack(session, block, block.address, block.port);
 
                                     sendWaitingBlocks(session);
                                 } else {
@@ -1208,13 +1521,13 @@ public class UDPAdapter extends DatagramAdapter {
                             report(getLabel(), () -> concatReportMessage("sessionKey is ",
                                     sessionKeyHashCode, " for ", sessionRemoteNodeId));
 
-                            byte[] decrypted = session.sessionKey.etaDecrypt(unbossedPayload.getBinaryOrThrow("data"));
+                            byte[] decrypted = etaDecrypt(session.sessionKey, unbossedPayload.getBinaryOrThrow("data"));
                             byte[] crc32Remote = unbossedPayload.getBinaryOrThrow("crc32");
                             byte[] crc32Local = new Crc32().digest(decrypted);
 
                             if(Arrays.equals(crc32Remote, crc32Local)) {
                                 report(getLabel(), "Crc32 id ok", VerboseLevel.BASE);
-                                if(receiver != null) receiver.accept(decrypted);
+                                if(receiver != null) deliver(decrypted);
                             } else {
                                 final int sessionKeyHashCodeError = session.sessionKey.hashCode();
                                 final int sessionRemoteNodeIdError = session.remoteNodeId;
@@ -1232,7 +1545,7 @@ public class UDPAdapter extends DatagramAdapter {
                             }
 
                         }
-                        answerAckOrNack(session, block, receivedDatagram.getAddress(), receivedDatagram.getPort());
+                        answerAckOrNack(session, block, block.address, block.port);
                     } catch (SymmetricKey.AuthenticationFailed e) {
                         final int sessionKeyHashCodeError = session.sessionKey.hashCode();
                         final int sessionRemoteNodeIdError = session.remoteNodeId;
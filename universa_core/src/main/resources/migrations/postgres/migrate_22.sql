@@ -0,0 +1,2 @@
+-- unfinished records are read page by page at the node startup, see PostgresLedger.findUnfinished(long, long, int)
+create index ix_ledger_unfinished on ledger(id) where state in (1,2,3,5,9);
@@ -0,0 +1,4 @@
+-- expired items are deleted by batches in the order of keepTill, see PostgresLedger.cleanup(int, Duration)
+create index ix_items_keeptill on items(keepTill);
+-- items of the expired records are deleted by the record ids
+create index ix_items_id on items(id);
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2018, iCodici S.n.C, All Rights Reserved
+ *
+ */
+
+package com.icodici.universa;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rough comparison of several ways to do the same thing, for the benchmark tests that are not part of the regular
+ * suite. Variants take turns on every input, so they run in the same conditions. The first round warms up the JIT
+ * and only the second one is reported.
+ *
+ * @param <T> type of the inputs
+ */
+public class Benchmark<T> {
+
+    /**
+     * One of the compared ways to process an input.
+     */
+    public interface Variant<T> {
+        void run(T input) throws Exception;
+    }
+
+    private final String title;
+    private final List<T> inputs;
+    private final Map<String, Variant<T>> variants = new LinkedHashMap<>();
+
+    /**
+     * @param title  to print the results with
+     * @param inputs every variant processes all of them in each repetition
+     */
+    public Benchmark(String title, List<T> inputs) {
+        this.title = title;
+        this.inputs = inputs;
+    }
+
+    /**
+     * Add the variant to compare.
+     *
+     * @return this benchmark
+     */
+    public Benchmark<T> add(String name, Variant<T> variant) {
+        variants.put(name, variant);
+        return this;
+    }
+
+    /**
+     * Run the variants and print the average time they take per input.
+     *
+     * @param repetitions number of times each variant processes all inputs in a round
+     *
+     * @return microseconds per input by the variant names, in the order they were added
+     */
+    public Map<String, Double> run(int repetitions) throws Exception {
+        long[] nanos = new long[variants.size()];
+        for (int round = 0; round < 2; round++) {
+            Arrays.fill(nanos, 0);
+            for (int i = 0; i < repetitions; i++) {
+                for (T input : inputs) {
+                    int v = 0;
+                    for (Variant<T> variant : variants.values()) {
+                        long t = System.nanoTime();
+                        variant.run(input);
+                        nanos[v++] += System.nanoTime() - t;
+                    }
+                }
+            }
+        }
+        Map<String, Double> result = new LinkedHashMap<>();
+        StringBuilder report = new StringBuilder(title).append(", us per input:");
+        int v = 0;
+        for (String name : variants.keySet()) {
+            double micros = nanos[v++] / 1000.0 / repetitions / inputs.size();
+            result.put(name, micros);
+            report.append(v > 1 ? ", " : " ").append(name).append(String.format(" %.2f", micros));
+        }
+        System.out.println(report);
+        return result;
+    }
+}
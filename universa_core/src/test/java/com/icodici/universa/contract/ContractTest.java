@@ -43,6 +43,8 @@ import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Semaphore;
 
 import static org.junit.Assert.*;
@@ -1399,4 +1401,115 @@ public class ContractTest extends ContractTestBase {
         assertEquals(testValue, unpackedContract.getTransactionalData().getStringOrThrow("test_value"));
     }
 
+    @Test
+    public void sealAll() throws Exception {
+        List<Contract> contracts = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            Contract c = new Contract(TestKeys.privateKey(0));
+            c.getStateData().set("index", i);
+            contracts.add(c);
+        }
+        Set<PrivateKey> extraKeys = new HashSet<>(Collections.singletonList(TestKeys.privateKey(1)));
+
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+        try {
+            List<byte[]> sealed = Contract.sealAll(contracts, extraKeys, pool);
+            assertEquals(contracts.size(), sealed.size());
+            for (int i = 0; i < contracts.size(); i++) {
+                Contract c = contracts.get(i);
+                assertSame(sealed.get(i), c.getLastSealedBinary());
+                assertEquals(HashId.of(sealed.get(i)), c.getId());
+                assertEquals(2, c.getSealedByKeys().size());
+
+                Contract restored = new Contract(sealed.get(i));
+                assertEquals(c.getId(), restored.getId());
+                assertEquals(2, restored.getSealedByKeys().size());
+                assertTrue(restored.getSealedByKeys().contains(TestKeys.publicKey(0)));
+                assertTrue(restored.getSealedByKeys().contains(TestKeys.publicKey(1)));
+                assertEquals(c.getStateData(), restored.getStateData());
+                assertTrue(restored.check());
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        // without a pool it is the same as sealing one by one
+        Contract c = new Contract(TestKeys.privateKey(2));
+        Contract.sealAll(Collections.singletonList(c), new HashSet<>(), null);
+        assertEquals(1, new Contract(c.getLastSealedBinary()).getSealedByKeys().size());
+    }
+
+    @Test
+    public void sealAllSameAsSeal() throws Exception {
+        List<Contract> contracts = new ArrayList<>();
+        List<byte[]> sealedOneByOne = new ArrayList<>();
+        List<Set<PublicKey>> signersOneByOne = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Contract c = new Contract(TestKeys.privateKey(0));
+            c.addSignerKey(TestKeys.privateKey(1));
+            c.getStateData().set("index", i);
+            sealedOneByOne.add(c.seal());
+            signersOneByOne.add(new HashSet<>(c.getSealedByKeys()));
+            contracts.add(c);
+        }
+
+        // seal the same contracts again, all at once
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Contract.sealAll(contracts, new HashSet<>(), pool);
+        } finally {
+            pool.shutdown();
+        }
+
+        for (int i = 0; i < contracts.size(); i++) {
+            Binder expected = Boss.unpack(sealedOneByOne.get(i));
+            Binder actual = Boss.unpack(contracts.get(i).getLastSealedBinary());
+            assertEquals(expected.getStringOrThrow("type"), actual.getStringOrThrow("type"));
+            assertEquals(expected.getIntOrThrow("version"), actual.getIntOrThrow("version"));
+            byte[] data = expected.getBinaryOrThrow("data");
+            assertArrayEquals(data, actual.getBinaryOrThrow("data"));
+
+            // signatures are salted, so compare who signed the data
+            List<Bytes> signatures = actual.getListOrThrow("signatures");
+            assertEquals(expected.getListOrThrow("signatures").size(), signatures.size());
+            Set<PublicKey> signers = new HashSet<>();
+            for (Bytes signature : signatures) {
+                for (PublicKey key : signersOneByOne.get(i)) {
+                    ExtendedSignature es = ExtendedSignature.verify(key, signature.toArray(), data);
+                    if (es != null)
+                        signers.add(key);
+                }
+            }
+            assertEquals(signersOneByOne.get(i), signers);
+            assertEquals(signersOneByOne.get(i), contracts.get(i).getSealedByKeys());
+
+            Contract restored = new Contract(contracts.get(i).getLastSealedBinary());
+            assertEquals(new Contract(sealedOneByOne.get(i)).getSealedByKeys(),
+                    restored.getSealedByKeys());
+            assertTrue(restored.check());
+        }
+    }
+
+    @Ignore("benchmark")
+    @Test
+    public void sealAllBenchmark() throws Exception {
+        PrivateKey key = TestKeys.privateKey(0);
+        List<Contract> batch = new ArrayList<>();
+        for (int i = 0; i < 40; i++)
+            batch.add(new Contract(key));
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            new Benchmark<>("sealing 40 contracts with " + threads + " threads", Collections.singletonList(batch))
+                    .add("one by one", contracts -> {
+                        for (Contract c : contracts)
+                            c.seal();
+                    })
+                    .add("sealAll", contracts -> Contract.sealAll(contracts, new HashSet<>(), pool))
+                    .run(3);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
 }
@@ -19,6 +19,7 @@ import org.junit.Test;
 
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -28,7 +29,9 @@ import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.Matchers.lessThan;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 
 public class ExtendedSignatureTest extends TestCase{
 
@@ -143,6 +146,72 @@ public class ExtendedSignatureTest extends TestCase{
         assertEquals(pubKey, es.getPublicKey());
     }
 
+    @Test
+    public void verifyAll() throws Exception {
+        byte[] data = "Hello world".getBytes();
+        byte[] otherData = "Hello other world".getBytes();
+        List<PublicKey> keys = new ArrayList<>();
+        List<byte[]> signatures = new ArrayList<>();
+        List<byte[]> signedData = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            PrivateKey k = TestKeys.privateKey(i);
+            keys.add(k.getPublicKey());
+            signatures.add(ExtendedSignature.sign(k, data));
+            // every third signature is checked against wrong data
+            signedData.add(i % 3 == 2 ? otherData : data);
+        }
+
+        List<ExtendedSignature> sequential = ExtendedSignature.verifyAll(keys, signatures, signedData);
+        int threads = ExtendedSignature.getVerifierThreads();
+        try {
+            ExtendedSignature.setVerifierThreads(3);
+            List<ExtendedSignature> parallel = ExtendedSignature.verifyAll(keys, signatures, signedData);
+            assertEquals(6, parallel.size());
+            for (int i = 0; i < 6; i++) {
+                if (i % 3 == 2) {
+                    assertNull(sequential.get(i));
+                    assertNull(parallel.get(i));
+                } else {
+                    assertEquals(ExtendedSignature.keyId(keys.get(i)), sequential.get(i).getKeyId());
+                    assertEquals(ExtendedSignature.keyId(keys.get(i)), parallel.get(i).getKeyId());
+                }
+            }
+        } finally {
+            ExtendedSignature.setVerifierThreads(threads);
+        }
+    }
+
+    @Test
+    public void verifiedCache() throws Exception {
+        byte[] data = "Hello world".getBytes();
+        PrivateKey k = TestKeys.privateKey(3);
+        PublicKey pubKey = k.getPublicKey();
+        byte[] signature = ExtendedSignature.sign(k, data);
+        byte[] badSignature = ExtendedSignature.sign(TestKeys.privateKey(4), data);
+        try {
+            ExtendedSignature.setVerifiedCacheSize(2);
+            assertNotNull(ExtendedSignature.verify(pubKey, signature, data));
+            assertNotNull(ExtendedSignature.verify(pubKey, signature, data));
+            assertEquals(1L, ExtendedSignature.getVerifiedCacheStats().getLongOrThrow("hits"));
+
+            // cached signature is still checked against the data
+            assertNull(ExtendedSignature.verify(pubKey, signature, "Hello other world".getBytes()));
+
+            // wrong signatures are never cached
+            assertNull(ExtendedSignature.verify(pubKey, badSignature, data));
+            assertNull(ExtendedSignature.verify(pubKey, badSignature, data));
+            assertEquals(1, ExtendedSignature.getVerifiedCacheStats().getIntOrThrow("size"));
+
+            // bounded
+            for (int i = 0; i < 3; i++)
+                ExtendedSignature.verify(pubKey, ExtendedSignature.sign(k, data), data);
+            assertEquals(2, ExtendedSignature.getVerifiedCacheStats().getIntOrThrow("size"));
+        } finally {
+            ExtendedSignature.setVerifiedCacheSize(0);
+        }
+        assertTrue(ExtendedSignature.getVerifiedCacheStats().isEmpty());
+    }
+
     public static double parallelize(ExecutorService es,int nThreads,Runnable r) throws ExecutionException, InterruptedException {
         long t = System.nanoTime();
         ArrayList<Future<?>> all = new ArrayList<>();
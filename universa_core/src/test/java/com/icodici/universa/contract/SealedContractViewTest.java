@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2017 Sergey Chernov, iCodici S.n.C, All Rights Reserved
+ *
+ * Written by Sergey Chernov <real.sergeych@gmail.com>
+ *
+ */
+
+package com.icodici.universa.contract;
+
+import com.icodici.universa.Benchmark;
+import com.icodici.universa.node.network.TestKeys;
+import net.sergeych.boss.Boss;
+import net.sergeych.tools.Binder;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SealedContractViewTest {
+    private Contract r0;
+    private Contract c;
+    private Contract n0;
+
+    @Before
+    public void setUp() throws Exception {
+        r0 = new Contract(TestKeys.privateKey(0));
+        r0.seal();
+        c = r0.createRevision(TestKeys.privateKey(0));
+        n0 = new Contract(TestKeys.privateKey(0));
+        c.addNewItems(n0);
+        c.addNewItems(new Contract(TestKeys.privateKey(0)));
+        c.seal();
+    }
+
+    @Test
+    public void headerFields() throws Exception {
+        Contract expiring = new Contract(TestKeys.privateKey(1));
+        expiring.setExpiresAt(ZonedDateTime.now().plusDays(10));
+        expiring.seal();
+
+        for (Contract x : new Contract[]{r0, c, n0, expiring}) {
+            checkView(x, new SealedContractView(x.getLastSealedBinary()));
+            checkView(x, SealedContractView.fromPackedTransaction(x.getLastSealedBinary()));
+            checkView(x, new SealedContractView(x));
+        }
+
+        // the view of the transaction gives the main contract and the same binary, without deserializing it
+        byte[] packed = c.getPackedTransaction();
+        SealedContractView view = SealedContractView.fromPackedTransaction(packed);
+        checkView(c, view);
+        assertFalse(view.isInflated());
+        assertSame(packed, view.getPackedTransaction());
+        assertFalse(view.isInflated());
+
+        Contract inflated = view.getContract();
+        assertTrue(view.isInflated());
+        assertSame(inflated, view.getContract());
+        assertEquals(c.getId(), inflated.getId());
+        assertEquals(2, inflated.getNewItems().size());
+
+        try {
+            new SealedContractView(Boss.pack(Binder.of("type", "something")));
+            fail("should not accept non-contract binary");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void inflatesToTheSameContract() throws Exception {
+        Contract signed = new Contract(TestKeys.privateKey(0));
+        signed.addSignerKey(TestKeys.privateKey(1));
+        signed.seal();
+
+        for (Contract x : new Contract[]{r0, c, signed}) {
+            byte[] packed = x.getPackedTransaction();
+            Contract expected = Contract.fromPackedTransaction(packed);
+            Contract inflated = SealedContractView.fromPackedTransaction(packed).getContract();
+            assertEquals(expected.getId(), inflated.getId());
+            assertEquals(expected.getSealedByKeys(), inflated.getSealedByKeys());
+            assertEquals(expected.getNewItems().size(), inflated.getNewItems().size());
+            assertArrayEquals(expected.getLastSealedBinary(), inflated.getLastSealedBinary());
+        }
+    }
+
+    @Ignore("benchmark")
+    @Test
+    public void originBenchmark() throws Exception {
+        List<byte[]> packed = Arrays.asList(c.getPackedTransaction(), r0.getPackedTransaction());
+        for (byte[] p : packed)
+            assertEquals(Contract.fromPackedTransaction(p).getOrigin(),
+                    SealedContractView.fromPackedTransaction(p).getOrigin());
+        new Benchmark<>("origin of packed transaction", packed)
+                .add("contract", p -> Contract.fromPackedTransaction(p).getOrigin())
+                .add("view", p -> SealedContractView.fromPackedTransaction(p).getOrigin())
+                .run(2000);
+    }
+
+    private void checkView(Contract expected, SealedContractView view) {
+        assertEquals(expected.getId(), view.getId());
+        assertEquals(expected.getOrigin(), view.getOrigin());
+        assertEquals(expected.getRawOrigin(), view.getRawOrigin());
+        assertEquals(expected.getParent(), view.getParent());
+        assertEquals(expected.getRevision(), view.getRevision());
+        assertEquals(expected.getApiLevel(), view.getApiLevel());
+        assertEquals(expected.getCreatedAt().toEpochSecond(), view.getCreatedAt().toEpochSecond());
+        if (expected.getExpiresAt() == null)
+            assertNull(view.getExpiresAt());
+        else
+            assertEquals(expected.getExpiresAt().toEpochSecond(), view.getExpiresAt().toEpochSecond());
+        assertArrayEquals(expected.getLastSealedBinary(), view.getSealedBinary());
+    }
+}
@@ -11,17 +11,33 @@ import com.icodici.crypto.EncryptionError;
 import com.icodici.crypto.PrivateKey;
 import com.icodici.crypto.PublicKey;
 import com.icodici.universa.Approvable;
+import com.icodici.universa.Benchmark;
 import com.icodici.universa.HashId;
 import com.icodici.universa.node.network.TestKeys;
 import com.icodici.universa.node2.Quantiser;
+import net.sergeych.biserializer.BiAdapter;
+import net.sergeych.biserializer.BiMapper;
+import net.sergeych.biserializer.BiSerializer;
+import net.sergeych.biserializer.BossBiMapper;
+import net.sergeych.boss.Boss;
+import net.sergeych.tools.Binder;
 import net.sergeych.utils.Base64;
+import net.sergeych.utils.Bytes;
 import org.junit.Before;
+import org.junit.Ignore;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Semaphore;
 import java.util.stream.Collectors;
@@ -284,6 +300,204 @@ public class TransactionPackTest {
         System.out.println("average " + ratio);
     }
 
+    @Test
+    public void parallelSignatureVerification() throws Exception {
+        Contract signed = new Contract(TestKeys.privateKey(0));
+        signed.addSignerKey(TestKeys.privateKey(1));
+        signed.addSignerKey(TestKeys.privateKey(2));
+        Contract sub = new Contract(TestKeys.privateKey(3));
+        sub.addSignerKey(TestKeys.privateKey(4));
+        signed.addNewItems(sub);
+        signed.seal();
+        byte[] packed = signed.getTransactionPack().pack();
+
+        TransactionPack sequential = TransactionPack.unpack(packed);
+        int threads = ExtendedSignature.getVerifierThreads();
+        try {
+            ExtendedSignature.setVerifierThreads(4);
+            TransactionPack parallel = TransactionPack.unpack(packed);
+            assertEquals(sequential.getContract().getSealedByKeys(), parallel.getContract().getSealedByKeys());
+            assertEquals(3, parallel.getContract().getSealedByKeys().size());
+            assertEquals(2, parallel.getSubItem(sub.getId()).getSealedByKeys().size());
+            assertTrue(parallel.getContract().getErrors().isEmpty());
+            assertTrue(parallel.getContract().check());
+        } finally {
+            ExtendedSignature.setVerifierThreads(threads);
+        }
+    }
+
+    @Test
+    public void noSignatureIsVerifiedOverQuantaLimit() throws Exception {
+        Contract signed = new Contract(TestKeys.privateKey(0));
+        for (int i = 1; i < 5; i++)
+            signed.addSignerKey(TestKeys.privateKey(i));
+        signed.seal();
+        byte[] packed = signed.getTransactionPack().pack();
+
+        int threads = ExtendedSignature.getVerifierThreads();
+        try {
+            ExtendedSignature.setVerifierThreads(4);
+            // every RSA verification is a cache miss
+            ExtendedSignature.setVerifiedCacheSize(100);
+            Contract.setTestQuantaLimit(1);
+            try {
+                TransactionPack.unpack(packed);
+                fail("quanta limit is not reached");
+            } catch (Exception e) {
+                // expected
+            }
+            assertEquals(0, ExtendedSignature.getVerifiedCacheStats().getLongOrThrow("misses"));
+        } finally {
+            Contract.setTestQuantaLimit(-1);
+            ExtendedSignature.setVerifiedCacheSize(0);
+            ExtendedSignature.setVerifierThreads(threads);
+        }
+    }
+
+    @Ignore("benchmark")
+    @Test
+    public void biMapperBenchmark() throws Exception {
+        List<Contract> contracts = Arrays.asList(c, n0, sealedBy(3));
+        BiMapper nameLookup = new NameLookupMapper(BossBiMapper.getInstance());
+        for (Contract x : contracts)
+            assertArrayEquals(Boss.pack(x.serialize(new BiSerializer(nameLookup))),
+                    Boss.pack(x.serialize(BossBiMapper.newSerializer())));
+        new Benchmark<>("bimapper, contract serialization", contracts)
+                .add("adapter by class name", x -> x.serialize(new BiSerializer(nameLookup)))
+                .add("cached adapter by class", x -> x.serialize(BossBiMapper.newSerializer()))
+                .run(10000);
+    }
+
+    /**
+     * Mapper with the lookup BiMapper had before adapters were cached per class: the canonical class name is built
+     * and looked up in the adapters by name for every serialized object.
+     */
+    private static class NameLookupMapper extends BiMapper {
+        private final Map<String, BiAdapter> adapters;
+
+        @SuppressWarnings("unchecked")
+        private NameLookupMapper(BiMapper parent) throws Exception {
+            super(parent);
+            Field registryField = BiMapper.class.getDeclaredField("registry");
+            registryField.setAccessible(true);
+            Object registry = registryField.get(this);
+            Field adaptersField = registry.getClass().getDeclaredField("adapters");
+            adaptersField.setAccessible(true);
+            adapters = (Map<String, BiAdapter>) adaptersField.get(registry);
+        }
+
+        @Override
+        public <T> T serialize(Object x, BiSerializer serializer) {
+            if (x instanceof String || x instanceof Number || x instanceof Boolean || x == null)
+                return (T) x;
+            Class<?> klass = x.getClass();
+            if (klass.isArray() && !(klass.getComponentType() == byte.class))
+                x = Arrays.asList((Object[]) x);
+            if (x instanceof Collection) {
+                List result = new ArrayList(((Collection) x).size());
+                for (Object i : (Collection) x)
+                    result.add(serialize(i, serializer));
+                return (T) result;
+            }
+            String canonicalName = klass.getCanonicalName();
+            BiAdapter adapter = adapters.get(canonicalName);
+            if (adapter == null) {
+                if (x instanceof Map)
+                    ((Map) x).replaceAll((k, v) -> serialize(v, serializer));
+                return (T) x;
+            }
+            Binder result = adapter.serialize(x, serializer);
+            String tn = adapter.typeName();
+            result.put("__type", tn != null ? tn : canonicalName);
+            return (T) result;
+        }
+    }
+
+    @Ignore("benchmark")
+    @Test
+    public void bossReaderBenchmark() throws Exception {
+        List<byte[]> sealed = sealedBinaries();
+        for (byte[] s : sealed)
+            assertEquals((Object) new Boss.Reader(new ByteArrayInputStream(s), null).read(),
+                    new Boss.Reader(s, null).read());
+        new Benchmark<>("boss reader, sealed contracts", sealed)
+                .add("stream", s -> readSealed(new Boss.Reader(new ByteArrayInputStream(s), null), false))
+                .add("array", s -> readSealed(new Boss.Reader(s, null), false))
+                .add("array with slices", s -> readSealed(new Boss.Reader(s, null), true))
+                .run(20000);
+    }
+
+    @Ignore("benchmark")
+    @Test
+    public void bossWriterBenchmark() throws Exception {
+        // unpacked trees of the sealed contracts and of the contract data inside them
+        List<Object> trees = new ArrayList<>();
+        for (byte[] s : sealedBinaries()) {
+            Binder outer = new Boss.Reader(s, null).read();
+            trees.add(outer);
+            trees.add(new Boss.Reader(outer.getBinaryOrThrow(outer.containsKey("data") ? "data" : "contract"), null)
+                    .read());
+        }
+        ByteBuffer target = ByteBuffer.allocate(1024 * 1024);
+        for (Object tree : trees) {
+            byte[] expected = packWithStream(tree);
+            assertArrayEquals(expected, Boss.pack(tree));
+            target.clear();
+            new Boss.Writer(target).writeObject(tree);
+            assertEquals(expected.length, target.position());
+        }
+        new Benchmark<>("boss writer, sealed contract trees", trees)
+                .add("stream", this::packWithStream)
+                .add("Boss.pack", Boss::pack)
+                .add("identity cache", tree -> {
+                    Boss.Writer w = new Boss.Writer(4096);
+                    w.setIdentityCache(true);
+                    w.writeObject(tree);
+                    w.toByteArray();
+                })
+                .add("ByteBuffer", tree -> {
+                    target.clear();
+                    new Boss.Writer(target).writeObject(tree);
+                })
+                .run(10000);
+    }
+
+    /**
+     * Sealed binaries of real contracts: the revision with new items, a new item, a contract with several signatures
+     * and the packed transaction of the revision.
+     */
+    private List<byte[]> sealedBinaries() throws Exception {
+        return Arrays.asList(c.getLastSealedBinary(), n0.getLastSealedBinary(), sealedBy(3).getLastSealedBinary(),
+                c.getTransactionPack().pack());
+    }
+
+    private Contract sealedBy(int keys) throws Exception {
+        Contract signed = new Contract(TestKeys.privateKey(0));
+        for (int i = 1; i < keys; i++)
+            signed.addSignerKey(TestKeys.privateKey(i));
+        signed.seal();
+        return signed;
+    }
+
+    /**
+     * Read sealed contract the way it is unpacked: outer binder, then the contract data inside it.
+     */
+    private void readSealed(Boss.Reader reader, boolean slices) throws IOException {
+        reader.setBinarySlices(slices);
+        Binder outer = reader.read();
+        Object data = outer.containsKey("data") ? outer.get("data") : outer.get("contract");
+        if (data instanceof Bytes)
+            new Boss.Reader(((Bytes) data).toArray(), null).read();
+        else
+            new Boss.Reader((ByteBuffer) data, null).read();
+    }
+
+    private byte[] packWithStream(Object tree) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        new Boss.Writer(bos).writeObject(tree);
+        return bos.toByteArray();
+    }
+
     private class TestContracts {
         private Contract r0;
         private Contract c;
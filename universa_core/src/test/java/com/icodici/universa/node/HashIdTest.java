@@ -3,14 +3,24 @@ package com.icodici.universa.node;
 import com.icodici.crypto.digest.Gost3411_2012_256;
 import com.icodici.crypto.digest.Sha3_256;
 import com.icodici.crypto.digest.Sha512_256;
+import com.icodici.universa.Benchmark;
 import com.icodici.universa.HashId;
+import com.icodici.universa.contract.Contract;
+import com.icodici.universa.node.network.TestKeys;
 import net.sergeych.tools.Do;
 import net.sergeych.utils.Base64;
 import net.sergeych.utils.Base64u;
 import org.junit.Before;
+import org.junit.Ignore;
 import org.junit.Test;
 
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -84,4 +94,128 @@ HashIdTest {
 //        System.out.println("src: "+ Base64.encodeString(src));
 //        System.out.println("hid: "+ Base64.encodeString(hid));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void chunkedAndParallelDigest() throws Exception {
+        int threshold = HashId.CompositeDigest.getParallelThreshold();
+        try {
+            // cross the chunk size, odd size to have a partial last chunk
+            byte[] src = Do.randomBytes(100_001);
+            byte[] expected = separateDigests(src);
+            File file = File.createTempFile("hashid", ".bin");
+            file.deleteOnExit();
+            Files.write(file.toPath(), src);
+
+            for (int t : new int[]{Integer.MAX_VALUE, 0}) {
+                HashId.CompositeDigest.setParallelThreshold(t);
+                assertArrayEquals(expected, HashId.of(src).getDigest());
+
+                ByteBuffer heap = ByteBuffer.wrap(src);
+                assertArrayEquals(expected, HashId.of(heap).getDigest());
+                assertFalse(heap.hasRemaining());
+
+                ByteBuffer direct = ByteBuffer.allocateDirect(src.length + 10);
+                direct.position(5);
+                direct.put(src);
+                direct.flip();
+                direct.position(5);
+                assertArrayEquals(expected, HashId.of(direct).getDigest());
+                assertFalse(direct.hasRemaining());
+
+                // a slice of the heap buffer
+                ByteBuffer slice = ByteBuffer.wrap(new byte[src.length + 20], 7, src.length).slice();
+                slice.put(src).flip();
+                assertArrayEquals(expected, HashId.of(slice).getDigest());
+
+                assertArrayEquals(expected, HashId.of(file.toPath()).getDigest());
+            }
+        } finally {
+            HashId.CompositeDigest.setParallelThreshold(threshold);
+        }
+    }
+
+    @Test
+    public void allDigestsEqualDigestOfBytes() throws Exception {
+        int threshold = HashId.CompositeDigest.getParallelThreshold();
+        try {
+            // empty, around the chunk size and a few chunks with a partial last one
+            for (int size : new int[]{0, 1, 0x3FFF, 0x4000, 0x4001, 5 * 0x4000 + 17}) {
+                byte[] src = Do.randomBytes(size);
+                HashId.CompositeDigest.setParallelThreshold(Integer.MAX_VALUE);
+                HashId expected = HashId.of(src);
+                assertArrayEquals(separateDigests(src), expected.getDigest());
+
+                File file = File.createTempFile("hashid", ".bin");
+                file.deleteOnExit();
+                Files.write(file.toPath(), src);
+
+                for (int t : new int[]{Integer.MAX_VALUE, 0}) {
+                    HashId.CompositeDigest.setParallelThreshold(t);
+                    assertEquals(expected, HashId.of(src));
+
+                    ByteBuffer direct = ByteBuffer.allocateDirect(size);
+                    direct.put(src).flip();
+                    assertEquals(expected, HashId.of(direct));
+                    assertEquals(expected, HashId.of(ByteBuffer.wrap(src)));
+                    assertEquals(expected, HashId.of(file.toPath()));
+
+                    // the same data passed by uneven pieces
+                    HashId.CompositeDigest digest = new HashId.CompositeDigest();
+                    for (int pos = 0; pos < size; pos += 1000)
+                        digest.update(src, pos, Math.min(1000, size - pos));
+                    assertEquals(expected, HashId.withDigest(digest.digest()));
+                }
+            }
+        } finally {
+            HashId.CompositeDigest.setParallelThreshold(threshold);
+        }
+    }
+
+    @Ignore("benchmark")
+    @Test
+    public void compositeDigestBenchmark() throws Exception {
+        // packed transaction of a revision with new items, then attachments of growing size
+        Contract c = new Contract(TestKeys.privateKey(0));
+        for (int i = 0; i < 10; i++)
+            c.addNewItems(new Contract(TestKeys.privateKey(0)));
+        c.seal();
+        List<byte[]> inputs = new ArrayList<>();
+        inputs.add(c.getPackedTransaction());
+        for (int size : new int[]{64 * 1024, 1024 * 1024, 16 * 1024 * 1024, 100 * 1024 * 1024})
+            inputs.add(Do.randomBytes(size));
+
+        int threshold = HashId.CompositeDigest.getParallelThreshold();
+        try {
+            for (byte[] src : inputs) {
+                ByteBuffer direct = ByteBuffer.allocateDirect(src.length);
+                direct.put(src);
+                new Benchmark<>("composite digest of " + src.length / 1024 + " KB", Collections.singletonList(src))
+                        .add("one by one", HashIdTest::separateDigests)
+                        .add("chunked", x -> {
+                            HashId.CompositeDigest.setParallelThreshold(Integer.MAX_VALUE);
+                            HashId.of(x);
+                        })
+                        .add("parallel", x -> {
+                            HashId.CompositeDigest.setParallelThreshold(0);
+                            HashId.of(x);
+                        })
+                        .add("parallel direct buffer", x -> {
+                            HashId.CompositeDigest.setParallelThreshold(0);
+                            direct.clear();
+                            HashId.of(direct);
+                        })
+                        .run(Math.max(1, 4 * 1024 * 1024 / src.length));
+            }
+        } finally {
+            HashId.CompositeDigest.setParallelThreshold(threshold);
+        }
+    }
+
+    private static byte[] separateDigests(byte[] src) {
+        byte[] result = new byte[96];
+        System.arraycopy(new Sha512_256().digest(src), 0, result, 0, 32);
+        System.arraycopy(new Sha3_256().digest(src), 0, result, 32, 32);
+        System.arraycopy(new Gost3411_2012_256().digest(src), 0, result, 64, 32);
+        return result;
+    }
+}
@@ -8,6 +8,7 @@ import com.icodici.universa.node.network.TestKeys;
 import com.icodici.universa.node2.ItemLock;
 import com.icodici.universa.node2.Config;
 import com.icodici.universa.node2.NodeStats;
+import net.sergeych.tools.Binder;
 import net.sergeych.tools.Do;
 import net.sergeych.tools.StopWatch;
 import org.junit.Before;
@@ -17,6 +18,7 @@ import org.junit.Test;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.ZonedDateTime;
 import java.util.*;
@@ -186,6 +188,103 @@ public class PostgresLedgerTest extends TestCase {
         assertEquals(ItemState.DECLINED, r2.getState());
     }
 
+    @Test
+    public void findUnfinishedPages() throws Exception {
+        for (int i = 0; i < 25; i++) {
+            StateRecord r = ledger.findOrCreate(HashId.createRandom());
+            r.setState(i % 2 == 0 ? ItemState.PENDING_POSITIVE : ItemState.APPROVED);
+            r.save();
+        }
+        Map<HashId, StateRecord> all = ledger.findUnfinished();
+        long upTo = ledger.getMaxRecordId();
+        // records created after the snapshot are not paged
+        StateRecord late = ledger.findOrCreate(HashId.createRandom());
+        late.setState(ItemState.PENDING);
+        late.save();
+        assertTrue(late.getRecordId() > upTo);
+
+        Map<HashId, StateRecord> paged = new HashMap<>();
+        long cursor = 0;
+        List<StateRecord> page;
+        while (!(page = ledger.findUnfinished(cursor, upTo, 7)).isEmpty()) {
+            assertTrue(page.size() <= 7);
+            for (StateRecord r : page) {
+                assertTrue(r.getRecordId() > cursor);
+                assertTrue(r.getRecordId() <= upTo);
+                cursor = r.getRecordId();
+                assertNull(paged.put(r.getId(), r));
+            }
+        }
+        assertEquals(all.keySet(), paged.keySet());
+    }
+
+    @Test
+    public void getRecords() throws Exception {
+        List<HashId> ids = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            StateRecord r = ledger.findOrCreate(HashId.createRandom());
+            r.setState(ItemState.APPROVED);
+            r.save();
+            ids.add(r.getId());
+        }
+        HashId unknown = HashId.createRandom();
+        ids.add(unknown);
+
+        Map<HashId, StateRecord> records = ledger.getRecords(ids);
+        assertEquals(10, records.size());
+        assertFalse(records.containsKey(unknown));
+        for (StateRecord r : records.values())
+            assertEquals(ItemState.APPROVED, r.getState());
+
+        // with cache found records are the same instances getRecord returns
+        ledger.enableCache(true);
+        records = ledger.getRecords(ids);
+        assertSame(records.get(ids.get(0)), ledger.getRecord(ids.get(0)));
+        assertTrue(ledger.getRecords(new ArrayList<>()).isEmpty());
+    }
+
+    @Test
+    public void saveAll() throws Exception {
+        StateRecord r1 = ledger.findOrCreate(HashId.createRandom());
+        StateRecord r2 = ledger.findOrCreate(HashId.createRandom());
+        StateRecord r3 = new StateRecord(ledger);
+        r3.setId(HashId.createRandom());
+        r3.setState(ItemState.LOCKED_FOR_CREATION);
+        r1.setState(ItemState.APPROVED);
+        r2.setState(ItemState.REVOKED);
+        ledger.saveAll(Arrays.asList(r1, r2, r3));
+
+        assertFalse(r1.isDirty());
+        assertNotEquals(0, r3.getRecordId());
+        assertEquals(ItemState.APPROVED, ledger.getRecord(r1.getId()).getState());
+        assertEquals(ItemState.REVOKED, ledger.getRecord(r2.getId()).getState());
+        assertEquals(ItemState.LOCKED_FOR_CREATION, ledger.getRecord(r3.getId()).getState());
+
+        // inside the transaction batch is rolled back with it
+        Object y = ledger.transaction(() -> {
+            r1.setState(ItemState.DECLINED);
+            r2.setState(ItemState.DISCARDED);
+            ledger.saveAll(Arrays.asList(r1, r2));
+            throw new Ledger.Rollback();
+        });
+        assertNull(y);
+        r1.reload();
+        assertEquals(ItemState.APPROVED, r1.getState());
+        r2.reload();
+        assertEquals(ItemState.REVOKED, r2.getState());
+
+        // records of the failed batch stay dirty
+        r1.setState(ItemState.DECLINED);
+        StateRecord broken = new StateRecord(ledger);
+        broken.setState(ItemState.PENDING);
+        assertThrows(Ledger.Failure.class, () -> {
+            ledger.saveAll(Arrays.asList(r1, broken));
+            return null;
+        });
+        assertTrue(r1.isDirty());
+        assertTrue(broken.isDirty());
+    }
+
     @Test
     public void approve() throws Exception {
         StateRecord r1 = ledger.findOrCreate(HashId.createRandom());
@@ -616,6 +715,35 @@ public class PostgresLedgerTest extends TestCase {
     }
 
 
+    @Test
+    public void ledgerCleanupInBatches() throws Exception {
+        List<HashId> expired = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            StateRecord r = ledger.findOrCreate(HashId.createRandom());
+            r.setExpiresAt(ZonedDateTime.now().minusSeconds(10 + i));
+            r.save();
+            expired.add(r.getId());
+        }
+        Contract contract = new Contract(TestKeys.privateKey(0));
+        contract.seal();
+        StateRecord kept = ledger.findOrCreate(contract.getId());
+        kept.setExpiresAt(ZonedDateTime.now().plusMonths(1));
+        kept.save();
+        ledger.putItem(kept, contract, Instant.now().minusSeconds(1));
+
+        long recordsWas = ledger.getCleanupStats().getLongOrThrow("records");
+        ledger.cleanup(3, Duration.ZERO);
+
+        assertTrue(ledger.getRecords(expired).isEmpty());
+        assertNotNull(ledger.getRecord(kept.getId()));
+        assertNull(ledger.getItem(kept));
+        Binder stats = ledger.getCleanupStats();
+        assertTrue(stats.getLongOrThrow("records") - recordsWas >= 7);
+        // 7 records need 3 batches, one more finds nothing, and at least one for the items
+        assertTrue(stats.getLongOrThrow("batches") >= 4);
+    }
+
+
     @Test
     public void paymentSaveTest() throws Exception {
         try (PooledDb db = (PooledDb) ledger.getDb()) {
@@ -11,6 +11,7 @@ import java.io.File;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -48,6 +49,21 @@ public class SqliteLedgerTest extends TestCase {
         assertSame(r3, r4);
     }
 
+    @Test
+    public void getRecords() throws Exception {
+        // more than fits into one IN list
+        List<HashId> ids = new ArrayList<>();
+        for (int i = 0; i < 700; i++)
+            ids.add(ledger.findOrCreate(HashId.createRandom()).getId());
+        HashId unknown = HashId.createRandom();
+        ids.add(unknown);
+
+        Map<HashId, StateRecord> records = ledger.getRecords(ids);
+        assertEquals(700, records.size());
+        assertFalse(records.containsKey(unknown));
+        assertEquals(ids.get(699), records.get(ids.get(699)).getId());
+    }
+
 //    @Test
     public void ledgerBenchmark() throws Exception {
         ExecutorService es = Executors.newCachedThreadPool();
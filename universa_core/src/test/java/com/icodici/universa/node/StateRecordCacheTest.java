@@ -0,0 +1,118 @@
+package com.icodici.universa.node;
+
+import com.icodici.universa.HashId;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class StateRecordCacheTest {
+
+    private static SqliteLedger ledger;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        // ledger is only needed to assign record ids, records are not saved
+        ledger = new SqliteLedger("jdbc:sqlite::memory:");
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        ledger.close();
+    }
+
+    private StateRecord createRecord(long recordId) {
+        StateRecord r = new StateRecord(ledger);
+        r.setId(HashId.createRandom());
+        r.setRecordId(recordId);
+        return r;
+    }
+
+    @Test
+    public void putGetRemove() throws Exception {
+        StateRecordCache cache = new StateRecordCache(10);
+        StateRecord r = createRecord(0);
+        cache.put(r);
+        assertSame(r, cache.get(r.getId()));
+        assertNull(cache.getById(1));
+
+        // got id on save
+        r.setRecordId(1);
+        cache.put(r);
+        assertSame(r, cache.getById(1));
+        assertEquals(1, cache.size());
+
+        cache.remove(r);
+        assertNull(cache.get(r.getId()));
+        assertNull(cache.getById(1));
+        assertEquals(0, cache.size());
+
+        assertEquals(2, cache.getHitCount());
+        assertEquals(3, cache.getMissCount());
+    }
+
+    @Test
+    public void replaceInstance() throws Exception {
+        StateRecordCache cache = new StateRecordCache(10);
+        StateRecord r1 = createRecord(5);
+        cache.put(r1);
+        StateRecord r2 = new StateRecord(ledger);
+        r2.setId(r1.getId());
+        r2.setRecordId(5);
+        cache.put(r2);
+        assertSame(r2, cache.get(r1.getId()));
+        assertSame(r2, cache.getById(5));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void bounded() throws Exception {
+        StateRecordCache cache = new StateRecordCache(100);
+        StateRecord hot = createRecord(1);
+        cache.put(hot);
+        List<StateRecord> records = new ArrayList<>();
+        for (int i = 2; i < 1000; i++) {
+            StateRecord r = createRecord(i);
+            records.add(r);
+            cache.put(r);
+            // keep using the hot one
+            assertSame(hot, cache.get(hot.getId()));
+            assertTrue(cache.size() <= 100);
+        }
+        assertSame(hot, cache.getById(1));
+        assertTrue(cache.getEvictionCount() >= 899);
+        assertSame(records.get(records.size() - 1), cache.get(records.get(records.size() - 1).getId()));
+    }
+
+    @Test
+    public void evictedRecordInUseIsTheSameInstance() throws Exception {
+        StateRecordCache cache = new StateRecordCache(10);
+        // held by some processor
+        StateRecord inUse = createRecord(1);
+        cache.put(inUse);
+        for (int i = 2; i < 100; i++)
+            cache.put(createRecord(i));
+        assertTrue(cache.getEvictionCount() >= 89);
+
+        // evicted, but still there while it is used
+        assertSame(inUse, cache.get(inUse.getId()));
+        assertSame(inUse, cache.getById(1));
+        assertEquals(1, cache.getRevivalCount());
+        assertTrue(cache.size() <= 10);
+
+        // the rest are not used and are gone as soon as they are collected
+        int alive = cache.getStats().getIntOrThrow("evictedAlive");
+        for (int attempt = 0; attempt < 50 && alive > 0; attempt++) {
+            System.gc();
+            Thread.sleep(10);
+            // collected ones are dropped on the next put
+            cache.put(inUse);
+            alive = cache.getStats().getIntOrThrow("evictedAlive");
+        }
+        assertEquals(0, alive);
+    }
+}
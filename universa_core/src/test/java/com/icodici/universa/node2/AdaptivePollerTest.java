@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2018, iCodici S.n.C, All Rights Reserved
+ *
+ */
+
+package com.icodici.universa.node2;
+
+import com.icodici.universa.node.network.TestKeys;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class AdaptivePollerTest {
+
+    private static NodeInfo node(int number) throws Exception {
+        return new NodeInfo(TestKeys.publicKey(0), number, "node" + number, "localhost",
+                17100 + number * 10, 17101 + number * 10, 17102 + number * 10);
+    }
+
+    @Test
+    public void wheel() throws Exception {
+        TimerWheel wheel = new TimerWheel("test-wheel", 5, 8);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            CountDownLatch fired = new CountDownLatch(2);
+            AtomicInteger cancelledRuns = new AtomicInteger();
+            long started = System.nanoTime();
+            wheel.schedule(fired::countDown, 10, executor);
+            // longer than the whole turn of the wheel
+            wheel.schedule(fired::countDown, 100, executor);
+            wheel.schedule(cancelledRuns::incrementAndGet, 20, executor).cancel();
+            assertTrue(fired.await(5, TimeUnit.SECONDS));
+            assertTrue(System.nanoTime() - started >= TimeUnit.MILLISECONDS.toNanos(100));
+            Thread.sleep(50);
+            assertEquals(0, cancelledRuns.get());
+            assertEquals(2L, wheel.getStats().get("fired"));
+            assertEquals(1L, wheel.getStats().get("cancelled"));
+            assertEquals(0, wheel.getStats().getIntOrThrow("pending"));
+        } finally {
+            wheel.shutdown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void wheelWholeTurn() throws Exception {
+        TimerWheel wheel = new TimerWheel("test-wheel", 50, 4);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            for (int turns = 1; turns <= 2; turns++) {
+                CountDownLatch fired = new CountDownLatch(1);
+                long started = System.nanoTime();
+                wheel.schedule(fired::countDown, turns * 50 * 4, executor);
+                assertTrue(fired.await(5, TimeUnit.SECONDS));
+                long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+                // neither a turn early nor a turn late
+                assertTrue("fired after " + elapsed, elapsed >= turns * 200 && elapsed < turns * 200 + 200);
+            }
+        } finally {
+            wheel.shutdown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void wheelSurvivesFailingTask() throws Exception {
+        TimerWheel wheel = new TimerWheel("test-wheel", 5, 8);
+        try {
+            CountDownLatch fired = new CountDownLatch(1);
+            // the task is run by the wheel thread itself
+            wheel.schedule(() -> { throw new IllegalStateException("test failure"); }, 5, Runnable::run);
+            wheel.schedule(fired::countDown, 30, Runnable::run);
+            assertTrue(fired.await(5, TimeUnit.SECONDS));
+            assertEquals(2L, wheel.getStats().get("fired"));
+        } finally {
+            wheel.shutdown();
+        }
+    }
+
+    @Test
+    public void delays() throws Exception {
+        TimerWheel wheel = new TimerWheel("test-wheel", 10, 64);
+        try {
+            AdaptivePoller poller = new AdaptivePoller(wheel, Runnable::run, Duration.ofMillis(100), true);
+            List<Integer> periods = Arrays.asList(1000, 2000, 8000);
+            NodeInfo fast = node(1);
+            NodeInfo unknown = node(2);
+            // not enough answers yet: the configured schedule
+            assertEquals(1000, poller.delayMillis(fast, 1, periods));
+            assertEquals(8000, poller.delayMillis(fast, 5, periods));
+            for (int i = 0; i < 100; i++)
+                poller.record(fast, TimeUnit.MILLISECONDS.toNanos(200));
+            // the bucket bound of the 99th percentile, doubled for every request without answer
+            long p99 = poller.delayMillis(fast, 1, periods);
+            assertTrue(p99 >= 200 && p99 < 1000);
+            assertEquals(p99 * 2, poller.delayMillis(fast, 2, periods));
+            assertEquals(8000, poller.delayMillis(fast, 10, periods));
+            assertEquals(1000, poller.delayMillis(unknown, 1, periods));
+            poller.setAdaptive(false);
+            assertEquals(1000, poller.delayMillis(fast, 1, periods));
+        } finally {
+            wheel.shutdown();
+        }
+    }
+
+    @Test
+    public void answeredNodesAreNotPolled() throws Exception {
+        TimerWheel wheel = new TimerWheel("test-wheel", 5, 64);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            AdaptivePoller poller = new AdaptivePoller(wheel, executor, Duration.ofMillis(10), true);
+            List<NodeInfo> nodes = Arrays.asList(node(1), node(2), node(3));
+            Set<NodeInfo> waiting = ConcurrentHashMap.newKeySet();
+            waiting.addAll(nodes);
+            List<NodeInfo> polled = new CopyOnWriteArrayList<>();
+            CountDownLatch rounds = new CountDownLatch(3);
+            AdaptivePoller.Poll poll = poller.start(Arrays.asList(20, 20, 40), nodes,
+                    () -> new ArrayList<>(waiting), due -> {
+                        polled.addAll(due);
+                        rounds.countDown();
+                    });
+            waiting.remove(nodes.get(0));
+            poll.answered(nodes.get(0));
+            assertTrue(rounds.await(5, TimeUnit.SECONDS));
+            poll.cancel();
+            assertFalse(polled.contains(nodes.get(0)));
+            assertTrue(polled.contains(nodes.get(1)));
+            assertTrue(polled.contains(nodes.get(2)));
+            assertEquals(1L, poller.getStats().getBinderOrThrow("nodes").getBinderOrThrow("1").get("answers"));
+        } finally {
+            wheel.shutdown();
+            executor.shutdown();
+        }
+    }
+}
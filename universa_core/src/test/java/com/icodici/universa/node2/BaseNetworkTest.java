@@ -225,6 +225,32 @@ public class BaseNetworkTest extends TestCase {
 
 
 
+    @Test(timeout = 90000)
+    public void checkItems() throws Exception {
+        if(node == null) {
+            System.out.println("network not inited");
+            return;
+        }
+
+        TestItem ok = new TestItem(true);
+        TestItem bad = new TestItem(false);
+        node.registerItem(ok);
+        node.registerItem(bad);
+        node.waitItem(ok.getId(), 6000);
+        node.waitItem(bad.getId(), 6000);
+        HashId unknown = HashId.createRandom();
+
+        List<HashId> ids = Arrays.asList(ok.getId(), unknown, bad.getId(), ok.getId());
+        List<ItemResult> results = node.checkItems(ids);
+        assertEquals(ids.size(), results.size());
+        assertEquals(ItemState.APPROVED, results.get(0).state);
+        assertEquals(ItemState.UNDEFINED, results.get(1).state);
+        assertEquals(ItemState.DECLINED, results.get(2).state);
+        assertEquals(ItemState.APPROVED, results.get(3).state);
+        for (int i = 0; i < ids.size(); i++)
+            assertEquals(node.checkItem(ids.get(i)).state, results.get(i).state);
+    }
+
     @Test(timeout = 90000)
     public void shouldCreateItems() throws Exception {
         if(node == null) {
@@ -14,6 +14,8 @@ import org.junit.Test;
 import java.time.Duration;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 public class ItemCacheTest {
     @Test
@@ -26,4 +28,39 @@ public class ItemCacheTest {
         c.cleanUp();
         assertEquals(null, c.get(i1.getId()));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void boundedByEntries() throws Exception {
+        ItemCache c = new ItemCache(Duration.ofMinutes(5), 100, Long.MAX_VALUE);
+        for (int i = 0; i < 1000; i++)
+            c.put(new TestItem(true), ItemResult.UNDEFINED);
+        assertTrue(c.size() <= 100);
+        assertEquals(900, c.getEvictionCount());
+        c.shutdown();
+    }
+
+    @Test
+    public void boundedByBytes() throws Exception {
+        ItemCache c = new ItemCache(Duration.ofMinutes(5), 1000, ItemCache.DEFAULT_ITEM_WEIGHT * 10);
+        for (int i = 0; i < 100; i++)
+            c.put(new TestItem(true), ItemResult.UNDEFINED);
+        assertEquals(10, c.size());
+        assertEquals(ItemCache.DEFAULT_ITEM_WEIGHT * 10, c.weightedSize());
+        c.shutdown();
+    }
+
+    @Test
+    public void frequentItemsSurvive() throws Exception {
+        ItemCache c = new ItemCache(Duration.ofMinutes(5), 100, Long.MAX_VALUE);
+        TestItem hot = new TestItem(true);
+        c.put(hot, ItemResult.UNDEFINED);
+        for (int i = 0; i < 1000; i++) {
+            c.put(new TestItem(true), ItemResult.UNDEFINED);
+            assertNotNull(c.get(hot.getId()));
+        }
+        assertEquals(1000, c.getHitCount());
+        c.get(new TestItem(true).getId());
+        assertEquals(1, c.getMissCount());
+        c.shutdown();
+    }
+}
@@ -8,21 +8,25 @@
 package com.icodici.universa.node2;
 
 import com.icodici.universa.HashId;
-import org.junit.Ignore;
 import org.junit.Test;
 
-import static org.junit.Assert.assertEquals;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
 
-@Ignore("in the sequence  causes SIGSEGV in java machine in sqlite module")
 public class ItemLockTest {
 
     private int count = 0;
 
-    /*
-    Until the error in sqlite finalizers is fixed, call this test separately.
-     */
     @Test
-    @Ignore("in the sequence  causes SIGSEGV in java machine in sqlite module")
     public void lock() throws Exception {
         for( int z=0; z<10; z++ ) {
             HashId id = HashId.createRandom();
@@ -36,18 +40,155 @@ public class ItemLockTest {
             il.synchronize(id, (__) -> count++);
 
             assertEquals(3, count);
-            assertEquals(1, il.size());
-            id = null;
-            for (int i = 0; i < 10; i++) {
-                System.gc();
-                System.runFinalization();
-                if (il.size() == 0)
-                    break;
-                Thread.sleep(100);
-            }
+            // locks are dropped as soon as nobody uses them
             assertEquals(0, il.size());
+            assertEquals(3, il.getAcquiredCount());
+        }
+    }
+
+    @Test
+    public void retainKeepsMonitor() throws Exception {
+        HashId id = HashId.createRandom();
+        ItemLock il = new ItemLock();
+
+        Object first = il.synchronize(id, (lock) -> {
+            il.retain(lock);
+            return lock;
+        });
+        assertEquals(1, il.size());
+        // equal but another instance of the id should get the same monitor
+        Object second = il.synchronize(HashId.withDigest(id.getDigest()), (lock) -> lock);
+        assertSame(first, second);
+
+        il.release(first);
+        assertEquals(0, il.size());
+        Object third = il.synchronize(id, (lock) -> lock);
+        assertNotSame(first, third);
+        assertEquals(0, il.size());
+    }
+
+    @Test
+    public void retainedLockIsNotContention() throws Exception {
+        HashId id = HashId.createRandom();
+        ItemLock il = new ItemLock();
+        // like a processor that keeps the lock as its mutex but is not inside it
+        Object retained = il.synchronize(id, (lock) -> {
+            il.retain(lock);
+            return lock;
+        });
+        for (int i = 0; i < 100; i++)
+            il.synchronize(id, (__) -> count++);
+        assertEquals(0, il.getContendedCount());
+
+        // now somebody is really inside
+        CountDownLatch inside = new CountDownLatch(1);
+        Thread holder = new Thread(() -> {
+            synchronized (retained) {
+                inside.countDown();
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException ignored) {
+                }
+            }
+        });
+        holder.start();
+        inside.await();
+        il.synchronize(id, (__) -> count++);
+        holder.join();
+        assertEquals(1, il.getContendedCount());
+        assertTrue(il.getMaxWaitNanos() >= TimeUnit.MILLISECONDS.toNanos(20));
+        il.release(retained);
+    }
 
+    @Test
+    public void exclusiveAndContention() throws Exception {
+        HashId id = HashId.createRandom();
+        ParcelLock pl = new ParcelLock();
+        int threads = 8;
+        int loops = 2000;
+        AtomicInteger inside = new AtomicInteger();
+        AtomicInteger overlaps = new AtomicInteger();
+        ExecutorService es = Executors.newFixedThreadPool(threads);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            es.execute(() -> {
+                try {
+                    for (int i = 0; i < loops; i++) {
+                        pl.synchronize(id, (__) -> {
+                            if (inside.incrementAndGet() != 1)
+                                overlaps.incrementAndGet();
+                            count++;
+                            inside.decrementAndGet();
+                            return null;
+                        });
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                } finally {
+                    done.countDown();
+                }
+            });
         }
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        es.shutdown();
+
+        assertEquals(0, overlaps.get());
+        assertEquals(threads * loops, count);
+        assertEquals(threads * loops, pl.getAcquiredCount());
+        assertTrue(pl.getContendedCount() <= pl.getAcquiredCount());
+        assertTrue(pl.getMaxWaitNanos() <= pl.getWaitNanos());
+        assertEquals(0, pl.size());
+    }
+
+    @Test
+    public void synchronizeAllInAnyOrder() throws Exception {
+        ItemLock il = new ItemLock();
+        List<HashId> ids = new ArrayList<>();
+        for (int i = 0; i < 5; i++)
+            ids.add(HashId.createRandom());
+        int threads = 4;
+        int loops = 500;
+        AtomicInteger inside = new AtomicInteger();
+        AtomicInteger overlaps = new AtomicInteger();
+        ExecutorService es = Executors.newFixedThreadPool(threads);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            // every thread asks for overlapping ids in its own order, with a duplicate
+            List<HashId> mine = new ArrayList<>(ids);
+            Collections.shuffle(mine);
+            mine.add(mine.get(0));
+            es.execute(() -> {
+                try {
+                    for (int i = 0; i < loops; i++) {
+                        il.synchronizeAll(mine, () -> {
+                            if (inside.incrementAndGet() != 1)
+                                overlaps.incrementAndGet();
+                            // single locks are reentrant inside
+                            il.synchronize(mine.get(1), (__) -> count++);
+                            inside.decrementAndGet();
+                            return null;
+                        });
+                        il.synchronize(mine.get(2), (__) -> {
+                            if (inside.get() != 0)
+                                overlaps.incrementAndGet();
+                            return null;
+                        });
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        assertTrue("deadlock", done.await(30, TimeUnit.SECONDS));
+        es.shutdown();
+
+        assertEquals(0, overlaps.get());
+        assertEquals(threads * loops, count);
+        assertEquals(0, il.size());
+        // duplicates share one lock
+        assertEquals(1, (int) il.synchronizeAll(Arrays.asList(ids.get(0), ids.get(0)), il::size));
     }
 
-}
\ No newline at end of file
+}
@@ -14,6 +14,7 @@ import com.icodici.db.DbPool;
 import com.icodici.db.PooledDb;
 import com.icodici.universa.Core;
 import com.icodici.universa.Decimal;
+import com.icodici.universa.HashId;
 import com.icodici.universa.contract.*;
 import com.icodici.universa.contract.permissions.ChangeOwnerPermission;
 import com.icodici.universa.contract.permissions.ModifyDataPermission;
@@ -48,6 +49,7 @@ import java.time.format.DateTimeFormatterBuilder;
 import java.time.temporal.ChronoField;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -1384,6 +1386,98 @@ public class MainTest {
     }
 
 
+    @Test(timeout = 90000)
+    public void asyncClient() throws Exception {
+        PrivateKey issuerKey = new PrivateKey(Do.read("./src/test_contracts/keys/reconfig_key.private.unikey"));
+        TestSpace testSpace = prepareTestSpace(issuerKey);
+        testSpace.nodes.forEach(n -> n.config.setIsFreeRegistrationsAllowedFromYaml(true));
+
+        List<NodeInfo> infos = testSpace.nodes.stream().map(m -> m.myInfo).collect(Collectors.toList());
+        AsyncClient client = new AsyncClient(issuerKey, infos, null);
+        try {
+            Contract contract = new Contract(issuerKey);
+            contract.seal();
+            ItemResult ir = client.register(contract.getPackedTransaction()).get(10, TimeUnit.SECONDS);
+            while (ir.state.isPending()) {
+                Thread.sleep(100);
+                ir = client.getState(contract.getId()).get(10, TimeUnit.SECONDS);
+            }
+            assertEquals(ItemState.APPROVED, ir.state);
+
+            // many requests in flight over the same sessions
+            List<CompletableFuture<ItemResult>> futures = new ArrayList<>();
+            for (int i = 0; i < 100; i++)
+                futures.add(client.getState(i % 2 == 0 ? contract.getId() : HashId.createRandom()));
+            for (int i = 0; i < futures.size(); i++)
+                assertEquals(i % 2 == 0 ? ItemState.APPROVED : ItemState.UNDEFINED,
+                        futures.get(i).get(10, TimeUnit.SECONDS).state);
+
+            Binder stats = client.getStats();
+            System.out.println(stats);
+            assertEquals(102, stats.getLongOrThrow("requests"));
+            assertEquals(0, stats.getLongOrThrow("failures"));
+
+            // the node that is down is skipped without waiting for the hedge delay
+            testSpace.nodes.get(0).shutdown();
+            client.setHedgeDelay(Duration.ofSeconds(30));
+            client.setMaxAttempts(4);
+            for (int i = 0; i < 10; i++)
+                assertEquals(ItemState.APPROVED, client.getState(contract.getId()).get(10, TimeUnit.SECONDS).state);
+        } finally {
+            client.shutdown();
+            testSpace.nodes.forEach(x -> x.shutdown());
+        }
+    }
+
+    @Test(timeout = 90000)
+    public void getStates() throws Exception {
+        PrivateKey issuerKey = new PrivateKey(Do.read("./src/test_contracts/keys/reconfig_key.private.unikey"));
+        TestSpace testSpace = prepareTestSpace(issuerKey);
+        testSpace.nodes.forEach(n -> n.config.setIsFreeRegistrationsAllowedFromYaml(true));
+        // make the client ask by several pages
+        testSpace.nodes.forEach(n -> n.config.setMaxStatesPerQuery(7));
+
+        List<HashId> ids = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Contract contract = new Contract(issuerKey);
+            contract.seal();
+            testSpace.client.register(contract.getPackedTransaction(), 8000);
+            ids.add(contract.getId());
+            ids.add(HashId.createRandom());
+        }
+        Map<HashId, ItemResult> states = testSpace.client.getStates(ids);
+        assertEquals(new ArrayList<>(ids), new ArrayList<>(states.keySet()));
+        for (int i = 0; i < ids.size(); i++)
+            assertEquals(i % 2 == 0 ? ItemState.APPROVED : ItemState.UNDEFINED, states.get(ids.get(i)).state);
+
+        testSpace.nodes.forEach(x -> x.shutdown());
+    }
+
+    @Test(timeout = 90000)
+    public void waitState() throws Exception {
+        PrivateKey issuerKey = new PrivateKey(Do.read("./src/test_contracts/keys/reconfig_key.private.unikey"));
+        TestSpace testSpace = prepareTestSpace(issuerKey);
+        testSpace.nodes.forEach(n -> n.config.setIsFreeRegistrationsAllowedFromYaml(true));
+
+        Contract contract = new Contract(issuerKey);
+        contract.seal();
+        testSpace.client.register(contract.getPackedTransaction());
+        CompletableFuture<ItemResult> subscription = testSpace.client.subscribeState(contract.getId(), 10000);
+        assertEquals(ItemState.APPROVED, testSpace.client.waitState(contract.getId(), 10000).state);
+        assertEquals(ItemState.APPROVED, subscription.get(15, TimeUnit.SECONDS).state);
+
+        // with no waiting slots the node answers at once and the client backs off between commands
+        testSpace.node.config.setMaxStateWaiters(0);
+        contract = new Contract(issuerKey);
+        contract.seal();
+        assertEquals(ItemState.APPROVED, testSpace.client.register(contract.getPackedTransaction(), 10000).state);
+
+        // unknown item is not pending, so there is nothing to wait for
+        assertEquals(ItemState.UNDEFINED, testSpace.client.waitState(HashId.createRandom(), 10000).state);
+
+        testSpace.nodes.forEach(x -> x.shutdown());
+    }
+
     @Test
     public void resynItemTest() throws Exception {
         PrivateKey issuerKey = new PrivateKey(Do.read("./src/test_contracts/keys/reconfig_key.private.unikey"));
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2018, iCodici S.n.C, All Rights Reserved
+ *
+ */
+
+package com.icodici.universa.node2;
+
+import net.sergeych.tools.Binder;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class NodeExecutorTest {
+
+    @Test
+    public void pooled() throws Exception {
+        checkExecutor(new NodeExecutor(4, Executors.defaultThreadFactory(), null, 0));
+    }
+
+    @Test
+    public void elastic() throws Exception {
+        checkExecutor(new NodeExecutor(1, Executors.defaultThreadFactory(), Executors.defaultThreadFactory(), 100));
+    }
+
+    @Test
+    public void elasticRunsBlockingTasksTogether() throws Exception {
+        // single timer thread, but all blocking tasks should be running at once
+        NodeExecutor executor = new NodeExecutor(1, Executors.defaultThreadFactory(), Executors.defaultThreadFactory(), 100);
+        try {
+            int count = 20;
+            CountDownLatch started = new CountDownLatch(count);
+            CountDownLatch release = new CountDownLatch(1);
+            for (int i = 0; i < count; i++) {
+                executor.submit(() -> {
+                    started.countDown();
+                    release.await();
+                    return null;
+                });
+            }
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            assertEquals(count, executor.getRunningCount());
+            // timers still fire while all workers are blocked
+            ScheduledFuture<?> timer = executor.schedule(() -> {}, 10, TimeUnit.MILLISECONDS);
+            timer.get(5, TimeUnit.SECONDS);
+            release.countDown();
+        } finally {
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        }
+        assertEquals(0, executor.getRunningCount());
+    }
+
+    @Test
+    public void elasticWorkersAreLimited() throws Exception {
+        NodeExecutor executor = new NodeExecutor(1, Executors.defaultThreadFactory(), Executors.defaultThreadFactory(), 2);
+        try {
+            CountDownLatch started = new CountDownLatch(2);
+            CountDownLatch release = new CountDownLatch(1);
+            for (int i = 0; i < 2; i++) {
+                executor.submit(() -> {
+                    started.countDown();
+                    release.await();
+                    return null;
+                });
+            }
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            // no free worker: the timer thread runs it
+            AtomicReference<Thread> runner = new AtomicReference<>();
+            executor.submit(() -> runner.set(Thread.currentThread())).get(5, TimeUnit.SECONDS);
+            release.countDown();
+            assertNotNull(runner.get());
+            assertEquals(1L, executor.getStats().get("saturated"));
+            assertTrue(executor.getStats().getIntOrThrow("threads") <= 3);
+        } finally {
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void histogram() throws Exception {
+        LatencyHistogram h = new LatencyHistogram();
+        assertEquals(0, h.getPercentileMillis(99));
+        for (int i = 0; i < 98; i++)
+            h.record(TimeUnit.MICROSECONDS.toNanos(300));
+        h.record(TimeUnit.MILLISECONDS.toNanos(30));
+        h.record(TimeUnit.SECONDS.toNanos(20));
+        assertEquals(100, h.getCount());
+        assertEquals(1, h.getPercentileMillis(50));
+        assertEquals(50, h.getPercentileMillis(99));
+        assertEquals(20000, h.getPercentileMillis(100));
+        assertEquals(20000, h.getMaxMillis());
+        Binder buckets = h.getStats().getBinderOrThrow("buckets");
+        assertEquals(98L, buckets.get("<1"));
+        assertEquals(1L, buckets.get(">=10000"));
+    }
+
+    private void checkExecutor(NodeExecutor executor) throws Exception {
+        try {
+            // node keeps futures of submitted tasks as ScheduledFuture
+            ScheduledFuture<?> f = (ScheduledFuture<?>) executor.submit(() -> {}, "label");
+            assertEquals("label", f.get(5, TimeUnit.SECONDS));
+
+            AtomicInteger runs = new AtomicInteger();
+            CountDownLatch periodic = new CountDownLatch(5);
+            ScheduledFuture<?> p = executor.scheduleAtFixedRate(() -> {
+                runs.incrementAndGet();
+                periodic.countDown();
+            }, 0, 10, TimeUnit.MILLISECONDS);
+            assertTrue(periodic.await(5, TimeUnit.SECONDS));
+            p.cancel(false);
+            assertTrue(p.isCancelled());
+
+            ScheduledFuture<Integer> delayed = executor.schedule(() -> 42, 50, TimeUnit.MILLISECONDS);
+            assertEquals(42, (int) delayed.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        }
+        // counters are updated after the future is done, so check them when everything is over
+        Binder stats = executor.getStats();
+        assertEquals(executor.isElastic() ? "elastic" : "pooled", stats.getStringOrThrow("mode"));
+        assertEquals(0, stats.getIntOrThrow("active"));
+        assertTrue(executor.getFinishedCount() >= 7);
+        assertEquals(executor.getFinishedCount(), executor.getRunTimes().getCount());
+        assertEquals(executor.getFinishedCount(), executor.getWaitTimes().getCount());
+    }
+}
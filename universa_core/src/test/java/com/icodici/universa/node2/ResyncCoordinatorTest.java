@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2018, iCodici S.n.C, All Rights Reserved
+ *
+ */
+
+package com.icodici.universa.node2;
+
+import com.icodici.universa.HashId;
+import com.icodici.universa.node.ItemState;
+import com.icodici.universa.node.network.TestKeys;
+import com.icodici.universa.node2.network.NetworkV2;
+import net.sergeych.boss.Boss;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class ResyncCoordinatorTest {
+
+    private static NodeInfo node(int number) throws Exception {
+        return new NodeInfo(TestKeys.publicKey(0), number, "node" + number, "localhost",
+                17100 + number * 10, 17101 + number * 10, 17102 + number * 10);
+    }
+
+    /**
+     * Resync that needs one vote from every node for each of its items.
+     */
+    private static class TestResync implements ResyncCoordinator.Resync {
+
+        final Set<HashId> items = new HashSet<>();
+        final Map<HashId, Set<NodeInfo>> votes = new ConcurrentHashMap<>();
+
+        TestResync(HashId... ids) {
+            items.addAll(Arrays.asList(ids));
+        }
+
+        @Override
+        public boolean isWaitingForVotes() {
+            return true;
+        }
+
+        @Override
+        public Map<HashId, ItemState> getItemsToAsk(NodeInfo node) {
+            Map<HashId, ItemState> result = new HashMap<>();
+            for (HashId id : items)
+                if (!votes.getOrDefault(id, Collections.emptySet()).contains(node))
+                    result.put(id, ItemState.UNDEFINED);
+            return result;
+        }
+
+        @Override
+        public void resyncVote(HashId itemId, NodeInfo node, ItemState state, boolean withEnvironment) {
+            votes.computeIfAbsent(itemId, k -> ConcurrentHashMap.newKeySet()).add(node);
+        }
+    }
+
+    @Test
+    public void fullNotificationFitsInPacket() throws Exception {
+        HashMap<HashId, ItemState> items = new HashMap<>();
+        for (int i = 0; i < ResyncCoordinator.MAX_ITEMS_PER_NOTIFICATION; i++)
+            items.put(HashId.createRandom(), ItemState.APPROVED);
+        // the answer that lists every item with environment too is the biggest one
+        ItemResyncNotification n = new ItemResyncNotification(node(1), HashId.createRandom(), items,
+                new HashSet<>(items.keySet()), false);
+        Boss.Writer w = new Boss.Writer();
+        w.write(1).write(1).write(1);                  // header as NetworkV2 packs it
+        Notification.write(w, n);
+        int size = w.toByteArray().length;
+        assertTrue("packed size " + size, size <= NetworkV2.MAX_PACKED_NOTIFICATIONS_SIZE);
+    }
+
+    @Test
+    public void itemsAreAskedInBulk() throws Exception {
+        TimerWheel wheel = new TimerWheel("test-wheel", 5, 64);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            List<NodeInfo> nodes = Arrays.asList(node(1), node(2));
+            Map<NodeInfo, List<HashMap<HashId, ItemState>>> sent = new ConcurrentHashMap<>();
+            CountDownLatch delivered = new CountDownLatch(2 * (301 + ResyncCoordinator.MAX_ITEMS_PER_NOTIFICATION - 1) /
+                    ResyncCoordinator.MAX_ITEMS_PER_NOTIFICATION);
+            ResyncCoordinator<Object> coordinator = new ResyncCoordinator<>(wheel, executor, () -> nodes,
+                    (node, items) -> {
+                        sent.computeIfAbsent(node, k -> new CopyOnWriteArrayList<>()).add(items);
+                        delivered.countDown();
+                    },
+                    batch -> {});
+            // 300 resyncs of one item each, and two of them resync also the same shared item
+            HashId shared = HashId.createRandom();
+            List<TestResync> resyncs = new ArrayList<>();
+            for (int i = 0; i < 300; i++) {
+                TestResync r = i < 2 ? new TestResync(HashId.createRandom(), shared) : new TestResync(HashId.createRandom());
+                resyncs.add(r);
+                coordinator.register(r, r.items, Arrays.asList(60000));
+            }
+            assertTrue(delivered.await(5, TimeUnit.SECONDS));
+            Thread.sleep(200);
+            for (NodeInfo node : nodes) {
+                List<HashMap<HashId, ItemState>> notifications = sent.get(node);
+                int perNode = (301 + ResyncCoordinator.MAX_ITEMS_PER_NOTIFICATION - 1) /
+                        ResyncCoordinator.MAX_ITEMS_PER_NOTIFICATION;
+                assertEquals(perNode, notifications.size());
+                Set<HashId> asked = new HashSet<>();
+                for (HashMap<HashId, ItemState> n : notifications) {
+                    assertTrue(n.size() <= ResyncCoordinator.MAX_ITEMS_PER_NOTIFICATION);
+                    asked.addAll(n.keySet());
+                }
+                assertEquals(301, asked.size());
+            }
+            assertEquals(301, coordinator.getStats().getIntOrThrow("items"));
+
+            // a single answer is passed to every resync of the item
+            HashMap<HashId, ItemState> answer = new HashMap<>();
+            answer.put(shared, ItemState.APPROVED);
+            answer.put(HashId.createRandom(), ItemState.APPROVED);
+            assertEquals(2, coordinator.vote(nodes.get(0), answer, new HashSet<>()));
+            assertTrue(resyncs.get(0).votes.get(shared).contains(nodes.get(0)));
+            assertTrue(resyncs.get(1).votes.get(shared).contains(nodes.get(0)));
+
+            for (TestResync r : resyncs)
+                coordinator.unregister(r);
+            assertEquals(0, coordinator.getStats().getIntOrThrow("resyncs"));
+            assertEquals(0, coordinator.getStats().getIntOrThrow("items"));
+        } finally {
+            wheel.shutdown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void resolvedItemsAreCommittedTogether() throws Exception {
+        TimerWheel wheel = new TimerWheel("test-wheel", 5, 64);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            List<List<Integer>> batches = new CopyOnWriteArrayList<>();
+            CountDownLatch committed = new CountDownLatch(1);
+            ResyncCoordinator<Integer> coordinator = new ResyncCoordinator<>(wheel, executor, Collections::emptyList,
+                    (node, items) -> {},
+                    batch -> {
+                        batches.add(batch);
+                        committed.countDown();
+                    });
+            for (int i = 0; i < 10; i++)
+                coordinator.commit(i);
+            assertTrue(committed.await(5, TimeUnit.SECONDS));
+            assertEquals(1, batches.size());
+            assertEquals(10, batches.get(0).size());
+            assertEquals(1L, coordinator.getStats().get("commitBatches"));
+        } finally {
+            wheel.shutdown();
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2018, iCodici S.n.C, All Rights Reserved
+ *
+ */
+
+package com.icodici.universa.node2.network;
+
+import com.icodici.universa.HashId;
+import com.icodici.universa.node.network.TestKeys;
+import com.icodici.universa.node2.NodeInfo;
+import net.sergeych.tools.Binder;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Running network is needed to test the answers, see MainTest.asyncClient.
+ */
+public class AsyncClientTest {
+
+    @Test(timeout = 30000)
+    public void noNodeAnswers() throws Exception {
+        List<NodeInfo> infos = new ArrayList<>();
+        for (int i = 0; i < 3; i++)
+            infos.add(new NodeInfo(TestKeys.publicKey(i), i, "node" + i, "localhost", 7700 + i, 7800 + i, 7900 + i));
+        AsyncClient client = new AsyncClient(TestKeys.privateKey(3), infos, null);
+        client.setMaxAttempts(2);
+        // failed nodes are skipped at once, the long hedge delay should not matter
+        client.setHedgeDelay(Duration.ofSeconds(60));
+        try {
+            client.getState(HashId.createRandom()).get(10, TimeUnit.SECONDS);
+            fail("should not get the answer");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        } finally {
+            client.shutdown();
+        }
+        Binder stats = client.getStats();
+        assertEquals(1, stats.getLongOrThrow("requests"));
+        assertEquals(1, stats.getLongOrThrow("hedges"));
+        assertEquals(2, stats.getLongOrThrow("failures"));
+    }
+}
@@ -13,13 +13,17 @@ import com.icodici.universa.node2.NetConfig;
 import com.icodici.universa.node2.NodeInfo;
 import net.sergeych.tools.AsyncEvent;
 import net.sergeych.tools.Do;
+import org.junit.Ignore;
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import static java.util.Arrays.asList;
@@ -1359,4 +1363,75 @@ public class DatagramAdapterTest {
         d2.shutdown();
         d3.shutdown();
     }
-}
\ No newline at end of file
+
+
+    @Ignore("benchmark")
+    @Test
+    public void sendThroughput() throws Exception {
+        // all nodes send to each other at once, measures blocks per second
+
+        NodeInfo node1 = new NodeInfo(TestKeys.publicKey(0),10, "test_node_10", "localhost", 16201, 16202, 16301);
+        NodeInfo node2 = new NodeInfo(TestKeys.publicKey(1),11, "test_node_11", "localhost", 16203, 16204, 16302);
+        NodeInfo node3 = new NodeInfo(TestKeys.publicKey(2),12, "test_node_12", "localhost", 16204, 16205, 16303);
+
+        List<NodeInfo> nodes = asList(node1, node2, node3);
+        NetConfig nc = new NetConfig(nodes);
+
+        List<DatagramAdapter> adapters = asList(
+                new UDPAdapter(TestKeys.privateKey(0), new SymmetricKey(), node1, nc),
+                new UDPAdapter(TestKeys.privateKey(1), new SymmetricKey(), node2, nc),
+                new UDPAdapter(TestKeys.privateKey(2), new SymmetricKey(), node3, nc));
+
+        int numSends = 300;
+        byte[] payload = Do.randomBytes(1024);
+        int total = numSends * nodes.size() * (nodes.size() - 1);
+        CountDownLatch received = new CountDownLatch(total);
+
+        // establish sessions first, so only exchanging is measured
+        CountDownLatch handshake = new CountDownLatch(nodes.size() * (nodes.size() - 1));
+        for (DatagramAdapter d : adapters)
+            d.receive(data -> handshake.countDown());
+        for (int i = 0; i < nodes.size(); i++)
+            for (int j = 0; j < nodes.size(); j++)
+                if (i != j)
+                    adapters.get(i).send(nodes.get(j), "hello".getBytes());
+        assertTrue(handshake.await(30, TimeUnit.SECONDS));
+        for (DatagramAdapter d : adapters) {
+            d.receive(data -> {
+                if (Arrays.equals(payload, data))
+                    received.countDown();
+            });
+        }
+
+        long started = System.nanoTime();
+        List<Thread> senders = new ArrayList<>();
+        for (int i = 0; i < nodes.size(); i++) {
+            DatagramAdapter from = adapters.get(i);
+            for (NodeInfo to : nodes) {
+                if (to == nodes.get(i))
+                    continue;
+                Thread t = new Thread(() -> {
+                    try {
+                        for (int k = 0; k < numSends; k++)
+                            from.send(to, payload);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                });
+                t.start();
+                senders.add(t);
+            }
+        }
+        for (Thread t : senders)
+            t.join();
+
+        boolean done = received.await(120, TimeUnit.SECONDS);
+        long millis = (System.nanoTime() - started) / 1_000_000;
+        System.out.println("delivered " + (total - received.getCount()) + " of " + total + " blocks in " + millis +
+                " ms, " + (total - received.getCount()) * 1000 / Math.max(1, millis) + " blocks/s");
+        assertTrue(done);
+
+        for (DatagramAdapter d : adapters)
+            d.shutdown();
+    }
+}
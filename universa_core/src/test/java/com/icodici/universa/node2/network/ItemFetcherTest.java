@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2018, iCodici S.n.C, All Rights Reserved
+ *
+ */
+
+package com.icodici.universa.node2.network;
+
+import com.icodici.universa.HashId;
+import com.icodici.universa.node.network.TestKeys;
+import com.icodici.universa.node2.NodeInfo;
+import net.sergeych.tools.Binder;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ItemFetcherTest {
+
+    private static NodeInfo node(int number) throws Exception {
+        return new NodeInfo(TestKeys.publicKey(0), number, "node" + number, "localhost",
+                17100 + number * 10, 17101 + number * 10, 17102 + number * 10);
+    }
+
+    /**
+     * Fetcher with emulated nodes: node 1 is slow, node 2 fails, node 4 answers with garbage, every other node answers
+     * at once with the id digest.
+     */
+    private static class TestFetcher extends ItemFetcher {
+
+        final List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+        volatile CountDownLatch gate;
+
+        TestFetcher() {
+            super("test-fetcher");
+        }
+
+        @Override
+        byte[] download(NodeInfo source, HashId itemId) throws IOException {
+            return answer(source, Collections.singletonList(itemId)).get(0);
+        }
+
+        @Override
+        List<byte[]> downloadAll(Peer peer, List<HashId> ids) throws IOException {
+            return answer(peer.getInfo(), ids);
+        }
+
+        private List<byte[]> answer(NodeInfo source, List<HashId> ids) throws IOException {
+            batchSizes.add(ids.size());
+            try {
+                if (gate != null)
+                    gate.await();
+                if (source.getNumber() == 1)
+                    Thread.sleep(3000);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            if (source.getNumber() == 2)
+                throw new IOException("node 2 is down");
+            List<byte[]> result = new ArrayList<>();
+            for (HashId id : ids)
+                result.add(source.getNumber() == 4 ? new byte[]{4} : id.getDigest());
+            return result;
+        }
+    }
+
+    @Test
+    public void firstAnswerWins() throws Exception {
+        TestFetcher fetcher = new TestFetcher();
+        try {
+            fetcher.setHedgeDelay(Duration.ofMillis(50));
+            HashId id = HashId.createRandom();
+            // nothing is known yet, so either may be asked first, but node 1 is late and node 3 answers
+            List<NodeInfo> sources = Arrays.asList(node(1), node(3));
+            long started = System.currentTimeMillis();
+            byte[] data = fetcher.fetchFirst(id, sources, Duration.ofSeconds(10));
+            assertArrayEquals(id.getDigest(), data);
+            assertTrue(System.currentTimeMillis() - started < 2000);
+            // node 3 answered, node 1 did not yet, so node 3 goes first now
+            assertEquals(3, fetcher.rank(sources).get(0).getInfo().getNumber());
+        } finally {
+            fetcher.shutdown();
+        }
+    }
+
+    @Test
+    public void failingNodeIsAvoided() throws Exception {
+        TestFetcher fetcher = new TestFetcher();
+        try {
+            HashId id = HashId.createRandom();
+            List<NodeInfo> sources = Arrays.asList(node(2), node(3));
+            for (int i = 0; i < 5; i++)
+                assertArrayEquals(id.getDigest(), fetcher.fetchFirst(id, sources, Duration.ofSeconds(10)));
+            assertEquals(3, fetcher.rank(sources).get(0).getInfo().getNumber());
+            assertNull(fetcher.fetchFirst(id, Collections.singletonList(node(2)), Duration.ofSeconds(10)));
+            Binder stats = fetcher.getStats().getBinderOrThrow("nodes");
+            assertTrue(stats.getBinderOrThrow("2").getLongOrThrow("failures") >= 1);
+            assertEquals(0, stats.getBinderOrThrow("3").getLongOrThrow("failures"));
+        } finally {
+            fetcher.shutdown();
+        }
+    }
+
+    @Test
+    public void brokenAnswerFallsBack() throws Exception {
+        TestFetcher fetcher = new TestFetcher();
+        try {
+            // the hedge is too late to help, only the failure of node 4 makes node 3 asked in time
+            fetcher.setHedgeDelay(Duration.ofSeconds(10));
+            HashId id = HashId.createRandom();
+            ItemFetcher.Unpacker<byte[]> check = data -> {
+                if (!Arrays.equals(id.getDigest(), data))
+                    throw new IOException("broken item");
+                return data;
+            };
+            // node 4 has answered quickly before, so it is asked first
+            assertNotNull(fetcher.fetchFirst(id, Collections.singletonList(node(4)), Duration.ofSeconds(10)));
+            List<NodeInfo> sources = Arrays.asList(node(4), node(3));
+            assertEquals(4, fetcher.rank(sources).get(0).getInfo().getNumber());
+            long started = System.currentTimeMillis();
+            assertArrayEquals(id.getDigest(), fetcher.fetchFirst(id, sources, Duration.ofSeconds(10), check));
+            assertTrue(System.currentTimeMillis() - started < 2000);
+            Binder stats = fetcher.getStats().getBinderOrThrow("nodes");
+            assertEquals(1, stats.getBinderOrThrow("4").getLongOrThrow("broken"));
+            assertEquals(0, stats.getBinderOrThrow("3").getLongOrThrow("broken"));
+            assertNull(fetcher.fetchFirst(id, Collections.singletonList(node(4)), Duration.ofSeconds(10), check));
+        } finally {
+            fetcher.shutdown();
+        }
+    }
+
+    @Test
+    public void queuedItemsAreBatched() throws Exception {
+        TestFetcher fetcher = new TestFetcher();
+        try {
+            NodeInfo source = node(3);
+            fetcher.gate = new CountDownLatch(1);
+            List<HashId> ids = new ArrayList<>();
+            List<CompletableFuture<byte[]>> futures = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                HashId id = HashId.createRandom();
+                ids.add(id);
+                futures.add(fetcher.fetch(source, id));
+            }
+            // let the requests in flight start, the rest wait in the queue
+            long deadline = System.currentTimeMillis() + 5000;
+            while (fetcher.batchSizes.size() < ItemFetcher.MAX_IN_FLIGHT_PER_PEER && System.currentTimeMillis() < deadline)
+                Thread.sleep(10);
+            fetcher.gate.countDown();
+            for (int i = 0; i < ids.size(); i++)
+                assertArrayEquals(ids.get(i).getDigest(), futures.get(i).get(5, TimeUnit.SECONDS));
+            // the first two go one by one, the rest come in no more than two batches
+            assertTrue(fetcher.batchSizes.toString(), fetcher.batchSizes.size() <= ItemFetcher.MAX_IN_FLIGHT_PER_PEER * 2);
+            assertEquals(20, fetcher.batchSizes.stream().mapToInt(Integer::intValue).sum());
+        } finally {
+            fetcher.shutdown();
+        }
+    }
+}
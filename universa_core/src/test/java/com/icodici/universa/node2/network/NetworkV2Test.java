@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2018, iCodici S.n.C, All Rights Reserved
+ *
+ */
+
+package com.icodici.universa.node2.network;
+
+import com.icodici.universa.HashId;
+import com.icodici.universa.node.ItemResult;
+import com.icodici.universa.node.ItemState;
+import com.icodici.universa.node.network.TestKeys;
+import com.icodici.universa.node2.ItemNotification;
+import com.icodici.universa.node2.NetConfig;
+import com.icodici.universa.node2.NodeInfo;
+import com.icodici.universa.node2.Notification;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class NetworkV2Test {
+
+    @Test
+    public void coalesceNotifications() throws Exception {
+        NodeInfo node1 = new NodeInfo(TestKeys.publicKey(0), 20, "test_node_20", "localhost", 16401, 16402, 16501);
+        NodeInfo node2 = new NodeInfo(TestKeys.publicKey(1), 21, "test_node_21", "localhost", 16403, 16404, 16502);
+
+        List<NodeInfo> nodes = new ArrayList<>();
+        nodes.add(node1);
+        nodes.add(node2);
+
+        NetworkV2 n1 = new NetworkV2(new NetConfig(nodes), node1, TestKeys.privateKey(0));
+        NetworkV2 n2 = new NetworkV2(new NetConfig(nodes), node2, TestKeys.privateKey(1));
+        n1.setVerboseLevel(DatagramAdapter.VerboseLevel.NOTHING);
+        n2.setVerboseLevel(DatagramAdapter.VerboseLevel.NOTHING);
+        try {
+            int count = 1500;
+            CountDownLatch latch = new CountDownLatch(count);
+            List<HashId> received = Collections.synchronizedList(new ArrayList<>());
+            n2.subscribe(node2, n -> {
+                received.add(((ItemNotification) n).getItemId());
+                latch.countDown();
+            });
+
+            n1.setNotificationsCoalescingTime(Duration.ofMillis(50));
+            ItemResult result = new ItemResult(ItemState.PENDING, false, ZonedDateTime.now(),
+                    ZonedDateTime.now().plusDays(1));
+            List<HashId> sent = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                HashId id = HashId.createRandom();
+                sent.add(id);
+                Notification n = new ItemNotification(node1, id, result, true);
+                n1.deliver(node2, n);
+            }
+
+            assertTrue(latch.await(30, TimeUnit.SECONDS));
+            // adapter does not keep order of the blocks, so only check everything came once
+            assertEquals(count, received.size());
+            assertEquals(new HashSet<>(sent), new HashSet<>(received));
+            assertEquals(count, n1.getDeliveredNotificationsCount());
+            // no more than MAX_PACKED_NOTIFICATIONS in a packet, and far less packets than notifications
+            assertTrue(n1.getSentPacketsCount() >= 2);
+            assertTrue(n1.getSentPacketsCount() < count / 10);
+        } finally {
+            n1.shutdown();
+            n2.shutdown();
+        }
+    }
+
+    @Test
+    public void deliverToManyNodesConcurrently() throws Exception {
+        NodeInfo node1 = new NodeInfo(TestKeys.publicKey(0), 30, "test_node_30", "localhost", 16411, 16412, 16511);
+        NodeInfo node2 = new NodeInfo(TestKeys.publicKey(1), 31, "test_node_31", "localhost", 16413, 16414, 16512);
+        NodeInfo node3 = new NodeInfo(TestKeys.publicKey(2), 32, "test_node_32", "localhost", 16415, 16416, 16513);
+
+        List<NodeInfo> nodes = new ArrayList<>();
+        nodes.add(node1);
+        nodes.add(node2);
+        nodes.add(node3);
+
+        NetworkV2 n1 = new NetworkV2(new NetConfig(nodes), node1, TestKeys.privateKey(0));
+        NetworkV2 n2 = new NetworkV2(new NetConfig(nodes), node2, TestKeys.privateKey(1));
+        NetworkV2 n3 = new NetworkV2(new NetConfig(nodes), node3, TestKeys.privateKey(2));
+        n1.setVerboseLevel(DatagramAdapter.VerboseLevel.NOTHING);
+        n2.setVerboseLevel(DatagramAdapter.VerboseLevel.NOTHING);
+        n3.setVerboseLevel(DatagramAdapter.VerboseLevel.NOTHING);
+        ExecutorService senders = Executors.newFixedThreadPool(4);
+        try {
+            int threads = 4;
+            int perThread = 250;
+            CountDownLatch latch = new CountDownLatch(2 * threads * perThread);
+            List<HashId> received2 = Collections.synchronizedList(new ArrayList<>());
+            List<HashId> received3 = Collections.synchronizedList(new ArrayList<>());
+            n2.subscribe(node2, n -> {
+                received2.add(((ItemNotification) n).getItemId());
+                latch.countDown();
+            });
+            n3.subscribe(node3, n -> {
+                received3.add(((ItemNotification) n).getItemId());
+                latch.countDown();
+            });
+
+            ItemResult result = new ItemResult(ItemState.PENDING, false, ZonedDateTime.now(),
+                    ZonedDateTime.now().plusDays(1));
+            List<HashId> sent = Collections.synchronizedList(new ArrayList<>());
+            // zero coalescing time: every notification may schedule a flush while the previous one is running
+            for (int t = 0; t < threads; t++) {
+                senders.execute(() -> {
+                    for (int i = 0; i < perThread; i++) {
+                        HashId id = HashId.createRandom();
+                        sent.add(id);
+                        Notification n = new ItemNotification(node1, id, result, true);
+                        n1.deliver(node2, n);
+                        n1.deliver(node3, n);
+                    }
+                });
+            }
+
+            assertTrue(latch.await(30, TimeUnit.SECONDS));
+            assertEquals(threads * perThread, received2.size());
+            assertEquals(threads * perThread, received3.size());
+            assertEquals(new HashSet<>(sent), new HashSet<>(received2));
+            assertEquals(new HashSet<>(sent), new HashSet<>(received3));
+            assertEquals(2 * threads * perThread, n1.getDeliveredNotificationsCount());
+        } finally {
+            senders.shutdown();
+            n1.shutdown();
+            n2.shutdown();
+            n3.shutdown();
+        }
+    }
+}